@@ -44,6 +44,8 @@ public abstract class ApiRequest<T extends ApiResponse> {
 
 	@JsonIgnore
 	protected Future<T> backingFuture;
+	@JsonIgnore
+	protected ApiResponseStream responseStream;
 
 	public ApiRequest(RequestExecutor requestExecutor, ChannelHandlerContext context) {
 		this(requestExecutor, context, false);
@@ -141,6 +143,14 @@ public abstract class ApiRequest<T extends ApiResponse> {
 		return streamingResponse;
 	}
 
+	public ApiResponseStream getResponseStream() {
+		return responseStream;
+	}
+
+	public void setResponseStream(ApiResponseStream responseStream) {
+		this.responseStream = responseStream;
+	}
+
 	public Channel channel() {
 		if(context == null) {
 			return null;
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.api;
+
+/**
+ * Writes a response body to the client in chunks as it is produced, instead of
+ * serializing a complete {@link ApiResponse} once the request has finished
+ */
+public interface ApiResponseStream {
+
+	/**
+	 * Sends the response headers. Once started, the response returned by the request is ignored.
+	 * @param statusCode The HTTP status code
+	 */
+	public void begin(int statusCode);
+
+	/**
+	 * Appends content to the response body. Content is buffered and sent in chunks.
+	 * @param content The content to append
+	 */
+	public void write(CharSequence content);
+
+	/**
+	 * Sends any buffered content and completes the response
+	 */
+	public void end();
+
+	public boolean isStarted();
+}
@@ -18,7 +18,12 @@ package com.elefana.api.document;
 public class BulkItemResponse {
 	public static final String STATUS_CREATED = "created";
 	public static final String STATUS_UPDATED = "updated";
+	public static final String STATUS_DELETED = "deleted";
+	public static final String STATUS_NOT_FOUND = "not_found";
+	public static final String STATUS_CONFLICT = "conflict";
 	public static final String STATUS_FAILED = "failed";
+	public static final String STATUS_INVALID = "invalid";
+	public static final String STATUS_REJECTED = "rejected";
 	
 	private final int itemId;
 	private final BulkOpType opType;
@@ -27,6 +32,7 @@ public class BulkItemResponse {
 	private String type;
 	private String id;
 	private String result;
+	private String reason;
 	private int version = -1;
 	
 	public BulkItemResponse(int itemId, BulkOpType opType) {
@@ -67,6 +73,14 @@ public class BulkItemResponse {
 		this.result = result;
 	}
 
+	public String getReason() {
+		return reason;
+	}
+
+	public void setReason(String reason) {
+		this.reason = reason;
+	}
+
 	public int getVersion() {
 		return version;
 	}
@@ -84,7 +98,12 @@ public class BulkItemResponse {
 	}
 	
 	public boolean isFailed() {
-		return !result.equalsIgnoreCase(STATUS_CREATED) && !result.equalsIgnoreCase(STATUS_UPDATED);
+		if(result.equalsIgnoreCase(STATUS_NOT_FOUND)) {
+			// Deleting a missing document succeeds, updating one fails
+			return opType == BulkOpType.UPDATE;
+		}
+		return !result.equalsIgnoreCase(STATUS_CREATED) && !result.equalsIgnoreCase(STATUS_UPDATED)
+				&& !result.equalsIgnoreCase(STATUS_DELETED) && !result.equalsIgnoreCase(STATUS_NOT_FOUND);
 	}
 
 	@Override
@@ -96,6 +115,7 @@ public class BulkItemResponse {
 		result = prime * result + itemId;
 		result = prime * result + ((opType == null) ? 0 : opType.hashCode());
 		result = prime * result + ((this.result == null) ? 0 : this.result.hashCode());
+		result = prime * result + ((reason == null) ? 0 : reason.hashCode());
 		result = prime * result + ((type == null) ? 0 : type.hashCode());
 		result = prime * result + version;
 		return result;
@@ -129,6 +149,11 @@ public class BulkItemResponse {
 				return false;
 		} else if (!result.equals(other.result))
 			return false;
+		if (reason == null) {
+			if (other.reason != null)
+				return false;
+		} else if (!reason.equals(other.reason))
+			return false;
 		if (type == null) {
 			if (other.type != null)
 				return false;
@@ -142,6 +167,6 @@ public class BulkItemResponse {
 	@Override
 	public String toString() {
 		return "BulkItemResponse [itemId=" + itemId + ", opType=" + opType + ", index=" + index + ", type=" + type
-				+ ", id=" + id + ", result=" + result + ", version=" + version + "]";
+				+ ", id=" + id + ", result=" + result + ", reason=" + reason + ", version=" + version + "]";
 	}
 }
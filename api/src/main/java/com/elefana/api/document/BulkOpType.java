@@ -16,5 +16,5 @@
 package com.elefana.api.document;
 
 public enum BulkOpType {
-	INDEX, DELETE
+	INDEX, CREATE, UPDATE, DELETE
 }
@@ -23,5 +23,10 @@ public enum IndexGenerationMode {
 	/**
 	 * Don't generate PSQL index for fields
 	 */
-	NONE
+	NONE,
+	/**
+	 * Generates a BTREE index on the typed expression of numeric, date and boolean JSON fields inferred by field stats
+	 * (BRIN for pre-specified BRIN fields) and a BRIN index on _timestamp
+	 */
+	TYPED
 }
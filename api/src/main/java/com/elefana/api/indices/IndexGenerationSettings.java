@@ -22,6 +22,8 @@ import java.util.List;
 import java.util.Objects;
 
 public class IndexGenerationSettings {
+	public static final String DEFAULT_TEXT_SEARCH_CONFIG = "simple";
+
 	@JsonProperty("mode")
 	private IndexGenerationMode mode = IndexGenerationMode.NONE;
 	@JsonProperty("preset_hash_index_fields")
@@ -32,6 +34,10 @@ public class IndexGenerationSettings {
 	private List<String> presetGinIndexFields = new ArrayList<String>(1);
 	@JsonProperty("index_delay_seconds")
 	private long indexDelaySeconds;
+	@JsonProperty("text_search_fields")
+	private List<String> textSearchFields = new ArrayList<String>(1);
+	@JsonProperty("text_search_config")
+	private String textSearchConfig = DEFAULT_TEXT_SEARCH_CONFIG;
 
 	public IndexGenerationMode getMode() {
 		if(mode == null) {
@@ -85,6 +91,38 @@ public class IndexGenerationSettings {
 		this.indexDelaySeconds = indexDelaySeconds;
 	}
 
+	/**
+	 * @return The analyzed text fields which are queried via tsvector and ranked by ts_rank
+	 */
+	public List<String> getTextSearchFields() {
+		if(textSearchFields == null) {
+			textSearchFields = new ArrayList<>();
+		}
+		return textSearchFields;
+	}
+
+	public void setTextSearchFields(List<String> textSearchFields) {
+		this.textSearchFields = textSearchFields;
+	}
+
+	/**
+	 * @return The PSQL text search configuration (e.g. simple, english) used to analyze text search fields
+	 */
+	public String getTextSearchConfig() {
+		if(textSearchConfig == null || textSearchConfig.isEmpty()) {
+			textSearchConfig = DEFAULT_TEXT_SEARCH_CONFIG;
+		}
+		return textSearchConfig;
+	}
+
+	public void setTextSearchConfig(String textSearchConfig) {
+		this.textSearchConfig = textSearchConfig;
+	}
+
+	public boolean isTextSearchField(String fieldName) {
+		return textSearchFields != null && textSearchFields.contains(fieldName);
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -94,12 +132,15 @@ public class IndexGenerationSettings {
 				mode == that.mode &&
 				Objects.equals(presetHashIndexFields, that.presetHashIndexFields) &&
 				Objects.equals(presetBrinIndexFields, that.presetBrinIndexFields) &&
-				Objects.equals(presetGinIndexFields, that.presetGinIndexFields);
+				Objects.equals(presetGinIndexFields, that.presetGinIndexFields) &&
+				Objects.equals(textSearchFields, that.textSearchFields) &&
+				Objects.equals(textSearchConfig, that.textSearchConfig);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(mode, presetHashIndexFields, presetBrinIndexFields, presetGinIndexFields, indexDelaySeconds);
+		return Objects.hash(mode, presetHashIndexFields, presetBrinIndexFields, presetGinIndexFields, indexDelaySeconds,
+				textSearchFields, textSearchConfig);
 	}
 
 	@Override
@@ -110,6 +151,8 @@ public class IndexGenerationSettings {
 				", presetBrinIndexFields=" + presetBrinIndexFields +
 				", presetGinIndexFields=" + presetGinIndexFields +
 				", indexDelaySeconds=" + indexDelaySeconds +
+				", textSearchFields=" + textSearchFields +
+				", textSearchConfig=" + textSearchConfig +
 				'}';
 	}
 }
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.api.indices;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+public class IndexRollupSettings {
+	@JsonProperty("enabled")
+	private boolean enabled = false;
+	@JsonProperty("fields")
+	private List<String> fields = new ArrayList<String>(1);
+
+	/**
+	 * @return True if per-minute document counts and numeric field metrics are maintained as documents are bulk indexed
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return The numeric fields whose count, sum, min and max are maintained per minute
+	 */
+	public List<String> getFields() {
+		if(fields == null) {
+			fields = new ArrayList<String>(1);
+		}
+		return fields;
+	}
+
+	public void setFields(List<String> fields) {
+		this.fields = fields;
+	}
+
+	public boolean isRollupField(String fieldName) {
+		return fields != null && fields.contains(fieldName);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof IndexRollupSettings)) return false;
+		IndexRollupSettings that = (IndexRollupSettings) o;
+		return enabled == that.enabled &&
+				Objects.equals(fields, that.fields);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(enabled, fields);
+	}
+
+	@Override
+	public String toString() {
+		return "IndexRollupSettings{" +
+				"enabled=" + enabled +
+				", fields=" + fields +
+				'}';
+	}
+}
@@ -34,6 +34,8 @@ public class IndexStorageSettings {
 	private boolean mappingEnabled = true;
 	@JsonProperty("id_enabled")
 	private boolean idEnabled = true;
+	@JsonProperty("rollup")
+	private IndexRollupSettings rollupSettings = new IndexRollupSettings();
 
 	public DistributionMode getDistributionMode() {
 		return distributionMode;
@@ -97,6 +99,20 @@ public class IndexStorageSettings {
 		this.idEnabled = idEnabled;
 	}
 
+	public IndexRollupSettings getRollupSettings() {
+		if(rollupSettings == null) {
+			rollupSettings = new IndexRollupSettings();
+		}
+		return rollupSettings;
+	}
+
+	public void setRollupSettings(IndexRollupSettings rollupSettings) {
+		if(rollupSettings == null) {
+			return;
+		}
+		this.rollupSettings = rollupSettings;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -108,13 +124,14 @@ public class IndexStorageSettings {
 				distributionMode == that.distributionMode &&
 				indexTimeBucket == that.indexTimeBucket &&
 				Objects.equals(timestampPath, that.timestampPath) &&
-				Objects.equals(indexGenerationSettings, that.indexGenerationSettings);
+				Objects.equals(indexGenerationSettings, that.indexGenerationSettings) &&
+				Objects.equals(rollupSettings, that.rollupSettings);
 	}
 
 	@Override
 	public int hashCode() {
 		return Objects.hash(distributionMode, indexTimeBucket, timestampPath, indexGenerationSettings,
-				fieldStatsEnabled, mappingEnabled, idEnabled);
+				fieldStatsEnabled, mappingEnabled, idEnabled, rollupSettings);
 	}
 
 	@Override
@@ -126,6 +143,7 @@ public class IndexStorageSettings {
 				", indexGenerationSettings=" + indexGenerationSettings +
 				", fieldStatsDisabled=" + fieldStatsEnabled +
 				", mappingDisabled=" + mappingEnabled +
+				", rollupSettings=" + rollupSettings +
 				'}';
 	}
 }
@@ -45,6 +45,12 @@ public class BulkResponseDecoder extends JsonDeserializer<BulkResponse> {
 			if(itemAny.has("create") && itemAny.get("create").isObject()) {
 				responseAny = itemAny.get("create");
 				itemResponse = new BulkItemResponse(i, BulkOpType.INDEX);
+			} else if(itemAny.has("index") && itemAny.get("index").isObject()) {
+				responseAny = itemAny.get("index");
+				itemResponse = new BulkItemResponse(i, BulkOpType.INDEX);
+			} else if(itemAny.has("update") && itemAny.get("update").isObject()) {
+				responseAny = itemAny.get("update");
+				itemResponse = new BulkItemResponse(i, BulkOpType.UPDATE);
 			} else if(itemAny.has("delete") && itemAny.get("delete").isObject()) {
 				responseAny = itemAny.get("delete");
 				itemResponse = new BulkItemResponse(i, BulkOpType.DELETE);
@@ -59,6 +65,8 @@ public class BulkResponseDecoder extends JsonDeserializer<BulkResponse> {
 
 			if(!itemResponse.isFailed()) {
 				itemResponse.setVersion(responseAny.get("_version").asInt());
+			} else if(responseAny.has("error") && responseAny.get("error").has("reason")) {
+				itemResponse.setReason(responseAny.get("error").get("reason").asText());
 			}
 			result.getItems().add(itemResponse);
 		}
@@ -43,6 +43,12 @@ public class V2BulkResponseEncoder extends JsonSerializer<BulkResponse> {
 			case DELETE:
 				stream.writeFieldName("delete");
 				break;
+			case CREATE:
+				stream.writeFieldName("create");
+				break;
+			case UPDATE:
+				stream.writeFieldName("update");
+				break;
 			case INDEX:
 			default:
 				stream.writeFieldName("create");
@@ -60,16 +66,33 @@ public class V2BulkResponseEncoder extends JsonSerializer<BulkResponse> {
 
 				switch(itemResponse.getOpType()) {
 				case DELETE:
+					if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_NOT_FOUND)) {
+						stream.writeNumberField("status", 404);
+					} else {
+						stream.writeNumberField("status", 200);
+					}
+					break;
+				case UPDATE:
 					stream.writeNumberField("status", 200);
 					break;
+				case CREATE:
 				case INDEX:
 				default:
 					stream.writeNumberField("status", 201);
 					break;
 				}
+			} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_CONFLICT)) {
+				stream.writeNumberField("status", 409);
+			} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_NOT_FOUND)) {
+				stream.writeNumberField("status", 404);
+			} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_INVALID)) {
+				stream.writeNumberField("status", 400);
+			} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_REJECTED)) {
+				stream.writeNumberField("status", 429);
 			} else {
 				stream.writeNumberField("status", 500);
 			}
+			writeError(itemResponse, stream);
 
 			stream.writeEndObject();
 			stream.writeEndObject();
@@ -79,4 +102,23 @@ public class V2BulkResponseEncoder extends JsonSerializer<BulkResponse> {
 
 		stream.writeEndObject();
 	}
+
+	private static void writeError(BulkItemResponse itemResponse, JsonGenerator stream) throws IOException {
+		if(itemResponse.getReason() == null) {
+			return;
+		}
+		stream.writeFieldName("error");
+		stream.writeStartObject();
+		if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_INVALID)) {
+			stream.writeStringField("type", "action_request_validation_exception");
+		} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_REJECTED)) {
+			stream.writeStringField("type", "es_rejected_execution_exception");
+		} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_NOT_FOUND)) {
+			stream.writeStringField("type", "document_missing_exception");
+		} else {
+			stream.writeStringField("type", "exception");
+		}
+		stream.writeStringField("reason", itemResponse.getReason());
+		stream.writeEndObject();
+	}
 }
\ No newline at end of file
@@ -43,6 +43,12 @@ public class V5BulkResponseEncoder extends JsonSerializer<BulkResponse> {
 			case DELETE:
 				stream.writeFieldName("delete");
 				break;
+			case CREATE:
+				stream.writeFieldName("create");
+				break;
+			case UPDATE:
+				stream.writeFieldName("update");
+				break;
 			case INDEX:
 			default:
 				stream.writeFieldName("index");
@@ -57,7 +63,14 @@ public class V5BulkResponseEncoder extends JsonSerializer<BulkResponse> {
 
 			if(!itemResponse.isFailed()) {
 				stream.writeNumberField("_version", itemResponse.getVersion());
+			} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_NOT_FOUND)) {
+				stream.writeNumberField("status", 404);
+			} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_INVALID)) {
+				stream.writeNumberField("status", 400);
+			} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_REJECTED)) {
+				stream.writeNumberField("status", 429);
 			}
+			writeError(itemResponse, stream);
 
 			stream.writeEndObject();
 			stream.writeEndObject();
@@ -67,4 +80,23 @@ public class V5BulkResponseEncoder extends JsonSerializer<BulkResponse> {
 
 		stream.writeEndObject();
 	}
+
+	private static void writeError(BulkItemResponse itemResponse, JsonGenerator stream) throws IOException {
+		if(itemResponse.getReason() == null) {
+			return;
+		}
+		stream.writeFieldName("error");
+		stream.writeStartObject();
+		if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_INVALID)) {
+			stream.writeStringField("type", "action_request_validation_exception");
+		} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_REJECTED)) {
+			stream.writeStringField("type", "es_rejected_execution_exception");
+		} else if(itemResponse.getResult().equalsIgnoreCase(BulkItemResponse.STATUS_NOT_FOUND)) {
+			stream.writeStringField("type", "document_missing_exception");
+		} else {
+			stream.writeStringField("type", "exception");
+		}
+		stream.writeStringField("reason", itemResponse.getReason());
+		stream.writeEndObject();
+	}
 }
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.api.search;
+
+import com.elefana.api.ApiResponse;
+import com.elefana.api.json.JsonUtils;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+public class ClearScrollResponse extends ApiResponse {
+	@JsonProperty
+	private boolean succeeded = true;
+	@JsonProperty("num_freed")
+	private int numFreed;
+
+	public ClearScrollResponse() {
+		super(HttpResponseStatus.OK.code());
+	}
+
+	public boolean isSucceeded() {
+		return succeeded;
+	}
+
+	public void setSucceeded(boolean succeeded) {
+		this.succeeded = succeeded;
+	}
+
+	public int getNumFreed() {
+		return numFreed;
+	}
+
+	public void setNumFreed(int numFreed) {
+		this.numFreed = numFreed;
+	}
+
+	@Override
+	public String toJsonString() {
+		return JsonUtils.toJsonString(this);
+	}
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.api.search;
+
+import com.elefana.api.exception.ElefanaException;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A failed search within a multi search response. Only the error and status
+ * are serialized so that the remaining searches of the request are unaffected.
+ */
+@JsonIgnoreProperties({ "hits", "_shards", "aggregations", "took", "timed_out" })
+public class MultiSearchFailure extends SearchResponse {
+	private final Map<String, Object> error = new HashMap<String, Object>();
+	private final int status;
+
+	public MultiSearchFailure(Throwable cause) {
+		super();
+		status = cause instanceof ElefanaException ? ((ElefanaException) cause).getStatusCode().code()
+				: HttpResponseStatus.INTERNAL_SERVER_ERROR.code();
+		setStatusCode(status);
+
+		final Map<String, Object> rootCause = new HashMap<String, Object>();
+		rootCause.put("type", toErrorType(cause));
+		rootCause.put("reason", cause.getMessage());
+
+		final List<Map<String, Object>> rootCauses = new ArrayList<Map<String, Object>>(1);
+		rootCauses.add(rootCause);
+
+		error.put("root_cause", rootCauses);
+		error.put("type", rootCause.get("type"));
+		error.put("reason", rootCause.get("reason"));
+	}
+
+	private static String toErrorType(Throwable cause) {
+		final String className = cause.getClass().getSimpleName();
+		final StringBuilder result = new StringBuilder(className.length() + 8);
+		for(int i = 0; i < className.length(); i++) {
+			final char c = className.charAt(i);
+			if(Character.isUpperCase(c)) {
+				if(i > 0) {
+					result.append('_');
+				}
+				result.append(Character.toLowerCase(c));
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	public Map<String, Object> getError() {
+		return error;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+}
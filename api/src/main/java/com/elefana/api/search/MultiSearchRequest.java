@@ -23,6 +23,7 @@ import io.netty.channel.ChannelHandlerContext;
 public abstract class MultiSearchRequest extends ApiRequest<MultiSearchResponse> {
 	protected String fallbackIndex, fallbackType;
 	protected PooledStringBuilder requestBody;
+	protected boolean requestCache = true;
 
 	public MultiSearchRequest(RequestExecutor requestExecutor, ChannelHandlerContext context,
 	                          PooledStringBuilder requestBody) {
@@ -46,6 +47,17 @@ public abstract class MultiSearchRequest extends ApiRequest<MultiSearchResponse>
 		this.fallbackType = fallbackType;
 	}
 
+	/**
+	 * @return False if the search result cache should be bypassed
+	 */
+	public boolean isRequestCache() {
+		return requestCache;
+	}
+
+	public void setRequestCache(boolean requestCache) {
+		this.requestCache = requestCache;
+	}
+
 	public PooledStringBuilder getRequestBody() {
 		return requestBody;
 	}
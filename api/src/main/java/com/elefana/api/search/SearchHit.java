@@ -15,6 +15,9 @@
  ******************************************************************************/
 package com.elefana.api.search;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
 import java.util.Map;
 
 public class SearchHit {
@@ -23,4 +26,6 @@ public class SearchHit {
 	public String _id;
 	public double _score;
 	public Map<String, Object> _source;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public List<Object> sort;
 }
@@ -24,7 +24,9 @@ public abstract class SearchRequest extends ApiRequest<SearchResponse> {
 	private static final PooledStringBuilder DEFAULT_QUERY = PooledStringBuilder.allocate("{\"query\":{\"match_all\": {}}}");
 	
 	protected String indexPattern, typePattern;
+	protected String scroll;
 	protected PooledStringBuilder requestBody;
+	protected boolean requestCache = true;
 	
 	public SearchRequest(RequestExecutor requestExecutor, ChannelHandlerContext context) {
 		this(requestExecutor, context, DEFAULT_QUERY);
@@ -32,7 +34,12 @@ public abstract class SearchRequest extends ApiRequest<SearchResponse> {
 
 	public SearchRequest(RequestExecutor requestExecutor, ChannelHandlerContext context,
 	                     PooledStringBuilder requestBody) {
-		super(requestExecutor, context);
+		this(requestExecutor, context, requestBody, false);
+	}
+
+	public SearchRequest(RequestExecutor requestExecutor, ChannelHandlerContext context,
+	                     PooledStringBuilder requestBody, boolean streamingResponse) {
+		super(requestExecutor, context, streamingResponse);
 		this.requestBody = requestBody;
 	}
 
@@ -52,6 +59,28 @@ public abstract class SearchRequest extends ApiRequest<SearchResponse> {
 		this.typePattern = typePattern;
 	}
 
+	/**
+	 * @return The keep alive of the scroll context to open, e.g. 1m, or null if this is not a scroll search
+	 */
+	public String getScroll() {
+		return scroll;
+	}
+
+	public void setScroll(String scroll) {
+		this.scroll = scroll;
+	}
+
+	/**
+	 * @return False if the search result cache should be bypassed
+	 */
+	public boolean isRequestCache() {
+		return requestCache;
+	}
+
+	public void setRequestCache(boolean requestCache) {
+		this.requestCache = requestCache;
+	}
+
 	public PooledStringBuilder getRequestBody() {
 		return requestBody;
 	}
@@ -17,12 +17,15 @@ package com.elefana.api.search;
 
 import com.elefana.api.ApiResponse;
 import com.elefana.api.json.JsonUtils;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import io.netty.handler.codec.http.HttpResponseStatus;
 
 import java.util.HashMap;
 import java.util.Map;
 
+@JsonPropertyOrder({ "took", "timed_out", "_shards", "hits", "aggregations" })
 public class SearchResponse extends ApiResponse {
 	private final SearchHits hits = new SearchHits();
 	@JsonProperty("_shards")
@@ -31,6 +34,9 @@ public class SearchResponse extends ApiResponse {
 	private volatile long took;
 	@JsonProperty("timed_out")
 	private volatile boolean timedOut;
+	@JsonProperty("_scroll_id")
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String scrollId;
 
 	public SearchResponse() {
 		super(HttpResponseStatus.OK.code());
@@ -52,6 +58,14 @@ public class SearchResponse extends ApiResponse {
 		this.timedOut = timedOut;
 	}
 
+	public String getScrollId() {
+		return scrollId;
+	}
+
+	public void setScrollId(String scrollId) {
+		this.scrollId = scrollId;
+	}
+
 	public SearchHits getHits() {
 		return hits;
 	}
@@ -48,9 +48,19 @@ public class BulkItemResponseTest {
 		failedResponse.setId("124");
 		failedResponse.setResult(BulkItemResponse.STATUS_FAILED);
 		expected.getItems().add(failedResponse);
+
+		BulkItemResponse missingResponse = new BulkItemResponse(2, BulkOpType.UPDATE);
+		missingResponse.setIndex("index");
+		missingResponse.setType("type");
+		missingResponse.setId("125");
+		missingResponse.setResult(BulkItemResponse.STATUS_NOT_FOUND);
+		missingResponse.setReason("[type][125]: document missing");
+		expected.getItems().add(missingResponse);
 		
 		String json = JsonUtils.toJsonString(expected);
 		BulkResponse result = JsonUtils.fromJsonString(json, BulkResponse.class);
 		Assert.assertEquals(expected, result);
+		Assert.assertTrue(json.contains("\"status\":404"));
+		Assert.assertTrue(json.contains("\"type\":\"document_missing_exception\""));
 	}
 }
@@ -47,6 +47,15 @@ public class IndexStorageSettingsTest {
 		Assert.assertEquals(false, result.isFieldStatsEnabled());
 	}
 
+	@Test
+	public void testDeserializationWithRollup() {
+		final String json ="{\"timestamp_path\": \"timestamp\", \"rollup\": {\"enabled\": true, \"fields\": [\"bytes\"]}}";
+		final IndexStorageSettings result = JsonUtils.fromJsonString(json, IndexStorageSettings.class);
+		Assert.assertTrue(result.getRollupSettings().isEnabled());
+		Assert.assertTrue(result.getRollupSettings().isRollupField("bytes"));
+		Assert.assertFalse(new IndexStorageSettings().getRollupSettings().isEnabled());
+	}
+
 	@Test
 	public void testDeserializationWithInvalidFields() {
 		final String json ="{\"distribution\": \"TIME\", \"timestamp_path\": \"timestamp\", \"disable_field_stats\": true}";
@@ -0,0 +1,109 @@
+package com.elefana.perf;
+
+import java.util.Random;
+
+/**
+ * Generates deterministic JSON documents and bulk request bodies for benchmarks
+ */
+public class BenchmarkDocuments {
+	public static final String INDEX = "logs-2020.05.15";
+	public static final String TYPE = "doc";
+	public static final String TIMESTAMP_FIELD = "timestamp";
+
+	private static final String [] WORDS = new String[] { "quick", "brown", "fox", "jumps", "over", "the", "lazy",
+			"dog", "network", "country", "message", "mode", "protocol", "version", "\u00e9t\u00e9", "\u65e5\u672c" };
+
+	/**
+	 * @param fields The no. of fields per object
+	 * @param depth The no. of nested object levels
+	 */
+	public static String document(Random random, int fields, int depth) {
+		final StringBuilder result = new StringBuilder(fields * 32 * depth);
+		result.append("{\"" + TIMESTAMP_FIELD + "\":");
+		result.append(1589500800000L + random.nextInt(86400000));
+		result.append(',');
+		appendFields(result, random, fields, depth);
+		result.append('}');
+		return result.toString();
+	}
+
+	/**
+	 * @return A bulk request body of index operations
+	 */
+	public static String bulkBody(Random random, int documents, int fields, int depth) {
+		final StringBuilder result = new StringBuilder();
+		for(int i = 0; i < documents; i++) {
+			result.append("{\"index\":{\"_index\":\"" + INDEX + "\",\"_type\":\"" + TYPE + "\",\"_id\":\"");
+			result.append(i);
+			result.append("\"}}\n");
+			result.append(document(random, fields, depth));
+			result.append('\n');
+		}
+		return result.toString();
+	}
+
+	private static void appendFields(StringBuilder result, Random random, int fields, int depth) {
+		for(int i = 0; i < fields; i++) {
+			if(i > 0) {
+				result.append(',');
+			}
+			result.append("\"field");
+			result.append(i);
+			result.append("\":");
+
+			switch(i % 8) {
+			case 0:
+				result.append('"');
+				appendText(result, random, 1 + random.nextInt(12));
+				result.append('"');
+				break;
+			case 1:
+				result.append(random.nextLong());
+				break;
+			case 2:
+				result.append(random.nextDouble() * 1000.0);
+				break;
+			case 3:
+				result.append(random.nextBoolean());
+				break;
+			case 4:
+				result.append("null");
+				break;
+			case 5:
+				result.append('[');
+				for(int j = 0; j < 8; j++) {
+					if(j > 0) {
+						result.append(',');
+					}
+					result.append(random.nextInt(1000));
+				}
+				result.append(']');
+				break;
+			case 6:
+				// Values requiring escaping during ingestion
+				result.append("\"line\\nbreak \\\"quoted\\\" C:\\\\path\"");
+				break;
+			default:
+				if(depth > 1) {
+					result.append('{');
+					appendFields(result, random, Math.max(1, fields / 2), depth - 1);
+					result.append('}');
+				} else {
+					result.append('"');
+					appendText(result, random, 3);
+					result.append('"');
+				}
+				break;
+			}
+		}
+	}
+
+	private static void appendText(StringBuilder result, Random random, int words) {
+		for(int i = 0; i < words; i++) {
+			if(i > 0) {
+				result.append(' ');
+			}
+			result.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.elefana.perf;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Creates stand-ins for JDBC and service interfaces so that hot paths can be measured without a database
+ */
+public class BenchmarkStubs {
+
+	/**
+	 * @param handler Handles invocations, a null result is replaced with the default value of the return type
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T create(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(BenchmarkStubs.class.getClassLoader(), new Class[] { type },
+				(proxy, method, args) -> {
+					final Object result = handler.invoke(proxy, method, args);
+					return result != null ? result : defaultValue(method);
+				});
+	}
+
+	public static <T> T create(Class<T> type) {
+		return create(type, (proxy, method, args) -> null);
+	}
+
+	private static Object defaultValue(Method method) {
+		final Class<?> returnType = method.getReturnType();
+		if(!returnType.isPrimitive() || returnType == void.class) {
+			return null;
+		}
+		if(returnType == boolean.class) {
+			return false;
+		} else if(returnType == char.class) {
+			return (char) 0;
+		} else if(returnType == byte.class) {
+			return (byte) 0;
+		} else if(returnType == short.class) {
+			return (short) 0;
+		} else if(returnType == int.class) {
+			return 0;
+		} else if(returnType == long.class) {
+			return 0L;
+		} else if(returnType == float.class) {
+			return 0f;
+		}
+		return 0.0;
+	}
+}
@@ -0,0 +1,83 @@
+package com.elefana.perf;
+
+import com.elefana.document.BinaryCopyWriter;
+import com.elefana.document.BulkIndexOperation;
+import org.openjdk.jmh.annotations.*;
+import org.postgresql.copy.CopyIn;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the binary COPY encoding of bulk index rows against a {@link CopyIn} which discards the written bytes
+ */
+public class BinaryCopyPerformanceTest {
+	private static final int TOTAL_COLUMNS = 9;
+
+	@State(Scope.Thread)
+	public static class TestState {
+		@Param({"8", "64", "256"})
+		int fields;
+		@Param({"1", "4"})
+		int depth;
+
+		final BinaryCopyWriter copyWriter = new BinaryCopyWriter();
+		final List<BulkIndexOperation> operations = new ArrayList<BulkIndexOperation>(1000);
+		long bytesWritten;
+		CopyIn copyIn;
+
+		@Setup
+		public void setup() {
+			final Random random = new Random(fields * 31 + depth);
+			for(int i = 0; i < 1000; i++) {
+				final BulkIndexOperation operation = BulkIndexOperation.allocate();
+				operation.setIndex(BenchmarkDocuments.INDEX);
+				operation.setType(BenchmarkDocuments.TYPE);
+				operation.setId(String.valueOf(i));
+				operation.setDocument(new StringBuilder(BenchmarkDocuments.document(random, fields, depth)));
+				operation.setTimestamp(1589500800000L + i);
+				operations.add(operation);
+			}
+			copyIn = BenchmarkStubs.create(CopyIn.class, (proxy, method, args) -> {
+				if(method.getName().equals("writeToCopy") && args.length == 3) {
+					bytesWritten += (Integer) args[2];
+				}
+				return null;
+			});
+		}
+
+		@TearDown
+		public void tearDown() {
+			for(BulkIndexOperation operation : operations) {
+				operation.release();
+			}
+			operations.clear();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(value= Mode.Throughput)
+	@Group("Copy")
+	public long testWriteRows(TestState state) throws SQLException {
+		final BinaryCopyWriter copyWriter = state.copyWriter;
+		copyWriter.begin(state.copyIn);
+		for(int i = 0; i < state.operations.size(); i++) {
+			final BulkIndexOperation operation = state.operations.get(i);
+			final long timestamp = operation.getTimestamp();
+			copyWriter.beginRow(TOTAL_COLUMNS);
+			copyWriter.writeText(operation.getIndex());
+			copyWriter.writeText(operation.getType());
+			copyWriter.writeText(operation.getId());
+			copyWriter.writeBigint(timestamp);
+			copyWriter.writeBigint(timestamp - (timestamp % 1000L));
+			copyWriter.writeBigint(timestamp - (timestamp % 60000L));
+			copyWriter.writeBigint(timestamp - (timestamp % 3600000L));
+			copyWriter.writeBigint(timestamp - (timestamp % 86400000L));
+			copyWriter.writeJsonb(operation.getDocument(), operation.getDocumentLength());
+		}
+		copyWriter.end();
+		return state.bytesWritten;
+	}
+}
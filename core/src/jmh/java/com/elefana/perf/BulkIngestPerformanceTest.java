@@ -0,0 +1,69 @@
+package com.elefana.perf;
+
+import com.elefana.api.util.PooledStringBuilder;
+import com.elefana.document.BulkIndexOperation;
+import com.elefana.util.NoAllocBulkReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class BulkIngestPerformanceTest {
+	@State(Scope.Thread)
+	public static class TestState {
+		@Param({"8", "64", "256"})
+		int fields;
+		@Param({"1", "4"})
+		int depth;
+
+		final NoAllocBulkReader reader = new NoAllocBulkReader();
+		final List<BulkIndexOperation> operations = new ArrayList<BulkIndexOperation>(1000);
+		PooledStringBuilder body;
+
+		@Setup
+		public void setup() {
+			body = PooledStringBuilder.allocate(BenchmarkDocuments.bulkBody(new Random(fields * 31 + depth), 1000, fields, depth));
+		}
+
+		@TearDown
+		public void tearDown() {
+			body.release();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(value= Mode.Throughput)
+	@Group("Bulk")
+	public void testReadBulk(TestState state, Blackhole blackhole) {
+		final NoAllocBulkReader reader = state.reader;
+		reader.reset(state.body);
+		while(reader.nextAction()) {
+			blackhole.consume(reader.getId());
+			reader.nextSource();
+			blackhole.consume(reader.getLineEnd());
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(value= Mode.Throughput)
+	@Group("Bulk")
+	public void testReadBulkOperations(TestState state) {
+		final NoAllocBulkReader reader = state.reader;
+		reader.reset(state.body);
+		while(reader.nextAction()) {
+			reader.nextSource();
+			final BulkIndexOperation operation = BulkIndexOperation.allocate();
+			operation.setIndex(reader.getIndex());
+			operation.setType(reader.getType());
+			operation.setId(reader.getId());
+			operation.setDocument(state.body, reader.getLineStart(), reader.getLineEnd());
+			state.operations.add(operation);
+		}
+		for(int i = 0; i < state.operations.size(); i++) {
+			state.operations.get(i).release();
+		}
+		state.operations.clear();
+	}
+}
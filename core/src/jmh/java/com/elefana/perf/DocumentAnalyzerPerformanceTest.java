@@ -0,0 +1,41 @@
+package com.elefana.perf;
+
+import com.elefana.util.NoAllocDocumentAnalyzer;
+import com.elefana.util.NoAllocTimestampExtractor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+public class DocumentAnalyzerPerformanceTest {
+	@State(Scope.Thread)
+	public static class TestState {
+		@Param({"8", "64", "256"})
+		int fields;
+		@Param({"1", "4"})
+		int depth;
+
+		final NoAllocTimestampExtractor timestampExtractor = new NoAllocTimestampExtractor(BenchmarkDocuments.TIMESTAMP_FIELD);
+		final NoAllocDocumentAnalyzer documentAnalyzer = new NoAllocDocumentAnalyzer();
+		char [] document;
+
+		@Setup
+		public void setup() {
+			document = BenchmarkDocuments.document(new Random(fields * 31 + depth), fields, depth).toCharArray();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(value= Mode.Throughput)
+	@Group("Analyze")
+	public long testExtractTimestamp(TestState state) {
+		return state.timestampExtractor.extract(state.document, state.document.length);
+	}
+
+	@Benchmark
+	@BenchmarkMode(value= Mode.Throughput)
+	@Group("Analyze")
+	public boolean testAnalyzeDocument(TestState state) {
+		state.documentAnalyzer.analyze(state.document, state.document.length, BenchmarkDocuments.TIMESTAMP_FIELD);
+		return state.documentAnalyzer.isEscapeRequired();
+	}
+}
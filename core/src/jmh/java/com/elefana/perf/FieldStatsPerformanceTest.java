@@ -0,0 +1,44 @@
+package com.elefana.perf;
+
+import com.elefana.indices.fieldstats.LoadUnloadManager;
+import com.elefana.indices.fieldstats.job.CoreFieldStatsJob;
+import com.elefana.indices.fieldstats.state.StateImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class FieldStatsPerformanceTest {
+	@State(Scope.Thread)
+	public static class TestState {
+		@Param({"8", "64", "256"})
+		int fields;
+		@Param({"1", "4"})
+		int depth;
+
+		final StateImpl fieldStatsState = new StateImpl(null);
+		final LoadUnloadManager loadUnloadManager = BenchmarkStubs.create(LoadUnloadManager.class);
+		final List<String> documents = new ArrayList<String>(250);
+
+		@Setup
+		public void setup() {
+			final Random random = new Random(fields * 31 + depth);
+			for(int i = 0; i < 250; i++) {
+				documents.add(BenchmarkDocuments.document(random, fields, depth));
+			}
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(value= Mode.Throughput)
+	@Group("FieldStats")
+	public void testAnalyseDocuments(TestState state) {
+		final CoreFieldStatsJob job = CoreFieldStatsJob.allocate(state.fieldStatsState, state.loadUnloadManager,
+				BenchmarkDocuments.INDEX);
+		for(int i = 0; i < state.documents.size(); i++) {
+			job.addDocument(state.documents.get(i));
+		}
+		job.run();
+	}
+}
@@ -0,0 +1,67 @@
+package com.elefana.perf;
+
+import com.elefana.api.exception.ElefanaException;
+import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.search.RequestBodySearch;
+import com.elefana.search.query.Query;
+import com.elefana.search.query.QueryParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SearchCompilePerformanceTest {
+	private static final String TERM = "{\"query\":{\"term\":{\"source.country\":\"IE\"}}}";
+	private static final String BOOL = "{\"size\":50,\"query\":{\"bool\":{" +
+			"\"must\":[{\"match\":{\"message\":\"quick brown fox\"}},{\"wildcard\":{\"source.node\":\"9689*\"}}]," +
+			"\"filter\":[{\"range\":{\"timestamp\":{\"gte\":1589500800000,\"lt\":1589587200000}}}," +
+			"{\"term\":{\"dest-info\":\"source\"}},{\"exists\":{\"field\":\"sccp\"}}]," +
+			"\"must_not\":[{\"prefix\":{\"network\":\"NET2\"}}]}}," +
+			"\"sort\":[{\"timestamp\":{\"order\":\"desc\"}},{\"_id\":\"asc\"}]}";
+	private static final String QUERY_STRING = "{\"query\":{\"query_string\":{\"query\":" +
+			"\"source.country:IE AND (network:NET1 OR network:NET2) AND NOT mode:test\"}}," +
+			"\"aggs\":{\"countries\":{\"terms\":{\"field\":\"source.country\"},\"aggs\":{\"avg_size\":{\"avg\":{\"field\":\"size\"}}}}}}";
+
+	@State(Scope.Thread)
+	public static class TestState {
+		@Param({"term", "bool", "query_string"})
+		String query;
+
+		final List<String> indices = Arrays.asList(BenchmarkDocuments.INDEX, "logs-2020.05.16");
+		final IndexFieldStatsService indexFieldStatsService = BenchmarkStubs.create(IndexFieldStatsService.class);
+		String body;
+
+		@Setup
+		public void setup() {
+			switch(query) {
+			case "bool":
+				body = BOOL;
+				break;
+			case "query_string":
+				body = QUERY_STRING;
+				break;
+			default:
+				body = TERM;
+				break;
+			}
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(value= Mode.Throughput)
+	@Group("Search")
+	public Query testParseQuery(TestState state) throws ElefanaException {
+		return QueryParser.parseQuery(state.body);
+	}
+
+	@Benchmark
+	@BenchmarkMode(value= Mode.Throughput)
+	@Group("Search")
+	public String testCompileSearch(TestState state) throws ElefanaException {
+		final RequestBodySearch requestBodySearch = new RequestBodySearch(state.body);
+		final List<Object> parameters = new ArrayList<Object>();
+		return requestBodySearch.getQuerySqlWhereTemplate(state.indices, null, state.indexFieldStatsService, parameters) +
+				requestBodySearch.getQuerySqlOrderClause(state.indices, null, state.indexFieldStatsService);
+	}
+}
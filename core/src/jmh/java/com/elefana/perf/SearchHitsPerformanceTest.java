@@ -0,0 +1,72 @@
+package com.elefana.perf;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.elefana.api.search.SearchResponse;
+import com.elefana.search.PartitionTableSearchHitsQueryExecutor;
+import com.elefana.search.SearchHitsQueryExecutor;
+import com.elefana.util.EscapeUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Measures reading hits from a {@link ResultSet} over in-memory rows as they are returned by PostgreSQL
+ */
+public class SearchHitsPerformanceTest {
+	private static final int TOTAL_HITS = 100;
+
+	@State(Scope.Thread)
+	public static class TestState {
+		@Param({"8", "64", "256"})
+		int fields;
+		@Param({"1", "4"})
+		int depth;
+
+		final SearchHitsQueryExecutor queryExecutor = new PartitionTableSearchHitsQueryExecutor(null,
+				new Histogram(new ExponentiallyDecayingReservoir()), new Histogram(new ExponentiallyDecayingReservoir()), 5);
+		final String [] sources = new String[TOTAL_HITS];
+		int row;
+		ResultSet resultSet;
+
+		@Setup
+		public void setup() {
+			final Random random = new Random(fields * 31 + depth);
+			for(int i = 0; i < TOTAL_HITS; i++) {
+				sources[i] = EscapeUtils.psqlEscapeString(BenchmarkDocuments.document(random, fields, depth));
+			}
+			resultSet = BenchmarkStubs.create(ResultSet.class, (proxy, method, args) -> {
+				switch(method.getName()) {
+				case "next":
+					row++;
+					return row < TOTAL_HITS;
+				case "getString":
+					switch((String) args[0]) {
+					case "_index":
+						return BenchmarkDocuments.INDEX;
+					case "_type":
+						return BenchmarkDocuments.TYPE;
+					case "_id":
+						return String.valueOf(row);
+					case "_source":
+						return sources[row];
+					}
+					return null;
+				}
+				return null;
+			});
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(value= Mode.Throughput)
+	@Group("Hits")
+	public SearchResponse testReadHits(TestState state) throws SQLException {
+		final SearchResponse searchResponse = new SearchResponse();
+		state.row = -1;
+		state.queryExecutor.readScrollHits(searchResponse, state.resultSet, 0, false, TOTAL_HITS);
+		return searchResponse;
+	}
+}
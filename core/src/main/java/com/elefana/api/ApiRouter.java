@@ -19,6 +19,10 @@ import com.elefana.api.document.IndexOpType;
 import com.elefana.api.exception.ElefanaException;
 import com.elefana.api.exception.NoSuchApiException;
 import com.elefana.api.exception.ShardFailedException;
+import com.elefana.api.search.ClearScrollRequest;
+import com.elefana.api.search.MultiSearchRequest;
+import com.elefana.api.search.SearchRequest;
+import com.elefana.api.search.SearchScrollRequest;
 import com.elefana.api.util.PooledStringBuilder;
 import com.elefana.cluster.ClusterService;
 import com.elefana.document.BulkIngestService;
@@ -412,14 +416,17 @@ public class ApiRouter {
 
 	private ApiRequest<?> routeToSearchApi(ChannelHandlerContext context, HttpMethod method, String url, Map<String, String> getParams, String[] urlComponents, PooledStringBuilder requestBody)
 			throws ElefanaException {
+		if (urlComponents.length > 1 && urlComponents[0].equalsIgnoreCase("_search") && urlComponents[1].equalsIgnoreCase("scroll")) {
+			return routeToScrollApi(context, method, url, getParams, urlComponents, requestBody);
+		}
 		switch (urlComponents.length) {
 		case 1:
 			// _search
 			switch (urlComponents[0].toLowerCase()) {
 			case "_search":
-				return searchService.prepareSearch(context, requestBody);
+				return prepareSearch(searchService.prepareSearch(context, requestBody), getParams);
 			case "_msearch":
-				return searchService.prepareMultiSearch(context, requestBody);
+				return prepareMultiSearch(searchService.prepareMultiSearch(context, requestBody), getParams);
 			}
 			break;
 		case 2: {
@@ -427,9 +434,9 @@ public class ApiRouter {
 			final String indexPattern = urlDecode(urlComponents[0]);
 			switch (urlComponents[1].toLowerCase()) {
 			case "_search":
-				return searchService.prepareSearch(context, indexPattern, requestBody);
+				return prepareSearch(searchService.prepareSearch(context, indexPattern, requestBody), getParams);
 			case "_msearch":
-				return searchService.prepareMultiSearch(context, indexPattern, requestBody);
+				return prepareMultiSearch(searchService.prepareMultiSearch(context, indexPattern, requestBody), getParams);
 			}
 			break;
 		}
@@ -440,15 +447,41 @@ public class ApiRouter {
 
 			switch (urlComponents[2].toLowerCase()) {
 			case "_search":
-				return searchService.prepareSearch(context, indexPattern, typePattern, requestBody);
+				return prepareSearch(searchService.prepareSearch(context, indexPattern, typePattern, requestBody), getParams);
 			case "_msearch":
-				return searchService.prepareMultiSearch(context, indexPattern, typePattern, requestBody);
+				return prepareMultiSearch(searchService.prepareMultiSearch(context, indexPattern, typePattern, requestBody), getParams);
 			}
 			break;
 		}
 		throw new NoSuchApiException(method, url);
 	}
 
+	private SearchRequest prepareSearch(SearchRequest searchRequest, Map<String, String> getParams) {
+		searchRequest.setScroll(getParams.get("scroll"));
+		searchRequest.setRequestCache(!"false".equalsIgnoreCase(getParams.get("request_cache")));
+		return searchRequest;
+	}
+
+	private MultiSearchRequest prepareMultiSearch(MultiSearchRequest multiSearchRequest, Map<String, String> getParams) {
+		multiSearchRequest.setRequestCache(!"false".equalsIgnoreCase(getParams.get("request_cache")));
+		return multiSearchRequest;
+	}
+
+	private ApiRequest<?> routeToScrollApi(ChannelHandlerContext context, HttpMethod method, String url, Map<String, String> getParams, String[] urlComponents, PooledStringBuilder requestBody)
+			throws ElefanaException {
+		// _search/scroll or _search/scroll/SCROLL_ID
+		final String scrollId = urlComponents.length > 2 ? urlDecode(urlComponents[2]) : getParams.get("scroll_id");
+		if (isDeleteMethod(method)) {
+			final ClearScrollRequest clearScrollRequest = searchService.prepareClearScroll(context, requestBody);
+			clearScrollRequest.setScrollId(scrollId);
+			return clearScrollRequest;
+		}
+		final SearchScrollRequest searchScrollRequest = searchService.prepareSearchScroll(context, requestBody);
+		searchScrollRequest.setScrollId(scrollId);
+		searchScrollRequest.setScroll(getParams.get("scroll"));
+		return searchScrollRequest;
+	}
+
 	private ApiRequest<?> routeToNodeApi(ChannelHandlerContext context, HttpMethod method, String url, Map<String, String> getParams, String[] urlComponents, PooledStringBuilder requestBody)
 			throws ElefanaException {
 		switch (urlComponents.length) {
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.document;
+
+import org.postgresql.copy.CopyIn;
+
+import java.sql.SQLException;
+
+/**
+ * Writes rows in the PostgreSQL binary COPY format into a reusable buffer
+ * which is streamed to {@link CopyIn} in large chunks
+ */
+public class BinaryCopyWriter {
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	private static final byte[] HEADER = new byte[] { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0,
+			0, 0, 0, 0,
+			0, 0, 0, 0 };
+	private static final byte JSONB_VERSION = 1;
+
+	private byte[] buffer;
+	private int position;
+	private CopyIn copyIn;
+
+	public BinaryCopyWriter() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public BinaryCopyWriter(int bufferSize) {
+		super();
+		buffer = new byte[bufferSize];
+	}
+
+	public void begin(CopyIn copyIn) throws SQLException {
+		this.copyIn = copyIn;
+		position = 0;
+		writeBytes(HEADER, 0, HEADER.length);
+	}
+
+	public void beginRow(int totalFields) throws SQLException {
+		ensureCapacity(2);
+		writeShort(totalFields);
+	}
+
+	public void writeText(String value) throws SQLException {
+		final int length = utf8Length(value);
+		ensureCapacity(4 + length);
+		writeInt(length);
+		for(int i = 0; i < value.length(); i++) {
+			i = encodeUtf8(value.charAt(i), value, null, i, value.length());
+		}
+	}
+
+	public void writeBigint(long value) throws SQLException {
+		ensureCapacity(12);
+		writeInt(8);
+		buffer[position++] = (byte) (value >>> 56);
+		buffer[position++] = (byte) (value >>> 48);
+		buffer[position++] = (byte) (value >>> 40);
+		buffer[position++] = (byte) (value >>> 32);
+		buffer[position++] = (byte) (value >>> 24);
+		buffer[position++] = (byte) (value >>> 16);
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+
+	public void writeJsonb(char[] value, int length) throws SQLException {
+		final int encodedLength = utf8Length(value, length);
+		ensureCapacity(5 + encodedLength);
+		writeInt(encodedLength + 1);
+		buffer[position++] = JSONB_VERSION;
+		for(int i = 0; i < length; i++) {
+			i = encodeUtf8(value[i], null, value, i, length);
+		}
+	}
+
+	public void writeNull() throws SQLException {
+		ensureCapacity(4);
+		writeInt(-1);
+	}
+
+	public void end() throws SQLException {
+		ensureCapacity(2);
+		writeShort(-1);
+		flush();
+		copyIn = null;
+	}
+
+	private void flush() throws SQLException {
+		if(position == 0) {
+			return;
+		}
+		copyIn.writeToCopy(buffer, 0, position);
+		position = 0;
+	}
+
+	private void ensureCapacity(int length) throws SQLException {
+		if(buffer.length - position >= length) {
+			return;
+		}
+		flush();
+		if(buffer.length < length) {
+			buffer = new byte[length];
+		}
+	}
+
+	private void writeBytes(byte[] bytes, int offset, int length) throws SQLException {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buffer, position, length);
+		position += length;
+	}
+
+	private void writeShort(int value) {
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+
+	private void writeInt(int value) {
+		buffer[position++] = (byte) (value >>> 24);
+		buffer[position++] = (byte) (value >>> 16);
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+
+	private int encodeUtf8(char c, String str, char[] chars, int index, int length) {
+		if(c < 0x80) {
+			buffer[position++] = (byte) c;
+		} else if(c < 0x800) {
+			buffer[position++] = (byte) (0xC0 | (c >> 6));
+			buffer[position++] = (byte) (0x80 | (c & 0x3F));
+		} else if(Character.isHighSurrogate(c) && index + 1 < length) {
+			final char low = str != null ? str.charAt(index + 1) : chars[index + 1];
+			if(Character.isLowSurrogate(low)) {
+				final int codePoint = Character.toCodePoint(c, low);
+				buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+				return index + 1;
+			}
+			buffer[position++] = '?';
+		} else if(Character.isSurrogate(c)) {
+			buffer[position++] = '?';
+		} else {
+			buffer[position++] = (byte) (0xE0 | (c >> 12));
+			buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			buffer[position++] = (byte) (0x80 | (c & 0x3F));
+		}
+		return index;
+	}
+
+	private static int utf8Length(String value) {
+		int result = 0;
+		for(int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if(c < 0x80) {
+				result++;
+			} else if(c < 0x800) {
+				result += 2;
+			} else if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				result += 4;
+				i++;
+			} else if(Character.isSurrogate(c)) {
+				result++;
+			} else {
+				result += 3;
+			}
+		}
+		return result;
+	}
+
+	private static int utf8Length(char[] value, int length) {
+		int result = 0;
+		for(int i = 0; i < length; i++) {
+			final char c = value[i];
+			if(c < 0x80) {
+				result++;
+			} else if(c < 0x800) {
+				result += 2;
+			} else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value[i + 1])) {
+				result += 4;
+				i++;
+			} else if(Character.isSurrogate(c)) {
+				result++;
+			} else {
+				result += 3;
+			}
+		}
+		return result;
+	}
+}
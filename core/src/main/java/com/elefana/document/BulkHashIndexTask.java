@@ -40,9 +40,9 @@ public class BulkHashIndexTask extends BulkIndexTask {
 	}
 
 	@Override
-	public boolean lockStagingTable() {
+	public boolean lockStagingTable(long timeoutMillis) {
 		try {
-			stagingTableId = hashIngestTable.lockTable();
+			stagingTableId = hashIngestTable.lockTable(timeoutMillis);
 			return true;
 		} catch (ElefanaException e) {
 			if(e.getStatusCode().equals(HttpResponseStatus.TOO_MANY_REQUESTS)) {
@@ -15,13 +15,11 @@
  ******************************************************************************/
 package com.elefana.document;
 
+import com.elefana.api.document.BulkOpType;
 import com.elefana.api.util.PooledStringBuilder;
 import com.elefana.indices.fieldstats.job.DocumentSourceProvider;
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
 
-import java.io.IOException;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -33,12 +31,23 @@ public class BulkIndexOperation implements DocumentSourceProvider {
 	private static final Queue<BulkIndexOperation> POOL = new ConcurrentLinkedQueue<BulkIndexOperation>();
 	private static AtomicInteger MAX_SOURCE_LENGTH = new AtomicInteger(2048);
 	
+	private BulkOpType opType = BulkOpType.INDEX;
+	@JsonIgnore
+	private int itemId;
 	private String index;
 	private String type;
 	private String id;
 	private char [] document = new char[MAX_SOURCE_LENGTH.get()];
 	private int documentLength;
 	private long timestamp;
+	@JsonIgnore
+	private boolean escapeRequired = true;
+	@JsonIgnore
+	private boolean keepTimestamp = false;
+	@JsonIgnore
+	private String upsertDocument;
+	@JsonIgnore
+	private long upsertTimestamp;
 
 	@JsonIgnore
 	private boolean released = false;
@@ -57,10 +66,15 @@ public class BulkIndexOperation implements DocumentSourceProvider {
 		if(released) {
 			return;
 		}
+		opType = BulkOpType.INDEX;
+		itemId = 0;
 		index = null;
 		type = null;
 		id = null;
 		documentLength = 0;
+		escapeRequired = true;
+		keepTimestamp = false;
+		upsertDocument = null;
 
 		released = true;
 
@@ -71,28 +85,23 @@ public class BulkIndexOperation implements DocumentSourceProvider {
 		POOL.offer(this);
 	}
 
-	public void read(JsonParser jsonParser) throws IOException {
-		while(jsonParser.currentToken() != JsonToken.END_OBJECT) {
-			final JsonToken nextToken = jsonParser.nextToken();
-
-			if(nextToken != JsonToken.FIELD_NAME) {
-				continue;
-			}
-			switch(jsonParser.getText()) {
-			case "_index":
-				jsonParser.nextToken();
-				index = jsonParser.getText();
-				break;
-			case "_type":
-				jsonParser.nextToken();
-				type = jsonParser.getText();
-				break;
-			case "_id":
-				jsonParser.nextToken();
-				id = jsonParser.getText();
-				break;
-			}
-		}
+	public BulkOpType getOpType() {
+		return opType;
+	}
+
+	public void setOpType(BulkOpType opType) {
+		this.opType = opType;
+	}
+
+	/**
+	 * @return The position of the operation within its bulk request
+	 */
+	public int getItemId() {
+		return itemId;
+	}
+
+	public void setItemId(int itemId) {
+		this.itemId = itemId;
 	}
 
 	public String getIndex() {
@@ -129,6 +138,17 @@ public class BulkIndexOperation implements DocumentSourceProvider {
 		this.documentLength = documentLength;
 	}
 
+	public void setDocument(PooledStringBuilder builder, int from, int to) {
+		final int documentLength = to - from;
+		if(this.document.length < documentLength) {
+			MAX_SOURCE_LENGTH.set(Math.max(documentLength, MAX_SOURCE_LENGTH.get()));
+			this.document = new char[MAX_SOURCE_LENGTH.get()];
+		}
+
+		builder.getChars(from, to, this.document, 0);
+		this.documentLength = documentLength;
+	}
+
 	@Override
 	public void setDocument(StringBuilder builder) {
 		if(this.document.length < builder.length()) {
@@ -159,6 +179,48 @@ public class BulkIndexOperation implements DocumentSourceProvider {
 		this.timestamp = timestamp;
 	}
 
+	@JsonIgnore
+	public boolean isEscapeRequired() {
+		return escapeRequired;
+	}
+
+	public void setEscapeRequired(boolean escapeRequired) {
+		this.escapeRequired = escapeRequired;
+	}
+
+	/**
+	 * @return True if an update should keep the timestamp of the existing document
+	 */
+	@JsonIgnore
+	public boolean isKeepTimestamp() {
+		return keepTimestamp;
+	}
+
+	public void setKeepTimestamp(boolean keepTimestamp) {
+		this.keepTimestamp = keepTimestamp;
+	}
+
+	/**
+	 * @return The document an update inserts if the document is missing or null if a missing document is not created
+	 */
+	@JsonIgnore
+	public String getUpsertDocument() {
+		return upsertDocument;
+	}
+
+	public void setUpsertDocument(String upsertDocument) {
+		this.upsertDocument = upsertDocument;
+	}
+
+	@JsonIgnore
+	public long getUpsertTimestamp() {
+		return upsertTimestamp;
+	}
+
+	public void setUpsertTimestamp(long upsertTimestamp) {
+		this.upsertTimestamp = upsertTimestamp;
+	}
+
 	@Override
 	@JsonIgnore
 	public String toString() {
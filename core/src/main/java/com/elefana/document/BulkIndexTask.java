@@ -33,7 +33,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 
-import java.nio.charset.Charset;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -44,12 +43,16 @@ import java.util.concurrent.Callable;
 public abstract class BulkIndexTask implements Callable<List<BulkItemResponse>> {
 	private static final Logger LOGGER = LoggerFactory.getLogger(BulkIndexTask.class);
 
-	protected static final String DELIMITER_INIT = "e'\\x1f'";
-	protected static final String DELIMITER = Character.toString((char) 31);
-	protected static final String ESCAPE_INIT = "e'\\x1e'";
-	protected static final String ESCAPE = Character.toString((char) 30);
-	protected static final String NEW_LINE = "\n";
-	protected static final Charset CHARSET = Charset.forName("UTF-8");
+	protected static final int TOTAL_COLUMNS = 9;
+	// Written for null _index/_type/_id to match the previous CSV ingestion
+	public static final String NULL_VALUE = "null";
+
+	private static final ThreadLocal<BinaryCopyWriter> COPY_WRITER = new ThreadLocal<BinaryCopyWriter>() {
+		@Override
+		protected BinaryCopyWriter initialValue() {
+			return new BinaryCopyWriter();
+		}
+	};
 
 	public static final String KEY_INDEX = "_index";
 	public static final String KEY_TYPE = "_type";
@@ -97,7 +100,12 @@ public abstract class BulkIndexTask implements Callable<List<BulkItemResponse>>
 		this.fieldStatsService = fieldStatsService;
 	}
 
-	public abstract boolean lockStagingTable();
+	/**
+	 * Locks a staging table to write to
+	 * @param timeoutMillis The max. time to wait for a staging table to become available
+	 * @return False if no staging table could be locked
+	 */
+	public abstract boolean lockStagingTable(long timeoutMillis);
 
 	public abstract void unlockStagingTable();
 
@@ -108,7 +116,7 @@ public abstract class BulkIndexTask implements Callable<List<BulkItemResponse>>
 		if(lockFailed || stagingTableId == -1) {
 			for (int i = from; i < from + size && i < indexOperations.size(); i++) {
 				BulkIndexOperation indexOperation = indexOperations.get(i);
-				BulkItemResponse responseEntry = createEntry(i, "index", indexOperation.getIndex(),
+				BulkItemResponse responseEntry = createEntry(indexOperation.getItemId(), "index", indexOperation.getIndex(),
 						indexOperation.getType(), indexOperation.getId(), BulkItemResponse.STATUS_FAILED);
 				results.add(responseEntry);
 				indexOperation.release();
@@ -128,11 +136,13 @@ public abstract class BulkIndexTask implements Callable<List<BulkItemResponse>>
 			final PgConnection pgConnection = connection.unwrap(PgConnection.class);
 			final CopyManager copyManager = new CopyManager(pgConnection);
 
-			final CopyIn copyIn = copyManager.
-					copyIn("COPY " + stagingTable + " FROM STDIN WITH CSV ENCODING 'UTF8' DELIMITER " + DELIMITER_INIT + " QUOTE " + ESCAPE_INIT);
+			final CopyIn copyIn = copyManager.copyIn("COPY " + stagingTable + " FROM STDIN WITH (FORMAT binary)");
+			final BinaryCopyWriter copyWriter = COPY_WRITER.get();
 
 			try {
 				final Timer.Context psqlTime = psqlTimer.time();
+				copyWriter.begin(copyIn);
+
 				int rowCount = 0;
 				for (int i = from; i < from + size && i < indexOperations.size(); i++) {
 					BulkIndexOperation indexOperation = indexOperations.get(i);
@@ -150,65 +160,58 @@ public abstract class BulkIndexTask implements Callable<List<BulkItemResponse>>
 						final Timer.Context flattenTime = flattenTimer.time();
 						IndexUtils.flattenJson(indexOperation);
 						flattenTime.stop();
-					} else {
-						final Timer.Context escapeTime = flattenTimer.time();
+					} else if(indexOperation.isEscapeRequired()) {
+						final Timer.Context escapeTime = escapeTimer.time();
 						EscapeUtils.psqlEscapeString(indexOperation);
 						escapeTime.stop();
 					}
 
-					final StringBuilder rowBuilder = IndexUtils.POOLED_STRING_BUILDER.get();
-					rowBuilder.append(indexOperation.getIndex());
-					rowBuilder.append(DELIMITER);
-					rowBuilder.append(indexOperation.getType());
-					rowBuilder.append(DELIMITER);
-					rowBuilder.append(indexOperation.getId());
-					rowBuilder.append(DELIMITER);
-					rowBuilder.append(indexOperation.getTimestamp());
-					rowBuilder.append(DELIMITER);
-					rowBuilder.append(bucket1s);
-					rowBuilder.append(DELIMITER);
-					rowBuilder.append(bucket1m);
-					rowBuilder.append(DELIMITER);
-					rowBuilder.append(bucket1h);
-					rowBuilder.append(DELIMITER);
-					rowBuilder.append(bucket1d);
-					rowBuilder.append(DELIMITER);
-					rowBuilder.append(ESCAPE);
-					rowBuilder.append(indexOperation.getDocument(), 0, indexOperation.getDocumentLength());
-					rowBuilder.append(ESCAPE);
-					rowBuilder.append(NEW_LINE);
-
-					final byte [] rowBytes = rowBuilder.toString().getBytes(CHARSET);
-					copyIn.writeToCopy(rowBytes, 0, rowBytes.length);
+					copyWriter.beginRow(TOTAL_COLUMNS);
+					copyWriter.writeText(indexOperation.getIndex() == null ? NULL_VALUE : indexOperation.getIndex());
+					copyWriter.writeText(indexOperation.getType() == null ? NULL_VALUE : indexOperation.getType());
+					copyWriter.writeText(indexOperation.getId() == null ? NULL_VALUE : indexOperation.getId());
+					copyWriter.writeBigint(indexOperation.getTimestamp());
+					copyWriter.writeBigint(bucket1s);
+					copyWriter.writeBigint(bucket1m);
+					copyWriter.writeBigint(bucket1h);
+					copyWriter.writeBigint(bucket1d);
+					copyWriter.writeJsonb(indexOperation.getDocument(), indexOperation.getDocumentLength());
 					rowCount++;
 				}
+				copyWriter.end();
 				copyIn.endCopy();
 				connection.commit();
 				psqlTime.stop();
 
 				ingestTable.markData(stagingTableId, rowCount, true);
-
-				try {
-					// index is the only supported bulk operation, therefore always submit the document
-					fieldStatsService.submitDocuments(indexOperations, from, size);
-				} catch (Exception e) {
-					LOGGER.error(e.getMessage(), e);
-				}
 			} catch (PSQLException e) {
+				if(copyIn.isActive()) {
+					copyIn.cancelCopy();
+				}
 				connection.rollback();
 				throw e;
 			} catch (Exception e) {
+				if(copyIn.isActive()) {
+					copyIn.cancelCopy();
+				}
 				throw e;
 			}
 
 			for (int i = from; i < from + size && i < indexOperations.size(); i++) {
 				BulkIndexOperation indexOperation = indexOperations.get(i);
-				BulkItemResponse responseEntry = createEntry(i, "index", indexOperation.getIndex(),
+				BulkItemResponse responseEntry = createEntry(indexOperation.getItemId(), "index", indexOperation.getIndex(),
 						indexOperation.getType(), indexOperation.getId(), BulkItemResponse.STATUS_CREATED);
 				results.add(responseEntry);
 			}
 			totalSuccess = results.size();
 			totalFailed = 0;
+
+			try {
+				// Queued for asynchronous analysis, the field stats service releases the operations
+				fieldStatsService.submitDocuments(indexOperations, from, size);
+			} catch (Exception e) {
+				LOGGER.error(e.getMessage(), e);
+			}
 		} catch (Exception e) {
 			totalSuccess = 0;
 			totalFailed = 0;
@@ -229,11 +232,11 @@ public abstract class BulkIndexTask implements Callable<List<BulkItemResponse>>
 				BulkItemResponse responseEntry = null;
 				if (foundBadEntry) {
 					totalFailed++;
-					responseEntry = createEntry(i, "index", indexOperation.getIndex(), indexOperation.getType(),
+					responseEntry = createEntry(indexOperation.getItemId(), "index", indexOperation.getIndex(), indexOperation.getType(),
 							indexOperation.getId(), BulkItemResponse.STATUS_FAILED);
 				} else {
 					totalSuccess++;
-					responseEntry = createEntry(i, "index", indexOperation.getIndex(), indexOperation.getType(),
+					responseEntry = createEntry(indexOperation.getItemId(), "index", indexOperation.getIndex(), indexOperation.getType(),
 							indexOperation.getId(), BulkItemResponse.STATUS_CREATED);
 				}
 				results.add(responseEntry);
@@ -271,6 +274,10 @@ public abstract class BulkIndexTask implements Callable<List<BulkItemResponse>>
 		return index;
 	}
 
+	public List<BulkIndexOperation> getIndexOperations() {
+		return indexOperations;
+	}
+
 	public int getFrom() {
 		return from;
 	}
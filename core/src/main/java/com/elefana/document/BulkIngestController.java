@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.document;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import com.elefana.document.ingest.IngestTable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes bulk index tasks from measured COPY throughput and staging table
+ * availability, and limits the operations in flight per index
+ */
+public class BulkIngestController {
+	private final Timer psqlTimer;
+	private final Histogram taskSizeHistogram;
+	private final int maxParallelisation;
+	private final int minimumTaskSize;
+	private final long targetTaskNanos;
+	private final long latencyBudgetMillis;
+	private final int indexCredits;
+
+	private final Map<String, Semaphore> indexCreditPools = new ConcurrentHashMap<String, Semaphore>();
+
+	/**
+	 * @param psqlTimer The timer measuring the COPY of each task
+	 * @param taskSizeHistogram The histogram of operations per task
+	 * @param maxParallelisation The preferred no. of tasks per index
+	 * @param minimumTaskSize The minimum no. of operations per task
+	 * @param targetTaskMillis The preferred max. duration of a task's COPY
+	 * @param latencyBudgetMillis The max. time to wait for staging tables or credits
+	 * @param indexCredits The max. no. of operations in flight per index, 0 for unlimited
+	 */
+	public BulkIngestController(Timer psqlTimer, Histogram taskSizeHistogram, int maxParallelisation,
+	                            int minimumTaskSize, long targetTaskMillis, long latencyBudgetMillis, int indexCredits) {
+		super();
+		this.psqlTimer = psqlTimer;
+		this.taskSizeHistogram = taskSizeHistogram;
+		this.maxParallelisation = Math.max(1, maxParallelisation);
+		this.minimumTaskSize = Math.max(1, minimumTaskSize);
+		this.targetTaskNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, targetTaskMillis));
+		this.latencyBudgetMillis = Math.max(1L, latencyBudgetMillis);
+		this.indexCredits = Math.max(0, indexCredits);
+	}
+
+	/**
+	 * Returns the no. of operations per task. Batches are never split into more tasks
+	 * than there are staging tables available, but are split beyond the preferred
+	 * parallelisation when the measured throughput means a task would exceed the target duration.
+	 * @param ingestTable The {@link IngestTable} the operations will be written to
+	 * @param totalOperations The total no. of operations to split
+	 * @return The no. of operations per task
+	 */
+	public int getTaskSize(IngestTable ingestTable, int totalOperations) {
+		final int availableTables = Math.max(1, ingestTable.getAvailableCapacity());
+		int totalTasks = Math.min(maxParallelisation, availableTables);
+
+		final double nanosPerOperation = getNanosPerOperation();
+		if(nanosPerOperation > 0.0) {
+			final long expectedTasks = (long) Math.ceil((totalOperations * nanosPerOperation) / targetTaskNanos);
+			totalTasks = (int) Math.min(availableTables, Math.max(totalTasks, expectedTasks));
+		}
+		return Math.max(minimumTaskSize, (totalOperations + totalTasks - 1) / totalTasks);
+	}
+
+	public void recordTaskSize(int operations) {
+		taskSizeHistogram.update(operations);
+	}
+
+	private double getNanosPerOperation() {
+		if(psqlTimer.getCount() == 0 || taskSizeHistogram.getCount() == 0) {
+			return 0.0;
+		}
+		final double averageTaskSize = taskSizeHistogram.getSnapshot().getMean();
+		if(averageTaskSize <= 0.0) {
+			return 0.0;
+		}
+		return psqlTimer.getSnapshot().getMean() / averageTaskSize;
+	}
+
+	/**
+	 * Waits up to the latency budget for credits to index operations
+	 * @param index The index being written to
+	 * @param operations The no. of operations
+	 * @return False if the credits were not available within the latency budget
+	 */
+	public boolean acquireCredits(String index, int operations) {
+		if(indexCredits == 0) {
+			return true;
+		}
+		try {
+			return getCreditPool(index).tryAcquire(getCredits(operations), latencyBudgetMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+
+	public void releaseCredits(String index, int operations) {
+		if(indexCredits == 0) {
+			return;
+		}
+		getCreditPool(index).release(getCredits(operations));
+	}
+
+	private int getCredits(int operations) {
+		//A single batch larger than the limit is admitted alone
+		return Math.max(1, Math.min(operations, indexCredits));
+	}
+
+	private Semaphore getCreditPool(String index) {
+		return indexCreditPools.computeIfAbsent(index, key -> new Semaphore(indexCredits, true));
+	}
+
+	public long getLatencyBudgetMillis() {
+		return latencyBudgetMillis;
+	}
+}
@@ -46,9 +46,9 @@ public class BulkTimeIndexTask extends BulkIndexTask {
 	}
 
 	@Override
-	public boolean lockStagingTable() {
+	public boolean lockStagingTable(long timeoutMillis) {
 		try {
-			stagingTableId = timeIngestTable.lockTable(shardOffset);
+			stagingTableId = timeIngestTable.lockTable(shardOffset, timeoutMillis);
 			return true;
 		} catch (ElefanaException e) {
 			if(e.getStatusCode().equals(HttpResponseStatus.TOO_MANY_REQUESTS)) {
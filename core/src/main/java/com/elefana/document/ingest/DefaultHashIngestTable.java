@@ -29,13 +29,16 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class DefaultHashIngestTable implements HashIngestTable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DefaultHashIngestTable.class);
+	private static final long LOCK_RETRY_NANOS = 100000L;
 
 	private final JdbcTemplate jdbcTemplate;
 	private final String index;
@@ -44,14 +47,17 @@ public class DefaultHashIngestTable implements HashIngestTable {
 	private final ThreadLocalInteger readIndex;
 	private final ThreadLocalInteger writeIndex;
 	private final AtomicInteger[] dataMarker;
+	private final ReadyStagingTableQueue readyQueue;
 	private final AtomicLong lastUsageTimestamp = new AtomicLong();
 	private final AtomicBoolean pruned = new AtomicBoolean();
 
 	public DefaultHashIngestTable(JdbcTemplate jdbcTemplate, String [] tablespaces,
-	                              String index, int capacity, List<String> existingTableNames) throws SQLException {
+	                              String index, int capacity, List<String> existingTableNames,
+	                              ReadyStagingTableQueue readyQueue) throws SQLException {
 		super();
 		this.jdbcTemplate = jdbcTemplate;
 		this.index = index;
+		this.readyQueue = readyQueue;
 
 		locks = new ReentrantLock[capacity];
 		tableNames = new String[capacity];
@@ -93,6 +99,12 @@ public class DefaultHashIngestTable implements HashIngestTable {
 			closeConnection(connection);
 			throw e;
 		}
+
+		for(int i = 0; i < capacity; i++) {
+			if(isDataMarked(i)) {
+				readyQueue.offer(this, i);
+			}
+		}
 	}
 
 	private boolean tryLockAll() {
@@ -258,6 +270,7 @@ public class DefaultHashIngestTable implements HashIngestTable {
 					return index;
 				}
 			}
+			LockSupport.parkNanos(LOCK_RETRY_NANOS);
 		}
 		throw new ElefanaException(HttpResponseStatus.TOO_MANY_REQUESTS, "Unable to lock ingest table for index '" + index + "'");
 	}
@@ -304,6 +317,26 @@ public class DefaultHashIngestTable implements HashIngestTable {
 		return -1;
 	}
 
+	@Override
+	public boolean lockWrittenTable(int index, long timeoutMillis) {
+		if(pruned.get()) {
+			return false;
+		}
+		try {
+			if(!locks[index].tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				return false;
+			}
+		} catch (InterruptedException e) {
+			return false;
+		}
+		if(pruned.get() || !isDataMarked(index)) {
+			locks[index].unlock();
+			return false;
+		}
+		lastUsageTimestamp.set(System.currentTimeMillis());
+		return true;
+	}
+
 	public boolean isDataMarked(int index) {
 		return dataMarker[index].get() > 0;
 	}
@@ -315,7 +348,9 @@ public class DefaultHashIngestTable implements HashIngestTable {
 				return;
 			}
 		}
-		dataMarker[index].addAndGet(quantity);
+		if(dataMarker[index].addAndGet(quantity) == quantity && quantity > 0) {
+			readyQueue.offer(this, index);
+		}
 	}
 
 	@Override
@@ -359,6 +394,17 @@ public class DefaultHashIngestTable implements HashIngestTable {
 		return dataMarker.length;
 	}
 
+	@Override
+	public int getAvailableCapacity() {
+		int result = 0;
+		for(int i = 0; i < locks.length; i++) {
+			if(!locks[i].isLocked()) {
+				result++;
+			}
+		}
+		return result;
+	}
+
 	@Override
 	public long getLastUsageTimestamp() {
 		return lastUsageTimestamp.get();
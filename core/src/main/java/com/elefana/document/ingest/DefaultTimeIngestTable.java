@@ -30,13 +30,16 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class DefaultTimeIngestTable implements TimeIngestTable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DefaultTimeIngestTable.class);
+	private static final long LOCK_RETRY_NANOS = 100000L;
 
 	private final JdbcTemplate jdbcTemplate;
 	private final String index;
@@ -45,15 +48,18 @@ public class DefaultTimeIngestTable implements TimeIngestTable {
 	private final String [] tableNames;
 	private final int [] shardIds;
 	private final AtomicInteger[] dataMarker;
+	private final ReadyStagingTableQueue readyQueue;
 	private final AtomicLong lastUsageTimestamp = new AtomicLong();
 	private final AtomicBoolean pruned = new AtomicBoolean();
 
 	private final ThreadLocalInteger readIndex;
 
 	public DefaultTimeIngestTable(JdbcTemplate jdbcTemplate, String [] tablespaces,
-	                              String index, IndexTimeBucket timeBucket, int bulkParallelisation, List<String> existingTableNames) throws SQLException {
+	                              String index, IndexTimeBucket timeBucket, int bulkParallelisation, List<String> existingTableNames,
+	                              ReadyStagingTableQueue readyQueue) throws SQLException {
 		super();
 		this.index = index;
+		this.readyQueue = readyQueue;
 		this.capacity = (timeBucket.getIngestTableCapacity() * bulkParallelisation) + (bulkParallelisation + 1);
 		this.jdbcTemplate = jdbcTemplate;
 
@@ -102,6 +108,12 @@ public class DefaultTimeIngestTable implements TimeIngestTable {
 			closeConnection(connection);
 			throw e;
 		}
+
+		for(int i = 0; i < capacity; i++) {
+			if(isDataMarked(i)) {
+				readyQueue.offer(this, i);
+			}
+		}
 	}
 
 	private void closeConnection(Connection connection) {
@@ -292,6 +304,7 @@ public class DefaultTimeIngestTable implements TimeIngestTable {
 					continue;
 				}
 			}
+			LockSupport.parkNanos(LOCK_RETRY_NANOS);
 		}
 		throw new ElefanaException(HttpResponseStatus.TOO_MANY_REQUESTS, "Unable to lock ingest table for index '" + index + "'");
 	}
@@ -342,6 +355,26 @@ public class DefaultTimeIngestTable implements TimeIngestTable {
 		return -1;
 	}
 
+	@Override
+	public boolean lockWrittenTable(int index, long timeoutMillis) {
+		if(pruned.get()) {
+			return false;
+		}
+		try {
+			if(!locks[index].tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				return false;
+			}
+		} catch (InterruptedException e) {
+			return false;
+		}
+		if(pruned.get() || !isDataMarked(index)) {
+			locks[index].unlock();
+			return false;
+		}
+		lastUsageTimestamp.set(System.currentTimeMillis());
+		return true;
+	}
+
 	public boolean isDataMarked(int index) {
 		return dataMarker[index].get()  > 0;
 	}
@@ -353,7 +386,9 @@ public class DefaultTimeIngestTable implements TimeIngestTable {
 				return;
 			}
 		}
-		dataMarker[index].addAndGet(quantity);
+		if(dataMarker[index].addAndGet(quantity) == quantity && quantity > 0) {
+			readyQueue.offer(this, index);
+		}
 	}
 
 	@Override
@@ -397,4 +432,15 @@ public class DefaultTimeIngestTable implements TimeIngestTable {
 	public int getCapacity() {
 		return dataMarker.length;
 	}
+
+	@Override
+	public int getAvailableCapacity() {
+		int result = 0;
+		for(int i = 0; i < locks.length; i++) {
+			if(!locks[i].isLocked()) {
+				result++;
+			}
+		}
+		return result;
+	}
 }
@@ -24,6 +24,14 @@ public interface IngestTable {
 
 	public int lockWrittenTable(Set<String> routedTables, long timeout) throws ElefanaException;
 
+	/**
+	 * Locks a specific staging table if it has data marked
+	 * @param index The staging table index
+	 * @param timeoutMillis The maximum time to wait for the lock
+	 * @return False if the lock could not be acquired or there is no data marked
+	 */
+	public boolean lockWrittenTable(int index, long timeoutMillis);
+
 	public boolean isDataMarked(int index);
 
 	public default void markData(int index, int quantity) {
@@ -52,6 +60,11 @@ public interface IngestTable {
 
 	public int getCapacity();
 
+	/**
+	 * @return The number of staging tables not currently locked for reading or writing
+	 */
+	public int getAvailableCapacity();
+
 	public long getLastUsageTimestamp();
 
 	public boolean prune();
@@ -29,5 +29,7 @@ public interface IngestTableTracker {
 
 	public TimeIngestTable getTimeIngestTable(String index) throws ElefanaException;
 
+	public ReadyStagingTableQueue getReadyStagingTables();
+
 	public int getTotalIngestTables();
 }
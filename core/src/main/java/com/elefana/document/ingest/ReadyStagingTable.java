@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.document.ingest;
+
+/**
+ * A staging table which has had data committed to it and is waiting to be merged
+ */
+public class ReadyStagingTable {
+	private final IngestTable ingestTable;
+	private final int stagingTableId;
+	private final long readyTimestamp;
+
+	public ReadyStagingTable(IngestTable ingestTable, int stagingTableId, long readyTimestamp) {
+		super();
+		this.ingestTable = ingestTable;
+		this.stagingTableId = stagingTableId;
+		this.readyTimestamp = readyTimestamp;
+	}
+
+	public IngestTable getIngestTable() {
+		return ingestTable;
+	}
+
+	public int getStagingTableId() {
+		return stagingTableId;
+	}
+
+	public long getReadyTimestamp() {
+		return readyTimestamp;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		final ReadyStagingTable that = (ReadyStagingTable) o;
+		return stagingTableId == that.stagingTableId && ingestTable == that.ingestTable;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * System.identityHashCode(ingestTable) + stagingTableId;
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.document.ingest;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of staging tables with data waiting to be merged. Each staging table
+ * is queued at most once until a worker takes it from the queue.
+ */
+public class ReadyStagingTableQueue {
+	private final BlockingQueue<ReadyStagingTable> queue = new LinkedBlockingQueue<ReadyStagingTable>();
+	private final Set<ReadyStagingTable> queued = ConcurrentHashMap.newKeySet();
+
+	public boolean offer(IngestTable ingestTable, int stagingTableId) {
+		return offer(new ReadyStagingTable(ingestTable, stagingTableId, System.currentTimeMillis()));
+	}
+
+	public boolean offer(ReadyStagingTable readyStagingTable) {
+		if(!queued.add(readyStagingTable)) {
+			return false;
+		}
+		return queue.offer(readyStagingTable);
+	}
+
+	public ReadyStagingTable poll(long timeout, TimeUnit timeUnit) throws InterruptedException {
+		final ReadyStagingTable result = queue.poll(timeout, timeUnit);
+		if(result != null) {
+			queued.remove(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Removes queued staging tables belonging to the same {@link IngestTable}
+	 * @param ingestTable The {@link IngestTable} to match
+	 * @param result The list to append the removed staging tables to
+	 * @param maxResults The maximum size of the result list
+	 */
+	public void drainTo(IngestTable ingestTable, List<ReadyStagingTable> result, int maxResults) {
+		for(ReadyStagingTable next : queue) {
+			if(result.size() >= maxResults) {
+				return;
+			}
+			if(next.getIngestTable() != ingestTable) {
+				continue;
+			}
+			if(!queue.remove(next)) {
+				continue;
+			}
+			queued.remove(next);
+			result.add(next);
+		}
+	}
+
+	public boolean isQueued(IngestTable ingestTable, int stagingTableId) {
+		return queued.contains(new ReadyStagingTable(ingestTable, stagingTableId, 0L));
+	}
+
+	public int size() {
+		return queue.size();
+	}
+}
@@ -16,6 +16,7 @@
 package com.elefana.document.psql;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
@@ -24,6 +25,8 @@ import com.elefana.api.indices.IndexTemplate;
 import com.elefana.document.ingest.HashIngestTable;
 import com.elefana.document.ingest.IngestTable;
 import com.elefana.document.ingest.IngestTableTracker;
+import com.elefana.document.ingest.ReadyStagingTable;
+import com.elefana.document.ingest.ReadyStagingTableQueue;
 import com.elefana.document.ingest.TimeIngestTable;
 import com.elefana.indices.IndexFieldMappingService;
 import com.elefana.indices.IndexTemplateService;
@@ -31,6 +34,7 @@ import com.elefana.indices.psql.PsqlIndexFieldMappingService;
 import com.elefana.indices.psql.PsqlIndexTemplateService;
 import com.elefana.node.NodeSettingsService;
 import com.elefana.util.CitusShardMetadataMaintainer;
+import com.elefana.util.IndexGenerationTracker;
 import com.elefana.util.IndexUtils;
 import com.elefana.util.NamedThreadFactory;
 import com.elefana.util.ThreadPriorities;
@@ -48,7 +52,10 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -56,13 +63,15 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class PsqlBulkIndexService implements Runnable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PsqlBulkIndexService.class);
-	private static final long NOTIFIER_WAIT_MILLIS = 1000L;
+	private static final long LOCK_TIMEOUT_MILLIS = 10L;
 
 	@Autowired
 	protected Environment environment;
@@ -80,19 +89,26 @@ public class PsqlBulkIndexService implements Runnable {
 	protected IngestTableTracker ingestTableTracker;
 	@Autowired
 	protected MetricRegistry metricRegistry;
+	@Autowired
+	protected IndexGenerationTracker indexGenerationTracker;
+	@Autowired
+	protected PsqlRollupMaintainer rollupMaintainer;
 
 	protected final AtomicBoolean running = new AtomicBoolean(true);
 	protected final Set<String> routedTables = new ConcurrentSkipListSet<String>();
+	protected final AtomicLong lastRescanTimestamp = new AtomicLong();
 
 	protected ExecutorService executorService;
 	protected Lock [] shardLocks;
+	protected ReadyStagingTableQueue readyQueue;
+	protected long rescanIntervalMillis;
+	protected int maxMergeTables;
 
 	protected Meter bulkIndexMeter;
 	private Timer bulkIndexTimer;
+	private Timer visibilityTimer;
 	private Counter duplicateKeyCounter;
 
-	private final Object notifier = new Object();
-
 	@PostConstruct
 	public void postConstruct() {
 		shardLocks = new Lock[environment.getProperty("elefana.worker.bulk.shard.locks", Integer.class, 100)];
@@ -103,6 +119,18 @@ public class PsqlBulkIndexService implements Runnable {
 		duplicateKeyCounter = metricRegistry.counter(MetricRegistry.name("bulk", "key", "duplicates"));
 		bulkIndexTimer = metricRegistry.timer(MetricRegistry.name("bulk", "index", "duration", "total"));
 		bulkIndexMeter = metricRegistry.meter(MetricRegistry.name("bulk", "index", "rows"));
+		visibilityTimer = metricRegistry.timer(MetricRegistry.name("bulk", "index", "duration", "visibility"));
+
+		readyQueue = ingestTableTracker.getReadyStagingTables();
+		rescanIntervalMillis = Math.max(1L, environment.getProperty("elefana.service.bulk.index.rescanMillis", Long.class, 1000L));
+		maxMergeTables = Math.max(1, environment.getProperty("elefana.service.bulk.index.maxMergeTables", Integer.class, 8));
+
+		metricRegistry.register(MetricRegistry.name("bulk", "index", "queue", "depth"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return readyQueue.size();
+			}
+		});
 
 		final int totalThreads = getTotalThreads();
 
@@ -139,39 +167,44 @@ public class PsqlBulkIndexService implements Runnable {
 	@Override
 	public void run() {
 		try {
-			final Queue<HashIngestTable> hashIngestTablesQueue = new LinkedList<HashIngestTable>();
-			final Queue<TimeIngestTable> timeIngestTablesQueue = new LinkedList<TimeIngestTable>();
-			final AtomicBoolean indexedItems = new AtomicBoolean();
+			final List<ReadyStagingTable> readyStagingTables = new ArrayList<ReadyStagingTable>();
 			while (running.get()) {
-				indexedItems.set(false);
-				ingestTableTracker.getHashIngestTables(hashIngestTablesQueue);
-				ingestTableTracker.getTimeIngestTables(timeIngestTablesQueue);
+				rescanIngestTables();
+
+				final ReadyStagingTable nextStagingTable = readyQueue.poll(rescanIntervalMillis, TimeUnit.MILLISECONDS);
+				if(nextStagingTable == null) {
+					continue;
+				}
+
+				readyStagingTables.clear();
+				readyStagingTables.add(nextStagingTable);
+				if(!nodeSettingsService.isUsingCitus()) {
+					readyQueue.drainTo(nextStagingTable.getIngestTable(), readyStagingTables, maxMergeTables);
+				}
 
 				Connection connection = null;
-				connection = processQueue(connection, indexedItems, hashIngestTablesQueue);
-				connection = processQueue(connection, indexedItems, timeIngestTablesQueue);
+				try {
+					connection = jdbcTemplate.getDataSource().getConnection();
+					connection.setAutoCommit(false);
+
+					if(ingestTables(connection, readyStagingTables)) {
+						if(indexFieldMappingService instanceof PsqlIndexFieldMappingService) {
+							((PsqlIndexFieldMappingService) indexFieldMappingService).
+									scheduleIndexForMappingAndStats(nextStagingTable.getIngestTable().getIndex());
+						}
+					}
+				} catch (Exception e) {
+					LOGGER.error(e.getMessage(), e);
+				}
 
 				if (connection != null) {
 					try {
 						connection.setAutoCommit(true);
 						connection.close();
-						connection = null;
 					} catch (SQLException e1) {
 						e1.printStackTrace();
 					}
 				}
-
-				if(!indexedItems.get()) {
-					//Nothing was indexed, wait until notified content available
-					synchronized(notifier) {
-						notifier.wait(NOTIFIER_WAIT_MILLIS);
-					}
-				}
-
-				//Prevent high CPU load
-				try {
-					Thread.sleep(25L);
-				} catch (Exception e) {}
 			}
 		} catch (Exception e) {
 			LOGGER.error(e.getMessage(), e);
@@ -182,150 +215,324 @@ public class PsqlBulkIndexService implements Runnable {
 		executorService.submit(this);
 	}
 
-	public void notifyContentAvailable() {
-		synchronized(notifier) {
-			notifier.notifyAll();
+	/**
+	 * Periodically queues any staging tables that have data marked but are not queued,
+	 * e.g. tables restored on startup or tables which previously failed to merge
+	 */
+	private void rescanIngestTables() {
+		final long timestamp = System.currentTimeMillis();
+		final long previousRescanTimestamp = lastRescanTimestamp.get();
+		if(timestamp - previousRescanTimestamp < rescanIntervalMillis) {
+			return;
+		}
+		if(!lastRescanTimestamp.compareAndSet(previousRescanTimestamp, timestamp)) {
+			return;
 		}
+
+		final Queue<HashIngestTable> hashIngestTables = new LinkedList<HashIngestTable>();
+		final Queue<TimeIngestTable> timeIngestTables = new LinkedList<TimeIngestTable>();
+		ingestTableTracker.getHashIngestTables(hashIngestTables);
+		ingestTableTracker.getTimeIngestTables(timeIngestTables);
+		rescanQueue(hashIngestTables);
+		rescanQueue(timeIngestTables);
 	}
 
-	private <T extends IngestTable> Connection processQueue(Connection connection, AtomicBoolean indexedItems, Queue<T> queue) throws SQLException {
+	private <T extends IngestTable> void rescanQueue(Queue<T> queue) {
 		while(!queue.isEmpty()) {
-			final IngestTable nextIngestTable = queue.poll();
+			final IngestTable ingestTable = queue.poll();
+			for(int i = 0; i < ingestTable.getCapacity(); i++) {
+				if(!ingestTable.isDataMarked(i)) {
+					continue;
+				}
+				if(routedTables.contains(ingestTable.getIngestionTableName(i, true))) {
+					continue;
+				}
+				readyQueue.offer(ingestTable, i);
+			}
+		}
+	}
 
-			if(connection == null) {
-				connection = jdbcTemplate.getDataSource().getConnection();
-				connection.setAutoCommit(false);
+	protected boolean ingestTables(Connection connection, List<ReadyStagingTable> readyStagingTables) throws Exception {
+		final IngestTable ingestTable = readyStagingTables.get(0).getIngestTable();
+
+		final List<ReadyStagingTable> lockedStagingTables = new ArrayList<ReadyStagingTable>(readyStagingTables.size());
+		for(ReadyStagingTable readyStagingTable : readyStagingTables) {
+			if(ingestTable.lockWrittenTable(readyStagingTable.getStagingTableId(), LOCK_TIMEOUT_MILLIS)) {
+				lockedStagingTables.add(readyStagingTable);
+			} else if(ingestTable.isDataMarked(readyStagingTable.getStagingTableId())) {
+				//Still being written to, try again later
+				readyQueue.offer(readyStagingTable);
 			}
+		}
+		if(lockedStagingTables.isEmpty()) {
+			return false;
+		}
 
-			try {
-				if(ingestTable(connection, nextIngestTable)) {
-					indexedItems.set(true);
-					if(indexFieldMappingService instanceof PsqlIndexFieldMappingService) {
-						((PsqlIndexFieldMappingService) indexFieldMappingService).
-								scheduleIndexForMappingAndStats(nextIngestTable.getIndex());
-					}
+		try {
+			final IndexTemplate indexTemplate = getIndexTemplate(ingestTable.getIndex());
+
+			if(lockedStagingTables.size() > 1 && mergeStagingTablesIntoPartitionTable(connection, indexTemplate, lockedStagingTables)) {
+				return true;
+			}
+
+			boolean result = false;
+			for(ReadyStagingTable readyStagingTable : lockedStagingTables) {
+				result |= ingestTable(connection, indexTemplate, readyStagingTable);
+			}
+			return result;
+		} finally {
+			for(ReadyStagingTable readyStagingTable : lockedStagingTables) {
+				ingestTable.unlockTable(readyStagingTable.getStagingTableId());
+			}
+		}
+	}
+
+	/**
+	 * Merges the staged documents of an index on the calling thread, waiting for staging tables
+	 * that are still being written or merged. Writes issued afterwards apply on top of the staged documents.
+	 * @param index The index to merge
+	 * @param timeoutMillis The maximum time to wait for staging tables
+	 * @return False if staged documents of the index remain unmerged
+	 */
+	public boolean mergeStagingTables(String index, long timeoutMillis) {
+		final Queue<HashIngestTable> hashIngestTables = new LinkedList<HashIngestTable>();
+		final Queue<TimeIngestTable> timeIngestTables = new LinkedList<TimeIngestTable>();
+		ingestTableTracker.getHashIngestTables(hashIngestTables);
+		ingestTableTracker.getTimeIngestTables(timeIngestTables);
+
+		final List<IngestTable> ingestTables = new ArrayList<IngestTable>();
+		for(IngestTable ingestTable : hashIngestTables) {
+			if(ingestTable.getIndex().equals(index)) {
+				ingestTables.add(ingestTable);
+			}
+		}
+		for(IngestTable ingestTable : timeIngestTables) {
+			if(ingestTable.getIndex().equals(index)) {
+				ingestTables.add(ingestTable);
+			}
+		}
+
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		boolean merged = false;
+		boolean retry = false;
+		IndexTemplate indexTemplate = null;
+		Connection connection = null;
+		try {
+			while(hasDataMarked(ingestTables)) {
+				if(System.currentTimeMillis() >= deadline) {
+					return false;
 				}
-			} catch (Exception e) {
-				LOGGER.error(e.getMessage(), e);
-				if (connection != null) {
-					try {
-						connection.setAutoCommit(true);
-						connection.close();
-						connection = null;
-					} catch (SQLException e1) {
-						e1.printStackTrace();
+				if(retry) {
+					//Deferred merges are retried until the timeout
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(LOCK_TIMEOUT_MILLIS));
+				}
+				retry = true;
+
+				for(IngestTable ingestTable : ingestTables) {
+					for(int i = 0; i < ingestTable.getCapacity(); i++) {
+						if(!ingestTable.isDataMarked(i)) {
+							continue;
+						}
+						//Fails once the table was merged by another thread while waiting
+						if(!ingestTable.lockWrittenTable(i, Math.max(1L, deadline - System.currentTimeMillis()))) {
+							continue;
+						}
+						try {
+							if(connection == null) {
+								connection = jdbcTemplate.getDataSource().getConnection();
+								connection.setAutoCommit(false);
+								indexTemplate = getIndexTemplate(index);
+							}
+							merged |= ingestTable(connection, indexTemplate, new ReadyStagingTable(ingestTable, i, System.currentTimeMillis()));
+						} finally {
+							ingestTable.unlockTable(i);
+						}
 					}
 				}
 			}
+			return true;
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage(), e);
+			return false;
+		} finally {
+			if (connection != null) {
+				try {
+					connection.setAutoCommit(true);
+					connection.close();
+				} catch (SQLException e) {
+					LOGGER.error(e.getMessage(), e);
+				}
+			}
+			if(merged && indexFieldMappingService instanceof PsqlIndexFieldMappingService) {
+				((PsqlIndexFieldMappingService) indexFieldMappingService).scheduleIndexForMappingAndStats(index);
+			}
 		}
-		return connection;
 	}
 
-	protected boolean ingestTable(Connection connection, IngestTable ingestTable) throws Exception {
-		boolean result = false;
+	private static boolean hasDataMarked(List<IngestTable> ingestTables) {
+		for(IngestTable ingestTable : ingestTables) {
+			for(int i = 0; i < ingestTable.getCapacity(); i++) {
+				if(ingestTable.isDataMarked(i)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
 
-		final IndexTemplate indexTemplate;
+	private IndexTemplate getIndexTemplate(String index) throws ElefanaException {
 		if(indexTemplateService instanceof PsqlIndexTemplateService) {
-			indexTemplate = ((PsqlIndexTemplateService) indexTemplateService).getIndexTemplateForIndex(ingestTable.getIndex());
-		} else {
-			indexTemplate = indexTemplateService.prepareGetIndexTemplateForIndex(null, ingestTable.getIndex()).get().getIndexTemplate();
+			return ((PsqlIndexTemplateService) indexTemplateService).getIndexTemplateForIndex(index);
 		}
+		return indexTemplateService.prepareGetIndexTemplateForIndex(null, index).get().getIndexTemplate();
+	}
 
-		for(int i = 0; i < ingestTable.getCapacity(); i++) {
-			final int stagingTableId;
-			try {
-				stagingTableId = ingestTable.lockWrittenTable(routedTables);
-			} catch (Exception e) {
-				LOGGER.error(e.getMessage(), e);
-				continue;
-			}
-			if(stagingTableId <= -1) {
-				return result;
+	/**
+	 * Merges multiple staging tables of the same index with a single INSERT
+	 * @return False if the merge failed and the staging tables should be merged individually
+	 */
+	private boolean mergeStagingTablesIntoPartitionTable(Connection connection, IndexTemplate indexTemplate,
+	                                                     List<ReadyStagingTable> readyStagingTables) throws SQLException {
+		final IngestTable ingestTable = readyStagingTables.get(0).getIngestTable();
+
+		final Timer.Context indexTimer = bulkIndexTimer.time();
+		try {
+			final String targetTableName = indexUtils.getPartitionTableForIndex(connection, ingestTable.getIndex());
+
+			final List<String> stagingTableNames = new ArrayList<String>(readyStagingTables.size());
+			final StringBuilder insertQuery = new StringBuilder();
+			final StringBuilder truncateQuery = new StringBuilder();
+			insertQuery.append("INSERT INTO ");
+			insertQuery.append(targetTableName);
+			truncateQuery.append("TRUNCATE TABLE ");
+			for(int i = 0; i < readyStagingTables.size(); i++) {
+				final String stagingTableName = ingestTable.getIngestionTableName(readyStagingTables.get(i).getStagingTableId());
+				if(i > 0) {
+					insertQuery.append(" UNION ALL");
+					truncateQuery.append(", ");
+				}
+				insertQuery.append(" SELECT * FROM ");
+				insertQuery.append(stagingTableName);
+				truncateQuery.append(stagingTableName);
+				stagingTableNames.add(stagingTableName);
 			}
 
-			String stagingTableName = null;
+			PreparedStatement preparedStatement = connection.prepareStatement(insertQuery.toString());
+			preparedStatement.executeUpdate();
+			preparedStatement.close();
 
-			BulkIndexResult bulkIndexResult = BulkIndexResult.SUCCESS;
-			final Timer.Context indexTimer = bulkIndexTimer.time();
-			try {
-				stagingTableName = ingestTable.getIngestionTableName(stagingTableId);
-				final String targetTableName = indexUtils.getPartitionTableForIndex(connection, ingestTable.getIndex());
+			rollupMaintainer.updateRollups(connection, indexTemplate, ingestTable.getIndex(), stagingTableNames);
 
-				if (nodeSettingsService.isUsingCitus()) {
-					bulkIndexResult = mergeStagingTableIntoDistributedTable(connection, indexTemplate,
-							ingestTable, stagingTableId, stagingTableName, targetTableName);
-				} else {
-					mergeStagingTableIntoPartitionTable(connection, stagingTableName, targetTableName);
-				}
-			} catch (Exception e) {
-				if(e.getMessage() != null && e.getMessage().contains("duplicate key") &&
-					!e.getMessage().contains("pg_type_")) {
-					LOGGER.error("Duplicate key in bulk staging table: " + stagingTableName);
-					duplicateKeyCounter.inc();
-					bulkIndexResult = BulkIndexResult.DUPLICATE;
-				} else {
-					LOGGER.error(e.getMessage(), e);
-					bulkIndexResult = BulkIndexResult.EXCEPTION;
-				}
-				connection.rollback();
-			}
+			preparedStatement = connection.prepareStatement(truncateQuery.toString());
+			preparedStatement.execute();
+			preparedStatement.close();
+			connection.commit();
+		} catch (Exception e) {
+			LOGGER.error("Unable to merge " + readyStagingTables.size() + " staging tables for " + ingestTable.getIndex()
+					+ ", merging individually. " + e.getMessage());
+			connection.rollback();
+			return false;
+		} finally {
 			indexTimer.stop();
+		}
 
-			try {
-				switch(bulkIndexResult) {
-				case ROUTE:
-					routedTables.add(stagingTableName);
-					result |= true;
-					break;
-				case DEFER:
-					routedTables.remove(stagingTableName);
-					break;
-				case EXCEPTION:
-					routedTables.remove(stagingTableName);
-					ingestTable.unlockTable(stagingTableId);
-					return result;
-				case DUPLICATE:
-					if(nodeSettingsService.isRegenerateDuplicateIds()) {
-						PreparedStatement generateIdStatement = connection.prepareStatement(
-								"UPDATE " + stagingTableName + " SET _id = ('dup_' || CAST (nextval('elefana_dup_key_id') AS VARCHAR))");
-						generateIdStatement.execute();
-						generateIdStatement.close();
-						connection.commit();
-						LOGGER.error("Re-generated ids for " + stagingTableName);
-						routedTables.remove(stagingTableName);
-						break;
-					} else {
-						PreparedStatement transferStatement = connection.prepareStatement(
-								"INSERT INTO elefana_duplicate_keys SELECT * FROM " + stagingTableName);
-						transferStatement.execute();
-						transferStatement.close();
-						connection.commit();
-						LOGGER.error("Copied " + stagingTableName + " to elefana_duplicate_keys");
-					}
-				default:
-				case SUCCESS: {
-					bulkIndexMeter.mark(ingestTable.getDataCount(stagingTableId));
-
-					PreparedStatement dropTableStatement = connection.prepareStatement(
-							"TRUNCATE TABLE " + stagingTableName);
-					dropTableStatement.execute();
-					dropTableStatement.close();
-					connection.commit();
+		for(ReadyStagingTable readyStagingTable : readyStagingTables) {
+			bulkIndexMeter.mark(ingestTable.getDataCount(readyStagingTable.getStagingTableId()));
+			ingestTable.unmarkData(readyStagingTable.getStagingTableId());
+			markVisible(readyStagingTable);
+		}
+		return true;
+	}
 
-					ingestTable.unmarkData(stagingTableId);
+	protected boolean ingestTable(Connection connection, IndexTemplate indexTemplate, ReadyStagingTable readyStagingTable) throws Exception {
+		final IngestTable ingestTable = readyStagingTable.getIngestTable();
+		final int stagingTableId = readyStagingTable.getStagingTableId();
+		String stagingTableName = null;
+
+		BulkIndexResult bulkIndexResult = BulkIndexResult.SUCCESS;
+		final Timer.Context indexTimer = bulkIndexTimer.time();
+		try {
+			stagingTableName = ingestTable.getIngestionTableName(stagingTableId);
+			final String targetTableName = indexUtils.getPartitionTableForIndex(connection, ingestTable.getIndex());
+
+			if (nodeSettingsService.isUsingCitus()) {
+				bulkIndexResult = mergeStagingTableIntoDistributedTable(connection, indexTemplate,
+						ingestTable, stagingTableId, stagingTableName, targetTableName);
+			} else {
+				mergeStagingTableIntoPartitionTable(connection, indexTemplate, ingestTable.getIndex(), stagingTableName, targetTableName);
+			}
+		} catch (Exception e) {
+			if(e.getMessage() != null && e.getMessage().contains("duplicate key") &&
+				!e.getMessage().contains("pg_type_")) {
+				LOGGER.error("Duplicate key in bulk staging table: " + stagingTableName);
+				duplicateKeyCounter.inc();
+				bulkIndexResult = BulkIndexResult.DUPLICATE;
+			} else {
+				LOGGER.error(e.getMessage(), e);
+				bulkIndexResult = BulkIndexResult.EXCEPTION;
+			}
+			connection.rollback();
+		}
+		indexTimer.stop();
 
+		try {
+			switch(bulkIndexResult) {
+			case ROUTE:
+				routedTables.add(stagingTableName);
+				return true;
+			case DEFER:
+				routedTables.remove(stagingTableName);
+				return false;
+			case EXCEPTION:
+				routedTables.remove(stagingTableName);
+				return false;
+			case DUPLICATE:
+				if(nodeSettingsService.isRegenerateDuplicateIds()) {
+					PreparedStatement generateIdStatement = connection.prepareStatement(
+							"UPDATE " + stagingTableName + " SET _id = ('dup_' || CAST (nextval('elefana_dup_key_id') AS VARCHAR))");
+					generateIdStatement.execute();
+					generateIdStatement.close();
+					connection.commit();
+					LOGGER.error("Re-generated ids for " + stagingTableName);
 					routedTables.remove(stagingTableName);
-					result |= true;
-					break;
-				}
+					readyQueue.offer(readyStagingTable);
+					return false;
+				} else {
+					PreparedStatement transferStatement = connection.prepareStatement(
+							"INSERT INTO elefana_duplicate_keys SELECT * FROM " + stagingTableName);
+					transferStatement.execute();
+					transferStatement.close();
+					connection.commit();
+					LOGGER.error("Copied " + stagingTableName + " to elefana_duplicate_keys");
 				}
-			} catch (Exception e) {
-				LOGGER.error(e.getMessage(), e);
-				connection.rollback();
+			default:
+			case SUCCESS: {
+				bulkIndexMeter.mark(ingestTable.getDataCount(stagingTableId));
+
+				PreparedStatement dropTableStatement = connection.prepareStatement(
+						"TRUNCATE TABLE " + stagingTableName);
+				dropTableStatement.execute();
+				dropTableStatement.close();
+				connection.commit();
+
+				ingestTable.unmarkData(stagingTableId);
+				markVisible(readyStagingTable);
+
+				routedTables.remove(stagingTableName);
+				return true;
 			}
-			ingestTable.unlockTable(stagingTableId);
+			}
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage(), e);
+			connection.rollback();
 		}
-		return result;
+		return false;
+	}
+
+	private void markVisible(ReadyStagingTable readyStagingTable) {
+		indexGenerationTracker.incrementGeneration(readyStagingTable.getIngestTable().getIndex());
+		visibilityTimer.update(Math.max(0L, System.currentTimeMillis() - readyStagingTable.getReadyTimestamp()),
+				TimeUnit.MILLISECONDS);
 	}
 
 	protected BulkIndexResult mergeStagingTableIntoDistributedTable(Connection connection, IndexTemplate indexTemplate, IngestTable ingestTable, int ingestTableEntryIndex, String bulkIngestTable, String targetTable)
@@ -334,7 +541,7 @@ public class PsqlBulkIndexService implements Runnable {
 			if(indexTemplate != null && indexTemplate.isTimeSeries()) {
 				return mergeStagingTableIntoDistributedTimeTable(connection, indexTemplate, ingestTable.getIndex(), bulkIngestTable, targetTable);
 			} else {
-				return mergeStagingTableIntoPartitionTable(connection, bulkIngestTable, targetTable);
+				return mergeStagingTableIntoPartitionTable(connection, indexTemplate, ingestTable.getIndex(), bulkIngestTable, targetTable);
 			}
 		}
 		LOGGER.info("[Enterprise License Required] Cannot index into " + targetTable + " from non-master node. Data will remain in table " + bulkIngestTable);
@@ -368,6 +575,9 @@ public class PsqlBulkIndexService implements Runnable {
 					PreparedStatement appendShardStatement = connection.prepareStatement(query);
 					appendShardStatement.execute();
 					appendShardStatement.close();
+
+					rollupMaintainer.updateRollups(connection, indexTemplate, indexName,
+							Collections.singletonList(bulkIngestTable));
 					connection.commit();
 					return BulkIndexResult.SUCCESS;
 				} catch (Exception e) {
@@ -386,10 +596,13 @@ public class PsqlBulkIndexService implements Runnable {
 		}
 	}
 
-	protected BulkIndexResult mergeStagingTableIntoPartitionTable(Connection connection, String bulkIngestTable, String targetTable) throws IOException, SQLException {
+	protected BulkIndexResult mergeStagingTableIntoPartitionTable(Connection connection, IndexTemplate indexTemplate, String indexName,
+	                                                              String bulkIngestTable, String targetTable) throws IOException, SQLException {
 		PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO " + targetTable + " SELECT * FROM " + bulkIngestTable);
 		preparedStatement.executeUpdate();
 		preparedStatement.close();
+
+		rollupMaintainer.updateRollups(connection, indexTemplate, indexName, Collections.singletonList(bulkIngestTable));
 		connection.commit();
 		return BulkIndexResult.SUCCESS;
 	}
@@ -29,22 +29,24 @@ import com.elefana.api.json.JsonUtils;
 import com.elefana.api.json.V2BulkResponseEncoder;
 import com.elefana.api.json.V5BulkResponseEncoder;
 import com.elefana.api.util.PooledStringBuilder;
-import com.elefana.api.util.ThreadLocalCharArray;
 import com.elefana.document.*;
 import com.elefana.document.ingest.HashIngestTable;
 import com.elefana.document.ingest.IngestTableTracker;
 import com.elefana.document.ingest.TimeIngestTable;
 import com.elefana.indices.IndexTemplateService;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.indices.psql.PsqlIndexFieldMappingService;
 import com.elefana.indices.psql.PsqlIndexTemplateService;
 import com.elefana.node.NodeSettingsService;
 import com.elefana.node.VersionInfoService;
 import com.elefana.util.CumulativeAverage;
+import com.elefana.util.IndexGenerationTracker;
 import com.elefana.util.IndexUtils;
 import com.elefana.util.NamedThreadFactory;
+import com.elefana.util.NoAllocBulkReader;
+import com.elefana.util.NoAllocDocumentAnalyzer;
 import com.elefana.util.ThreadPriorities;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpResponseStatus;
@@ -60,8 +62,6 @@ import javax.annotation.PreDestroy;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @Service
 public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor {
@@ -70,14 +70,21 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 	private static final String REQUEST_THREAD_PREFIX = THREAD_PREFIX + "requestHandler" + "-";
 	private static final String PROCESSOR_THREAD_PREFIX = THREAD_PREFIX + "processor" + "-";
 
-	private static final String OPERATION_INDEX = "index";
-	private static final String NEW_LINE = "\\}(\\s)*\n";
-	private static final Pattern NEW_LINE_PATTERN = Pattern.compile(NEW_LINE);
 	private static final CumulativeAverage AVG_TOTAL_BATCH_SIZE = new CumulativeAverage(1);
 	private static final CumulativeAverage AVG_PER_INDEX_BATCH_SIZE = new CumulativeAverage(1);
 
-	private static final ThreadLocalCharArray OPERATION_CHAR_ARRAY = new ThreadLocalCharArray();
-	private static final ThreadLocalCharArray DOCUMENT_CHAR_ARRAY = new ThreadLocalCharArray();
+	private static final ThreadLocal<NoAllocBulkReader> BULK_READER = new ThreadLocal<NoAllocBulkReader>() {
+		@Override
+		protected NoAllocBulkReader initialValue() {
+			return new NoAllocBulkReader();
+		}
+	};
+	private static final ThreadLocal<NoAllocDocumentAnalyzer> DOCUMENT_ANALYZER = new ThreadLocal<NoAllocDocumentAnalyzer>() {
+		@Override
+		protected NoAllocDocumentAnalyzer initialValue() {
+			return new NoAllocDocumentAnalyzer();
+		}
+	};
 	public static final int MINIMUM_BULK_SIZE = 250;
 	
 	@Autowired
@@ -99,6 +106,14 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 	@Autowired
 	private IndexFieldStatsService fieldStatsService;
 	@Autowired
+	private PsqlGroupCommitter groupCommitter;
+	@Autowired
+	private PsqlRollupMaintainer rollupMaintainer;
+	@Autowired
+	private IndexGenerationTracker indexGenerationTracker;
+	@Autowired
+	private PsqlIndexFieldMappingService indexFieldMappingService;
+	@Autowired
 	private PsqlBulkIndexService bulkIndexService;
 
 	private final AtomicInteger tablespaceIndex = new AtomicInteger();
@@ -107,7 +122,8 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 	private Timer bulkIndexTimer;
 	private Timer bulkIngestTotalTimer, bulkIngestPsqlTimer, bulkIngestSerializationTimer, bulkGatherResultsTimer;
 	private Timer psqlBatchBuildTimer, jsonFlattenTimer, jsonEscapeTimer;
-	private Meter bulkOperationsSuccess, bulkOperationsFailed, bulkOperationsBatchSize;
+	private Meter bulkOperationsSuccess, bulkOperationsFailed, bulkOperationsBatchSize, bulkOperationsRejected;
+	private BulkIngestController bulkIngestController;
 
 	@PostConstruct
 	public void postConstruct() {
@@ -127,11 +143,19 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 		bulkOperationsBatchSize = metricRegistry.meter(MetricRegistry.name("bulk", "ingest", "batch", "size"));
 		bulkOperationsSuccess = metricRegistry.meter(MetricRegistry.name("bulk", "ingest", "success"));
 		bulkOperationsFailed = metricRegistry.meter(MetricRegistry.name("bulk", "ingest", "failed"));
+		bulkOperationsRejected = metricRegistry.meter(MetricRegistry.name("bulk", "ingest", "rejected"));
 
 		psqlBatchBuildTimer = metricRegistry.timer(MetricRegistry.name("bulk", "ingest", "duration", "batch"));
 		jsonFlattenTimer = metricRegistry.timer(MetricRegistry.name("json",  "duration", "flatten"));
 		jsonEscapeTimer = metricRegistry.timer(MetricRegistry.name("json", "duration", "escape"));
 
+		bulkIngestController = new BulkIngestController(bulkIngestPsqlTimer,
+				metricRegistry.histogram(MetricRegistry.name("bulk", "ingest", "task", "size")),
+				nodeSettingsService.getBulkParallelisation(), MINIMUM_BULK_SIZE,
+				environment.getProperty("elefana.service.bulk.ingest.targetTaskMillis", Long.class, 250L),
+				environment.getProperty("elefana.service.bulk.ingest.latencyBudgetMillis", Long.class, 500L),
+				environment.getProperty("elefana.service.bulk.ingest.indexCredits", Integer.class, 0));
+
 		final SimpleModule bulkResponseModule = new SimpleModule();
 		switch(versionInfoService.getApiVersion()) {
 		case V_5_5_2:
@@ -210,83 +234,83 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 	public BulkResponse bulkOperations(ChannelHandlerContext context, PooledStringBuilder requestBody) throws ElefanaException {
 		final Timer.Context totalTimer = bulkIngestTotalTimer.time();
 
-		final Matcher matcher = NEW_LINE_PATTERN.matcher(requestBody);
-
 		final BulkResponse bulkApiResponse = new BulkResponse(AVG_TOTAL_BATCH_SIZE.avg());
 		bulkApiResponse.setErrors(false);
 
-		final Map<String, List<BulkIndexOperation>> indexOperations = new HashMap<String, List<BulkIndexOperation>>();
+		// Index actions are staged while other actions are written directly, consecutive actions of
+		// the same kind form a phase and phases are executed in request order
+		final List<BulkPhase> phases = new ArrayList<BulkPhase>();
 
 		int batchCount = 0;
+		String malformedLineReason = null;
 		final Timer.Context serializationTimer = bulkIngestSerializationTimer.time();
 		try {
-			int operationLineStartIndex = 0;
-			int documentLineStartIndex = 0;
-			while(matcher.find()) {
-				char [] operationLine = OPERATION_CHAR_ARRAY.get();
-				int operationLineLength = (matcher.start() - operationLineStartIndex) + 1;
-
-				if(operationLine.length < operationLineLength) {
-					operationLine = new char[operationLineLength + 1];
-					OPERATION_CHAR_ARRAY.set(operationLine);
+			final NoAllocBulkReader bulkReader = BULK_READER.get();
+			bulkReader.reset(requestBody);
+			final NoAllocDocumentAnalyzer documentAnalyzer = DOCUMENT_ANALYZER.get();
+			// Timestamp paths are resolved once per index per batch
+			final Map<String, String> timestampPaths = new HashMap<String, String>();
+
+			while(bulkReader.nextAction()) {
+				if(bulkReader.getAction() == null) {
+					LOGGER.error("Invalid JSON at " + bulkReader.getLine());
+					// The source line of the action can not be identified so the request is rejected as a whole
+					malformedLineReason = "Malformed action/metadata line [" + bulkReader.getLineNumber() + "]";
+					break;
 				}
 
-				requestBody.getChars(operationLineStartIndex, matcher.start(), operationLine, 0);
-				operationLine[operationLineLength - 1] = '}';
-
-				documentLineStartIndex = matcher.end();
-
-				char [] documentLine = null;
-				int documentLineLength = 0;
-
-				final JsonParser operationJsonParser = JsonUtils.JSON_FACTORY.createParser(operationLine, 0, operationLineLength);
-				while(operationJsonParser.currentToken() != JsonToken.END_OBJECT) {
-					final JsonToken operationToken = operationJsonParser.nextToken();
-
-					if(operationToken != JsonToken.FIELD_NAME) {
-						continue;
+				switch(bulkReader.getAction()) {
+				case NoAllocBulkReader.ACTION_INDEX:
+					if(!bulkReader.nextSource()) {
+						LOGGER.error("Missing document for index operation on " + bulkReader.getIndex());
+						rejectItem(bulkApiResponse, BulkOpType.INDEX, bulkReader.getIndex(), bulkReader.getType(),
+								bulkReader.getId(), "Missing document for index operation");
+						break;
 					}
+					final BulkIndexOperation indexOperation = BulkIndexOperation.allocate();
+					indexOperation.setIndex(bulkReader.getIndex());
+					indexOperation.setType(bulkReader.getType());
+					indexOperation.setId(bulkReader.getId());
+					indexOperation.setDocument(requestBody, bulkReader.getLineStart(), bulkReader.getLineEnd());
+
+					if(!timestampPaths.containsKey(indexOperation.getIndex())) {
+						timestampPaths.put(indexOperation.getIndex(), indexUtils.getTimestampPath(indexOperation.getIndex()));
+					}
+					documentAnalyzer.analyze(indexOperation.getDocument(), indexOperation.getDocumentLength(),
+							timestampPaths.get(indexOperation.getIndex()));
+					indexOperation.setTimestamp(documentAnalyzer.getTimestamp());
+					indexOperation.setEscapeRequired(documentAnalyzer.isEscapeRequired());
+
+					if(indexOperation.getId() == null) {
+						indexOperation.setId(indexUtils.generateDocumentId(indexOperation.getIndex(),
+								indexOperation.getType(), indexOperation.getDocument(), indexOperation.getDocumentLength()));
+					}
+					indexOperation.setItemId(addItem(bulkApiResponse, BulkOpType.INDEX, indexOperation.getIndex(),
+							indexOperation.getType(), indexOperation.getId()).getItemId());
 
-					switch(operationJsonParser.getText()) {
-					case "index":
-						final BulkIndexOperation indexOperation = BulkIndexOperation.allocate();
-						indexOperation.read(operationJsonParser);
-
-						documentLine = DOCUMENT_CHAR_ARRAY.get();
-						matcher.find();
-						documentLineLength = (matcher.start() - documentLineStartIndex) + 1;
-						operationLineStartIndex = matcher.end();
-
-						if(documentLine.length < documentLineLength) {
-							documentLine = new char[documentLineLength + 1];
-							DOCUMENT_CHAR_ARRAY.set(documentLine);
-						}
-
-						requestBody.getChars(documentLineStartIndex, matcher.start(), documentLine, 0);
-						documentLine[documentLineLength - 1] = '}';
-						
-						indexOperation.setDocument(documentLine, documentLineLength);
-						indexOperation.setTimestamp(indexUtils.getTimestamp(indexOperation.getIndex(), indexOperation.getDocument(), indexOperation.getDocumentLength()));
-
-						if(indexOperation.getId() == null) {
-							indexOperation.setId(indexUtils.generateDocumentId(indexOperation.getIndex(),
-									indexOperation.getType(), indexOperation.getDocument(), indexOperation.getDocumentLength()));
-						}
-
-						if (!indexOperations.containsKey(indexOperation.getIndex())) {
-							indexOperations.put(indexOperation.getIndex(), new ArrayList<BulkIndexOperation>(AVG_PER_INDEX_BATCH_SIZE.avg()));
-						}
-						indexOperations.get(indexOperation.getIndex()).add(indexOperation);
-						batchCount++;
-						break;
-					default:
-						bulkApiResponse.setErrors(true);
-						LOGGER.error("Invalid JSON at " + new String(operationLine, 0, operationLineLength));
+					getPhase(phases, false).add(indexOperation);
+					batchCount++;
+					break;
+				case NoAllocBulkReader.ACTION_CREATE:
+				case NoAllocBulkReader.ACTION_UPDATE:
+				case NoAllocBulkReader.ACTION_DELETE:
+					final BulkIndexOperation writeOperation = readWriteOperation(bulkApiResponse, bulkReader, requestBody,
+							documentAnalyzer, timestampPaths);
+					if(writeOperation == null) {
 						break;
 					}
+					getPhase(phases, true).add(writeOperation);
+					batchCount++;
+					break;
+				default:
+					LOGGER.error("Unsupported bulk operation at " + bulkReader.getLine());
+					malformedLineReason = "Malformed action/metadata line [" + bulkReader.getLineNumber()
+							+ "], expected one of [create, delete, index, update] but found [" + bulkReader.getAction() + "]";
+					break;
+				}
+				if(malformedLineReason != null) {
 					break;
 				}
-				operationJsonParser.close();
 			}
 		} catch (Exception e) {
 			LOGGER.error("Error parsing JSON - " + e.getMessage(), e);
@@ -295,9 +319,192 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 			serializationTimer.stop();
 		}
 
+		if(malformedLineReason != null) {
+			for(BulkPhase phase : phases) {
+				releaseOperations(phase.operations);
+			}
+			totalTimer.stop();
+			throw new ElefanaException(HttpResponseStatus.BAD_REQUEST, malformedLineReason);
+		}
+
 		AVG_TOTAL_BATCH_SIZE.add(batchCount);
 		bulkOperationsBatchSize.mark(batchCount);
 
+		for(BulkPhase phase : phases) {
+			if(phase.write) {
+				bulkWrite(bulkApiResponse, phase.operations);
+			} else {
+				bulkIndex(context, bulkApiResponse, phase.operations);
+			}
+		}
+
+		// Only reject the request as a whole when nothing in it was ingested, so retries do not duplicate documents
+		if(isRejected(bulkApiResponse)) {
+			bulkApiResponse.setStatusCode(HttpResponseStatus.TOO_MANY_REQUESTS.code());
+		}
+
+		final long duration = totalTimer.stop();
+		bulkApiResponse.setTook(TimeUnit.NANOSECONDS.toMillis(duration));
+		return bulkApiResponse;
+	}
+
+	private BulkIndexOperation readWriteOperation(BulkResponse bulkApiResponse, NoAllocBulkReader bulkReader, PooledStringBuilder requestBody,
+												  NoAllocDocumentAnalyzer documentAnalyzer, Map<String, String> timestampPaths) throws ElefanaException {
+		final String action = bulkReader.getAction();
+		final BulkOpType opType;
+		switch(action) {
+		case NoAllocBulkReader.ACTION_CREATE:
+			opType = BulkOpType.CREATE;
+			break;
+		case NoAllocBulkReader.ACTION_UPDATE:
+			opType = BulkOpType.UPDATE;
+			break;
+		case NoAllocBulkReader.ACTION_DELETE:
+		default:
+			opType = BulkOpType.DELETE;
+			break;
+		}
+
+		final String index = bulkReader.getIndex();
+		final String type = bulkReader.getType();
+		final String id = bulkReader.getId();
+		if(opType != BulkOpType.DELETE && !bulkReader.nextSource()) {
+			LOGGER.error("Missing document for " + action + " operation on " + index);
+			rejectItem(bulkApiResponse, opType, index, type, id, "Missing document for " + action + " operation");
+			return null;
+		}
+		if(index == null || (id == null && opType != BulkOpType.CREATE)) {
+			LOGGER.error("Missing _index or _id for " + action + " operation");
+			rejectItem(bulkApiResponse, opType, index, type, id, "Missing _index or _id for " + action + " operation");
+			return null;
+		}
+
+		final BulkIndexOperation operation = BulkIndexOperation.allocate();
+		operation.setOpType(opType);
+		operation.setIndex(index);
+		operation.setType(type);
+		operation.setId(id);
+		if(opType == BulkOpType.DELETE) {
+			operation.setItemId(addItem(bulkApiResponse, opType, index, type, id).getItemId());
+			return operation;
+		}
+
+		if(!timestampPaths.containsKey(index)) {
+			timestampPaths.put(index, indexUtils.getTimestampPath(index));
+		}
+		final String timestampPath = timestampPaths.get(index);
+
+		operation.setDocument(requestBody, bulkReader.getLineStart(), bulkReader.getLineEnd());
+		if(opType == BulkOpType.UPDATE) {
+			final JsonNode update = JsonUtils.extractJsonNode(operation.getDocument(), operation.getDocumentLength());
+			final JsonNode doc = update == null ? null : update.get("doc");
+			if(doc == null || !doc.isObject()) {
+				LOGGER.error("Only partial document updates are supported for bulk update operations on " + index);
+				rejectItem(bulkApiResponse, opType, index, type, id, "Only partial document updates are supported");
+				operation.release();
+				return null;
+			}
+			final JsonNode upsert = update.path("doc_as_upsert").asBoolean(false) ? doc :
+					update.hasNonNull("upsert") ? update.get("upsert") : null;
+			if(upsert != null && !upsert.isObject()) {
+				LOGGER.error("Invalid upsert document for bulk update operation on " + index);
+				rejectItem(bulkApiResponse, opType, index, type, id, "Upsert document must be a JSON object");
+				operation.release();
+				return null;
+			}
+			if(upsert != null) {
+				final char [] upsertChars = upsert.toString().toCharArray();
+				documentAnalyzer.analyze(upsertChars, upsertChars.length, timestampPath);
+				operation.setUpsertDocument(new String(upsertChars));
+				operation.setUpsertTimestamp(documentAnalyzer.getTimestamp());
+			}
+			final char [] docChars = doc.toString().toCharArray();
+			operation.setDocument(docChars, docChars.length);
+		}
+
+		documentAnalyzer.analyze(operation.getDocument(), operation.getDocumentLength(), timestampPath);
+		operation.setTimestamp(documentAnalyzer.getTimestamp());
+		operation.setEscapeRequired(documentAnalyzer.isEscapeRequired());
+		// A partial document without a timestamp leaves the timestamp of the existing document unchanged
+		operation.setKeepTimestamp(opType == BulkOpType.UPDATE && !documentAnalyzer.hasTimestamp());
+
+		if(operation.getId() == null) {
+			operation.setId(indexUtils.generateDocumentId(index, type, operation.getDocument(), operation.getDocumentLength()));
+		}
+		operation.setItemId(addItem(bulkApiResponse, opType, index, type, operation.getId()).getItemId());
+		return operation;
+	}
+
+	/**
+	 * Adds the response item for the next action of the request. Items are failed until
+	 * replaced by the result of the operation so that every action has an item in request order.
+	 */
+	private static BulkItemResponse addItem(BulkResponse bulkApiResponse, BulkOpType opType, String index,
+											String type, String id) {
+		final BulkItemResponse item = new BulkItemResponse(bulkApiResponse.getItems().size(), opType);
+		item.setIndex(index);
+		item.setType(type);
+		item.setId(id);
+		item.setResult(BulkItemResponse.STATUS_FAILED);
+		bulkApiResponse.getItems().add(item);
+		return item;
+	}
+
+	private static void rejectItem(BulkResponse bulkApiResponse, BulkOpType opType, String index, String type,
+								   String id, String reason) {
+		final BulkItemResponse item = addItem(bulkApiResponse, opType, index, type, id);
+		item.setResult(BulkItemResponse.STATUS_INVALID);
+		item.setReason(reason);
+		bulkApiResponse.setErrors(true);
+	}
+
+	private static void rejectOperations(BulkResponse bulkApiResponse, List<BulkIndexOperation> operations,
+										 int from, int size, String status, String reason) {
+		for(int i = from; i < from + size && i < operations.size(); i++) {
+			final BulkIndexOperation operation = operations.get(i);
+			final BulkItemResponse item = bulkApiResponse.getItems().get(operation.getItemId());
+			item.setResult(status);
+			item.setReason(reason);
+			operation.dispose();
+		}
+		bulkApiResponse.setErrors(true);
+	}
+
+	private static BulkPhase getPhase(List<BulkPhase> phases, boolean write) {
+		if(phases.isEmpty() || phases.get(phases.size() - 1).write != write) {
+			phases.add(new BulkPhase(write));
+		}
+		return phases.get(phases.size() - 1);
+	}
+
+	private static void releaseOperations(Map<String, List<BulkIndexOperation>> operations) {
+		for(List<BulkIndexOperation> indexOperations : operations.values()) {
+			for(BulkIndexOperation operation : indexOperations) {
+				operation.release();
+			}
+		}
+	}
+
+	private static boolean isRejected(BulkResponse bulkApiResponse) {
+		if(bulkApiResponse.getItems().isEmpty()) {
+			return false;
+		}
+		for(BulkItemResponse item : bulkApiResponse.getItems()) {
+			if(!BulkItemResponse.STATUS_REJECTED.equals(item.getResult())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void setItems(BulkResponse bulkApiResponse, List<BulkItemResponse> results) {
+		for(BulkItemResponse result : results) {
+			bulkApiResponse.getItems().set(result.getItemId(), result);
+		}
+	}
+
+	private void bulkIndex(ChannelHandlerContext context, BulkResponse bulkApiResponse,
+						   Map<String, List<BulkIndexOperation>> indexOperations) throws ElefanaException {
 		boolean allIndexExists = true;
 		for (String index : indexOperations.keySet()) {
 			try {
@@ -308,8 +515,6 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 			}
 
 			if(!allIndexExists) {
-				bulkApiResponse.setErrors(true);
-				bulkApiResponse.setStatusCode(HttpResponseStatus.TOO_MANY_REQUESTS.code());
 				break;
 			}
 		}
@@ -320,42 +525,114 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 					AVG_PER_INDEX_BATCH_SIZE.add(indexOperations.get(index).size());
 				}
 
-				if(nodeSettingsService.isUsingCitus()) {
-					IndexTemplate indexTemplate;
-					if(indexTemplateService instanceof PsqlIndexTemplateService) {
-						indexTemplate = ((PsqlIndexTemplateService) indexTemplateService).getIndexTemplateForIndex(index);
-					} else {
-						GetIndexTemplateForIndexRequest request = indexTemplateService.prepareGetIndexTemplateForIndex(context, index);
-						try {
-							indexTemplate = request.get().getIndexTemplate();
-						} catch (ElefanaException e) {
-							bulkApiResponse.setErrors(true);
-							bulkApiResponse.setStatusCode(HttpResponseStatus.TOO_MANY_REQUESTS.code());
-							break;
+				final int totalOperations = indexOperations.get(index).size();
+				if(!bulkIngestController.acquireCredits(index, totalOperations)) {
+					LOGGER.warn("Rejected " + totalOperations + " operations for " + index + ", no credits available");
+					bulkOperationsRejected.mark(totalOperations);
+					bulkOperationsFailed.mark(totalOperations);
+					rejectOperations(bulkApiResponse, indexOperations.get(index), 0, totalOperations,
+							BulkItemResponse.STATUS_REJECTED, "Ingest capacity exceeded for index " + index);
+					continue;
+				}
+
+				try {
+					if(nodeSettingsService.isUsingCitus()) {
+						IndexTemplate indexTemplate;
+						if(indexTemplateService instanceof PsqlIndexTemplateService) {
+							indexTemplate = ((PsqlIndexTemplateService) indexTemplateService).getIndexTemplateForIndex(index);
+						} else {
+							GetIndexTemplateForIndexRequest request = indexTemplateService.prepareGetIndexTemplateForIndex(context, index);
+							try {
+								indexTemplate = request.get().getIndexTemplate();
+							} catch (ElefanaException e) {
+								bulkOperationsFailed.mark(totalOperations);
+								rejectOperations(bulkApiResponse, indexOperations.get(index), 0, totalOperations,
+										BulkItemResponse.STATUS_REJECTED, e.getMessage());
+								continue;
+							}
+						}
+						if(indexTemplate != null && indexTemplate.isTimeSeries()) {
+							bulkIndexTime(bulkApiResponse, indexTemplate, index, indexOperations.get(index));
+						} else {
+							bulkIndexHash(bulkApiResponse, index, indexOperations.get(index));
 						}
-					}
-					if(indexTemplate != null && indexTemplate.isTimeSeries()) {
-						bulkIndexTime(bulkApiResponse, indexTemplate, index, indexOperations.get(index));
 					} else {
 						bulkIndexHash(bulkApiResponse, index, indexOperations.get(index));
 					}
-				} else {
-					bulkIndexHash(bulkApiResponse, index, indexOperations.get(index));
+				} finally {
+					bulkIngestController.releaseCredits(index, totalOperations);
 				}
 			}
 		} else {
-			bulkOperationsFailed.mark(batchCount);
-
 			for (String index : indexOperations.keySet()) {
-				for(BulkIndexOperation indexOperation : indexOperations.get(index)) {
-					indexOperation.dispose();
+				final List<BulkIndexOperation> operations = indexOperations.get(index);
+				bulkOperationsFailed.mark(operations.size());
+				rejectOperations(bulkApiResponse, operations, 0, operations.size(),
+						BulkItemResponse.STATUS_REJECTED, "Could not create index " + index);
+			}
+		}
+	}
+
+	private void bulkWrite(BulkResponse bulkApiResponse, Map<String, List<BulkIndexOperation>> writeOperations) {
+		final List<PsqlBulkWriteTask> bulkWriteTasks = new ArrayList<PsqlBulkWriteTask>(writeOperations.size());
+		for(String index : writeOperations.keySet()) {
+			final List<BulkIndexOperation> operations = writeOperations.get(index);
+			boolean requiresIndex = false;
+			for(BulkIndexOperation operation : operations) {
+				requiresIndex |= operation.getOpType() != BulkOpType.DELETE;
+			}
+			if(requiresIndex) {
+				try {
+					indexUtils.ensureIndexExists(index);
+				} catch (Exception e) {
+					LOGGER.error(e.getMessage(), e);
+					bulkApiResponse.setErrors(true);
+					bulkOperationsFailed.mark(operations.size());
+					for(BulkIndexOperation operation : operations) {
+						operation.release();
+					}
+					continue;
 				}
 			}
+			// Index actions of this or earlier requests must be merged before they are updated or deleted
+			if(!bulkIndexService.mergeStagingTables(index, bulkIngestController.getLatencyBudgetMillis())) {
+				LOGGER.warn("Rejected " + operations.size() + " operations for " + index + ", staged documents not merged");
+				bulkOperationsRejected.mark(operations.size());
+				bulkOperationsFailed.mark(operations.size());
+				rejectOperations(bulkApiResponse, operations, 0, operations.size(),
+						BulkItemResponse.STATUS_REJECTED, "Staged documents of index " + index + " could not be merged");
+				continue;
+			}
+			bulkWriteTasks.add(new PsqlBulkWriteTask(jdbcTemplate, indexUtils, nodeSettingsService, groupCommitter,
+					fieldStatsService, index, operations));
 		}
 
-		final long duration = totalTimer.stop();
-		bulkApiResponse.setTook(TimeUnit.NANOSECONDS.toMillis(duration));
-		return bulkApiResponse;
+		try {
+			final List<Future<List<BulkItemResponse>>> results = bulkProcessingExecutorService.invokeAll(bulkWriteTasks);
+			for (int i = 0; i < results.size(); i++) {
+				final PsqlBulkWriteTask task = bulkWriteTasks.get(i);
+				try {
+					setItems(bulkApiResponse, results.get(i).get());
+					bulkOperationsSuccess.mark(task.getTotalSuccess());
+					bulkOperationsFailed.mark(task.getTotalFailed());
+					if(task.getTotalFailed() > 0) {
+						bulkApiResponse.setErrors(true);
+					}
+					if(task.getTotalWritten() > 0) {
+						indexGenerationTracker.incrementGeneration(task.getIndex());
+						indexFieldMappingService.scheduleIndexForMappingAndStats(task.getIndex());
+						rollupMaintainer.invalidateRollups(task.getIndex());
+					}
+				} catch (ExecutionException e) {
+					LOGGER.error(e.getMessage(), e);
+					bulkOperationsFailed.mark(task.getSize());
+					bulkApiResponse.setErrors(true);
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.error(e.getMessage(), e);
+			bulkApiResponse.setErrors(true);
+		}
 	}
 
 	private void bulkIndexTime(BulkResponse bulkApiResponse, IndexTemplate indexTemplate, String index, List<BulkIndexOperation> indexOperations)
@@ -366,8 +643,6 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 		if(timeIngestTable == null) {
 			throw new ElefanaException(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Could not get time ingest table for index " + index);
 		}
-		final int operationSize = Math.max(MINIMUM_BULK_SIZE, indexOperations.size() / nodeSettingsService.getBulkParallelisation());
-
 		final Map<Integer, List<BulkIndexOperation>> operationsByShard = new HashMap<Integer, List<BulkIndexOperation>>();
 		for(BulkIndexOperation bulkIndexOperation : indexOperations) {
 			final int shard = indexTimeBucket.getShardOffset(bulkIndexOperation.getTimestamp());
@@ -380,11 +655,13 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 		final List<BulkIndexTask> bulkTimeIndexTasks = new ArrayList<BulkIndexTask>();
 		for(int shard : operationsByShard.keySet()) {
 			final List<BulkIndexOperation> bulkIndexOperations = operationsByShard.get(shard);
+			final int operationSize = bulkIngestController.getTaskSize(timeIngestTable, bulkIndexOperations.size());
 			for (int i = 0; i < bulkIndexOperations.size(); i += operationSize) {
 				final BulkTimeIndexTask task = new BulkTimeIndexTask(jdbcTemplate, bulkIndexOperations,
 						index, timeIngestTable, nodeSettingsService.isFlattenJson(), i, operationSize, shard,
 						bulkIngestPsqlTimer, psqlBatchBuildTimer, jsonFlattenTimer, jsonEscapeTimer, fieldStatsService);
 				bulkTimeIndexTasks.add(task);
+				bulkIngestController.recordTaskSize(Math.min(operationSize, bulkIndexOperations.size() - i));
 			}
 		}
 
@@ -397,8 +674,8 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 		if(hashIngestTable == null) {
 			throw new ElefanaException(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Could not get hash ingest table for index " + index);
 		}
-		final int operationSize = Math.max(MINIMUM_BULK_SIZE, indexOperations.size() / nodeSettingsService.getBulkParallelisation());
-		
+		final int operationSize = bulkIngestController.getTaskSize(hashIngestTable, indexOperations.size());
+
 		final List<BulkIndexTask> bulkHashIndexTasks = new ArrayList<BulkIndexTask>();
 
 		for (int i = 0; i < indexOperations.size(); i += operationSize) {
@@ -406,6 +683,7 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 					index, hashIngestTable, nodeSettingsService.isFlattenJson(), i, operationSize,
 					bulkIngestPsqlTimer, psqlBatchBuildTimer, jsonFlattenTimer, jsonEscapeTimer, fieldStatsService);
 			bulkHashIndexTasks.add(task);
+			bulkIngestController.recordTaskSize(Math.min(operationSize, indexOperations.size() - i));
 		}
 		bulkItemResponse(bulkApiResponse, index, bulkHashIndexTasks);
 	}
@@ -414,21 +692,25 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 		List<Future<List<BulkItemResponse>>> results = null;
 
 		try {
+			//Wait for staging tables within the latency budget before rejecting the batch
+			final long lockDeadline = System.currentTimeMillis() + bulkIngestController.getLatencyBudgetMillis();
 			boolean lockSuccess = true;
 			for(BulkIndexTask indexTask : bulkIndexTasks) {
-				lockSuccess &= indexTask.lockStagingTable();
+				lockSuccess &= indexTask.lockStagingTable(Math.max(1L, lockDeadline - System.currentTimeMillis()));
 			}
 			if(!lockSuccess) {
 				for(BulkIndexTask indexTask : bulkIndexTasks) {
 					indexTask.unlockStagingTable();
 					if(indexTask.getResponseStatus().equals(HttpResponseStatus.TOO_MANY_REQUESTS)) {
-						bulkApiResponse.setStatusCode(HttpResponseStatus.TOO_MANY_REQUESTS.code());
+						rejectOperations(bulkApiResponse, indexTask.getIndexOperations(), indexTask.getFrom(),
+								indexTask.getSize(), BulkItemResponse.STATUS_REJECTED, "No staging table available for index " + index);
+					} else {
+						rejectOperations(bulkApiResponse, indexTask.getIndexOperations(), indexTask.getFrom(),
+								indexTask.getSize(), BulkItemResponse.STATUS_FAILED, null);
 					}
 
 					bulkOperationsFailed.mark(indexTask.getSize());
 				}
-
-				bulkApiResponse.setErrors(true);
 				return;
 			}
 
@@ -467,8 +749,6 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 
 			if(!success) {
 				bulkApiResponse.setErrors(true);
-			} else {
-				bulkIndexService.notifyContentAvailable();
 			}
 			for (int i = 0; i < results.size(); i++) {
 				try {
@@ -479,7 +759,7 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 							response.setResult(BulkItemResponse.STATUS_FAILED);
 						}
 					}
-					bulkApiResponse.getItems().addAll(nextResult);
+					setItems(bulkApiResponse, nextResult);
 				} catch (Exception e) {
 					LOGGER.error(e.getMessage(), e);
 				}
@@ -507,4 +787,24 @@ public class PsqlBulkIngestService implements BulkIngestService, RequestExecutor
 	public <T> Future<T> submit(Callable<T> request) {
 		return bulkRequestExecutorService.submit(request);
 	}
+
+	/**
+	 * Consecutive actions of a bulk request that are either all staged index actions or all direct writes
+	 */
+	private static class BulkPhase {
+		final boolean write;
+		final Map<String, List<BulkIndexOperation>> operations = new HashMap<String, List<BulkIndexOperation>>();
+
+		BulkPhase(boolean write) {
+			this.write = write;
+		}
+
+		void add(BulkIndexOperation operation) {
+			if(!operations.containsKey(operation.getIndex())) {
+				operations.put(operation.getIndex(), write ? new ArrayList<BulkIndexOperation>() :
+						new ArrayList<BulkIndexOperation>(AVG_PER_INDEX_BATCH_SIZE.avg()));
+			}
+			operations.get(operation.getIndex()).add(operation);
+		}
+	}
 }
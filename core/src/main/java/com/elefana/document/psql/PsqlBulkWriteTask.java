@@ -0,0 +1,449 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.document.psql;
+
+import com.elefana.api.document.BulkItemResponse;
+import com.elefana.api.document.BulkOpType;
+import com.elefana.api.document.IndexOpType;
+import com.elefana.document.BulkIndexOperation;
+import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.node.NodeSettingsService;
+import com.elefana.util.EscapeUtils;
+import com.elefana.util.IndexUtils;
+import org.postgresql.util.PGobject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Executes the create, update and delete operations of a bulk request for a single index.
+ * Consecutive operations of the same type are written with one statement each, a run is
+ * split when an id repeats so that the order of writes to the same document is kept.
+ */
+public class PsqlBulkWriteTask implements Callable<List<BulkItemResponse>> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PsqlBulkWriteTask.class);
+
+	private static final long ONE_SECOND_IN_MILLIS = 1000L;
+	private static final long ONE_MINUTE_IN_MILLIS = ONE_SECOND_IN_MILLIS * 60L;
+	private static final long ONE_HOUR_IN_MILLIS = ONE_MINUTE_IN_MILLIS * 60L;
+	private static final long ONE_DAY_IN_MILLIS = ONE_HOUR_IN_MILLIS * 24L;
+
+	private static final int UPDATE_MISSING = 0;
+	private static final int UPDATE_UPDATED = 1;
+	private static final int UPDATE_CREATED = 2;
+
+	private final JdbcTemplate jdbcTemplate;
+	private final IndexUtils indexUtils;
+	private final NodeSettingsService nodeSettingsService;
+	private final PsqlGroupCommitter groupCommitter;
+	private final IndexFieldStatsService fieldStatsService;
+	private final String index;
+	private final List<BulkIndexOperation> operations;
+
+	private int totalSuccess, totalFailed, totalWritten;
+
+	public PsqlBulkWriteTask(JdbcTemplate jdbcTemplate, IndexUtils indexUtils, NodeSettingsService nodeSettingsService,
+							 PsqlGroupCommitter groupCommitter, IndexFieldStatsService fieldStatsService,
+							 String index, List<BulkIndexOperation> operations) {
+		super();
+		this.jdbcTemplate = jdbcTemplate;
+		this.indexUtils = indexUtils;
+		this.nodeSettingsService = nodeSettingsService;
+		this.groupCommitter = groupCommitter;
+		this.fieldStatsService = fieldStatsService;
+		this.index = index;
+		this.operations = operations;
+	}
+
+	@Override
+	public List<BulkItemResponse> call() {
+		final String [] statuses = new String[operations.size()];
+		final Set<String> runIds = new HashSet<String>();
+
+		int from = 0;
+		while(from < operations.size()) {
+			final BulkOpType opType = operations.get(from).getOpType();
+			runIds.clear();
+
+			int to = from;
+			while(to < operations.size() && operations.get(to).getOpType() == opType && runIds.add(operations.get(to).getId())) {
+				to++;
+			}
+
+			try {
+				switch(opType) {
+				case DELETE:
+					delete(from, to, statuses);
+					break;
+				case UPDATE:
+					update(from, to, statuses);
+					break;
+				case CREATE:
+				default:
+					create(from, to, statuses);
+					break;
+				}
+			} catch (Exception e) {
+				LOGGER.error(e.getMessage(), e);
+				for(int i = from; i < to; i++) {
+					statuses[i] = BulkItemResponse.STATUS_FAILED;
+				}
+			}
+			from = to;
+		}
+
+		final List<BulkItemResponse> results = new ArrayList<BulkItemResponse>(operations.size());
+		final List<BulkIndexOperation> createdOperations = new ArrayList<BulkIndexOperation>();
+		for(int i = 0; i < operations.size(); i++) {
+			final BulkIndexOperation operation = operations.get(i);
+			final BulkItemResponse result = new BulkItemResponse(operation.getItemId(), operation.getOpType());
+			result.setIndex(operation.getIndex());
+			result.setType(operation.getType());
+			result.setId(operation.getId());
+			result.setVersion(1);
+			result.setResult(statuses[i]);
+			if(operation.getOpType() == BulkOpType.UPDATE && BulkItemResponse.STATUS_NOT_FOUND.equals(statuses[i])) {
+				result.setReason("[" + operation.getType() + "][" + operation.getId() + "]: document missing");
+			}
+			results.add(result);
+
+			if(result.isFailed()) {
+				totalFailed++;
+			} else {
+				totalSuccess++;
+			}
+
+			if(operation.getOpType() == BulkOpType.CREATE && BulkItemResponse.STATUS_CREATED.equals(statuses[i])) {
+				createdOperations.add(operation);
+			} else {
+				operation.release();
+			}
+		}
+
+		try {
+			// The field stats service releases the operations once analysed
+			fieldStatsService.submitDocuments(createdOperations, 0, createdOperations.size());
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage(), e);
+		}
+		return results;
+	}
+
+	private void create(int from, int to, String [] statuses) {
+		escape(from, to);
+
+		final int [] rows = groupCommitter.write(index, IndexOpType.CREATE, operations, from, to);
+		for(int i = from; i < to; i++) {
+			final int result = rows[i - from];
+			if(result < 0) {
+				statuses[i] = BulkItemResponse.STATUS_FAILED;
+			} else if(result == 0) {
+				statuses[i] = BulkItemResponse.STATUS_CONFLICT;
+			} else {
+				statuses[i] = BulkItemResponse.STATUS_CREATED;
+				totalWritten++;
+			}
+		}
+	}
+
+	/**
+	 * Applies partial documents to existing documents. Missing documents are only created
+	 * from the upsert document of an operation, otherwise the operation is not found.
+	 */
+	private void update(int from, int to, String [] statuses) throws SQLException {
+		escape(from, to);
+		for(int i = from; i < to; i++) {
+			final BulkIndexOperation operation = operations.get(i);
+			if(operation.getUpsertDocument() != null) {
+				operation.setUpsertDocument(escape(operation.getUpsertDocument()));
+			}
+		}
+
+		final int [] rows = nodeSettingsService.isUsingCitus() ? updateDistributed(from, to) : updateFunction(from, to);
+		for(int i = from; i < to; i++) {
+			switch(rows[i - from]) {
+			case UPDATE_UPDATED:
+				statuses[i] = BulkItemResponse.STATUS_UPDATED;
+				totalWritten++;
+				break;
+			case UPDATE_CREATED:
+				statuses[i] = BulkItemResponse.STATUS_CREATED;
+				totalWritten++;
+				break;
+			case UPDATE_MISSING:
+			default:
+				statuses[i] = BulkItemResponse.STATUS_NOT_FOUND;
+				break;
+			}
+		}
+	}
+
+	private int [] updateFunction(int from, int to) throws SQLException {
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("SELECT v._n, elefana_bulk_update(v._index, v._type, v._id, v._timestamp, v._bucket1s, v._bucket1m, ");
+		queryBuilder.append("v._bucket1h, v._bucket1d, v._source, v._upsert_timestamp, v._upsert_source) FROM (VALUES ");
+		for(int i = from; i < to; i++) {
+			if(i > from) {
+				queryBuilder.append(',');
+			}
+			queryBuilder.append("(?::int, ?::varchar, ?::varchar, ?::varchar, ?::bigint, ?::bigint, ?::bigint, ?::bigint, ?::bigint, ?::json, ?::bigint, ?::json)");
+		}
+		queryBuilder.append(") AS v(_n, _index, _type, _id, _timestamp, _bucket1s, _bucket1m, _bucket1h, _bucket1d, _source, _upsert_timestamp, _upsert_source)");
+
+		final int [] rows = new int[to - from];
+		final Connection connection = jdbcTemplate.getDataSource().getConnection();
+		try {
+			final PreparedStatement preparedStatement = connection.prepareStatement(queryBuilder.toString());
+			int parameterIndex = 1;
+			for(int i = from; i < to; i++) {
+				final BulkIndexOperation operation = operations.get(i);
+				final long timestamp = operation.getTimestamp();
+				preparedStatement.setInt(parameterIndex++, i - from);
+				preparedStatement.setString(parameterIndex++, index);
+				preparedStatement.setString(parameterIndex++, operation.getType());
+				preparedStatement.setString(parameterIndex++, operation.getId());
+				if(operation.isKeepTimestamp()) {
+					for(int j = 0; j < 5; j++) {
+						preparedStatement.setNull(parameterIndex++, Types.BIGINT);
+					}
+				} else {
+					preparedStatement.setLong(parameterIndex++, timestamp);
+					preparedStatement.setLong(parameterIndex++, timestamp - (timestamp % ONE_SECOND_IN_MILLIS));
+					preparedStatement.setLong(parameterIndex++, timestamp - (timestamp % ONE_MINUTE_IN_MILLIS));
+					preparedStatement.setLong(parameterIndex++, timestamp - (timestamp % ONE_HOUR_IN_MILLIS));
+					preparedStatement.setLong(parameterIndex++, timestamp - (timestamp % ONE_DAY_IN_MILLIS));
+				}
+				preparedStatement.setObject(parameterIndex++, createJsonObject(operation.getDocument(), operation.getDocumentLength()));
+				if(operation.getUpsertDocument() == null) {
+					preparedStatement.setNull(parameterIndex++, Types.BIGINT);
+					preparedStatement.setNull(parameterIndex++, Types.OTHER);
+				} else {
+					preparedStatement.setLong(parameterIndex++, operation.getUpsertTimestamp());
+					preparedStatement.setObject(parameterIndex++, createJsonObject(operation.getUpsertDocument()));
+				}
+			}
+
+			final ResultSet resultSet = preparedStatement.executeQuery();
+			while(resultSet.next()) {
+				rows[resultSet.getInt(1)] = resultSet.getInt(2);
+			}
+			resultSet.close();
+			preparedStatement.close();
+		} finally {
+			connection.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Citus does not allow updating the distribution column of time series indices,
+	 * so updates keep the timestamp of existing documents
+	 */
+	private int [] updateDistributed(int from, int to) throws SQLException {
+		final String queryTarget = indexUtils.getQueryTarget(index);
+		final int [] rows = new int[to - from];
+		final List<BulkIndexOperation> upsertOperations = new ArrayList<BulkIndexOperation>();
+
+		final Connection connection = jdbcTemplate.getDataSource().getConnection();
+		try {
+			final PreparedStatement updateStatement = connection.prepareStatement("UPDATE " + queryTarget +
+					" SET _source = _source || ?::jsonb WHERE _id = ?");
+			for(int i = from; i < to; i++) {
+				final BulkIndexOperation operation = operations.get(i);
+				updateStatement.setObject(1, createJsonObject(operation.getDocument(), operation.getDocumentLength()));
+				updateStatement.setString(2, operation.getId());
+				updateStatement.addBatch();
+			}
+			final int [] updateCounts = updateStatement.executeBatch();
+			updateStatement.close();
+
+			for(int i = from; i < to; i++) {
+				if(updateCounts[i - from] > 0) {
+					rows[i - from] = UPDATE_UPDATED;
+				} else if(operations.get(i).getUpsertDocument() != null) {
+					upsertOperations.add(operations.get(i));
+				}
+			}
+			if(upsertOperations.isEmpty()) {
+				return rows;
+			}
+
+			final StringBuilder queryBuilder = new StringBuilder();
+			queryBuilder.append("INSERT INTO ");
+			queryBuilder.append(queryTarget);
+			queryBuilder.append(" (_index, _type, _id, _timestamp, _bucket1s, _bucket1m, _bucket1h, _bucket1d, _source) VALUES ");
+			for(int i = 0; i < upsertOperations.size(); i++) {
+				if(i > 0) {
+					queryBuilder.append(',');
+				}
+				queryBuilder.append("(?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			}
+			queryBuilder.append(" ON CONFLICT DO NOTHING RETURNING _id");
+
+			final PreparedStatement insertStatement = connection.prepareStatement(queryBuilder.toString());
+			int parameterIndex = 1;
+			for(BulkIndexOperation operation : upsertOperations) {
+				final long timestamp = operation.getUpsertTimestamp();
+				insertStatement.setString(parameterIndex++, index);
+				insertStatement.setString(parameterIndex++, operation.getType());
+				insertStatement.setString(parameterIndex++, operation.getId());
+				insertStatement.setLong(parameterIndex++, timestamp);
+				insertStatement.setLong(parameterIndex++, timestamp - (timestamp % ONE_SECOND_IN_MILLIS));
+				insertStatement.setLong(parameterIndex++, timestamp - (timestamp % ONE_MINUTE_IN_MILLIS));
+				insertStatement.setLong(parameterIndex++, timestamp - (timestamp % ONE_HOUR_IN_MILLIS));
+				insertStatement.setLong(parameterIndex++, timestamp - (timestamp % ONE_DAY_IN_MILLIS));
+				insertStatement.setObject(parameterIndex++, createJsonObject(operation.getUpsertDocument()));
+			}
+
+			final Set<String> createdIds = new HashSet<String>();
+			final ResultSet resultSet = insertStatement.executeQuery();
+			while(resultSet.next()) {
+				createdIds.add(resultSet.getString(1));
+			}
+			resultSet.close();
+			insertStatement.close();
+
+			for(int i = from; i < to; i++) {
+				if(createdIds.contains(operations.get(i).getId())) {
+					rows[i - from] = UPDATE_CREATED;
+				}
+			}
+		} finally {
+			connection.close();
+		}
+		return rows;
+	}
+
+	private void escape(int from, int to) {
+		for(int i = from; i < to; i++) {
+			final BulkIndexOperation operation = operations.get(i);
+			if(nodeSettingsService.isFlattenJson()) {
+				try {
+					IndexUtils.flattenJson(operation);
+				} catch (Exception e) {
+					LOGGER.error(e.getMessage(), e);
+					EscapeUtils.psqlEscapeString(operation);
+				}
+			} else if(operation.isEscapeRequired()) {
+				EscapeUtils.psqlEscapeString(operation);
+			}
+		}
+	}
+
+	private String escape(String document) {
+		if(nodeSettingsService.isFlattenJson()) {
+			try {
+				return IndexUtils.flattenJson(document);
+			} catch (Exception e) {
+				LOGGER.error(e.getMessage(), e);
+			}
+		}
+		return EscapeUtils.psqlEscapeString(document);
+	}
+
+	private static PGobject createJsonObject(char [] document, int documentLength) throws SQLException {
+		return createJsonObject(new String(document, 0, documentLength));
+	}
+
+	private static PGobject createJsonObject(String document) throws SQLException {
+		final PGobject jsonObject = new PGobject();
+		jsonObject.setType("json");
+		jsonObject.setValue(document);
+		return jsonObject;
+	}
+
+	private void delete(int from, int to, String [] statuses) throws SQLException {
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("DELETE FROM ");
+		queryBuilder.append(indexUtils.getQueryTarget(index));
+		queryBuilder.append(" WHERE ");
+		if(!nodeSettingsService.isUsingCitus()) {
+			queryBuilder.append("_index = ? AND ");
+		}
+		queryBuilder.append("_id = ANY(?) RETURNING _id");
+
+		final String [] ids = new String[to - from];
+		for(int i = from; i < to; i++) {
+			ids[i - from] = operations.get(i).getId();
+		}
+
+		final Set<String> deletedIds = new HashSet<String>();
+		final Connection connection = jdbcTemplate.getDataSource().getConnection();
+		try {
+			final PreparedStatement preparedStatement = connection.prepareStatement(queryBuilder.toString());
+			int parameterIndex = 1;
+			if(!nodeSettingsService.isUsingCitus()) {
+				preparedStatement.setString(parameterIndex++, index);
+			}
+			final Array idArray = connection.createArrayOf("varchar", ids);
+			preparedStatement.setArray(parameterIndex, idArray);
+
+			final ResultSet resultSet = preparedStatement.executeQuery();
+			while(resultSet.next()) {
+				deletedIds.add(resultSet.getString(1));
+			}
+			resultSet.close();
+			preparedStatement.close();
+			idArray.free();
+		} finally {
+			connection.close();
+		}
+
+		for(int i = from; i < to; i++) {
+			if(deletedIds.contains(operations.get(i).getId())) {
+				statuses[i] = BulkItemResponse.STATUS_DELETED;
+				totalWritten++;
+			} else {
+				statuses[i] = BulkItemResponse.STATUS_NOT_FOUND;
+			}
+		}
+	}
+
+	public String getIndex() {
+		return index;
+	}
+
+	public int getSize() {
+		return operations.size();
+	}
+
+	public int getTotalSuccess() {
+		return totalSuccess;
+	}
+
+	public int getTotalFailed() {
+		return totalFailed;
+	}
+
+	/**
+	 * @return The no. of documents created, updated or deleted
+	 */
+	public int getTotalWritten() {
+		return totalWritten;
+	}
+}
@@ -33,6 +33,7 @@ import com.elefana.node.NodeSettingsService;
 import com.elefana.node.VersionInfoService;
 import com.elefana.table.TableIndexCreator;
 import com.elefana.util.EscapeUtils;
+import com.elefana.util.IndexGenerationTracker;
 import com.elefana.util.IndexUtils;
 import com.elefana.util.NamedThreadFactory;
 import com.elefana.util.ThreadPriorities;
@@ -90,13 +91,21 @@ public class PsqlDocumentService implements DocumentService, RequestExecutor {
 	private IndexTemplateService indexTemplateService;
 	@Autowired
 	private TableIndexCreator tableIndexCreator;
+	@Autowired
+	private IndexGenerationTracker indexGenerationTracker;
+	@Autowired
+	private PsqlGroupCommitter groupCommitter;
+	@Autowired
+	private PsqlRollupMaintainer rollupMaintainer;
 
 	private ExecutorService executorService;
 	private ExecutorService asyncDeletionExecutorService;
 
 	@PostConstruct
 	public void postConstruct() {
-		executorService = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2), new NamedThreadFactory(
+		final int totalThreads = environment.getProperty("elefana.service.document.threads", Integer.class,
+				Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+		executorService = Executors.newFixedThreadPool(totalThreads, new NamedThreadFactory(
 				"elefana-documentService-requestExecutor", ThreadPriorities.DOCUMENT_SERVICE));
 		asyncDeletionExecutorService = Executors.newSingleThreadExecutor(new NamedThreadFactory(
 				"elefana-documentService-asyncDeletionExecutor", ThreadPriorities.DOCUMENT_SERVICE));
@@ -451,6 +460,7 @@ public class PsqlDocumentService implements DocumentService, RequestExecutor {
 		int rows = 0;
 		for (String index : indexUtils.listIndicesForIndexPattern(indexPattern)) {
 			final String queryTarget = indexUtils.getQueryTarget(index);
+			rollupMaintainer.deleteRollups(index);
 
 			if(typePattern.equals("*") && nodeSettingsService.isUsingCitus()) {
 				StringBuilder queryBuilder = new StringBuilder();
@@ -505,6 +515,7 @@ public class PsqlDocumentService implements DocumentService, RequestExecutor {
 					}
 				}
 			}
+			indexGenerationTracker.incrementGeneration(index);
 		}
 		return rows;
 	}
@@ -590,7 +601,9 @@ public class PsqlDocumentService implements DocumentService, RequestExecutor {
 			if(rows == 0) {
 				response.setResult("not_found");
 			} else {
+				indexGenerationTracker.incrementGeneration(index);
 				indexFieldMappingService.scheduleIndexForMappingAndStats(index);
+				rollupMaintainer.invalidateRollups(index);
 			}
 
 			final IndexTemplate indexTemplate = indexTemplateService.getIndexTemplateForIndex(index);
@@ -613,6 +626,53 @@ public class PsqlDocumentService implements DocumentService, RequestExecutor {
 		if (id == null) {
 			id = indexUtils.generateDocumentId(index, type, doc);
 		}
+		final String document = prepareDocument(doc, opType);
+		final long timestamp = indexUtils.getTimestamp(index, document);
+
+		final int rows = executeIndex(context, index, type, id, timestamp, document, opType);
+		return createIndexResponse(index, type, id, document, opType, rows);
+	}
+
+	/**
+	 * Indexes a document without occupying a request thread while the document waits for its group commit.
+	 * Falls back to {@link #index(ChannelHandlerContext, String, String, String, PooledStringBuilder, IndexOpType)}
+	 * when group commits are disabled or unsupported for the index.
+	 * @return Completes with the response or the {@link ElefanaException} the request failed with
+	 */
+	public CompletableFuture<IndexResponse> indexAsync(ChannelHandlerContext context, String index, String type, String id,
+	                                                    PooledStringBuilder doc, IndexOpType opType) {
+		final CompletableFuture<IndexResponse> result = new CompletableFuture<IndexResponse>();
+		executorService.submit(() -> {
+			try {
+				if(!groupCommitter.isEnabled() || !isGroupCommitSupported(index)) {
+					result.complete(index(context, index, type, id, doc, opType));
+					return;
+				}
+				indexUtils.ensureIndexExists(index);
+
+				final String documentId = id == null ? indexUtils.generateDocumentId(index, type, doc) : id;
+				final String document = prepareDocument(doc, opType);
+				final long timestamp = indexUtils.getTimestamp(index, document);
+
+				groupCommitter.commit(index, type, documentId, timestamp, document, opType).whenComplete((rows, e) -> {
+					if(e != null) {
+						result.completeExceptionally(e);
+						return;
+					}
+					try {
+						result.complete(createIndexResponse(index, type, documentId, document, opType, rows));
+					} catch (Exception e1) {
+						result.completeExceptionally(e1);
+					}
+				});
+			} catch (Exception e) {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	private String prepareDocument(PooledStringBuilder doc, IndexOpType opType) throws ElefanaException {
 		String document = null;
 
 		switch (versionInfoService.getApiVersion()) {
@@ -640,10 +700,42 @@ public class PsqlDocumentService implements DocumentService, RequestExecutor {
 				throw new ShardFailedException(e);
 			}
 		}
-		document = EscapeUtils.psqlEscapeString(document);
-		document = EscapeUtils.psqlEscapeString(document);
+		return EscapeUtils.psqlEscapeString(document);
+	}
 
-		final long timestamp = indexUtils.getTimestamp(index, document);
+	private IndexResponse createIndexResponse(String index, String type, String id, String document, IndexOpType opType, int rows)
+			throws ElefanaException {
+		if (rows > 0) {
+			indexGenerationTracker.incrementGeneration(index);
+			rollupMaintainer.invalidateRollups(index);
+
+			IndexResponse result = new IndexResponse();
+			result.setIndex(index);
+			result.setType(type);
+			result.setId(id);
+			result.setVersion(1);
+			if (opType == IndexOpType.UPDATE) {
+				result.setCreated(false);
+			} else {
+				result.setCreated(true);
+			}
+
+			if(opType != IndexOpType.UPDATE) {
+				indexFieldStatsService.submitDocument(document, index, type);
+			}
+
+			indexFieldMappingService.scheduleIndexForMappingAndStats(index);
+			return result;
+		} else {
+			if (opType == IndexOpType.CREATE) {
+				throw new DocumentAlreadyExistsException(index, type, id);
+			}
+			throw new ShardFailedException();
+		}
+	}
+
+	private int executeIndex(ChannelHandlerContext context, String index, String type, String id, long timestamp,
+							 String document, IndexOpType opType) throws ElefanaException {
 		final long bucket1s = timestamp - (timestamp % ONE_SECOND_IN_MILLIS);
 		final long bucket1m = timestamp - (timestamp % ONE_MINUTE_IN_MILLIS);
 		final long bucket1h = timestamp - (timestamp % ONE_HOUR_IN_MILLIS);
@@ -809,31 +901,22 @@ public class PsqlDocumentService implements DocumentService, RequestExecutor {
 			LOGGER.error(e.getMessage(), e);
 			throw new ShardFailedException(e);
 		}
+		return rows;
+	}
 
-		if (rows > 0) {
-			IndexResponse result = new IndexResponse();
-			result.setIndex(index);
-			result.setType(type);
-			result.setId(id);
-			result.setVersion(1);
-			if (opType == IndexOpType.UPDATE) {
-				result.setCreated(false);
-			} else {
-				result.setCreated(true);
-			}
-
-			if(opType != IndexOpType.UPDATE) {
-				indexFieldStatsService.submitDocument(document, index);
-			}
-
-			indexFieldMappingService.scheduleIndexForMappingAndStats(index);
-			return result;
-		} else {
-			if (opType == IndexOpType.CREATE) {
-				throw new DocumentAlreadyExistsException(index, type, id);
-			}
-			throw new ShardFailedException();
+	/**
+	 * Documents can be group committed unless the index has ids disabled
+	 * as overwrites then require a lookup of the existing document
+	 */
+	private boolean isGroupCommitSupported(String index) {
+		if(!nodeSettingsService.isUsingCitus()) {
+			return true;
+		}
+		final IndexTemplate indexTemplate = indexTemplateService.getIndexTemplateForIndex(index);
+		if(indexTemplate == null || indexTemplate.getStorage() == null) {
+			return true;
 		}
+		return indexTemplate.getStorage().isIdEnabled();
 	}
 
 	@Override
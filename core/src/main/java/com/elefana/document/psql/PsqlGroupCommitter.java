@@ -0,0 +1,457 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.document.psql;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.elefana.api.document.IndexOpType;
+import com.elefana.api.exception.ElefanaException;
+import com.elefana.api.exception.ShardFailedException;
+import com.elefana.document.BulkIndexOperation;
+import com.elefana.node.NodeSettingsService;
+import com.elefana.util.IndexUtils;
+import com.elefana.util.NamedThreadFactory;
+import com.elefana.util.ThreadPriorities;
+import org.postgresql.util.PGobject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent single document writes to the same index into one multi-row statement.
+ * Writers do not wait for the batch they join, so a batch can span any number of requests.
+ * A batch is committed once full or once the configured delay has passed since its first document.
+ * Batches of the same index are committed in the order they were opened so that later writes
+ * of an id are never overtaken by earlier ones.
+ */
+@Service
+public class PsqlGroupCommitter {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PsqlGroupCommitter.class);
+
+	private static final long ONE_SECOND_IN_MILLIS = 1000L;
+	private static final long ONE_MINUTE_IN_MILLIS = ONE_SECOND_IN_MILLIS * 60L;
+	private static final long ONE_HOUR_IN_MILLIS = ONE_MINUTE_IN_MILLIS * 60L;
+	private static final long ONE_DAY_IN_MILLIS = ONE_HOUR_IN_MILLIS * 24L;
+
+	private static final String COLUMNS = "_index, _type, _id, _timestamp, _bucket1s, _bucket1m, _bucket1h, _bucket1d, _source";
+
+	@Autowired
+	private Environment environment;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private IndexUtils indexUtils;
+	@Autowired
+	private NodeSettingsService nodeSettingsService;
+	@Autowired
+	private MetricRegistry metricRegistry;
+
+	private final ConcurrentHashMap<String, Batch> openBatches = new ConcurrentHashMap<String, Batch>();
+	private final ConcurrentHashMap<String, CompletableFuture<Void>> indexCommits = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+	private boolean enabled;
+	private long maxDelayMillis;
+	private int maxDocuments;
+	private Histogram batchSize;
+	private ScheduledExecutorService flushExecutor;
+	private ExecutorService commitExecutor;
+
+	public PsqlGroupCommitter() {
+		super();
+	}
+
+	PsqlGroupCommitter(JdbcTemplate jdbcTemplate, NodeSettingsService nodeSettingsService, MetricRegistry metricRegistry,
+	                   long maxDelayMillis, int maxDocuments, int totalThreads) {
+		super();
+		this.jdbcTemplate = jdbcTemplate;
+		this.nodeSettingsService = nodeSettingsService;
+		this.metricRegistry = metricRegistry;
+		this.enabled = true;
+		this.maxDelayMillis = maxDelayMillis;
+		this.maxDocuments = maxDocuments;
+		initialise(totalThreads);
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		enabled = environment.getProperty("elefana.service.document.groupCommit.enabled", Boolean.class, false);
+		maxDelayMillis = Math.max(0L, environment.getProperty("elefana.service.document.groupCommit.maxDelayMillis", Long.class, 5L));
+		maxDocuments = Math.max(1, environment.getProperty("elefana.service.document.groupCommit.maxDocuments", Integer.class, 256));
+		initialise(Math.max(1, environment.getProperty("elefana.service.document.groupCommit.threads", Integer.class, 2)));
+	}
+
+	private void initialise(int totalThreads) {
+		batchSize = metricRegistry.histogram(MetricRegistry.name("document", "groupCommit", "batch", "size"));
+		flushExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+				"elefana-groupCommitter-flushExecutor", ThreadPriorities.DOCUMENT_SERVICE));
+		commitExecutor = Executors.newFixedThreadPool(totalThreads, new NamedThreadFactory(
+				"elefana-groupCommitter-commitExecutor", ThreadPriorities.DOCUMENT_SERVICE));
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		for(Batch batch : openBatches.values()) {
+			flush(batch);
+		}
+		flushExecutor.shutdownNow();
+
+		try {
+			//Commits queued behind a running commit are only submitted to the executor once it completes
+			CompletableFuture.allOf(indexCommits.values().toArray(new CompletableFuture[0])).get(120, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage(), e);
+		}
+		commitExecutor.shutdown();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Queues a document for the next group commit of its index without waiting for the commit
+	 * @param index The index to write to
+	 * @param type The document type
+	 * @param id The document id
+	 * @param timestamp The document timestamp
+	 * @param document The escaped document source
+	 * @param opType The write operation
+	 * @return Completes with the no. of rows written for the document or with the {@link ElefanaException} the commit failed with
+	 */
+	public CompletableFuture<Integer> commit(String index, String type, String id, long timestamp, String document, IndexOpType opType) {
+		final PendingDocument pendingDocument = new PendingDocument(index, type, id, timestamp, document);
+
+		while(true) {
+			final Batch batch = openBatches.get(index);
+			if(batch != null) {
+				if(batch.add(pendingDocument, opType)) {
+					if(batch.isFull()) {
+						flush(batch);
+					}
+					return pendingDocument.result;
+				}
+				//Closed, full, another op type or the id is already pending: commit it before opening the next batch
+				flush(batch);
+				continue;
+			}
+
+			final Batch newBatch = new Batch(index, opType, maxDocuments);
+			newBatch.add(pendingDocument, opType);
+			if(openBatches.putIfAbsent(index, newBatch) != null) {
+				continue;
+			}
+			if(newBatch.isFull()) {
+				flush(newBatch);
+			} else {
+				flushExecutor.schedule(() -> flush(newBatch), maxDelayMillis, TimeUnit.MILLISECONDS);
+			}
+			return pendingDocument.result;
+		}
+	}
+
+	/**
+	 * Writes already escaped bulk operations of an index as one multi-row statement.
+	 * Operations must not repeat an id.
+	 * @param index The index to write to
+	 * @param opType The write operation
+	 * @param operations The operations to write
+	 * @param from The first operation to write
+	 * @param to The operation to stop writing at (exclusive)
+	 * @return The no. of rows written per operation, -1 for operations that failed
+	 */
+	public int [] write(String index, IndexOpType opType, List<BulkIndexOperation> operations, int from, int to) {
+		final Batch batch = new Batch(index, opType, Math.max(1, to - from));
+		for(int i = from; i < to; i++) {
+			final BulkIndexOperation operation = operations.get(i);
+			if(!batch.add(new PendingDocument(index, operation.getType(), operation.getId(), operation.getTimestamp(),
+					new String(operation.getDocument(), 0, operation.getDocumentLength())), opType)) {
+				throw new IllegalArgumentException("Duplicate id " + operation.getId() + " in batch");
+			}
+		}
+		batch.close();
+		batchSize.update(batch.documents.size());
+		execute(batch);
+
+		final int [] result = new int[batch.documents.size()];
+		for(int i = 0; i < result.length; i++) {
+			try {
+				result[i] = batch.documents.get(i).result.get();
+			} catch (Exception e) {
+				result[i] = -1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Closes a batch and queues it behind the batches previously opened for its index.
+	 * Closing and queueing happen under the batch lock so that writers turned away by the closed batch
+	 * only open the next batch once this one holds its place in the queue.
+	 */
+	private void flush(Batch batch) {
+		synchronized(batch) {
+			if(batch.close()) {
+				batchSize.update(batch.documents.size());
+
+				final CompletableFuture<Void> commit = indexCommits.compute(batch.index, (index, previousCommit) -> {
+					if(previousCommit == null) {
+						return CompletableFuture.runAsync(() -> execute(batch), commitExecutor);
+					}
+					return previousCommit.handleAsync((result, e) -> {
+						execute(batch);
+						return null;
+					}, commitExecutor);
+				});
+				commit.whenComplete((result, e) -> indexCommits.remove(batch.index, commit));
+			}
+		}
+		openBatches.remove(batch.index, batch);
+	}
+
+	private void execute(Batch batch) {
+		try {
+			executeBatch(batch);
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage(), e);
+		}
+		for(PendingDocument pendingDocument : batch.documents) {
+			if(!pendingDocument.result.isDone()) {
+				pendingDocument.result.completeExceptionally(new ShardFailedException());
+			}
+		}
+	}
+
+	private void executeBatch(Batch batch) {
+		try {
+			executeStatement(batch.index, batch.opType, batch.documents);
+			return;
+		} catch (Exception e) {
+			if(batch.documents.size() == 1) {
+				LOGGER.error(e.getMessage(), e);
+				batch.documents.get(0).result.completeExceptionally(new ShardFailedException(e));
+				return;
+			}
+			LOGGER.warn("Group commit of " + batch.documents.size() + " documents to " + batch.index
+					+ " failed, retrying documents individually. " + e.getMessage());
+		}
+
+		// Retry individually so that one bad document only fails its own request
+		final List<PendingDocument> single = new ArrayList<PendingDocument>(1);
+		for(PendingDocument pendingDocument : batch.documents) {
+			single.clear();
+			single.add(pendingDocument);
+			try {
+				executeStatement(batch.index, batch.opType, single);
+			} catch (Exception e) {
+				LOGGER.error(e.getMessage(), e);
+				pendingDocument.result.completeExceptionally(new ShardFailedException(e));
+			}
+		}
+	}
+
+	private void executeStatement(String index, IndexOpType opType, List<PendingDocument> documents) throws SQLException {
+		final String query = nodeSettingsService.isUsingCitus() ? createInsertQuery(index, opType, documents.size()) :
+				createFunctionQuery(opType, documents.size());
+
+		final Connection connection = jdbcTemplate.getDataSource().getConnection();
+		try {
+			final PreparedStatement preparedStatement = connection.prepareStatement(query);
+			int parameterIndex = 1;
+			for(int i = 0; i < documents.size(); i++) {
+				final PendingDocument pendingDocument = documents.get(i);
+				if(!nodeSettingsService.isUsingCitus()) {
+					preparedStatement.setInt(parameterIndex++, i);
+				}
+				final PGobject jsonObject = new PGobject();
+				jsonObject.setType("json");
+				jsonObject.setValue(pendingDocument.document);
+
+				preparedStatement.setString(parameterIndex++, pendingDocument.index);
+				preparedStatement.setString(parameterIndex++, pendingDocument.type);
+				preparedStatement.setString(parameterIndex++, pendingDocument.id);
+				preparedStatement.setLong(parameterIndex++, pendingDocument.timestamp);
+				preparedStatement.setLong(parameterIndex++, pendingDocument.timestamp - (pendingDocument.timestamp % ONE_SECOND_IN_MILLIS));
+				preparedStatement.setLong(parameterIndex++, pendingDocument.timestamp - (pendingDocument.timestamp % ONE_MINUTE_IN_MILLIS));
+				preparedStatement.setLong(parameterIndex++, pendingDocument.timestamp - (pendingDocument.timestamp % ONE_HOUR_IN_MILLIS));
+				preparedStatement.setLong(parameterIndex++, pendingDocument.timestamp - (pendingDocument.timestamp % ONE_DAY_IN_MILLIS));
+				preparedStatement.setObject(parameterIndex++, jsonObject);
+			}
+
+			final int [] rows = new int[documents.size()];
+			final ResultSet resultSet = preparedStatement.executeQuery();
+			if(nodeSettingsService.isUsingCitus()) {
+				final Set<String> writtenIds = new HashSet<String>();
+				while(resultSet.next()) {
+					writtenIds.add(resultSet.getString(1));
+				}
+				for(int i = 0; i < documents.size(); i++) {
+					rows[i] = writtenIds.contains(documents.get(i).id) ? 1 : 0;
+				}
+			} else {
+				while(resultSet.next()) {
+					rows[resultSet.getInt(1)] = resultSet.getInt(2);
+				}
+			}
+			resultSet.close();
+			preparedStatement.close();
+
+			for(int i = 0; i < documents.size(); i++) {
+				documents.get(i).result.complete(rows[i]);
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	private String createInsertQuery(String index, IndexOpType opType, int totalDocuments) {
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("INSERT INTO ");
+		queryBuilder.append(indexUtils.getQueryTarget(index));
+		queryBuilder.append(" AS i (" + COLUMNS + ") VALUES ");
+		for(int i = 0; i < totalDocuments; i++) {
+			if(i > 0) {
+				queryBuilder.append(',');
+			}
+			queryBuilder.append("(?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		}
+
+		switch (opType) {
+		case CREATE:
+			queryBuilder.append(" ON CONFLICT DO NOTHING");
+			break;
+		case UPDATE:
+			queryBuilder.append(
+					" ON CONFLICT (_id) DO UPDATE SET _timestamp = EXCLUDED._timestamp, "
+							+ "_bucket1s = EXCLUDED._bucket1s, _bucket1m = EXCLUDED._bucket1m,"
+							+ " _bucket1h = EXCLUDED._bucket1h, _bucket1d = EXCLUDED._bucket1d, "
+							+ "_source = i._source || EXCLUDED._source");
+			break;
+		case OVERWRITE:
+		default:
+			queryBuilder.append(
+					" ON CONFLICT (_id) DO UPDATE SET _timestamp = EXCLUDED._timestamp, "
+							+ "_bucket1s = EXCLUDED._bucket1s, _bucket1m = EXCLUDED._bucket1m, "
+							+ "_bucket1h = EXCLUDED._bucket1h, _bucket1d = EXCLUDED._bucket1d, "
+							+ "_source = EXCLUDED._source");
+			break;
+		}
+		queryBuilder.append(" RETURNING _id");
+		return queryBuilder.toString();
+	}
+
+	private String createFunctionQuery(IndexOpType opType, int totalDocuments) {
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("SELECT v._n, ");
+		switch (opType) {
+		case CREATE:
+			queryBuilder.append("elefana_create");
+			break;
+		case UPDATE:
+			queryBuilder.append("elefana_update");
+			break;
+		case OVERWRITE:
+		default:
+			queryBuilder.append("elefana_overwrite");
+			break;
+		}
+		queryBuilder.append("(v._index, v._type, v._id, v._timestamp, v._bucket1s, v._bucket1m, v._bucket1h, v._bucket1d, v._source) FROM (VALUES ");
+		for(int i = 0; i < totalDocuments; i++) {
+			if(i > 0) {
+				queryBuilder.append(',');
+			}
+			queryBuilder.append("(?::int, ?::varchar, ?::varchar, ?::varchar, ?::bigint, ?::bigint, ?::bigint, ?::bigint, ?::bigint, ?::json)");
+		}
+		queryBuilder.append(") AS v(_n, " + COLUMNS + ")");
+		return queryBuilder.toString();
+	}
+
+	private static class PendingDocument {
+		final String index, type, id, document;
+		final long timestamp;
+		final CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+
+		PendingDocument(String index, String type, String id, long timestamp, String document) {
+			this.index = index;
+			this.type = type;
+			this.id = id;
+			this.timestamp = timestamp;
+			this.document = document;
+		}
+	}
+
+	private static class Batch {
+		final String index;
+		final IndexOpType opType;
+		final int maxDocuments;
+		final List<PendingDocument> documents;
+		final Set<String> ids = new HashSet<String>();
+		boolean closed = false;
+
+		Batch(String index, IndexOpType opType, int maxDocuments) {
+			this.index = index;
+			this.opType = opType;
+			this.maxDocuments = maxDocuments;
+			this.documents = new ArrayList<PendingDocument>(Math.min(maxDocuments, 32));
+		}
+
+		/**
+		 * Adds a document unless the batch is closed, full, writes another op type or already writes the same id.
+		 * A multi-row ON CONFLICT statement cannot affect the same row twice.
+		 */
+		synchronized boolean add(PendingDocument pendingDocument, IndexOpType opType) {
+			if(closed || documents.size() >= maxDocuments || !this.opType.equals(opType) || !ids.add(pendingDocument.id)) {
+				return false;
+			}
+			documents.add(pendingDocument);
+			return true;
+		}
+
+		synchronized boolean isFull() {
+			return documents.size() >= maxDocuments;
+		}
+
+		/**
+		 * @return False if the batch was already closed
+		 */
+		synchronized boolean close() {
+			if(closed) {
+				return false;
+			}
+			closed = true;
+			return true;
+		}
+	}
+}
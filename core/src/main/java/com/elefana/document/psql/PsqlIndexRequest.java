@@ -18,10 +18,15 @@ package com.elefana.document.psql;
 import com.elefana.api.document.IndexRequest;
 import com.elefana.api.document.IndexResponse;
 import io.netty.channel.ChannelHandlerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 public class PsqlIndexRequest extends IndexRequest implements Callable<IndexResponse> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PsqlIndexRequest.class);
+
 	private final PsqlDocumentService documentService;
 
 	public PsqlIndexRequest(PsqlDocumentService documentService, ChannelHandlerContext context) {
@@ -34,6 +39,35 @@ public class PsqlIndexRequest extends IndexRequest implements Callable<IndexResp
 		return this;
 	}
 
+	/**
+	 * Completes the request once its document is written rather than blocking a request thread
+	 * until a group commit has written it
+	 */
+	@Override
+	public void execute() {
+		if(executionStarted.getAndSet(true)) {
+			return;
+		}
+		if(cancelled.get()) {
+			return;
+		}
+		final CompletableFuture<IndexResponse> result = documentService.indexAsync(context, getIndex(), getType(), getId(),
+				getSource(), getOpType());
+		backingFuture = result;
+		if(channelPromise == null) {
+			return;
+		}
+		result.whenComplete((response, e) -> {
+			if(e == null) {
+				channelPromise.trySuccess();
+			} else if(!channelPromise.isDone()) {
+				channelPromise.setFailure(e);
+			} else {
+				LOGGER.error(e.getMessage(), e);
+			}
+		});
+	}
+
 	@Override
 	public IndexResponse call() throws Exception {
 		return documentService.index(context, getIndex(), getType(), getId(), getSource(), getOpType());
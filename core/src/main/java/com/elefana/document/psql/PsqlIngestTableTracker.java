@@ -67,6 +67,7 @@ public class PsqlIngestTableTracker implements IngestTableTracker, Runnable {
 	protected final Map<String, HashIngestTable> indexToHashIngestTable = new ConcurrentHashMap<String, HashIngestTable>();
 	protected final Map<String, TimeIngestTable> indexToTimeIngestTable = new ConcurrentHashMap<String, TimeIngestTable>();
 	protected final AtomicBoolean initialised = new AtomicBoolean(false);
+	protected final ReadyStagingTableQueue readyQueue = new ReadyStagingTableQueue();
 
 	protected String[] tablespaces;
 	protected int defaultCapacity;
@@ -213,7 +214,7 @@ public class PsqlIngestTableTracker implements IngestTableTracker, Runnable {
 
 	protected TimeIngestTable createTimeIngestTable(String index, IndexTimeBucket timeBucket, List<String> existingTables) throws ElefanaException {
 		try {
-			return new DefaultTimeIngestTable(jdbcTemplate, tablespaces, index, timeBucket, nodeSettingsService.getBulkParallelisation(), existingTables);
+			return new DefaultTimeIngestTable(jdbcTemplate, tablespaces, index, timeBucket, nodeSettingsService.getBulkParallelisation(), existingTables, readyQueue);
 		} catch (SQLException e) {
 			throw new ElefanaException(HttpResponseStatus.INTERNAL_SERVER_ERROR, e.getMessage(), e);
 		}
@@ -221,7 +222,7 @@ public class PsqlIngestTableTracker implements IngestTableTracker, Runnable {
 
 	protected HashIngestTable createHashIngestTable(String index, List<String> existingTables) throws ElefanaException {
 		try {
-			return new DefaultHashIngestTable(jdbcTemplate, tablespaces, index, defaultCapacity, existingTables);
+			return new DefaultHashIngestTable(jdbcTemplate, tablespaces, index, defaultCapacity, existingTables, readyQueue);
 		} catch (SQLException e) {
 			throw new ElefanaException(HttpResponseStatus.INTERNAL_SERVER_ERROR, e.getMessage(), e);
 		}
@@ -254,6 +255,11 @@ public class PsqlIngestTableTracker implements IngestTableTracker, Runnable {
 		return getIngestTable(index, indexToTimeIngestTable, true);
 	}
 
+	@Override
+	public ReadyStagingTableQueue getReadyStagingTables() {
+		return readyQueue;
+	}
+
 	@Override
 	public int getTotalIngestTables() {
 		int result = 0;
@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.document.psql;
+
+import com.elefana.api.exception.ElefanaException;
+import com.elefana.api.indices.IndexRollupSettings;
+import com.elefana.api.indices.IndexTemplate;
+import com.elefana.api.json.JsonUtils;
+import com.elefana.indices.IndexTemplateService;
+import com.elefana.util.IndexUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Maintains the per-minute document counts and numeric field metrics of indices with rollups
+ * enabled. Rollups are updated from the staging tables in the same transaction that merges
+ * them into the index. An index without a tracking entry for its current rollup fields, e.g.
+ * after rollups were enabled or documents were written outside of bulk ingestion, is rebuilt
+ * from its table in the background.
+ */
+@Service
+public class PsqlRollupMaintainer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PsqlRollupMaintainer.class);
+
+	public static final String DOC_COUNT_FIELD = "";
+
+	private final Set<String> staleIndices = ConcurrentHashMap.newKeySet();
+
+	@Autowired
+	private Environment environment;
+	@Autowired
+	private TaskScheduler taskScheduler;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private IndexTemplateService indexTemplateService;
+	@Autowired
+	private IndexUtils indexUtils;
+
+	private ScheduledFuture<?> rebuildScheduledTask;
+
+	@PostConstruct
+	public void postConstruct() {
+		rebuildScheduledTask = taskScheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					rebuildStaleRollups();
+				} catch (Exception e) {
+					LOGGER.error(e.getMessage(), e);
+				}
+			}
+		}, environment.getProperty("elefana.service.rollup.rebuildIntervalMillis", Long.class, 60000L));
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		if(rebuildScheduledTask != null) {
+			rebuildScheduledTask.cancel(false);
+		}
+	}
+
+	public static boolean isRollupEnabled(IndexTemplate indexTemplate) {
+		if(indexTemplate == null || indexTemplate.getStorage() == null) {
+			return false;
+		}
+		if(indexTemplate.getStorage().getTimestampPath() == null) {
+			return false;
+		}
+		return indexTemplate.getStorage().getRollupSettings().isEnabled();
+	}
+
+	/**
+	 * Updates the rollups of an index after staging tables were inserted into its table. Must be
+	 * called before the merge transaction is committed. If the rollups cannot be updated, they are
+	 * marked as stale instead of failing the merge.
+	 * @param connection The connection of the merge transaction
+	 * @param stagingTables The staging tables merged by the transaction
+	 */
+	public void updateRollups(Connection connection, IndexTemplate indexTemplate, String index,
+	                          List<String> stagingTables) throws SQLException {
+		if(!isRollupEnabled(indexTemplate)) {
+			return;
+		}
+		final Savepoint savepoint = connection.setSavepoint();
+		try {
+			internalUpdateRollups(connection, indexTemplate, index, stagingTables);
+			connection.releaseSavepoint(savepoint);
+		} catch (SQLException e) {
+			LOGGER.error("Unable to update rollups of " + index + ". " + e.getMessage(), e);
+			connection.rollback(savepoint);
+			//The lock was released with the savepoint, hold it so the rebuild waits for the merge
+			lockRollups(connection, index);
+
+			final PreparedStatement preparedStatement = connection.prepareStatement(
+					"DELETE FROM " + IndexUtils.ROLLUP_TRACKING_TABLE + " WHERE _index = ?");
+			preparedStatement.setString(1, index);
+			preparedStatement.executeUpdate();
+			preparedStatement.close();
+			staleIndices.add(index);
+		}
+	}
+
+	private void internalUpdateRollups(Connection connection, IndexTemplate indexTemplate, String index,
+	                                   List<String> stagingTables) throws SQLException {
+		final List<String> fields = getRollupFields(indexTemplate.getStorage().getRollupSettings());
+		lockRollups(connection, index);
+
+		final String trackedFields = JsonUtils.toJsonString(fields);
+		if(!trackedFields.equals(getTrackedFields(connection, index))) {
+			//The rebuild reads the merged rows from the table once this transaction is committed
+			staleIndices.add(index);
+			return;
+		}
+		final StringBuilder sourceBuilder = new StringBuilder();
+		sourceBuilder.append('(');
+		for(int i = 0; i < stagingTables.size(); i++) {
+			if(i > 0) {
+				sourceBuilder.append(" UNION ALL ");
+			}
+			sourceBuilder.append("SELECT * FROM ");
+			sourceBuilder.append(stagingTables.get(i));
+		}
+		sourceBuilder.append(')');
+		executeRollupInsert(connection, fields, sourceBuilder.toString());
+	}
+
+	/**
+	 * Serializes rollup updates of an index until the current transaction is committed
+	 */
+	private static void lockRollups(Connection connection, String index) throws SQLException {
+		final PreparedStatement preparedStatement = connection.prepareStatement("SELECT pg_advisory_xact_lock(hashtext(?))");
+		preparedStatement.setString(1, IndexUtils.ROLLUP_TABLE + "_" + index);
+		preparedStatement.execute();
+		preparedStatement.close();
+	}
+
+	/**
+	 * Marks the rollups of an index as stale after documents were written or deleted outside of
+	 * bulk ingestion. The rollups are not used by searches until they are rebuilt in the background.
+	 */
+	public void invalidateRollups(String index) {
+		try {
+			if(!isRollupEnabled(indexTemplateService.getIndexTemplateForIndex(index))) {
+				return;
+			}
+		} catch (ElefanaException e) {
+			LOGGER.error(e.getMessage(), e);
+		}
+		deleteRollupTracking(index);
+		staleIndices.add(index);
+	}
+
+	public void deleteRollups(String index) {
+		staleIndices.remove(index);
+		deleteRollupTracking(index);
+		try {
+			jdbcTemplate.update("DELETE FROM " + IndexUtils.ROLLUP_TABLE + " WHERE _index = ?", index);
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage(), e);
+		}
+	}
+
+	private void deleteRollupTracking(String index) {
+		try {
+			jdbcTemplate.update("DELETE FROM " + IndexUtils.ROLLUP_TRACKING_TABLE + " WHERE _index = ?", index);
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Rebuilds the rollups of stale indices from their tables, each in its own transaction so
+	 * that neither bulk merges nor writes wait on the scan of a whole index
+	 */
+	public void rebuildStaleRollups() {
+		for(String index : new ArrayList<String>(staleIndices)) {
+			staleIndices.remove(index);
+			try {
+				final IndexTemplate indexTemplate = indexTemplateService.getIndexTemplateForIndex(index);
+				if(!isRollupEnabled(indexTemplate)) {
+					continue;
+				}
+				rebuildRollups(indexTemplate, index);
+			} catch (Exception e) {
+				LOGGER.error("Unable to rebuild rollups of " + index + ". " + e.getMessage(), e);
+				staleIndices.add(index);
+				continue;
+			}
+			if(staleIndices.contains(index)) {
+				//Written to while rebuilding, the rebuilt rollups may not contain the write
+				deleteRollupTracking(index);
+			}
+		}
+	}
+
+	private void rebuildRollups(IndexTemplate indexTemplate, String index) throws SQLException {
+		final List<String> fields = getRollupFields(indexTemplate.getStorage().getRollupSettings());
+		final String trackedFields = JsonUtils.toJsonString(fields);
+		LOGGER.info("Rebuilding rollups of " + index + " for fields " + trackedFields);
+
+		Connection connection = null;
+		try {
+			connection = jdbcTemplate.getDataSource().getConnection();
+			connection.setAutoCommit(false);
+			lockRollups(connection, index);
+
+			PreparedStatement preparedStatement = connection.prepareStatement(
+					"DELETE FROM " + IndexUtils.ROLLUP_TABLE + " WHERE _index = ?");
+			preparedStatement.setString(1, index);
+			preparedStatement.executeUpdate();
+			preparedStatement.close();
+
+			executeRollupInsert(connection, fields, "(SELECT * FROM " + indexUtils.getQueryTarget(index) +
+					" WHERE _index = '" + index.replace("'", "''") + "')");
+
+			preparedStatement = connection.prepareStatement("INSERT INTO " + IndexUtils.ROLLUP_TRACKING_TABLE +
+					" (_index, _fields) VALUES (?, ?::jsonb) ON CONFLICT (_index) DO UPDATE SET _fields = EXCLUDED._fields");
+			preparedStatement.setString(1, index);
+			preparedStatement.setString(2, trackedFields);
+			preparedStatement.executeUpdate();
+			preparedStatement.close();
+
+			connection.commit();
+		} catch (SQLException e) {
+			if(connection != null) {
+				connection.rollback();
+			}
+			throw e;
+		} finally {
+			if(connection != null) {
+				connection.close();
+			}
+		}
+	}
+
+	private String getTrackedFields(Connection connection, String index) throws SQLException {
+		final PreparedStatement preparedStatement = connection.prepareStatement(
+				"SELECT _fields FROM " + IndexUtils.ROLLUP_TRACKING_TABLE + " WHERE _index = ?");
+		preparedStatement.setString(1, index);
+		final ResultSet resultSet = preparedStatement.executeQuery();
+		final String result = resultSet.next() ? resultSet.getString("_fields") : null;
+		preparedStatement.close();
+		if(result == null) {
+			return null;
+		}
+		return JsonUtils.toJsonString(JsonUtils.fromJsonString(result, List.class));
+	}
+
+	/**
+	 * Aggregates the source rows per minute and field in a single scan and adds them to the existing rollups
+	 */
+	private static void executeRollupInsert(Connection connection, List<String> fields, String source) throws SQLException {
+		final PreparedStatement preparedStatement = connection.prepareStatement(getRollupInsertQuery(fields, source));
+		preparedStatement.executeUpdate();
+		preparedStatement.close();
+	}
+
+	static String getRollupInsertQuery(List<String> fields, String source) {
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("INSERT INTO ");
+		queryBuilder.append(IndexUtils.ROLLUP_TABLE);
+		queryBuilder.append(" (_index, _bucket1m, _field, _doc_count, _value_count, _sum, _min, _max)");
+		queryBuilder.append(" SELECT _index, _bucket1m, elefana_rollup_values._field, COUNT(*), COUNT(elefana_rollup_values._value), ");
+		queryBuilder.append("SUM(elefana_rollup_values._value), MIN(elefana_rollup_values._value), MAX(elefana_rollup_values._value)");
+		queryBuilder.append(" FROM ");
+		queryBuilder.append(source);
+		queryBuilder.append(" AS elefana_rollup_source CROSS JOIN LATERAL (VALUES ('");
+		queryBuilder.append(DOC_COUNT_FIELD);
+		queryBuilder.append("', NULL::numeric)");
+		for(String field : fields) {
+			queryBuilder.append(", ('");
+			queryBuilder.append(field);
+			queryBuilder.append("', ");
+			queryBuilder.append(IndexUtils.getNumericFieldExpression(field));
+			queryBuilder.append(')');
+		}
+		queryBuilder.append(") AS elefana_rollup_values (_field, _value)");
+		queryBuilder.append(" GROUP BY _index, _bucket1m, elefana_rollup_values._field");
+		queryBuilder.append(" ON CONFLICT (_index, _bucket1m, _field) DO UPDATE SET ");
+		queryBuilder.append("_doc_count = ");
+		queryBuilder.append(IndexUtils.ROLLUP_TABLE);
+		queryBuilder.append("._doc_count + EXCLUDED._doc_count, _value_count = ");
+		queryBuilder.append(IndexUtils.ROLLUP_TABLE);
+		queryBuilder.append("._value_count + EXCLUDED._value_count, _sum = COALESCE(");
+		queryBuilder.append(IndexUtils.ROLLUP_TABLE);
+		queryBuilder.append("._sum + EXCLUDED._sum, ");
+		queryBuilder.append(IndexUtils.ROLLUP_TABLE);
+		queryBuilder.append("._sum, EXCLUDED._sum), _min = LEAST(");
+		queryBuilder.append(IndexUtils.ROLLUP_TABLE);
+		queryBuilder.append("._min, EXCLUDED._min), _max = GREATEST(");
+		queryBuilder.append(IndexUtils.ROLLUP_TABLE);
+		queryBuilder.append("._max, EXCLUDED._max)");
+		return queryBuilder.toString();
+	}
+
+	private static List<String> getRollupFields(IndexRollupSettings rollupSettings) {
+		final TreeSet<String> result = new TreeSet<String>();
+		for(String field : rollupSettings.getFields()) {
+			if(field == null || field.isEmpty() || field.indexOf('\'') >= 0) {
+				continue;
+			}
+			result.add(field);
+		}
+		return new ArrayList<String>(result);
+	}
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.http;
+
+import com.elefana.api.ApiResponseStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.*;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.CONNECTION;
+
+/**
+ * Sends a chunked HTTP response. Writes block while the channel is not writable
+ * so that only a bounded amount of the response is held in memory.
+ */
+public class HttpResponseStream implements ApiResponseStream {
+	private static final String HEADER_CONTENT_TYPE = "Content-Type";
+	private static final String HEADER_VALUE_APPLICATION_JSON = "application/json";
+	private static final String HEADER_CHARSET = "charset";
+	private static final String HEADER_VALUE_UTF8 = "utf-8";
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final ChannelHandlerContext context;
+	private final HttpVersion httpVersion;
+	private final boolean keepAlive;
+	private final long writeTimeoutMillis;
+
+	private ByteBuf buffer;
+	private boolean started, ended;
+
+	public HttpResponseStream(ChannelHandlerContext context, HttpVersion httpVersion, boolean keepAlive, long writeTimeoutMillis) {
+		super();
+		this.context = context;
+		this.httpVersion = httpVersion;
+		this.keepAlive = keepAlive;
+		this.writeTimeoutMillis = writeTimeoutMillis;
+	}
+
+	@Override
+	public void begin(int statusCode) {
+		if(started) {
+			return;
+		}
+		started = true;
+
+		final HttpResponse response = new DefaultHttpResponse(httpVersion, HttpResponseStatus.valueOf(statusCode));
+		response.headers().set(HEADER_CHARSET, HEADER_VALUE_UTF8);
+		response.headers().set(HEADER_CONTENT_TYPE, HEADER_VALUE_APPLICATION_JSON);
+		HttpUtil.setTransferEncodingChunked(response, true);
+		response.headers().set(CONNECTION, keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+		context.write(response);
+
+		buffer = context.alloc().buffer(CHUNK_SIZE);
+	}
+
+	@Override
+	public void write(CharSequence content) {
+		if(!started || ended) {
+			throw new IllegalStateException("Response stream not started or already ended");
+		}
+		ByteBufUtil.writeUtf8(buffer, content);
+		if(buffer.readableBytes() >= CHUNK_SIZE) {
+			flushChunk();
+		}
+	}
+
+	@Override
+	public void end() {
+		if(!started || ended) {
+			return;
+		}
+		ended = true;
+
+		if(buffer.readableBytes() > 0) {
+			context.write(new DefaultHttpContent(buffer));
+		} else {
+			buffer.release();
+		}
+		buffer = null;
+
+		final ChannelFuture lastContentFuture = context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+		if(!keepAlive) {
+			lastContentFuture.addListener(ChannelFutureListener.CLOSE);
+		}
+	}
+
+	/**
+	 * Releases any buffered content and closes the connection, e.g. when the response fails after being started
+	 */
+	public void abort() {
+		ended = true;
+		if(buffer != null) {
+			buffer.release();
+			buffer = null;
+		}
+		context.close();
+	}
+
+	private void flushChunk() {
+		final ChannelFuture writeFuture = context.writeAndFlush(new DefaultHttpContent(buffer));
+		buffer = context.alloc().buffer(CHUNK_SIZE);
+
+		if(!context.channel().isWritable()) {
+			if(!writeFuture.awaitUninterruptibly(writeTimeoutMillis) || !writeFuture.isSuccess()) {
+				throw new IllegalStateException("Timed out writing response to client");
+			}
+		}
+	}
+
+	@Override
+	public boolean isStarted() {
+		return started;
+	}
+}
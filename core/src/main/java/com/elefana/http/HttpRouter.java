@@ -142,6 +142,10 @@ public abstract class HttpRouter extends ChannelInboundHandlerAdapter {
 				write(System.currentTimeMillis(), keepAlive, context, createResponse(httpRequest, HttpResponseStatus.NOT_FOUND));
 				return;
 			}
+			final HttpResponseStream responseStream = apiRequest.isStreamingResponse() ?
+					new HttpResponseStream(context, httpRequest.protocolVersion(), keepAlive, httpTimeoutMillis) : null;
+			apiRequest.setResponseStream(responseStream);
+
 			final GenericFutureListener closeListener = new GenericFutureListener<Future<? super Void>>() {
 				@Override
 				public void operationComplete(Future<? super Void> future) throws Exception {
@@ -158,6 +162,16 @@ public abstract class HttpRouter extends ChannelInboundHandlerAdapter {
 				public void operationComplete(Future<? super Void> future) throws Exception {
 					closeFuture.removeListener(closeListener);
 
+					if(responseStream != null && responseStream.isStarted()) {
+						//Response was already written by the request
+						requestContent.release();
+						if(!future.isSuccess()) {
+							LOGGER.error("[" + uri + "] Streaming response failed", future.cause());
+							responseStream.abort();
+						}
+						return;
+					}
+
 					try {
 						final HttpResponse httpResponse;
 						final ApiResponse apiResponse = apiRequest.get();
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.indices;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Receives the fields observed while analysing ingested documents so that
+ * mappings can be maintained without sampling the stored documents
+ */
+public interface FieldObservationListener {
+
+	/**
+	 * @param index The index the documents were written to
+	 * @param type The document type
+	 * @param fieldNames The flattened names of the fields observed
+	 * @param properties The top-level properties observed mapped to a sample value. Objects
+	 *                   and arrays are sampled as an empty {@link Map} or {@link java.util.List}.
+	 */
+	public void onFieldsObserved(String index, String type, Set<String> fieldNames, Map<String, Object> properties);
+
+	/**
+	 * Called when documents of an index were not analysed, e.g. shed under load or field stats
+	 * are disabled for the index, so fields only present in them must be found by sampling
+	 * @param index The index the documents were written to
+	 */
+	public void onDocumentsDropped(String index);
+}
@@ -16,12 +16,16 @@
 
 package com.elefana.indices.fieldstats;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
 import com.elefana.api.RequestExecutor;
 import com.elefana.api.exception.NoSuchApiException;
 import com.elefana.api.indices.*;
 import com.elefana.api.json.JsonUtils;
 import com.elefana.api.util.PooledStringBuilder;
 import com.elefana.document.BulkIndexOperation;
+import com.elefana.indices.FieldObservationListener;
 import com.elefana.indices.IndexTemplateService;
 import com.elefana.indices.fieldstats.job.CoreFieldStatsJob;
 import com.elefana.indices.fieldstats.job.CoreFieldStatsRemoveIndexJob;
@@ -56,12 +60,15 @@ import javax.annotation.PreDestroy;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @DependsOn({"nodeSettingsService"})
 public class CoreIndexFieldStatsService implements IndexFieldStatsService, RequestExecutor {
     private static final Logger LOGGER = LoggerFactory.getLogger(CoreIndexFieldStatsService.class);
     private static final int TABLES_FROM_DB_BATCH_SIZE = 6;
+    private static final long WORKER_INTERVAL_MILLIS = 100L;
 
     @Autowired
     protected Environment environment;
@@ -75,8 +82,13 @@ public class CoreIndexFieldStatsService implements IndexFieldStatsService, Reque
     protected JdbcTemplate jdbcTemplate;
     @Autowired
     protected IndexUtils indexUtils;
+    @Autowired
+    protected MetricRegistry metricRegistry;
+    @Autowired
+    protected FieldObservationListener fieldObservationListener;
 
     protected ExecutorService requestExecutorService;
+    protected ScheduledExecutorService workerExecutorService;
     protected State state;
     protected LoadUnloadManager loadUnloadManager;
 
@@ -89,6 +101,18 @@ public class CoreIndexFieldStatsService implements IndexFieldStatsService, Reque
 
     private LoadingCache<String, Set<String>> fieldNamesCache;
 
+    /**
+     * Bulk documents waiting for analysis. Producers only perform a lock-free offer,
+     * the queue is bounded by {@link #queuedDocuments}
+     */
+    private final Queue<QueuedDocuments> documentQueue = new ConcurrentLinkedQueue<QueuedDocuments>();
+    private final AtomicInteger queuedDocuments = new AtomicInteger();
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+
+    private int maxQueuedDocuments, sampleThreshold, sampleRate, batchSize;
+    private Meter documentsProcessed, documentsDropped;
+
     @PostConstruct
     public void postConstruct() {
         fieldNamesCache = CacheBuilder.newBuilder().
@@ -109,17 +133,63 @@ public class CoreIndexFieldStatsService implements IndexFieldStatsService, Reque
         final int requestThreadNumber = environment.getProperty("elefana.service.fieldStats.requestThreads", Integer.class, 2);
         requestExecutorService = Executors.newFixedThreadPool(requestThreadNumber, new NamedThreadFactory(
                 "elefana-fieldStatsService-requestExecutor", ThreadPriorities.FIELD_STATS_SERVICE));
+
+        maxQueuedDocuments = Math.max(1, environment.getProperty("elefana.service.fieldStats.queueSize", Integer.class, 100000));
+        sampleThreshold = maxQueuedDocuments - (maxQueuedDocuments / 4);
+        sampleRate = Math.max(1, environment.getProperty("elefana.service.fieldStats.sampleRate", Integer.class, 10));
+        batchSize = Math.max(1, environment.getProperty("elefana.service.fieldStats.batchSize", Integer.class, 10000));
+
+        documentsProcessed = metricRegistry.meter(MetricRegistry.name("fieldstats", "documents", "processed"));
+        documentsDropped = metricRegistry.meter(MetricRegistry.name("fieldstats", "documents", "dropped"));
+        metricRegistry.register(MetricRegistry.name("fieldstats", "queue", "documents"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return queuedDocuments.get();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name("fieldstats", "queue", "lag"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return lagMillis.get();
+            }
+        });
+
+        final int workerThreadNumber = Math.max(1, environment.getProperty("elefana.service.fieldStats.workerThreads", Integer.class, 2));
+        workerExecutorService = Executors.newScheduledThreadPool(workerThreadNumber, new NamedThreadFactory(
+                "elefana-fieldStatsService-worker", ThreadPriorities.FIELD_STATS_SERVICE));
+        for(int i = 0; i < workerThreadNumber; i++) {
+            workerExecutorService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while(processQueuedDocuments()) {
+                        }
+                    } catch (Exception e) {
+                        LOGGER.error(e.getMessage(), e);
+                    }
+                }
+            }, WORKER_INTERVAL_MILLIS, WORKER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
     }
 
     @PreDestroy
     public void preDestroy() {
         requestExecutorService.shutdown();
+        workerExecutorService.shutdown();
 
         try {
             requestExecutorService.awaitTermination(120, TimeUnit.SECONDS);
+            workerExecutorService.awaitTermination(120, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
         }
 
+        try {
+            while(processQueuedDocuments()) {
+            }
+        } catch (Exception e) {
+            LOGGER.error(e.getMessage(), e);
+        }
+
         if (nodeSettingsService.isMasterNode()) {
             loadUnloadManager.unloadAll();
             loadUnloadManager.shutdown();
@@ -350,34 +420,110 @@ public class CoreIndexFieldStatsService implements IndexFieldStatsService, Reque
         return wrappingMap;
     }
 
+    /**
+     * Queues bulk documents for asynchronous analysis. Ownership of the operations passes
+     * to this service, they are disposed once analysed or shed. When the queue is
+     * mostly full only a sample of documents is accepted, when full all are dropped.
+     */
     @Override
     public void submitDocuments(List<BulkIndexOperation> documents, int from, int size) {
-        CoreFieldStatsJob fieldStatsJob = null;
-
-        for (int i = from; i < from + size && i < documents.size(); i++) {
-            BulkIndexOperation operation = documents.get(i);
+        final int to = Math.min(from + size, documents.size());
+        if(to <= from) {
+            return;
+        }
 
-            if (isStatsDisabled(operation.getIndex())) {
+        final int queued = queuedDocuments.get();
+        final QueuedDocuments result = new QueuedDocuments(to - from);
+        String droppedIndex = null;
+        for (int i = from; i < to; i++) {
+            final BulkIndexOperation operation = documents.get(i);
+            if(queued >= sampleThreshold && sampleCounter.getAndIncrement() % sampleRate != 0) {
+                if(!operation.getIndex().equals(droppedIndex)) {
+                    droppedIndex = operation.getIndex();
+                    notifyDocumentsDropped(droppedIndex);
+                }
+                documentsDropped.mark();
                 operation.release();
                 continue;
             }
+            result.operations.add(operation);
+        }
+        if(result.operations.isEmpty()) {
+            return;
+        }
 
-            if(fieldStatsJob == null) {
-                ensureIndicesLoaded(operation.getIndex());
-                fieldStatsJob = CoreFieldStatsJob.allocate(state, loadUnloadManager, operation.getIndex());
-            } else if(!fieldStatsJob.getIndexName().equals(operation.getIndex())) {
-                fieldStatsJob.run();
+        final int totalOperations = result.operations.size();
+        if(queuedDocuments.addAndGet(totalOperations) > maxQueuedDocuments) {
+            queuedDocuments.addAndGet(-totalOperations);
+            documentsDropped.mark(totalOperations);
+            for(BulkIndexOperation operation : result.operations) {
+                if(!operation.getIndex().equals(droppedIndex)) {
+                    droppedIndex = operation.getIndex();
+                    notifyDocumentsDropped(droppedIndex);
+                }
+                operation.release();
+            }
+            return;
+        }
+        documentQueue.offer(result);
+    }
 
-                ensureIndicesLoaded(operation.getIndex());
-                fieldStatsJob = CoreFieldStatsJob.allocate(state, loadUnloadManager, operation.getIndex());
+    /**
+     * Drains queued documents up to the batch size, coalescing them into one job per index
+     * @return False if the queue was empty
+     */
+    protected boolean processQueuedDocuments() {
+        final Map<String, CoreFieldStatsJob> jobs = new LinkedHashMap<String, CoreFieldStatsJob>();
+        final Map<String, Boolean> statsDisabled = new HashMap<String, Boolean>();
+
+        int totalDocuments = 0;
+        while(totalDocuments < batchSize) {
+            final QueuedDocuments next = documentQueue.poll();
+            if(next == null) {
+                break;
             }
+            queuedDocuments.addAndGet(-next.operations.size());
+            lagMillis.set(System.currentTimeMillis() - next.timestamp);
+
+            for(BulkIndexOperation operation : next.operations) {
+                final String index = operation.getIndex();
+                Boolean disabled = statsDisabled.get(index);
+                if(disabled == null) {
+                    disabled = isStatsDisabled(index);
+                    statsDisabled.put(index, disabled);
+                    if(disabled) {
+                        notifyDocumentsDropped(index);
+                    }
+                }
+                if(disabled) {
+                    operation.release();
+                    continue;
+                }
 
-            fieldStatsJob.addDocument(operation);
+                CoreFieldStatsJob fieldStatsJob = jobs.get(index);
+                if(fieldStatsJob == null) {
+                    ensureIndicesLoaded(index);
+                    fieldStatsJob = CoreFieldStatsJob.allocate(state, loadUnloadManager, index, fieldObservationListener);
+                    jobs.put(index, fieldStatsJob);
+                }
+                fieldStatsJob.addDocument(operation);
+            }
+            totalDocuments += next.operations.size();
+        }
+        if(totalDocuments == 0) {
+            lagMillis.set(0L);
+            return false;
         }
 
-        if(fieldStatsJob != null) {
+        for(CoreFieldStatsJob fieldStatsJob : jobs.values()) {
             fieldStatsJob.run();
         }
+        documentsProcessed.mark(totalDocuments);
+        return true;
+    }
+
+    public int getQueuedDocuments() {
+        return queuedDocuments.get();
     }
 
     @Override
@@ -387,18 +533,25 @@ public class CoreIndexFieldStatsService implements IndexFieldStatsService, Reque
 
     @Override
     public void submitDocument(String document, String index) {
+        submitDocument(document, index, null);
+    }
+
+    @Override
+    public void submitDocument(String document, String index, String type) {
         if (isStatsDisabled(index)) {
+            notifyDocumentsDropped(index);
             return;
         }
         ensureIndicesLoaded(index);
-        final CoreFieldStatsJob fieldStatsJob = CoreFieldStatsJob.allocate(state, loadUnloadManager, index);
-        fieldStatsJob.addDocument(document);
+        final CoreFieldStatsJob fieldStatsJob = CoreFieldStatsJob.allocate(state, loadUnloadManager, index, fieldObservationListener);
+        fieldStatsJob.addDocument(document, type);
         fieldStatsJob.run();
     }
 
     @Override
     public void submitDocument(PooledStringBuilder document, String index) {
         if (isStatsDisabled(index)) {
+            notifyDocumentsDropped(index);
             return;
         }
         ensureIndicesLoaded(index);
@@ -412,6 +565,13 @@ public class CoreIndexFieldStatsService implements IndexFieldStatsService, Reque
         return requestExecutorService.submit(request);
     }
 
+    private void notifyDocumentsDropped(String index) {
+        if(fieldObservationListener == null) {
+            return;
+        }
+        fieldObservationListener.onDocumentsDropped(index);
+    }
+
     private boolean isStatsDisabled(String index) {
         try {
             final IndexTemplate indexTemplate = indexTemplateService.getIndexTemplateForIndex(index);
@@ -466,4 +626,13 @@ public class CoreIndexFieldStatsService implements IndexFieldStatsService, Reque
             result.add(sqlRowSet.getString("_fieldname"));
         }
     }
+
+    private static class QueuedDocuments {
+        final List<BulkIndexOperation> operations;
+        final long timestamp = System.currentTimeMillis();
+
+        QueuedDocuments(int size) {
+            operations = new ArrayList<BulkIndexOperation>(size);
+        }
+    }
 }
\ No newline at end of file
@@ -60,6 +60,11 @@ public interface IndexFieldStatsService extends RequestExecutor {
 
     public void submitDocument(String document, String index);
 
+    /**
+     * @param type The document type, the fields of the document are observed for mapping when non-null
+     */
+    public void submitDocument(String document, String index, String type);
+
     public void submitDocument(PooledStringBuilder document, String index);
 
     public void submitDocuments(List<BulkIndexOperation> documents, int from, int size);
@@ -19,6 +19,8 @@ package com.elefana.indices.fieldstats.job;
 import com.elefana.api.json.JsonUtils;
 import com.elefana.api.util.PooledStringBuilder;
 import com.elefana.document.BulkIndexOperation;
+import com.elefana.document.BulkIndexTask;
+import com.elefana.indices.FieldObservationListener;
 import com.elefana.indices.fieldstats.LoadUnloadManager;
 import com.elefana.indices.fieldstats.state.State;
 import com.elefana.indices.fieldstats.state.field.ElefanaWrongFieldStatsTypeException;
@@ -52,8 +54,15 @@ public class CoreFieldStatsJob extends FieldStatsJob implements NoAllocJsonReade
     private static JsonFactory jsonFactory = new JsonFactory().setCodec(new ObjectMapper());
 
     private final List<DocumentSourceProvider> documents = new ArrayList<DocumentSourceProvider>(AVG_BATCH_SIZE.avg());
+    private final List<String> documentTypes = new ArrayList<String>(AVG_BATCH_SIZE.avg());
     private final Set<String> alreadyRegistered = new HashSet<>();
 
+    private final Map<String, Set<String>> observedFieldNames = new HashMap<String, Set<String>>();
+    private final Map<String, Map<String, Object>> observedProperties = new HashMap<String, Map<String, Object>>();
+    private FieldObservationListener observationListener;
+    private Set<String> documentFieldNames;
+    private Map<String, Object> documentProperties;
+
     private final NoAllocJsonReader jsonReader = new NoAllocJsonReader();
     private final StringBuilder keyBuilder = new StringBuilder();
 
@@ -75,16 +84,25 @@ public class CoreFieldStatsJob extends FieldStatsJob implements NoAllocJsonReade
     }
 
     public static CoreFieldStatsJob allocate(State state, LoadUnloadManager loadUnloadManager, String indexName) {
+        return allocate(state, loadUnloadManager, indexName, null);
+    }
+
+    /**
+     * @param observationListener Notified of the fields observed per document type once the job has run, may be null
+     */
+    public static CoreFieldStatsJob allocate(State state, LoadUnloadManager loadUnloadManager, String indexName,
+                                             FieldObservationListener observationListener) {
         LOCK.lock();
-        final CoreFieldStatsJob result = POOL.isEmpty() ? null : POOL.remove(0);
+        CoreFieldStatsJob result = POOL.isEmpty() ? null : POOL.remove(0);
         LOCK.unlock();
         if(result == null) {
-            return new CoreFieldStatsJob(state, loadUnloadManager, indexName);
+            result = new CoreFieldStatsJob(state, loadUnloadManager, indexName);
+        } else {
+            result.setIndexName(indexName);
+            result.setLoadUnloadManager(loadUnloadManager);
+            result.setState(state);
         }
-
-        result.setIndexName(indexName);
-        result.setLoadUnloadManager(loadUnloadManager);
-        result.setState(state);
+        result.observationListener = observationListener;
         return result;
     }
 
@@ -92,7 +110,13 @@ public class CoreFieldStatsJob extends FieldStatsJob implements NoAllocJsonReade
         AVG_BATCH_SIZE.add(documents.size());
 
         documents.clear();
+        documentTypes.clear();
         alreadyRegistered.clear();
+        observedFieldNames.clear();
+        observedProperties.clear();
+        observationListener = null;
+        documentFieldNames = null;
+        documentProperties = null;
 
         valueWritten = false;
         keyBufferLength = 0;
@@ -106,14 +130,25 @@ public class CoreFieldStatsJob extends FieldStatsJob implements NoAllocJsonReade
 
     public void addDocument(BulkIndexOperation bulkIndexOperation) {
         documents.add(bulkIndexOperation);
+        // Bulk ingestion stores a missing _type as null text
+        documentTypes.add(bulkIndexOperation.getType() == null ? BulkIndexTask.NULL_VALUE : bulkIndexOperation.getType());
     }
 
     public void addDocument(String document) {
+        addDocument(document, null);
+    }
+
+    /**
+     * @param type The document type or null if fields should not be observed for mapping
+     */
+    public void addDocument(String document, String type) {
         documents.add(SingleDocumentSourceProvider.allocate(document));
+        documentTypes.add(type);
     }
 
     public void addDocument(PooledStringBuilder document) {
         documents.add(SingleDocumentSourceProvider.allocate(document));
+        documentTypes.add(null);
     }
 
     @Override
@@ -123,6 +158,7 @@ public class CoreFieldStatsJob extends FieldStatsJob implements NoAllocJsonReade
         for(docIndex = 0; docIndex < documents.size(); docIndex++) {
             try {
                 alreadyRegistered.clear();
+                beginObservation(documentTypes.get(docIndex));
                 final DocumentSourceProvider document = documents.get(docIndex);
                 PooledStringBuilder str = PooledStringBuilder.allocate();
                 str.append(document.getDocument(), 0, document.getDocumentLength());
@@ -140,10 +176,59 @@ public class CoreFieldStatsJob extends FieldStatsJob implements NoAllocJsonReade
         } catch(Exception e) {
             LOGGER.error("Exception in Analyse Job", e);
         }
+        try {
+            notifyObservationListener();
+        } catch(Exception e) {
+            LOGGER.error("Exception in Analyse Job", e);
+        }
 
         release();
     }
 
+    private void beginObservation(String type) {
+        if(observationListener == null || type == null) {
+            documentFieldNames = null;
+            documentProperties = null;
+            return;
+        }
+        documentFieldNames = observedFieldNames.get(type);
+        documentProperties = observedProperties.get(type);
+        if(documentFieldNames == null) {
+            documentFieldNames = new HashSet<String>();
+            documentProperties = new HashMap<String, Object>();
+            observedFieldNames.put(type, documentFieldNames);
+            observedProperties.put(type, documentProperties);
+        }
+    }
+
+    /**
+     * Records a field and, for the first field of each top-level property, a sample value of the property
+     */
+    private void observeField(String fieldName, Object value) {
+        if(documentFieldNames == null || !documentFieldNames.add(fieldName)) {
+            return;
+        }
+        if(underscoreStackIndex < 2) {
+            documentProperties.putIfAbsent(fieldName, value);
+            return;
+        }
+        // Objects append a dot to the key of the property, arrays do not
+        final boolean array = arrayContextStack[1] > -1;
+        final String property = new String(keyBuffer, 0, array ? underscorePositionStack[1] : underscorePositionStack[1] - 1);
+        if(!documentProperties.containsKey(property)) {
+            documentProperties.put(property, array ? Collections.emptyList() : Collections.emptyMap());
+        }
+    }
+
+    private void notifyObservationListener() {
+        if(observationListener == null) {
+            return;
+        }
+        for(String type : observedFieldNames.keySet()) {
+            observationListener.onFieldsObserved(indexName, type, observedFieldNames.get(type), observedProperties.get(type));
+        }
+    }
+
     private void processNumber(Number anyNumber, String prefix) {
         if (anyNumber instanceof Double || anyNumber instanceof Float ) {
             updateFieldStats(prefix, Double.class, anyNumber.doubleValue());
@@ -151,10 +236,12 @@ public class CoreFieldStatsJob extends FieldStatsJob implements NoAllocJsonReade
             long longNumber = anyNumber.longValue();
             updateFieldStats(prefix, Long.class, longNumber);
         }
+        observeField(prefix, anyNumber);
     }
 
     private void processBoolean(boolean bool, String prefix) {
         updateFieldStats(prefix, Boolean.class, bool);
+        observeField(prefix, bool);
     }
 
     private void processString(String value, String prefix) {
@@ -162,6 +249,7 @@ public class CoreFieldStatsJob extends FieldStatsJob implements NoAllocJsonReade
             return;
         }
         updateFieldStats(prefix, String.class, value);
+        observeField(prefix, value);
     }
 
     private <T> void updateFieldStats(String fieldName, Class<T> tClass, T value) {
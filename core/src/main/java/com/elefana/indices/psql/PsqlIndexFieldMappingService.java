@@ -23,6 +23,7 @@ import com.elefana.api.indices.*;
 import com.elefana.api.json.JsonUtils;
 import com.elefana.api.util.PooledStringBuilder;
 import com.elefana.indices.FieldMapper;
+import com.elefana.indices.FieldObservationListener;
 import com.elefana.indices.IndexFieldMappingService;
 import com.elefana.indices.V2FieldMapper;
 import com.elefana.indices.V5FieldMapper;
@@ -56,7 +57,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @DependsOn("nodeSettingsService")
-public class PsqlIndexFieldMappingService implements IndexFieldMappingService, RequestExecutor {
+public class PsqlIndexFieldMappingService implements IndexFieldMappingService, FieldObservationListener, RequestExecutor {
 	private static final Logger LOGGER = LoggerFactory.getLogger(IndexFieldMappingService.class);
 
 	private static final String MAPPING_QUEUE_ID = "index-field-mapping-queue";
@@ -66,6 +67,10 @@ public class PsqlIndexFieldMappingService implements IndexFieldMappingService, R
 			MAPPING_AVERAGE_KEY, System.currentTimeMillis());
 
 	private final AtomicLong lastMapping = new AtomicLong(-1L);
+	private final ConcurrentMap<String, ObservedFields> observedFields = new ConcurrentHashMap<String, ObservedFields>();
+	private final Set<String> observedIndices = ConcurrentHashMap.newKeySet();
+	private final Set<String> sampledIndices = ConcurrentHashMap.newKeySet();
+	private final Set<String> droppedIndices = ConcurrentHashMap.newKeySet();
 
 	@Autowired
 	private Environment environment;
@@ -516,6 +521,30 @@ public class PsqlIndexFieldMappingService implements IndexFieldMappingService, R
 		return new HashMap<String, Object>(fieldMapper.getEmptyMapping());
 	}
 
+	@Override
+	public void onFieldsObserved(String index, String type, Set<String> fieldNames, Map<String, Object> properties) {
+		final boolean[] firstObservation = new boolean[1];
+		observedFields.compute(index, (key, observed) -> {
+			if (observed == null) {
+				observed = new ObservedFields();
+				firstObservation[0] = true;
+			}
+			observed.add(type, fieldNames, properties);
+			return observed;
+		});
+		observedIndices.add(index);
+		if (firstObservation[0]) {
+			scheduleIndexForMapping(index);
+		}
+	}
+
+	@Override
+	public void onDocumentsDropped(String index) {
+		if (droppedIndices.add(index)) {
+			scheduleIndexForMapping(index);
+		}
+	}
+
 	private void generateMappingsForQueuedTables() {
 		try {
 			final QueuedIndex nextIndex = new QueuedIndex();
@@ -529,39 +558,28 @@ public class PsqlIndexFieldMappingService implements IndexFieldMappingService, R
 					return;
 				}
 
-				final Map<String, Object> mapping = getIndexTypeMappings(nextIndex.getIndex());
+				final String index = nextIndex.getIndex();
+				final ObservedFields observed = observedFields.remove(index);
+				final Map<String, Object> mapping = getIndexTypeMappings(index);
 
-				final IndexTemplate indexTemplate = indexTemplateService.getIndexTemplateForIndex(nextIndex.getIndex());
+				final IndexTemplate indexTemplate = indexTemplateService.getIndexTemplateForIndex(index);
 				if(indexTemplate != null && indexTemplate.getStorage() != null && !indexTemplate.getStorage().isMappingEnabled()) {
-					generateEmptyMappingsForTypes(indexTemplate, mapping, nextIndex.getIndex());
+					generateEmptyMappingsForTypes(indexTemplate, mapping, index, observed);
 					continue;
 				}
 
-				if (mapping.isEmpty()) {
-					SqlRowSet rowSet = getSampleDocuments(nextIndex.getIndex());
-					int totalSamples = generateMappingsForAllTypes(indexTemplate, mapping, nextIndex.getIndex(), rowSet);
-					if (totalSamples == 0) {
-						rowSet = jdbcTemplate.queryForRowSet("SELECT _type, _source FROM " + IndexUtils.DATA_TABLE
-								+ " WHERE _index = ? LIMIT " + nodeSettingsService.getFallbackMappingSampleSize(),
-								nextIndex.getIndex());
-						generateMappingsForAllTypes(indexTemplate, mapping, nextIndex.getIndex(), rowSet);
-					}
-				} else {
-					for (String type : mapping.keySet()) {
-						final Set<String> existingFieldNames = getFieldNames(nextIndex.getIndex(), type);
-
-						Map<String, Object> typeMappings = (Map) mapping.get(type);
-						SqlRowSet rowSet = getSampleDocuments(nextIndex.getIndex(), type);
-						int totalSamples = generateMappingsForType(typeMappings, existingFieldNames, nextIndex.getIndex(), type, rowSet);
-						if (totalSamples == 0) {
-							rowSet = jdbcTemplate.queryForRowSet("SELECT _source FROM " + IndexUtils.DATA_TABLE
-									+ " WHERE _index = ? AND _type = ? LIMIT "
-									+ nodeSettingsService.getFallbackMappingSampleSize(), nextIndex.getIndex(), type);
-							generateMappingsForType(typeMappings, existingFieldNames, nextIndex.getIndex(), type, rowSet);
-						}
-					}
+				boolean updated = false;
+				if (observed != null) {
+					updated = generateMappingsForObservedFields(indexTemplate, mapping, index, observed);
+				}
+				if (isSampleDue(index)) {
+					// Covers indices not analysed since startup and fields only present
+					// in documents dropped by the field stats service
+					updated |= generateMappingsForAllTypes(indexTemplate, mapping, index, getSampleDocuments(index));
+				}
+				if (updated) {
+					generateFieldCapabilitiesForIndex(index);
 				}
-				generateFieldCapabilitiesForIndex(nextIndex.getIndex());
 			}
 			lastMapping.set(System.currentTimeMillis());
 		} catch (Exception e) {
@@ -569,78 +587,135 @@ public class PsqlIndexFieldMappingService implements IndexFieldMappingService, R
 		}
 	}
 
-	private void generateEmptyMappingsForTypes(IndexTemplate indexTemplate, Map<String, Object> mapping, String index) throws Exception {
-		if(mapping.size() != 0) {
-			return;
+	private void generateEmptyMappingsForTypes(IndexTemplate indexTemplate, Map<String, Object> mapping, String index,
+	                                           ObservedFields observed) throws Exception {
+		final Set<String> types = new HashSet<String>();
+		if (observed != null) {
+			types.addAll(observed.fieldNames.keySet());
+		} else if (mapping.isEmpty()) {
+			final SqlRowSet rowSet = getSampleDocuments(index);
+			while (rowSet.next()) {
+				types.add(rowSet.getString("_type"));
+			}
 		}
-		SqlRowSet rowSet = getSampleDocuments(index);
-		while (rowSet.next()) {
-			final String type = rowSet.getString("_type");
 
-			Map<String, Object> typeMappings = (Map) mapping.get(type);
-			if (typeMappings != null) {
+		final Map<String, Map<String, Object>> updatedMappings = new HashMap<String, Map<String, Object>>();
+		for (String type : types) {
+			if (mapping.containsKey(type)) {
 				continue;
 			}
-			if (indexTemplate != null) {
-				typeMappings = fieldMapper.convertIndexTemplateToMappings(indexTemplate, type);
-			}
-			if (typeMappings == null) {
-				typeMappings = new HashMap<String, Object>();
-			}
+			final Map<String, Object> typeMappings = createTypeMappings(indexTemplate, type);
 			mapping.put(type, typeMappings);
-			saveMappings(index, type, typeMappings);
+			updatedMappings.put(type, typeMappings);
 		}
-		typesByIndexCache.invalidate(index);
+		saveMappings(index, updatedMappings);
 	}
 
-	private int generateMappingsForAllTypes(IndexTemplate indexTemplate, Map<String, Object> mapping, String index,
-			SqlRowSet rowSet) throws Exception {
-		int totalSamples = 0;
-		while (rowSet.next()) {
-			final String type = rowSet.getString("_type");
-
-			final Set<String> fieldNames = getFieldNames(index, type);
+	/**
+	 * Merges the fields observed during ingestion into the mappings and field names of an index
+	 * @return True if new fields or types were saved
+	 */
+	private boolean generateMappingsForObservedFields(IndexTemplate indexTemplate, Map<String, Object> mapping, String index,
+	                                                  ObservedFields observed) throws ElefanaException {
+		final Map<String, Map<String, Object>> updatedMappings = new HashMap<String, Map<String, Object>>();
+		final Map<String, Set<String>> updatedFieldNames = new HashMap<String, Set<String>>();
 
+		for (String type : observed.fieldNames.keySet()) {
 			Map<String, Object> typeMappings = (Map) mapping.get(type);
 			if (typeMappings == null) {
-				if (indexTemplate != null) {
-					typeMappings = fieldMapper.convertIndexTemplateToMappings(indexTemplate, type);
-				}
-				if (typeMappings == null) {
-					typeMappings = new HashMap<String, Object>();
-				}
+				typeMappings = createTypeMappings(indexTemplate, type);
 				mapping.put(type, typeMappings);
+				updatedMappings.put(type, typeMappings);
 			}
-			Map<String, Object> document = JsonUtils.fromJsonString(rowSet.getString("_source"), Map.class);
-			fieldMapper.generateMappings(typeMappings, document);
-			fieldMapper.generateFieldNames(fieldNames, document);
 
-			saveMappings(index, type, typeMappings);
-			saveFieldNames(index, type, fieldNames);
+			final List<String> mappedProperties = fieldMapper.getFieldNamesFromMapping(typeMappings);
+			final Map<String, Object> newProperties = new HashMap<String, Object>();
+			for (Map.Entry<String, Object> property : observed.properties.get(type).entrySet()) {
+				if (!mappedProperties.contains(property.getKey())) {
+					newProperties.put(property.getKey(), property.getValue());
+				}
+			}
+			if (!newProperties.isEmpty()) {
+				fieldMapper.generateMappings(typeMappings, newProperties);
+				updatedMappings.put(type, typeMappings);
+			}
 
-			totalSamples++;
+			final Set<String> existingFieldNames = getFieldNames(index, type);
+			if (!existingFieldNames.containsAll(observed.fieldNames.get(type))) {
+				final Set<String> fieldNames = new HashSet<String>(existingFieldNames);
+				fieldNames.addAll(observed.fieldNames.get(type));
+				updatedFieldNames.put(type, fieldNames);
+			}
 		}
-		return totalSamples;
+
+		saveMappings(index, updatedMappings);
+		saveFieldNames(index, updatedFieldNames);
+		return !updatedMappings.isEmpty() || !updatedFieldNames.isEmpty();
 	}
 
-	private int generateMappingsForType(Map<String, Object> typeMappings, Set<String> fieldNames,
-	                                    String nextTable, String type,
+	/**
+	 * Merges the fields of sampled documents into the mappings and field names of an index
+	 * @return True if new fields or types were saved
+	 */
+	private boolean generateMappingsForAllTypes(IndexTemplate indexTemplate, Map<String, Object> mapping, String index,
 			SqlRowSet rowSet) throws Exception {
-		int totalSamples = 0;
+		final Map<String, String> previousMappings = new HashMap<String, String>();
+		final Map<String, Integer> previousFieldNameCounts = new HashMap<String, Integer>();
+		final Map<String, Map<String, Object>> sampledMappings = new HashMap<String, Map<String, Object>>();
+		final Map<String, Set<String>> sampledFieldNames = new HashMap<String, Set<String>>();
+
 		while (rowSet.next()) {
+			final String type = rowSet.getString("_type");
+
+			Set<String> fieldNames = sampledFieldNames.get(type);
+			if (fieldNames == null) {
+				fieldNames = new HashSet<String>(getFieldNames(index, type));
+				sampledFieldNames.put(type, fieldNames);
+				previousFieldNameCounts.put(type, fieldNames.size());
+			}
+
+			Map<String, Object> typeMappings = (Map) mapping.get(type);
+			if (typeMappings == null) {
+				typeMappings = createTypeMappings(indexTemplate, type);
+				mapping.put(type, typeMappings);
+				sampledMappings.put(type, typeMappings);
+			} else if (!sampledMappings.containsKey(type)) {
+				previousMappings.put(type, JsonUtils.toJsonString(typeMappings));
+				sampledMappings.put(type, typeMappings);
+			}
 			Map<String, Object> document = JsonUtils.fromJsonString(rowSet.getString("_source"), Map.class);
 			fieldMapper.generateMappings(typeMappings, document);
 			fieldMapper.generateFieldNames(fieldNames, document);
-			totalSamples++;
 		}
 
-		if (totalSamples == 0) {
-			return 0;
+		final Map<String, Map<String, Object>> updatedMappings = new HashMap<String, Map<String, Object>>();
+		for (Map.Entry<String, Map<String, Object>> typeMappings : sampledMappings.entrySet()) {
+			final String previousTypeMappings = previousMappings.get(typeMappings.getKey());
+			if (previousTypeMappings == null || !previousTypeMappings.equals(JsonUtils.toJsonString(typeMappings.getValue()))) {
+				updatedMappings.put(typeMappings.getKey(), typeMappings.getValue());
+			}
 		}
+		final Map<String, Set<String>> updatedFieldNames = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> fieldNames : sampledFieldNames.entrySet()) {
+			if (fieldNames.getValue().size() > previousFieldNameCounts.get(fieldNames.getKey())) {
+				updatedFieldNames.put(fieldNames.getKey(), fieldNames.getValue());
+			}
+		}
+
+		saveMappings(index, updatedMappings);
+		saveFieldNames(index, updatedFieldNames);
+		return !updatedMappings.isEmpty() || !updatedFieldNames.isEmpty();
+	}
 
-		saveMappings(nextTable, type, typeMappings);
-		saveFieldNames(nextTable, type, fieldNames);
-		return totalSamples;
+	private Map<String, Object> createTypeMappings(IndexTemplate indexTemplate, String type) {
+		Map<String, Object> typeMappings = null;
+		if (indexTemplate != null) {
+			typeMappings = fieldMapper.convertIndexTemplateToMappings(indexTemplate, type);
+		}
+		if (typeMappings == null) {
+			typeMappings = new HashMap<String, Object>();
+		}
+		return typeMappings;
 	}
 
 	private void generateFieldCapabilitiesForIndex(String index) throws ElefanaException {
@@ -693,28 +768,59 @@ public class PsqlIndexFieldMappingService implements IndexFieldMappingService, R
 		return result;
 	}
 
+	/**
+	 * An index is sampled once if none of its documents have been observed during ingestion,
+	 * then again only when the field stats service has dropped documents of it since the last sample
+	 */
+	private boolean isSampleDue(String index) {
+		if (droppedIndices.remove(index)) {
+			sampledIndices.add(index);
+			return true;
+		}
+		if (observedIndices.contains(index)) {
+			return false;
+		}
+		return sampledIndices.add(index);
+	}
+
 	private SqlRowSet getSampleDocuments(String index) {
 		if (nodeSettingsService.isUsingCitus()) {
-			return jdbcTemplate.queryForRowSet("SELECT _type, _source FROM " + indexUtils.getQueryTarget(index)
-					+ " LIMIT " + nodeSettingsService.getFallbackMappingSampleSize());
+			return getSampleDocuments(jdbcTemplate, indexUtils.getQueryTarget(index), null,
+					nodeSettingsService.getMappingSampleSize(), nodeSettingsService.getFallbackMappingSampleSize());
 		} else {
-			return jdbcTemplate.queryForRowSet(
-					"SELECT _type, _source FROM " + IndexUtils.DATA_TABLE + " TABLESAMPLE BERNOULLI("
-							+ String.format("%f", nodeSettingsService.getMappingSampleSize()) + ") WHERE _index = ?",
-					index);
+			return getSampleDocuments(jdbcTemplate, IndexUtils.DATA_TABLE, index,
+					nodeSettingsService.getMappingSampleSize(), nodeSettingsService.getFallbackMappingSampleSize());
+		}
+	}
+
+	/**
+	 * Samples documents from random pages of a table. Falls back to the first documents if the sample is empty,
+	 * e.g. when the table has fewer pages than the sample percentage selects one from.
+	 * @param queryTarget The table to sample
+	 * @param index The index to filter documents by, null if the table only holds the index
+	 * @param samplePercentage The percentage of table pages to sample
+	 * @param sampleSize The max. no. of documents to return
+	 */
+	static SqlRowSet getSampleDocuments(JdbcTemplate jdbcTemplate, String queryTarget, String index,
+	                                    double samplePercentage, int sampleSize) {
+		final String indexFilter = index == null ? "" : " WHERE _index = ?";
+
+		final SqlRowSet result = queryForSample(jdbcTemplate, "SELECT _type, _source FROM " + queryTarget +
+				" TABLESAMPLE SYSTEM(" + String.format(Locale.ROOT, "%f", samplePercentage) + ")" + indexFilter +
+				" LIMIT " + sampleSize, index);
+		if (result.next()) {
+			result.beforeFirst();
+			return result;
 		}
+		return queryForSample(jdbcTemplate, "SELECT _type, _source FROM " + queryTarget + indexFilter +
+				" LIMIT " + sampleSize, index);
 	}
 
-	private SqlRowSet getSampleDocuments(String index, String type) {
-		if (nodeSettingsService.isUsingCitus()) {
-			return jdbcTemplate.queryForRowSet("SELECT _source FROM " + indexUtils.getQueryTarget(index)
-					+ " WHERE _type = ? LIMIT " + nodeSettingsService.getFallbackMappingSampleSize(),
-					type);
-		} else {
-			return jdbcTemplate.queryForRowSet("SELECT _source FROM " + IndexUtils.DATA_TABLE
-					+ " TABLESAMPLE BERNOULLI(" + String.format("%f", nodeSettingsService.getMappingSampleSize())
-					+ ") WHERE _index = ? AND _type = ?", index, type);
+	private static SqlRowSet queryForSample(JdbcTemplate jdbcTemplate, String query, String index) {
+		if (index == null) {
+			return jdbcTemplate.queryForRowSet(query);
 		}
+		return jdbcTemplate.queryForRowSet(query, index);
 	}
 
 	public void scheduleIndexForMapping(String index) {
@@ -725,19 +831,29 @@ public class PsqlIndexFieldMappingService implements IndexFieldMappingService, R
 		scheduleIndexForMapping(index);
 	}
 
-	private void saveFieldNames(String index, String type, Set<String> fieldNames) throws ElefanaException {
+	/**
+	 * Upserts the field names of multiple types of an index in one batch
+	 */
+	private void saveFieldNames(String index, Map<String, Set<String>> fieldNamesByType) throws ElefanaException {
+		if (fieldNamesByType.isEmpty()) {
+			return;
+		}
 		try {
-			final String json = JsonUtils.toJsonString(fieldNames);
-			PGobject jsonObject = new PGobject();
-			jsonObject.setType("json");
-			jsonObject.setValue(json);
+			final List<Object[]> batch = new ArrayList<Object[]>(fieldNamesByType.size());
+			for (Map.Entry<String, Set<String>> fieldNames : fieldNamesByType.entrySet()) {
+				PGobject jsonObject = new PGobject();
+				jsonObject.setType("json");
+				jsonObject.setValue(JsonUtils.toJsonString(fieldNames.getValue()));
+				batch.add(new Object[] { index + "-" + fieldNames.getKey(), index, fieldNames.getKey(), jsonObject });
+			}
 
-			jdbcTemplate.update(
+			jdbcTemplate.batchUpdate(
 					"INSERT INTO elefana_index_field_names (_tracking_id, _index, _type, _field_names) VALUES (?, ?, ?, ?) ON CONFLICT (_tracking_id) DO UPDATE SET _field_names = EXCLUDED._field_names",
-					index + "-" + type, index, type, jsonObject);
+					batch);
 
-			final String key = index + "|" + type;
-			fieldNamesCache.invalidate(key);
+			for (String type : fieldNamesByType.keySet()) {
+				fieldNamesCache.invalidate(index + "|" + type);
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new ShardFailedException(e);
@@ -745,21 +861,58 @@ public class PsqlIndexFieldMappingService implements IndexFieldMappingService, R
 	}
 
 	private void saveMappings(String index, String type, Map<String, Object> mappings) throws ElefanaException {
+		saveMappings(index, Collections.singletonMap(type, mappings));
+	}
+
+	/**
+	 * Upserts the mappings of multiple types of an index in one batch
+	 */
+	private void saveMappings(String index, Map<String, Map<String, Object>> mappingsByType) throws ElefanaException {
+		if (mappingsByType.isEmpty()) {
+			return;
+		}
 		try {
-			final String json = JsonUtils.toJsonString(mappings);
-			PGobject jsonObject = new PGobject();
-			jsonObject.setType("json");
-			jsonObject.setValue(json);
+			final List<Object[]> batch = new ArrayList<Object[]>(mappingsByType.size());
+			for (Map.Entry<String, Map<String, Object>> mappings : mappingsByType.entrySet()) {
+				PGobject jsonObject = new PGobject();
+				jsonObject.setType("json");
+				jsonObject.setValue(JsonUtils.toJsonString(mappings.getValue()));
+				batch.add(new Object[] { index + "-" + mappings.getKey(), index, mappings.getKey(), jsonObject });
+			}
 
-			jdbcTemplate.update(
+			jdbcTemplate.batchUpdate(
 					"INSERT INTO elefana_index_mapping (_tracking_id, _index, _type, _mapping) VALUES (?, ?, ?, ?) ON CONFLICT (_tracking_id) DO UPDATE SET _mapping = EXCLUDED._mapping",
-					index + "-" + type, index, type, jsonObject);
+					batch);
+			typesByIndexCache.invalidate(index);
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new ShardFailedException(e);
 		}
 	}
 
+	/**
+	 * Fields observed for an index since its mappings were last generated
+	 */
+	private static class ObservedFields {
+		private final Map<String, Set<String>> fieldNames = new HashMap<String, Set<String>>();
+		private final Map<String, Map<String, Object>> properties = new HashMap<String, Map<String, Object>>();
+
+		private void add(String type, Set<String> observedFieldNames, Map<String, Object> observedProperties) {
+			Set<String> typeFieldNames = fieldNames.get(type);
+			if (typeFieldNames == null) {
+				typeFieldNames = new HashSet<String>();
+				fieldNames.put(type, typeFieldNames);
+				properties.put(type, new HashMap<String, Object>());
+			}
+			typeFieldNames.addAll(observedFieldNames);
+
+			final Map<String, Object> typeProperties = properties.get(type);
+			for (Map.Entry<String, Object> property : observedProperties.entrySet()) {
+				typeProperties.putIfAbsent(property.getKey(), property.getValue());
+			}
+		}
+	}
+
 	@Override
 	public GetFieldMappingsRequest prepareGetFieldMappings(ChannelHandlerContext context) {
 		return new PsqlGetFieldMappingsRequest(this, context);
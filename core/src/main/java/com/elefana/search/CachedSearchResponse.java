@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search;
+
+import com.elefana.api.search.SearchResponse;
+
+/**
+ * A search response served from the {@link SearchResultCache}. The response is a copy of the
+ * cached response so that each request has its own took value. The serialized JSON of the
+ * cached response is reused with only the took value replaced.
+ */
+public class CachedSearchResponse extends SearchResponse {
+	private static final String TOOK_PREFIX = "{\"took\":";
+
+	private final String jsonWithoutTook;
+
+	CachedSearchResponse(SearchResponse response, String json) {
+		super();
+		getHits().setTotal(response.getHits().getTotal());
+		getHits().setMaxScore(response.getHits().getMaxScore());
+		getHits().getHits().addAll(response.getHits().getHits());
+		getShards().putAll(response.getShards());
+		setAggregations(response.getAggregations());
+		setTimedOut(response.isTimedOut());
+		setTook(response.getTook());
+		jsonWithoutTook = removeTook(json);
+	}
+
+	@Override
+	public String toJsonString() {
+		if(jsonWithoutTook == null) {
+			return super.toJsonString();
+		}
+		final StringBuilder result = new StringBuilder(jsonWithoutTook.length() + TOOK_PREFIX.length() + 8);
+		result.append(TOOK_PREFIX);
+		result.append(getTook());
+		result.append(jsonWithoutTook);
+		return result.toString();
+	}
+
+	private static String removeTook(String json) {
+		if(!json.startsWith(TOOK_PREFIX)) {
+			return null;
+		}
+		for(int i = TOOK_PREFIX.length(); i < json.length(); i++) {
+			if(!Character.isDigit(json.charAt(i))) {
+				return json.substring(i);
+			}
+		}
+		return null;
+	}
+}
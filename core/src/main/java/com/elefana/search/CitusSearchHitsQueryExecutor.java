@@ -21,12 +21,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CitusSearchHitsQueryExecutor extends SearchHitsQueryExecutor {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CitusSearchHitsQueryExecutor.class);
 
-	public CitusSearchHitsQueryExecutor(JdbcTemplate jdbcTemplate, Histogram searchTime, Histogram searchHits) {
-		super(jdbcTemplate, searchTime, searchHits);
+	public CitusSearchHitsQueryExecutor(JdbcTemplate jdbcTemplate, Histogram searchTime, Histogram searchHits, int prepareThreshold) {
+		super(jdbcTemplate, searchTime, searchHits, prepareThreshold);
 	}
 
 	@Override
@@ -49,22 +51,27 @@ public class CitusSearchHitsQueryExecutor extends SearchHitsQueryExecutor {
 	@Override
 	public ResultSet queryHitsCount(Statement statement, PsqlQueryComponents queryComponents, String viewName, long startTime, int from, int size) throws SQLException {
 		final StringBuilder queryBuilder = new StringBuilder();
+		final List<Object> parameters = new ArrayList<Object>();
 		queryBuilder.append("SELECT ");
 		queryBuilder.append("COUNT(_id)");
-		queryBuilder.append(" FROM ");
-		queryBuilder.append(viewName);
-		queryBuilder.append(" AS ");
-		queryBuilder.append("hit_results");
-		return statement.executeQuery(queryBuilder.toString());
+		appendHitsSource(queryBuilder, parameters, queryComponents, viewName);
+		return executeTemplateQuery(statement, queryBuilder.toString(), parameters);
 	}
 
 	@Override
 	public ResultSet queryHits(Statement statement, PsqlQueryComponents queryComponents, String viewName, long startTime, int from, int size) throws SQLException {
 		final StringBuilder queryBuilder = new StringBuilder();
+		final List<Object> parameters = new ArrayList<Object>();
 		queryBuilder.append("SELECT ");
 		queryBuilder.append("*");
+		queryComponents.appendSortColumns(queryBuilder);
+		queryComponents.appendScoreColumn(queryBuilder, parameters);
 		queryBuilder.append(" FROM ");
-		queryBuilder.append(viewName);
+		if(viewName != null) {
+			queryBuilder.append(viewName);
+		} else {
+			queryComponents.appendHitsFromTemplate(queryBuilder, parameters, from, size);
+		}
 		queryBuilder.append(" AS ");
 		queryBuilder.append("hit_results");
 
@@ -81,6 +88,18 @@ public class CitusSearchHitsQueryExecutor extends SearchHitsQueryExecutor {
 			queryBuilder.append(from);
 		}
 		LOGGER.info(queryBuilder.toString());
-		return statement.executeQuery(queryBuilder.toString());
+		return executeTemplateQuery(statement, queryBuilder.toString(), parameters);
+	}
+
+	private void appendHitsSource(StringBuilder queryBuilder, List<Object> parameters, PsqlQueryComponents queryComponents,
+	                              String viewName) {
+		queryBuilder.append(" FROM ");
+		if(viewName != null) {
+			queryBuilder.append(viewName);
+		} else {
+			queryComponents.appendFromTemplate(queryBuilder, parameters);
+		}
+		queryBuilder.append(" AS ");
+		queryBuilder.append("hit_results");
 	}
 }
@@ -18,28 +18,49 @@ package com.elefana.search;
 import com.elefana.api.exception.ShardFailedException;
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.IndexGenerationTracker;
 import com.elefana.util.IndexUtils;
+import com.elefana.util.SqlTemplateUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.rowset.SqlRowSet;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class CitusSearchQueryBuilder implements SearchQueryBuilder {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CitusSearchQueryBuilder.class);
+
+	private static final long SHARD_INTERVAL_EXPIRE_SECONDS = 60L;
+
+	//Entries also expire so that shards appended or dropped by other nodes are picked up
+	private final Cache<String, TimeSeriesShardInterval> timeSeriesShardIntervals = CacheBuilder.newBuilder()
+			.expireAfterWrite(SHARD_INTERVAL_EXPIRE_SECONDS, TimeUnit.SECONDS)
+			.build();
 	private final JdbcTemplate jdbcTemplate;
 	private final IndexUtils indexUtils;
 	private final IndexFieldStatsService indexFieldStatsService;
+	private final IndexGenerationTracker indexGenerationTracker;
 
-	public CitusSearchQueryBuilder(JdbcTemplate jdbcTemplate, IndexUtils indexUtils, IndexFieldStatsService indexFieldStatsService) {
+	public CitusSearchQueryBuilder(JdbcTemplate jdbcTemplate, IndexUtils indexUtils, IndexFieldStatsService indexFieldStatsService,
+	                               IndexGenerationTracker indexGenerationTracker) {
 		super();
 		this.jdbcTemplate = jdbcTemplate;
 		this.indexUtils = indexUtils;
 		this.indexFieldStatsService = indexFieldStatsService;
+		this.indexGenerationTracker = indexGenerationTracker;
 	}
 
 	@Override
 	public PsqlQueryComponents buildQuery(IndexTemplate matchedIndexTemplate, List<String> indices, String[] types, RequestBodySearch requestBodySearch) throws ShardFailedException {
+		indices = pruneTimeSeriesIndices(matchedIndexTemplate, indices, requestBodySearch);
 		if(indices.isEmpty()) {
 			final String emptyDataTableName = SEARCH_TABLE_PREFIX + requestBodySearch.hashCode();
 
@@ -84,9 +105,11 @@ public class CitusSearchQueryBuilder implements SearchQueryBuilder {
 		}
 		
 		final StringBuilder whereClause = POOLED_STRING_BUILDER.get();
+		final List<Object> whereParameters = new ArrayList<Object>(4);
 		if (!requestBodySearch.getQuery().isMatchAllQuery()) {
 			whereClause.append("(");
-			whereClause.append(requestBodySearch.getQuerySqlWhereClause(indices, matchedIndexTemplate, indexFieldStatsService));
+			whereClause.append(requestBodySearch.getQuerySqlWhereTemplate(indices, matchedIndexTemplate, indexFieldStatsService,
+					whereParameters));
 			whereClause.append(")");
 		}
 
@@ -103,14 +126,49 @@ public class CitusSearchQueryBuilder implements SearchQueryBuilder {
 				if (j > 0) {
 					whereClause.append(" OR ");
 				}
-				whereClause.append("_type = '");
-				whereClause.append(types[j]);
-				whereClause.append("'");
+				whereClause.append("_type = ");
+				whereClause.append(SqlTemplateUtils.bind(whereParameters, types[j]));
 			}
 			whereClause.append(")");
 		}
+		if (requestBodySearch.hasSearchAfter()) {
+			if (whereClause.length() > 0) {
+				whereClause.append(" AND ");
+			}
+			whereClause.append(SqlTemplateUtils.escape(requestBodySearch.getQuerySqlSearchAfterClause(indices,
+					matchedIndexTemplate, indexFieldStatsService)));
+		}
 		final String whereResult = whereClause.toString();
 		
+		final String orderClause = requestBodySearch.getQuerySqlOrderClause(indices, matchedIndexTemplate,
+				indexFieldStatsService);
+		final List<Object> fromParameters = new ArrayList<Object>(whereParameters.size() * indices.size());
+		final String fromComponent = buildIndicesUnion(indices, whereResult, whereParameters, null, 0, fromParameters);
+
+		final PsqlQueryComponents result = new PsqlQueryComponents(fromComponent, fromParameters,
+				whereResult, whereParameters, "", orderClause, "", new ArrayList<String>(1));
+		result.setSortColumns(requestBodySearch.getQuerySqlSortColumns(indices, matchedIndexTemplate, indexFieldStatsService),
+				requestBodySearch.getSort().size());
+
+		final int topHits = requestBodySearch.getFrom() + requestBodySearch.getSize();
+		if(!requestBodySearch.getSort().isEmpty() && requestBodySearch.getSize() > 0) {
+			//Each index only returns its own top hits so that the limit is pushed down to the shards
+			//instead of pulling every matching row of the union to the coordinator
+			final List<Object> hitsFromParameters = new ArrayList<Object>(fromParameters.size());
+			result.setHitsFromTemplate(buildIndicesUnion(indices, whereResult, whereParameters, orderClause, topHits,
+					hitsFromParameters), hitsFromParameters, topHits);
+		}
+		final List<Object> scoreParameters = new ArrayList<Object>(1);
+		result.setScoreColumn(requestBodySearch.getQuerySqlScoreTemplate(matchedIndexTemplate, scoreParameters), scoreParameters);
+		return result;
+	}
+
+	/**
+	 * @param orderClause If not null, each index is ordered and limited to its top hits
+	 * @param fromParameters The list the values bound by the where result are appended to for each index
+	 */
+	private String buildIndicesUnion(List<String> indices, String whereResult, List<Object> whereParameters,
+	                                  String orderClause, int limit, List<Object> fromParameters) {
 		final StringBuilder fromComponent = POOLED_STRING_BUILDER.get();
 		fromComponent.append('(');
 
@@ -124,12 +182,83 @@ public class CitusSearchQueryBuilder implements SearchQueryBuilder {
 			if(!whereResult.isEmpty()) {
 				fromComponent.append(" WHERE ");
 				fromComponent.append(whereResult);
+				fromParameters.addAll(whereParameters);
+			}
+			if(orderClause != null) {
+				fromComponent.append(" ORDER BY ");
+				fromComponent.append(orderClause);
+				fromComponent.append(" LIMIT ");
+				fromComponent.append(limit);
 			}
 			fromComponent.append(')');
 		}
 		fromComponent.append(')');
-		
-		return new PsqlQueryComponents(fromComponent.toString(), whereResult, "", requestBodySearch.getQuerySqlOrderClause(), "");
+		return fromComponent.toString();
+	}
+
+	/**
+	 * Removes time series indices whose shard intervals do not intersect the queried timestamp range.
+	 * Shards within the remaining indices are pruned by Citus from the _timestamp predicates.
+	 */
+	private List<String> pruneTimeSeriesIndices(IndexTemplate indexTemplate, List<String> indices, RequestBodySearch requestBodySearch) {
+		if(indexTemplate == null || !indexTemplate.isTimeSeries()) {
+			return indices;
+		}
+		final long[] timestampRange = requestBodySearch.getQuery().getTimestampRange(indexTemplate);
+		if(timestampRange == null) {
+			return indices;
+		}
+		final List<String> result = new ArrayList<String>(indices.size());
+		for(String index : indices) {
+			final long[] shardInterval = getTimeSeriesShardInterval(index);
+			if(shardInterval == null || (shardInterval[0] <= timestampRange[1] && shardInterval[1] >= timestampRange[0])) {
+				result.add(index);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Cached intervals are discarded once the index generation changes, i.e. when shards are appended
+	 * by a merge or the index is deleted and possibly recreated with a different time bucket
+	 */
+	private long[] getTimeSeriesShardInterval(String index) {
+		final long generation = indexGenerationTracker.getGeneration(index);
+		final TimeSeriesShardInterval cachedInterval = timeSeriesShardIntervals.getIfPresent(index);
+		if(cachedInterval != null) {
+			if(cachedInterval.generation == generation) {
+				return cachedInterval.interval;
+			}
+			timeSeriesShardIntervals.invalidate(index);
+		}
+		try {
+			final SqlRowSet rowSet = jdbcTemplate.queryForRowSet("SELECT COUNT(*) AS total, COUNT(shardmaxvalue) AS total_intervals, " +
+					"MIN(shardminvalue::bigint) AS min_value, MAX(shardmaxvalue::bigint) AS max_value FROM pg_dist_shard WHERE logicalrelid::text = ?",
+					indexUtils.getQueryTarget(index));
+			if(!rowSet.next()) {
+				return null;
+			}
+			final long totalShards = rowSet.getLong("total");
+			//Intervals are only known once all shards have been repaired by CitusShardMetadataMaintainer
+			if(totalShards == 0 || rowSet.getLong("total_intervals") != totalShards) {
+				return null;
+			}
+			final long[] result = new long[] { rowSet.getLong("min_value"), rowSet.getLong("max_value") };
+			timeSeriesShardIntervals.put(index, new TimeSeriesShardInterval(generation, result));
+			return result;
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage(), e);
+		}
+		return null;
 	}
 
+	private static class TimeSeriesShardInterval {
+		private final long generation;
+		private final long[] interval;
+
+		public TimeSeriesShardInterval(long generation, long[] interval) {
+			this.generation = generation;
+			this.interval = interval;
+		}
+	}
 }
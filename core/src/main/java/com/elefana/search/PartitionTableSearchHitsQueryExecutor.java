@@ -23,13 +23,15 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 public class PartitionTableSearchHitsQueryExecutor extends SearchHitsQueryExecutor {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PartitionTableSearchHitsQueryExecutor.class);
 
 	public PartitionTableSearchHitsQueryExecutor(JdbcTemplate jdbcTemplate, Histogram searchTime,
-			Histogram searchHits) {
-		super(jdbcTemplate, searchTime, searchHits);
+			Histogram searchHits, int prepareThreshold) {
+		super(jdbcTemplate, searchTime, searchHits, prepareThreshold);
 	}
 
 	@Override
@@ -63,11 +65,11 @@ public class PartitionTableSearchHitsQueryExecutor extends SearchHitsQueryExecut
 		}
 
 		final StringBuilder queryBuilder = new StringBuilder();
+		final List<Object> parameters = new ArrayList<Object>();
 		queryBuilder.append("SELECT ");
 		queryBuilder.append("COUNT(_id)");
-		queryBuilder.append(" FROM ");
-		queryBuilder.append(viewName);
-		return statement.executeQuery(queryBuilder.toString());
+		appendHitsSource(queryBuilder, parameters, queryComponents, viewName);
+		return executeTemplateQuery(statement, queryBuilder.toString(), parameters);
 	}
 
 	@Override
@@ -77,10 +79,12 @@ public class PartitionTableSearchHitsQueryExecutor extends SearchHitsQueryExecut
 		}
 
 		final StringBuilder queryBuilder = new StringBuilder();
+		final List<Object> parameters = new ArrayList<Object>();
 		queryBuilder.append("SELECT ");
 		queryBuilder.append("*");
-		queryBuilder.append(" FROM ");
-		queryBuilder.append(viewName);
+		queryComponents.appendSortColumns(queryBuilder);
+		queryComponents.appendScoreColumn(queryBuilder, parameters);
+		appendHitsSource(queryBuilder, parameters, queryComponents, viewName);
 
 		if (!queryComponents.getOrderByComponent().isEmpty()) {
 			queryBuilder.append(" ORDER BY ");
@@ -95,6 +99,17 @@ public class PartitionTableSearchHitsQueryExecutor extends SearchHitsQueryExecut
 			queryBuilder.append(from);
 		}
 		LOGGER.info(queryBuilder.toString());
-		return statement.executeQuery(queryBuilder.toString());
+		return executeTemplateQuery(statement, queryBuilder.toString(), parameters);
+	}
+
+	private void appendHitsSource(StringBuilder queryBuilder, List<Object> parameters, PsqlQueryComponents queryComponents,
+	                              String viewName) {
+		queryBuilder.append(" FROM ");
+		if (viewName != null) {
+			queryBuilder.append(viewName);
+			return;
+		}
+		queryComponents.appendFromTemplate(queryBuilder, parameters);
+		queryComponents.appendWhereTemplate(queryBuilder, parameters);
 	}
 }
@@ -18,10 +18,12 @@ package com.elefana.search;
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
 import com.elefana.util.IndexUtils;
+import com.elefana.util.SqlTemplateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -49,17 +51,12 @@ public class PartitionTableSearchQueryBuilder implements SearchQueryBuilder {
 		}
 		
 		final StringBuilder whereClause = POOLED_STRING_BUILDER.get();
+		final List<Object> whereParameters = new ArrayList<Object>(4);
 		
 		if(!indices.isEmpty()) {
-			whereClause.append("_index IN (");
-			for (int i = 0; i < indices.size(); i++) {
-				if (i > 0) {
-					whereClause.append(',');
-				}
-				whereClause.append("'");
-				whereClause.append(indices.get(i));
-				whereClause.append("'");
-			}
+			//Bound as a single array so that the statement is the same regardless of the no. of indices
+			whereClause.append("_index = ANY(");
+			whereClause.append(SqlTemplateUtils.bind(whereParameters, indices.toArray(new String[indices.size()])));
 			whereClause.append(") ");
 		}
 		
@@ -75,20 +72,34 @@ public class PartitionTableSearchQueryBuilder implements SearchQueryBuilder {
 				if (j > 0) {
 					whereClause.append(" OR ");
 				}
-				whereClause.append("_type = '");
-				whereClause.append(types[j]);
-				whereClause.append("'");
+				whereClause.append("_type = ");
+				whereClause.append(SqlTemplateUtils.bind(whereParameters, types[j]));
 			}
 			whereClause.append(")");
 		}
 		
 		if(!requestBodySearch.getQuery().isMatchAllQuery()) {
 			whereClause.append(" AND (");
-			whereClause.append(requestBodySearch.getQuerySqlWhereClause(indices, matchedIndexTemplate, indexFieldStatsService));
+			whereClause.append(requestBodySearch.getQuerySqlWhereTemplate(indices, matchedIndexTemplate, indexFieldStatsService,
+					whereParameters));
 			whereClause.append(")");
 		}
 
+		if(requestBodySearch.hasSearchAfter()) {
+			whereClause.append(" AND ");
+			whereClause.append(SqlTemplateUtils.escape(requestBodySearch.getQuerySqlSearchAfterClause(indices, matchedIndexTemplate,
+					indexFieldStatsService)));
+		}
+
 		final String result = whereClause.toString();
-		return new PsqlQueryComponents(IndexUtils.DATA_TABLE, result, "", requestBodySearch.getQuerySqlOrderClause());
+		final PsqlQueryComponents queryComponents = new PsqlQueryComponents(IndexUtils.DATA_TABLE, new ArrayList<Object>(0),
+				result, whereParameters, "",
+				requestBodySearch.getQuerySqlOrderClause(indices, matchedIndexTemplate, indexFieldStatsService), "",
+				new ArrayList<String>(1));
+		queryComponents.setSortColumns(requestBodySearch.getQuerySqlSortColumns(indices, matchedIndexTemplate, indexFieldStatsService),
+				requestBodySearch.getSort().size());
+		final List<Object> scoreParameters = new ArrayList<Object>(1);
+		queryComponents.setScoreColumn(requestBodySearch.getQuerySqlScoreTemplate(matchedIndexTemplate, scoreParameters), scoreParameters);
+		return queryComponents;
 	}
 }
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package com.elefana.search;
 
+import com.elefana.util.SqlTemplateUtils;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,12 +24,25 @@ import java.util.List;
  *
  */
 public class PsqlQueryComponents {
+	public static final String SCORE_COLUMN = "_score";
+
 	private String fromComponent;
 	private String whereComponent;
+	private String fromTemplate;
+	private String whereTemplate;
+	private final List<Object> fromParameters;
+	private final List<Object> whereParameters;
 	private String groupByComponent;
 	private String orderByComponent;
 	private String limitComponent;
 	private final List<String> temporaryTables;
+	private String sortColumnsComponent = "";
+	private int totalSortColumns;
+	private String scoreExpression = "";
+	private List<Object> scoreParameters = new ArrayList<Object>(0);
+	private String hitsFromTemplate;
+	private List<Object> hitsFromParameters;
+	private int hitsFromLimit;
 
 	public PsqlQueryComponents(String fromComponent, String whereComponent, String groupByComponent, String orderByComponent) {
 		this(fromComponent, whereComponent, groupByComponent, orderByComponent, "");
@@ -39,16 +54,41 @@ public class PsqlQueryComponents {
 	}
 
 	public PsqlQueryComponents(PsqlQueryComponents queryComponents) {
-		this(new String(queryComponents.fromComponent), new String(queryComponents.whereComponent), new String(queryComponents.groupByComponent),
-				new String(queryComponents.orderByComponent), new String(queryComponents.limitComponent),
-				new ArrayList<String>(queryComponents.temporaryTables));
+		this(queryComponents.fromTemplate, new ArrayList<Object>(queryComponents.fromParameters),
+				queryComponents.whereTemplate, new ArrayList<Object>(queryComponents.whereParameters),
+				new String(queryComponents.groupByComponent), new String(queryComponents.orderByComponent),
+				new String(queryComponents.limitComponent), new ArrayList<String>(queryComponents.temporaryTables));
+		this.sortColumnsComponent = queryComponents.sortColumnsComponent;
+		this.totalSortColumns = queryComponents.totalSortColumns;
+		this.scoreExpression = queryComponents.scoreExpression;
+		this.scoreParameters = new ArrayList<Object>(queryComponents.scoreParameters);
+		this.hitsFromTemplate = queryComponents.hitsFromTemplate;
+		this.hitsFromParameters = queryComponents.hitsFromParameters == null ? null :
+				new ArrayList<Object>(queryComponents.hitsFromParameters);
+		this.hitsFromLimit = queryComponents.hitsFromLimit;
 	}
 
 	public PsqlQueryComponents(String fromComponent, String whereComponent, String groupByComponent, String orderByComponent,
 			String limitComponent, List<String> temporaryTables) {
+		this(SqlTemplateUtils.escape(fromComponent), new ArrayList<Object>(0), SqlTemplateUtils.escape(whereComponent),
+				new ArrayList<Object>(0), groupByComponent, orderByComponent, limitComponent, temporaryTables);
+	}
+
+	/**
+	 * @param fromTemplate The from component with values bound as ? placeholders
+	 * @param fromParameters The values bound by the from template
+	 * @param whereTemplate The where component with values bound as ? placeholders
+	 * @param whereParameters The values bound by the where template
+	 */
+	public PsqlQueryComponents(String fromTemplate, List<Object> fromParameters, String whereTemplate, List<Object> whereParameters,
+	                           String groupByComponent, String orderByComponent, String limitComponent, List<String> temporaryTables) {
 		super();
-		this.fromComponent = fromComponent;
-		this.whereComponent = whereComponent;
+		this.fromTemplate = fromTemplate;
+		this.fromParameters = fromParameters;
+		this.whereTemplate = whereTemplate;
+		this.whereParameters = whereParameters;
+		this.fromComponent = SqlTemplateUtils.inline(fromTemplate, fromParameters);
+		this.whereComponent = SqlTemplateUtils.inline(whereTemplate, whereParameters);
 		this.groupByComponent = groupByComponent;
 		this.orderByComponent = orderByComponent;
 		this.limitComponent = limitComponent;
@@ -90,13 +130,76 @@ public class PsqlQueryComponents {
 		return true;
 	}
 
+	public boolean appendSortColumns(StringBuilder queryBuilder) {
+		if(sortColumnsComponent.isEmpty()) {
+			return false;
+		}
+		queryBuilder.append(sortColumnsComponent);
+		return true;
+	}
+
+	/**
+	 * Appends the score column for a statement prepared with the template parameters
+	 * @param parameters The list the score expression parameters are appended to
+	 */
+	public boolean appendScoreColumn(StringBuilder queryBuilder, List<Object> parameters) {
+		if(scoreExpression.isEmpty()) {
+			return false;
+		}
+		queryBuilder.append(", ");
+		queryBuilder.append(scoreExpression);
+		parameters.addAll(scoreParameters);
+		queryBuilder.append(" AS ");
+		queryBuilder.append(SCORE_COLUMN);
+		return true;
+	}
+
+	/**
+	 * Appends the from template for a statement prepared with the template parameters
+	 * @param parameters The list the template parameters are appended to
+	 */
+	public void appendFromTemplate(StringBuilder queryBuilder, List<Object> parameters) {
+		queryBuilder.append(fromTemplate);
+		parameters.addAll(fromParameters);
+	}
+
+	/**
+	 * Appends the from template for a hits query. If the hits are within the top hits
+	 * returned per index, the from template limited to these hits is appended.
+	 * @param parameters The list the template parameters are appended to
+	 */
+	public void appendHitsFromTemplate(StringBuilder queryBuilder, List<Object> parameters, int from, int size) {
+		if(hitsFromTemplate == null || size <= 0 || from + size > hitsFromLimit) {
+			appendFromTemplate(queryBuilder, parameters);
+			return;
+		}
+		queryBuilder.append(hitsFromTemplate);
+		parameters.addAll(hitsFromParameters);
+	}
+
+	/**
+	 * Appends the where template for a statement prepared with the template parameters
+	 * @param parameters The list the template parameters are appended to
+	 */
+	public boolean appendWhereTemplate(StringBuilder queryBuilder, List<Object> parameters) {
+		if(whereTemplate.isEmpty()) {
+			return false;
+		}
+		queryBuilder.append(" WHERE ");
+		queryBuilder.append(whereTemplate);
+		parameters.addAll(whereParameters);
+		return true;
+	}
+
 	public PsqlQueryComponents andWhere(String clause) {
 		whereComponent += " AND (" + clause + ")";
+		whereTemplate += " AND (" + SqlTemplateUtils.escape(clause) + ")";
 		return this;
 	}
 
 	public PsqlQueryComponents orWhere(String clause) {
 		whereComponent += " OR (" + clause + ")";
+		whereTemplate += " OR (" + SqlTemplateUtils.escape(clause) + ")";
 		return this;
 	}
 
@@ -108,6 +211,22 @@ public class PsqlQueryComponents {
 		return whereComponent;
 	}
 
+	public String getFromTemplate() {
+		return fromTemplate;
+	}
+
+	public List<Object> getFromParameters() {
+		return fromParameters;
+	}
+
+	public String getWhereTemplate() {
+		return whereTemplate;
+	}
+
+	public List<Object> getWhereParameters() {
+		return whereParameters;
+	}
+
 	public String getGroupByComponent() {
 		return groupByComponent;
 	}
@@ -120,6 +239,43 @@ public class PsqlQueryComponents {
 		return limitComponent;
 	}
 
+	public int getTotalSortColumns() {
+		return totalSortColumns;
+	}
+
+	/**
+	 * @param sortColumnsComponent Additional select columns containing the sort value(s) of each hit
+	 * @param totalSortColumns The number of sort columns
+	 */
+	public void setSortColumns(String sortColumnsComponent, int totalSortColumns) {
+		this.sortColumnsComponent = sortColumnsComponent;
+		this.totalSortColumns = totalSortColumns;
+	}
+
+	/**
+	 * @param hitsFromTemplate The from template with each source ordered and limited to its top hits
+	 * @param hitsFromParameters The values bound by the hits from template
+	 * @param hitsFromLimit The number of top hits returned by each source
+	 */
+	public void setHitsFromTemplate(String hitsFromTemplate, List<Object> hitsFromParameters, int hitsFromLimit) {
+		this.hitsFromTemplate = hitsFromTemplate;
+		this.hitsFromParameters = hitsFromParameters;
+		this.hitsFromLimit = hitsFromLimit;
+	}
+
+	public boolean hasScoreColumn() {
+		return !scoreExpression.isEmpty();
+	}
+
+	/**
+	 * @param scoreExpression The expression template returned as the _score of each hit, empty if hits are not scored
+	 * @param scoreParameters The values bound by the expression template
+	 */
+	public void setScoreColumn(String scoreExpression, List<Object> scoreParameters) {
+		this.scoreExpression = scoreExpression == null ? "" : scoreExpression;
+		this.scoreParameters = scoreParameters;
+	}
+
 	public List<String> getTemporaryTables() {
 		return temporaryTables;
 	}
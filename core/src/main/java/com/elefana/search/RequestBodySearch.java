@@ -15,6 +15,7 @@
  ******************************************************************************/
 package com.elefana.search;
 
+import com.elefana.api.exception.BadRequestException;
 import com.elefana.api.exception.ElefanaException;
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.api.json.JsonUtils;
@@ -24,16 +25,20 @@ import com.elefana.search.agg.RootAggregationContext;
 import com.elefana.search.query.Query;
 import com.elefana.search.query.QueryParser;
 import com.elefana.search.sort.Sort;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class RequestBodySearch {
 	private static final Logger LOGGER = LoggerFactory.getLogger(RequestBodySearch.class);
+	private static final String KEY_SEARCH_AFTER = "search_after";
 	
 	protected final String originalQuery;
+	protected final String normalizedQuery;
 	protected final long timestamp;
 	
 	protected final Query query;
@@ -41,7 +46,14 @@ public class RequestBodySearch {
 	protected final Sort sort = new Sort();
 	
 	protected String querySqlWhereClause;
+	protected String querySqlWhereTemplate;
+	protected List<Object> querySqlWhereParameters;
+	protected String querySqlScoreTemplate;
+	protected List<Object> querySqlScoreParameters;
 	protected String querySqlOrderClause;
+	protected String querySqlSortColumns;
+	protected String querySqlSearchAfterClause;
+	protected JsonNode searchAfter;
 	protected int from;
 	protected int size;
 
@@ -62,8 +74,15 @@ public class RequestBodySearch {
 		
 		if(originalQuery != null && !originalQuery.isEmpty()) {
 			JsonNode context = JsonUtils.extractJsonNode(originalQuery);
+			normalizedQuery = context.toString();
 			sort.parse(context);
-			querySqlOrderClause = sort.toSqlClause();
+
+			if(context.has(KEY_SEARCH_AFTER) && context.get(KEY_SEARCH_AFTER).isArray()) {
+				searchAfter = context.get(KEY_SEARCH_AFTER);
+				if(searchAfter.size() != sort.size()) {
+					throw new BadRequestException();
+				}
+			}
 			
 			if(context.has("size") && context.get("size").isNumber()) {
 				size = context.get("size").asInt();
@@ -77,7 +96,7 @@ public class RequestBodySearch {
 			}
 			this.aggregations.setSubAggregations(AggregationsParser.parseAggregations(originalQuery));
 		} else {
-			querySqlOrderClause = "";
+			normalizedQuery = "";
 			size = 10;
 			from = 0;
 		}
@@ -94,14 +113,88 @@ public class RequestBodySearch {
 		return originalQuery;
 	}
 
+	/**
+	 * @return The query without insignificant whitespace
+	 */
+	public String getNormalizedQuery() {
+		return normalizedQuery;
+	}
+
 	public String getQuerySqlWhereClause(List<String> indices, IndexTemplate indexTemplate,
 	                                     IndexFieldStatsService indexFieldStatsService) {
 		if(querySqlWhereClause == null) {
-			querySqlWhereClause = query.toSqlWhereClause(indices, indexTemplate, indexFieldStatsService);
+			final List<Object> parameters = new ArrayList<Object>(2);
+			querySqlWhereClause = SqlTemplateUtils.inline(
+					getQuerySqlWhereTemplate(indices, indexTemplate, indexFieldStatsService, parameters), parameters);
 		}
 		return querySqlWhereClause;
 	}
+
+	/**
+	 * @param parameters The list the values bound by the template are appended to
+	 * @return The where clause with values bound as ? placeholders
+	 */
+	public String getQuerySqlWhereTemplate(List<String> indices, IndexTemplate indexTemplate,
+	                                       IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
+		if(querySqlWhereTemplate == null) {
+			querySqlWhereParameters = new ArrayList<Object>(2);
+			querySqlWhereTemplate = query.toSqlWhereClause(indices, indexTemplate, indexFieldStatsService,
+					querySqlWhereParameters);
+		}
+		parameters.addAll(querySqlWhereParameters);
+		return querySqlWhereTemplate;
+	}
 	
+	/**
+	 * @param parameters The list the values bound by the expression are appended to
+	 * @return The expression scoring each hit with values bound as ? placeholders, empty if the query does not score hits
+	 */
+	public String getQuerySqlScoreTemplate(IndexTemplate indexTemplate, List<Object> parameters) {
+		compileScore(indexTemplate);
+		parameters.addAll(querySqlScoreParameters);
+		return querySqlScoreTemplate;
+	}
+
+	private void compileScore(IndexTemplate indexTemplate) {
+		if(querySqlScoreTemplate != null) {
+			return;
+		}
+		querySqlScoreParameters = new ArrayList<Object>(1);
+		final String result = query.getSqlScoreExpression(indexTemplate, querySqlScoreParameters);
+		querySqlScoreTemplate = result == null ? "" : result;
+	}
+
+	/**
+	 * @return The order clause, hits are ordered by score if no sort was specified and the query scores hits
+	 */
+	public String getQuerySqlOrderClause(List<String> indices, IndexTemplate indexTemplate,
+	                                     IndexFieldStatsService indexFieldStatsService) {
+		compileScore(indexTemplate);
+		if(!sort.isEmpty() || querySqlScoreTemplate.isEmpty()) {
+			compileSort(indices, indexTemplate, indexFieldStatsService);
+			return querySqlOrderClause;
+		}
+		return PsqlQueryComponents.SCORE_COLUMN + " DESC";
+	}
+
+	/**
+	 * Resolves the sort expressions once for the queried indices, e.g. sorting the
+	 * timestamp path by the _timestamp column and numeric fields by typed expressions
+	 */
+	private void compileSort(List<String> indices, IndexTemplate indexTemplate,
+	                         IndexFieldStatsService indexFieldStatsService) {
+		if(querySqlOrderClause != null) {
+			return;
+		}
+		final Sort compiledSort = sort.compile(indices, indexTemplate, indexFieldStatsService);
+
+		final StringBuilder sortColumns = new StringBuilder();
+		compiledSort.appendSqlSelectColumns(sortColumns);
+		querySqlSortColumns = sortColumns.toString();
+		querySqlSearchAfterClause = searchAfter == null ? "" : compiledSort.toSearchAfterSqlClause(searchAfter);
+		querySqlOrderClause = compiledSort.toSqlClause();
+	}
+
 	public Query getQuery() {
 		return query;
 	}
@@ -122,8 +215,26 @@ public class RequestBodySearch {
 		return sort;
 	}
 
-	public String getQuerySqlOrderClause() {
-		return querySqlOrderClause;
+	/**
+	 * @return Additional select columns for the sort values of each hit, empty if the search is not sorted
+	 */
+	public String getQuerySqlSortColumns(List<String> indices, IndexTemplate indexTemplate,
+	                                     IndexFieldStatsService indexFieldStatsService) {
+		compileSort(indices, indexTemplate, indexFieldStatsService);
+		return querySqlSortColumns;
+	}
+
+	/**
+	 * @return The keyset condition for search_after requests, empty if search_after was not specified
+	 */
+	public String getQuerySqlSearchAfterClause(List<String> indices, IndexTemplate indexTemplate,
+	                                           IndexFieldStatsService indexFieldStatsService) {
+		compileSort(indices, indexTemplate, indexFieldStatsService);
+		return querySqlSearchAfterClause;
+	}
+
+	public boolean hasSearchAfter() {
+		return searchAfter != null && searchAfter.size() > 0;
 	}
 
 	@Override
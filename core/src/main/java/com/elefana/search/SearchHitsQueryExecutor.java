@@ -17,13 +17,18 @@ package com.elefana.search;
 
 import com.codahale.metrics.Histogram;
 import com.elefana.api.AckResponse;
+import com.elefana.api.ApiResponseStream;
 import com.elefana.api.json.JsonUtils;
 import com.elefana.api.search.SearchHit;
 import com.elefana.api.search.SearchResponse;
+import com.elefana.search.sort.Sort;
 import com.elefana.util.EscapeUtils;
+import com.elefana.util.SqlTemplateUtils;
+import org.postgresql.PGStatement;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -31,14 +36,47 @@ import java.util.concurrent.Callable;
 public abstract class SearchHitsQueryExecutor {
 	protected final JdbcTemplate jdbcTemplate;
 	protected final Histogram searchHitsTime, searchHits;
+	protected final int prepareThreshold;
 	
-	public SearchHitsQueryExecutor(JdbcTemplate jdbcTemplate, Histogram searchHitsTime, Histogram searchHits) {
+	/**
+	 * @param prepareThreshold The no. of executions of a statement before it is prepared server-side and its plan reused
+	 */
+	public SearchHitsQueryExecutor(JdbcTemplate jdbcTemplate, Histogram searchHitsTime, Histogram searchHits, int prepareThreshold) {
 		super();
 		this.jdbcTemplate = jdbcTemplate;
 		this.searchHitsTime = searchHitsTime;
 		this.searchHits = searchHits;
+		this.prepareThreshold = prepareThreshold;
 	}
 
+	/**
+	 * Executes a query prepared from an SQL template on the connection of the statement. The driver caches
+	 * prepared statements per connection, so searches with the same template share one server-side
+	 * statement and query plan once it has been executed prepareThreshold times.
+	 * The prepared statement is closed when the returned {@link ResultSet} is closed.
+	 */
+	protected ResultSet executeTemplateQuery(Statement statement, String template, List<Object> parameters) throws SQLException {
+		final PreparedStatement preparedStatement = statement.getConnection().prepareStatement(template);
+		try {
+			preparedStatement.setFetchSize(statement.getFetchSize());
+			if (preparedStatement.isWrapperFor(PGStatement.class)) {
+				preparedStatement.unwrap(PGStatement.class).setPrepareThreshold(prepareThreshold);
+			}
+			SqlTemplateUtils.setParameters(preparedStatement, parameters);
+			final ResultSet result = preparedStatement.executeQuery();
+			preparedStatement.closeOnCompletion();
+			return result;
+		} catch (SQLException e) {
+			preparedStatement.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a materialized view of the matching rows. Only used when
+	 * materialized views are enabled, otherwise viewName is null and
+	 * the count/hits queries run directly against the source table(s).
+	 */
 	public abstract void prepareView(Statement statement, PsqlQueryComponents queryComponents,
 											 String viewName, long startTime, int from, int size) throws SQLException;
 	
@@ -103,10 +141,12 @@ public abstract class SearchHitsQueryExecutor {
 					}
 	
 					if (resultSet != null) {
-						populateHits(searchResponse.getHits().getHits(), resultSet);
+						populateHits(searchResponse.getHits().getHits(), resultSet, queryComponents.getTotalSortColumns(),
+								queryComponents.hasScoreColumn(), size);
 						resultSet.close();
 					}
-					searchResponse.getHits().setMaxScore(1.0);
+					searchResponse.getHits().setMaxScore(getMaxScore(searchResponse.getHits().getHits(),
+							queryComponents.hasScoreColumn()));
 	
 					searchHitsTime.update(System.currentTimeMillis() - startTime);
 				}
@@ -115,6 +155,74 @@ public abstract class SearchHitsQueryExecutor {
 		};
 	}
 	
+	/**
+	 * Writes hits to the response stream as rows are read. The _source of each
+	 * hit is written as-is instead of being parsed and re-serialized.
+	 * @param searchResponse The response the max score of the streamed hits is set on
+	 * @return A {@link Callable} returning the number of hits written
+	 */
+	public Callable<Integer> executeStreamingHitsQuery(final ApiResponseStream responseStream, final SearchResponse searchResponse,
+	                                                   final Statement statement, PsqlQueryComponents queryComponents,
+	                                                   long startTime, int from, int size) {
+		return new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				if(size <= 0) {
+					return 0;
+				}
+				ResultSet resultSet = null;
+				try {
+					resultSet = queryHits(statement, queryComponents, null, startTime, from, size);
+				} catch (Exception e) {
+					e.printStackTrace();
+					if (!e.getMessage().contains("No results")) {
+						throw e;
+					}
+					resultSet = null;
+				}
+
+				int totalHits = 0;
+				searchResponse.getHits().setMaxScore(1.0);
+				if (resultSet != null) {
+					totalHits = streamHits(responseStream, searchResponse, resultSet, queryComponents.getTotalSortColumns(),
+							queryComponents.hasScoreColumn());
+					resultSet.close();
+				}
+				searchHitsTime.update(System.currentTimeMillis() - startTime);
+				return totalHits;
+			}
+		};
+	}
+
+	/**
+	 * Opens a cursor over all matching hits. The statement's connection must have auto-commit disabled
+	 * and a fetch size set so that rows are fetched from the server in batches as the cursor is read.
+	 */
+	public ResultSet openScrollCursor(Statement statement, PsqlQueryComponents queryComponents, long startTime, int from) throws SQLException {
+		return queryHits(statement, queryComponents, null, startTime, from, 0);
+	}
+
+	/**
+	 * Reads the next page of hits from a cursor opened by {@link #openScrollCursor(Statement, PsqlQueryComponents, long, int)}
+	 * @return False if the cursor has no further rows
+	 */
+	public boolean readScrollHits(SearchResponse searchResponse, ResultSet cursor, int totalSortColumns, boolean scored, int size) throws SQLException {
+		final boolean result = populateHits(searchResponse.getHits().getHits(), cursor, totalSortColumns, scored, size);
+		searchResponse.getHits().setMaxScore(getMaxScore(searchResponse.getHits().getHits(), scored));
+		return result;
+	}
+
+	private double getMaxScore(List<SearchHit> hits, boolean scored) {
+		if(!scored || hits.isEmpty()) {
+			return 1.0;
+		}
+		double result = 0.0;
+		for(SearchHit hit : hits) {
+			result = Math.max(result, hit._score);
+		}
+		return result;
+	}
+
 	private int getTotalHits(ResultSet countsRowSet) throws SQLException {
 		int totalHits = 0;
 		boolean hasCountColumn = true;
@@ -133,15 +241,89 @@ public abstract class SearchHitsQueryExecutor {
 		return totalHits;
 	}
 	
-	private void populateHits(List<SearchHit> results, ResultSet hitsRowSet) throws SQLException {
-		while (hitsRowSet.next()) {
+	/**
+	 * @return False if all rows were read
+	 */
+	private boolean populateHits(List<SearchHit> results, ResultSet hitsRowSet, int totalSortColumns, boolean scored, int maxHits) throws SQLException {
+		for (int i = 0; i < maxHits; i++) {
+			if (!hitsRowSet.next()) {
+				return false;
+			}
 			SearchHit searchHit = new SearchHit();
 			searchHit._index = hitsRowSet.getString("_index");
 			searchHit._type = hitsRowSet.getString("_type");
 			searchHit._id = hitsRowSet.getString("_id");
-			searchHit._score = 1.0;
-			searchHit._source = JsonUtils.fromJsonString(EscapeUtils.jsonEscapeString(EscapeUtils.psqlUnescapeString(hitsRowSet.getString("_source"))), Map.class);
+			searchHit._score = scored ? hitsRowSet.getDouble(PsqlQueryComponents.SCORE_COLUMN) : 1.0;
+			searchHit._source = JsonUtils.fromJsonString(getSource(hitsRowSet), Map.class);
+			if (totalSortColumns > 0) {
+				searchHit.sort = new ArrayList<Object>(totalSortColumns);
+				for (int j = 0; j < totalSortColumns; j++) {
+					final String sortValue = hitsRowSet.getString(Sort.SORT_COLUMN_PREFIX + j);
+					searchHit.sort.add(sortValue == null ? null : JsonUtils.fromJsonString(sortValue, Object.class));
+				}
+			}
 			results.add(searchHit);
 		}
+		return true;
+	}
+
+	private int streamHits(ApiResponseStream responseStream, SearchResponse searchResponse, ResultSet hitsRowSet,
+	                       int totalSortColumns, boolean scored) throws SQLException {
+		final StringBuilder hit = new StringBuilder(1024);
+		int result = 0;
+		double maxScore = 0.0;
+		while (hitsRowSet.next()) {
+			hit.setLength(0);
+			if(result > 0) {
+				hit.append(',');
+			}
+			hit.append("{\"_index\":");
+			appendString(hit, hitsRowSet.getString("_index"));
+			hit.append(",\"_type\":");
+			appendString(hit, hitsRowSet.getString("_type"));
+			hit.append(",\"_id\":");
+			appendString(hit, hitsRowSet.getString("_id"));
+			final double score = scored ? hitsRowSet.getDouble(PsqlQueryComponents.SCORE_COLUMN) : 1.0;
+			maxScore = Math.max(maxScore, score);
+			hit.append(",\"_score\":");
+			hit.append(score);
+			hit.append(",\"_source\":");
+			hit.append(getSource(hitsRowSet));
+			if(totalSortColumns > 0) {
+				hit.append(",\"sort\":[");
+				for(int i = 0; i < totalSortColumns; i++) {
+					if(i > 0) {
+						hit.append(',');
+					}
+					final String sortValue = hitsRowSet.getString(Sort.SORT_COLUMN_PREFIX + i);
+					hit.append(sortValue == null ? "null" : sortValue);
+				}
+				hit.append(']');
+			}
+			hit.append('}');
+			responseStream.write(hit);
+			result++;
+		}
+		if(scored && result > 0) {
+			searchResponse.getHits().setMaxScore(maxScore);
+		}
+		return result;
+	}
+
+	private static void appendString(StringBuilder result, String value) {
+		if(value == null) {
+			result.append("null");
+			return;
+		}
+		result.append('"');
+		EscapeUtils.appendQuoted(result, value);
+		result.append('"');
+	}
+
+	/**
+	 * Reverses the escaping applied to _source during ingestion
+	 */
+	private static String getSource(ResultSet hitsRowSet) throws SQLException {
+		return EscapeUtils.jsonEscapeString(EscapeUtils.psqlUnescapeString(hitsRowSet.getString("_source")));
 	}
 }
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.elefana.api.search.SearchResponse;
+import com.elefana.util.IndexGenerationTracker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches search responses keyed by the normalized query, indices, types and from/size.
+ * Entries are invalidated when the generation of any of their indices changes and
+ * the least recently used entries are evicted once the cache exceeds its max. size in bytes.
+ * Responses are stored with their serialized JSON which is used for their size and reused
+ * as the body of every response served from the cache.
+ */
+@Service
+public class SearchResultCache {
+	private static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+	private static final long DEFAULT_EXPIRE_MILLIS = 60000L;
+	private static final int DEFAULT_MAX_HITS = 0;
+	private static final int ENTRY_OVERHEAD_BYTES = 128;
+	private static final String DATE_MATH_NOW = "\"now";
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final Lock lock = new ReentrantLock();
+
+	@Autowired
+	private Environment environment;
+	@Autowired
+	private MetricRegistry metricRegistry;
+	@Autowired
+	private IndexGenerationTracker indexGenerationTracker;
+
+	private long maxBytes;
+	private long expireMillis;
+	private int maxHits;
+	private long totalBytes;
+
+	private Meter cacheHits, cacheMisses, cacheEvictions;
+
+	public SearchResultCache() {
+		super();
+	}
+
+	SearchResultCache(MetricRegistry metricRegistry, IndexGenerationTracker indexGenerationTracker,
+	                  long maxBytes, long expireMillis, int maxHits) {
+		super();
+		this.metricRegistry = metricRegistry;
+		this.indexGenerationTracker = indexGenerationTracker;
+		this.maxBytes = maxBytes;
+		this.expireMillis = expireMillis;
+		this.maxHits = maxHits;
+		registerMetrics();
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		maxBytes = environment.getProperty("elefana.service.search.cache.maxBytes", Long.class, DEFAULT_MAX_BYTES);
+		expireMillis = environment.getProperty("elefana.service.search.cache.expireMillis", Long.class, DEFAULT_EXPIRE_MILLIS);
+		maxHits = environment.getProperty("elefana.service.search.cache.maxHits", Integer.class, DEFAULT_MAX_HITS);
+		registerMetrics();
+	}
+
+	private void registerMetrics() {
+		cacheHits = metricRegistry.meter(MetricRegistry.name("search", "cache", "hits"));
+		cacheMisses = metricRegistry.meter(MetricRegistry.name("search", "cache", "misses"));
+		cacheEvictions = metricRegistry.meter(MetricRegistry.name("search", "cache", "evictions"));
+		metricRegistry.register(MetricRegistry.name("search", "cache", "bytes"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return getTotalBytes();
+			}
+		});
+	}
+
+	/**
+	 * Searches are only cached if they request no more than the configured max. hits
+	 * and do not contain date math relative to the current time
+	 */
+	public boolean isCacheable(RequestBodySearch requestBodySearch) {
+		if(maxBytes <= 0) {
+			return false;
+		}
+		if(requestBodySearch.getFrom() + requestBodySearch.getSize() > maxHits) {
+			return false;
+		}
+		return !requestBodySearch.getNormalizedQuery().contains(DATE_MATH_NOW);
+	}
+
+	/**
+	 * Creates a cache key. Must be called before the search is executed so that
+	 * documents becoming visible during the search invalidate the result.
+	 */
+	public Key createKey(List<String> indices, String[] types, RequestBodySearch requestBodySearch) {
+		final String[] sortedIndices = indices.toArray(new String[indices.size()]);
+		Arrays.sort(sortedIndices);
+		final String[] sortedTypes = Arrays.copyOf(types, types.length);
+		Arrays.sort(sortedTypes);
+
+		final StringBuilder result = new StringBuilder();
+		for(int i = 0; i < sortedIndices.length; i++) {
+			if(i > 0) {
+				result.append(',');
+			}
+			result.append(sortedIndices[i]);
+		}
+		result.append('|');
+		for(int i = 0; i < sortedTypes.length; i++) {
+			if(i > 0) {
+				result.append(',');
+			}
+			result.append(sortedTypes[i]);
+		}
+		result.append('|');
+		result.append(requestBodySearch.getFrom());
+		result.append('|');
+		result.append(requestBodySearch.getSize());
+		result.append('|');
+		result.append(requestBodySearch.getNormalizedQuery());
+
+		final long[] generations = new long[sortedIndices.length];
+		for(int i = 0; i < sortedIndices.length; i++) {
+			generations[i] = indexGenerationTracker.getGeneration(sortedIndices[i]);
+		}
+		return new Key(result.toString(), sortedIndices, generations);
+	}
+
+	public long getTotalBytes() {
+		lock.lock();
+		try {
+			return totalBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Null if there is no valid cached response, otherwise a copy of the cached response
+	 * 	whose took value is set by the caller
+	 */
+	public SearchResponse get(Key key) {
+		lock.lock();
+		try {
+			final Entry entry = entries.get(key.value);
+			if(entry == null) {
+				cacheMisses.mark();
+				return null;
+			}
+			if(entry.isExpired(System.currentTimeMillis()) || !entry.isCurrentGeneration()) {
+				entries.remove(key.value);
+				totalBytes -= entry.bytes;
+				cacheEvictions.mark();
+				cacheMisses.mark();
+				return null;
+			}
+			cacheHits.mark();
+			return new CachedSearchResponse(entry.response, entry.json);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The response to return for the search, reusing the JSON serialized for the cache entry
+	 */
+	public SearchResponse put(Key key, SearchResponse response) {
+		final String json = response.toJsonString();
+		final long bytes = ((long) json.length() + key.value.length()) * 2L + ENTRY_OVERHEAD_BYTES;
+		if(bytes > maxBytes) {
+			return response;
+		}
+		final Entry entry = new Entry(key, response, json, bytes, System.currentTimeMillis() + expireMillis);
+
+		lock.lock();
+		try {
+			final Entry previousEntry = entries.put(key.value, entry);
+			if(previousEntry != null) {
+				totalBytes -= previousEntry.bytes;
+			}
+			totalBytes += bytes;
+
+			final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while(totalBytes > maxBytes && iterator.hasNext()) {
+				totalBytes -= iterator.next().getValue().bytes;
+				iterator.remove();
+				cacheEvictions.mark();
+			}
+		} finally {
+			lock.unlock();
+		}
+		return new CachedSearchResponse(response, json);
+	}
+
+	public static class Key {
+		private final String value;
+		private final String[] indices;
+		private final long[] generations;
+
+		private Key(String value, String[] indices, long[] generations) {
+			super();
+			this.value = value;
+			this.indices = indices;
+			this.generations = generations;
+		}
+	}
+
+	private class Entry {
+		private final Key key;
+		private final SearchResponse response;
+		private final String json;
+		private final long bytes;
+		private final long expiryTimestamp;
+
+		private Entry(Key key, SearchResponse response, String json, long bytes, long expiryTimestamp) {
+			super();
+			this.key = key;
+			this.response = response;
+			this.json = json;
+			this.bytes = bytes;
+			this.expiryTimestamp = expiryTimestamp;
+		}
+
+		private boolean isExpired(long timestamp) {
+			return expireMillis > 0 && timestamp >= expiryTimestamp;
+		}
+
+		private boolean isCurrentGeneration() {
+			for(int i = 0; i < key.indices.length; i++) {
+				if(indexGenerationTracker.getGeneration(key.indices[i]) != key.generations[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
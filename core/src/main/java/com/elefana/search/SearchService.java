@@ -15,8 +15,10 @@
  ******************************************************************************/
 package com.elefana.search;
 
+import com.elefana.api.search.ClearScrollRequest;
 import com.elefana.api.search.MultiSearchRequest;
 import com.elefana.api.search.SearchRequest;
+import com.elefana.api.search.SearchScrollRequest;
 import com.elefana.api.util.PooledStringBuilder;
 import io.netty.channel.ChannelHandlerContext;
 
@@ -33,4 +35,8 @@ public interface SearchService {
 	public SearchRequest prepareSearch(ChannelHandlerContext context, String indexPattern, PooledStringBuilder requestBody);
 
 	public SearchRequest prepareSearch(ChannelHandlerContext context, String indexPattern, String typesPattern, PooledStringBuilder requestBody);
+
+	public SearchScrollRequest prepareSearchScroll(ChannelHandlerContext context, PooledStringBuilder requestBody);
+
+	public ClearScrollRequest prepareClearScroll(ChannelHandlerContext context, PooledStringBuilder requestBody);
 }
@@ -16,16 +16,23 @@
 package com.elefana.search.agg;
 
 import com.elefana.api.exception.ElefanaException;
+import com.elefana.api.exception.ShardFailedException;
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.api.search.SearchResponse;
 import com.elefana.indices.psql.PsqlIndexFieldMappingService;
 import com.elefana.node.NodeSettingsService;
 import com.elefana.search.PsqlQueryComponents;
 import com.elefana.search.RequestBodySearch;
+import com.elefana.util.SqlTemplateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -37,6 +44,8 @@ public abstract class Aggregation {
 			.unmodifiableList(new ArrayList<Aggregation>(1));
 	private static final Logger LOGGER = LoggerFactory.getLogger(Aggregation.class);
 
+	private static final int STREAM_FETCH_SIZE = 10000;
+
 	public abstract void executeSqlQuery(final AggregationExec aggregationExec) throws ElefanaException;
 
 	protected static void appendIndicesWhereClause(final AggregationExec aggregationExec,
@@ -51,13 +60,63 @@ public abstract class Aggregation {
 			if (i > 0) {
 				queryBuilder.append(',');
 			}
-			queryBuilder.append("'");
-			queryBuilder.append(aggregationExec.getIndices().get(i));
-			queryBuilder.append("'");
+			queryBuilder.append(SqlTemplateUtils.quoteLiteral(aggregationExec.getIndices().get(i)));
 		}
 		queryBuilder.append(")");
 	}
 
+	protected static boolean appendFromAndWhereClause(final AggregationExec aggregationExec,
+			final PsqlQueryComponents queryComponents, final StringBuilder queryBuilder) {
+		queryBuilder.append(" FROM ");
+		queryBuilder.append(queryComponents.getFromComponent());
+		if (aggregationExec.getNodeSettingsService().isUsingCitus()) {
+			queryBuilder.append(" AS ");
+			queryBuilder.append("hit_results");
+		}
+		return queryComponents.appendWhere(queryBuilder);
+	}
+
+	/**
+	 * Executes a query through a server-side cursor so that rows are read in
+	 * batches instead of the whole result being held in memory
+	 */
+	protected static void streamSqlQuery(final AggregationExec aggregationExec, final String query,
+			final RowCallbackHandler rowCallbackHandler) throws ElefanaException {
+		Connection connection = null;
+		try {
+			connection = aggregationExec.getJdbcTemplate().getDataSource().getConnection();
+			// pgjdbc only uses a cursor for fetching within a transaction
+			connection.setAutoCommit(false);
+
+			final PreparedStatement preparedStatement = connection.prepareStatement(query);
+			preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+			final ResultSet resultSet = preparedStatement.executeQuery();
+			while (resultSet.next()) {
+				rowCallbackHandler.processRow(resultSet);
+			}
+			resultSet.close();
+			preparedStatement.close();
+			connection.commit();
+		} catch (SQLException e) {
+			LOGGER.error(e.getMessage(), e);
+			if (connection != null) {
+				try {
+					connection.rollback();
+				} catch (SQLException ex) {
+				}
+			}
+			throw new ShardFailedException(e);
+		} finally {
+			if (connection != null) {
+				try {
+					connection.setAutoCommit(true);
+					connection.close();
+				} catch (SQLException e) {
+				}
+			}
+		}
+	}
+
 	public void executeSqlQuery(AggregationExec parentExec, PsqlQueryComponents queryComponents,
 			SearchResponse searchResponse, Map<String, Object> aggregationsResult) throws ElefanaException {
 		parentExec.getQueryFutures().offer(parentExec.getExecutorService().submit(new Callable<SearchResponse>() {
@@ -93,6 +152,43 @@ public abstract class Aggregation {
 		}));
 	}
 
+	/**
+	 * Returns the SQL expression computing this aggregation's value when
+	 * evaluated inside a GROUP BY of a parent bucket aggregation, or null if
+	 * the aggregation has to be executed separately per bucket
+	 */
+	public String getGroupedSqlExpression() {
+		return null;
+	}
+
+	/**
+	 * Executes this aggregation for all buckets of a parent bucket aggregation with a single
+	 * query grouped by the parent's bucket key. Each parent bucket receives this aggregation's
+	 * result, empty if no rows fall into the bucket.
+	 *
+	 * @param parentExec The execution of the parent bucket aggregation
+	 * @param parentBucketExpression The SQL expression computing the parent bucket key of a row
+	 * @param parentBuckets The parent buckets by bucket key
+	 * @return False if the aggregation has to be executed separately per bucket
+	 */
+	public boolean executeGroupedSqlQuery(AggregationExec parentExec, String parentBucketExpression,
+			Map<Long, Map<String, Object>> parentBuckets) throws ElefanaException {
+		return false;
+	}
+
+	/**
+	 * Returns the SQL expressions computing this metric aggregation's result
+	 * values keyed by result field, or null if the aggregation cannot share a
+	 * scan with its sibling aggregations
+	 */
+	public Map<String, String> getMetricSqlExpressions() {
+		final String groupedSqlExpression = getGroupedSqlExpression();
+		if (groupedSqlExpression == null || !getSubAggregations().isEmpty()) {
+			return null;
+		}
+		return Collections.singletonMap("value", groupedSqlExpression);
+	}
+
 	public abstract String getAggregationName();
 
 	public abstract List<Aggregation> getSubAggregations();
@@ -43,6 +43,7 @@ public class AggregationsParser {
 	
 	private static final String AGGREGATION_DATE_HISTOGRAM = "date_histogram";
 	private static final String AGGREGATION_RANGE = "range";
+	private static final String AGGREGATION_TERMS = "terms";
 
 	public static List<Aggregation> parseAggregations(String content) throws ElefanaException {
 		JsonNode contentContext = JsonUtils.extractJsonNode(content);
@@ -104,6 +105,9 @@ public class AggregationsParser {
 		if(context.has(AGGREGATION_DATE_HISTOGRAM)) {
 			return new DateHistogramAggregation(aggregationName, context.get(AGGREGATION_DATE_HISTOGRAM));
 		}
+		if(context.has(AGGREGATION_TERMS)) {
+			return new TermsAggregation(aggregationName, context.get(AGGREGATION_TERMS));
+		}
 		throw new UnsupportedAggregationTypeException(aggregationName);
 	}
 }
@@ -17,6 +17,7 @@ package com.elefana.search.agg;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public abstract class BucketAggregation extends Aggregation {
 	protected final List<Aggregation> subaggregations = new ArrayList<Aggregation>();
@@ -25,4 +26,31 @@ public abstract class BucketAggregation extends Aggregation {
 	public List<Aggregation> getSubAggregations() {
 		return subaggregations;
 	}
+
+	/**
+	 * Returns the sub-aggregations computed within the GROUP BY of this aggregation's buckets,
+	 * or null if any sub-aggregation has to be executed separately per bucket
+	 */
+	protected List<Aggregation> getGroupedSubAggregations() {
+		final List<Aggregation> result = new ArrayList<Aggregation>();
+		for (Aggregation aggregation : subaggregations) {
+			if (aggregation.getGroupedSqlExpression() == null) {
+				return null;
+			}
+			result.add(aggregation);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the key of the parent bucket a grouped row belongs to, or null if the row
+	 * is outside all parent buckets
+	 */
+	protected static Long getParentBucketKey(Map<String, Object> row) {
+		final Object result = row.get("elefana_agg_parent");
+		if (result == null) {
+			return null;
+		}
+		return ((Number) result).longValue();
+	}
 }
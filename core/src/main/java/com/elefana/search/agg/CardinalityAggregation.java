@@ -15,32 +15,88 @@
  ******************************************************************************/
 package com.elefana.search.agg;
 
+import com.elefana.api.exception.ElefanaException;
+import com.elefana.search.agg.sketch.HyperLogLogPlusPlus;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- *
+ * Estimates the distinct values of a field with a HyperLogLog++ sketch. Counts
+ * below the precision_threshold are exact. Setting "exact" to true counts the
+ * distinct values in the database instead.
  */
 public class CardinalityAggregation extends Aggregation {
 	private static final String KEY_FIELD = "field";
+	private static final String KEY_PRECISION_THRESHOLD = "precision_threshold";
+	private static final String KEY_EXACT = "exact";
 	
 	private final String aggregationName;
 	private final String fieldName;
+	private final long precisionThreshold;
+	private final boolean exact;
 	
 	public CardinalityAggregation(String aggregationName, JsonNode context) {
 		super();
 		this.aggregationName = aggregationName;
 		this.fieldName = context.get(KEY_FIELD).textValue();
+
+		if(context.has(KEY_PRECISION_THRESHOLD)) {
+			precisionThreshold = context.get(KEY_PRECISION_THRESHOLD).asLong(HyperLogLogPlusPlus.DEFAULT_PRECISION_THRESHOLD);
+		} else {
+			precisionThreshold = HyperLogLogPlusPlus.DEFAULT_PRECISION_THRESHOLD;
+		}
+		exact = context.has(KEY_EXACT) && context.get(KEY_EXACT).asBoolean();
 	}
 
 	@Override
-	public void executeSqlQuery(AggregationExec aggregationExec) {
+	public void executeSqlQuery(AggregationExec aggregationExec) throws ElefanaException {
+		Map<String, Object> result = new HashMap<String, Object>();
+		if(exact) {
+			result.put("value", getExactCardinality(aggregationExec));
+		} else {
+			result.put("value", getApproximateCardinality(aggregationExec));
+		}
+		aggregationExec.getAggregationsResult().put(aggregationExec.getAggregation().getAggregationName(), result);
+	}
+
+	private Object getExactCardinality(AggregationExec aggregationExec) {
 		final StringBuilder queryBuilder = new StringBuilder();
-		queryBuilder.append("SELECT COUNT(DISTINCT _source->>'" + fieldName + "') AS ");
+		queryBuilder.append("SELECT COUNT(DISTINCT _source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ") AS ");
 		queryBuilder.append(aggregationExec.getAggregation().getAggregationName());
+		appendFromClause(aggregationExec, queryBuilder);
+		
+		List<Map<String, Object>> resultSet = aggregationExec.getJdbcTemplate()
+				.queryForList(queryBuilder.toString());
+		return resultSet.get(0).get(aggregationExec.getAggregation().getAggregationName());
+	}
+
+	private long getApproximateCardinality(AggregationExec aggregationExec) throws ElefanaException {
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("SELECT _source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + " AS elefana_agg_value");
+		appendFromClause(aggregationExec, queryBuilder);
+
+		final HyperLogLogPlusPlus sketch = new HyperLogLogPlusPlus(precisionThreshold);
+		streamSqlQuery(aggregationExec, queryBuilder.toString(), new RowCallbackHandler() {
+
+			@Override
+			public void processRow(ResultSet resultSet) throws SQLException {
+				final String value = resultSet.getString(1);
+				if(value != null) {
+					sketch.offer(value);
+				}
+			}
+		});
+		return sketch.cardinality();
+	}
+
+	private void appendFromClause(AggregationExec aggregationExec, StringBuilder queryBuilder) {
 		queryBuilder.append(" FROM ");
 		queryBuilder.append(aggregationExec.getQueryComponents().getFromComponent());
 		if (!aggregationExec.getNodeSettingsService().isUsingCitus()) {
@@ -49,14 +105,18 @@ public class CardinalityAggregation extends Aggregation {
 			queryBuilder.append(" AS ");
 			queryBuilder.append("hit_results");
 		}
-		
-		List<Map<String, Object>> resultSet = aggregationExec.getJdbcTemplate()
-				.queryForList(queryBuilder.toString());
+	}
 
-		Map<String, Object> result = new HashMap<String, Object>();
-		result.put("value", resultSet.get(0).get(aggregationExec.getAggregation().getAggregationName()));
+	@Override
+	public String getGroupedSqlExpression() {
+		// A single grouped query is cheaper than streaming each bucket's values into a sketch
+		return "COUNT(DISTINCT _source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")";
+	}
 
-		aggregationExec.getAggregationsResult().put(aggregationExec.getAggregation().getAggregationName(), result);
+	@Override
+	public Map<String, String> getMetricSqlExpressions() {
+		// Approximate counts are streamed into a sketch separately
+		return exact ? super.getMetricSqlExpressions() : null;
 	}
 
 	@Override
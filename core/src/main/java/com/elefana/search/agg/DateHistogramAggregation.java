@@ -18,15 +18,16 @@ package com.elefana.search.agg;
 import com.elefana.api.exception.ElefanaException;
 import com.elefana.api.exception.InvalidAggregationFieldType;
 import com.elefana.api.exception.NoSuchMappingException;
-import com.elefana.api.search.SearchResponse;
 import com.elefana.search.PsqlQueryComponents;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
 
-import java.util.*;
-import java.util.concurrent.Callable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class DateHistogramAggregation extends BucketAggregation {
@@ -65,128 +66,175 @@ public class DateHistogramAggregation extends BucketAggregation {
 			return;
 		}
 
-		final boolean isTimestampColumn = aggregationExec.getIndexTemplate() != null
-				&& aggregationExec.getIndexTemplate().isTimestampField(fieldName);
-		final String fieldType = aggregationExec.getIndexFieldMappingService()
-				.getFirstFieldMappingType(aggregationExec.getIndices(), aggregationExec.getTypes(), fieldName);
-		if (fieldType == null || fieldType.isEmpty()) {
-			throw new NoSuchMappingException(fieldName);
+		final boolean isTimestampColumn = isTimestampColumn(aggregationExec);
+		final PsqlQueryComponents queryComponents = aggregationExec.getQueryComponents();
+		final String bucketValueColumn = getBucketValueColumn(aggregationExec, isTimestampColumn);
+		final long bucketInterval = getBucketInterval();
+
+		final List<Aggregation> groupedAggregations = new ArrayList<Aggregation>();
+		final List<Aggregation> perBucketAggregations = new ArrayList<Aggregation>();
+		for (Aggregation aggregation : aggregationExec.getAggregation().getSubAggregations()) {
+			if (aggregation.getGroupedSqlExpression() != null) {
+				groupedAggregations.add(aggregation);
+			} else {
+				perBucketAggregations.add(aggregation);
+			}
 		}
-		final String fieldFormat = aggregationExec.getIndexFieldMappingService()
-				.getFirstFieldMappingFormat(aggregationExec.getIndices(), aggregationExec.getTypes(), fieldName);
 
-		final PsqlQueryComponents queryComponents = aggregationExec.getQueryComponents();
+		final String rollupQuery = isTimestampColumn && perBucketAggregations.isEmpty()
+				? DateHistogramRollupQuery.toSqlQuery(aggregationExec, bucketInterval, groupedAggregations) : null;
 
-		final StringBuilder distinctBucketQueryBuilder = new StringBuilder();
-		if (isTimestampColumn) {
-			generateDistinctBucketQueryUsingTimestampField(aggregationExec, distinctBucketQueryBuilder);
+		final StringBuilder bucketQueryBuilder = new StringBuilder();
+		if (rollupQuery != null) {
+			bucketQueryBuilder.append(rollupQuery);
 		} else {
-			generateDistinctBucketQueryUsingActualField(aggregationExec, distinctBucketQueryBuilder, fieldType,
-					fieldFormat);
+			appendBucketQuery(aggregationExec, queryComponents, null, bucketValueColumn, bucketInterval,
+					groupedAggregations, bucketQueryBuilder);
 		}
 
-		LOGGER.info(distinctBucketQueryBuilder.toString());
-		SqlRowSet bucketResultSet = aggregationExec.getJdbcTemplate()
-				.queryForRowSet(distinctBucketQueryBuilder.toString());
+		LOGGER.info(bucketQueryBuilder.toString());
+		final List<Map<String, Object>> bucketResults = aggregationExec.getJdbcTemplate()
+				.queryForList(bucketQueryBuilder.toString());
 
-		final List<Long> distinctBuckets = getDistinctBuckets(aggregationExec, isTimestampColumn, bucketResultSet);
-		final long bucketInterval = getBucketInterval();
-
-		for (long bucketTimestamp : distinctBuckets) {
-			final Map<String, Object> bucket = new ConcurrentHashMap<String, Object>();
-			bucket.put("key", bucketTimestamp);
+		final Map<Long, Map<String, Object>> bucketsByKey = new HashMap<Long, Map<String, Object>>();
+		for (Map<String, Object> bucketResult : bucketResults) {
+			final Map<String, Object> bucket = createBucket(bucketResult, groupedAggregations);
+			if (bucket == null) {
+				continue;
+			}
 			buckets.add(bucket);
+			bucketsByKey.put((Long) bucket.get("key"), bucket);
+		}
+
+		// Bucket sub-aggregations are computed for all buckets at once where possible
+		final List<Aggregation> remainingAggregations = new ArrayList<Aggregation>();
+		if (!buckets.isEmpty()) {
+			final String bucketKeyExpression = getBucketKeyExpression(bucketValueColumn, bucketInterval);
+			for (Aggregation aggregation : perBucketAggregations) {
+				if (!aggregation.executeGroupedSqlQuery(aggregationExec, bucketKeyExpression, bucketsByKey)) {
+					remainingAggregations.add(aggregation);
+				}
+			}
+		}
 
-			aggregationExec.getQueryFutures()
-					.offer(aggregationExec.getExecutorService().submit(new Callable<SearchResponse>() {
-
-						@Override
-						public SearchResponse call() throws Exception {
-							final StringBuilder bucketCountQueryBuilder = new StringBuilder();
-							bucketCountQueryBuilder.append("SELECT COUNT(");
-							bucketCountQueryBuilder.append("_id");
-							bucketCountQueryBuilder.append(") FROM ");
-							bucketCountQueryBuilder.append(queryComponents.getFromComponent());
-
-							if (aggregationExec.getNodeSettingsService().isUsingCitus()) {
-								bucketCountQueryBuilder.append(" AS bucketCount ");
-							}
-
-							final StringBuilder appendedWhereClause = new StringBuilder();
-
-							if (!aggregationExec.getNodeSettingsService().isUsingCitus()) {
-								if (queryComponents.getWhereComponent() != null
-										&& !queryComponents.getWhereComponent().isEmpty()) {
-									appendedWhereClause.append(queryComponents.getWhereComponent());
-									appendedWhereClause.append(" AND (");
-								} else {
-									appendedWhereClause.append("(");
-								}
-							} else {
-								appendedWhereClause.append("(");
-							}
-
-							if (isTimestampColumn) {
-								appendedWhereClause.append(getBucketColumn());
-							} else {
-								appendedWhereClause.append(getActualColumn(fieldType, fieldFormat));
-							}
-							appendedWhereClause.append(" >= ");
-							appendedWhereClause.append(bucketTimestamp);
-
-							appendedWhereClause.append(" AND ");
-
-							if (isTimestampColumn) {
-								appendedWhereClause.append(getBucketColumn());
-							} else {
-								appendedWhereClause.append(getActualColumn(fieldType, fieldFormat));
-							}
-							appendedWhereClause.append(" < ");
-							appendedWhereClause.append((bucketTimestamp + bucketInterval));
-
-							appendedWhereClause.append(')');
-
-							bucketCountQueryBuilder.append(" WHERE ");
-							bucketCountQueryBuilder.append(appendedWhereClause.toString());
-
-							final Map<String, Object> aggResult = aggregationExec.getJdbcTemplate()
-									.queryForMap(bucketCountQueryBuilder.toString());
-							bucket.put("doc_count", aggResult.get("count"));
-
-							for (Aggregation aggregation : aggregationExec.getAggregation().getSubAggregations()) {
-								PsqlQueryComponents subAggregationQueryComponents = new PsqlQueryComponents(
-										new String(queryComponents.getFromComponent()), appendedWhereClause.toString(),
-										new String(queryComponents.getGroupByComponent()), "",
-										new String(queryComponents.getLimitComponent()),
-										queryComponents.getTemporaryTables());
-								aggregation.executeSqlQuery(aggregationExec, subAggregationQueryComponents,
-										aggregationExec.getSearchResponse(), bucket);
-							}
-							return aggregationExec.getSearchResponse();
-						}
-					}));
+		for (Map<String, Object> bucket : buckets) {
+			if (remainingAggregations.isEmpty()) {
+				break;
+			}
+			final long bucketTimestamp = (Long) bucket.get("key");
+
+			final StringBuilder appendedWhereClause = new StringBuilder();
+			if (!aggregationExec.getNodeSettingsService().isUsingCitus()) {
+				if (queryComponents.getWhereComponent() != null && !queryComponents.getWhereComponent().isEmpty()) {
+					appendedWhereClause.append(queryComponents.getWhereComponent());
+					appendedWhereClause.append(" AND (");
+				} else {
+					appendedWhereClause.append("(");
+				}
+			} else {
+				appendedWhereClause.append("(");
+			}
+			appendedWhereClause.append(bucketValueColumn);
+			appendedWhereClause.append(" >= ");
+			appendedWhereClause.append(bucketTimestamp);
+			appendedWhereClause.append(" AND ");
+			appendedWhereClause.append(bucketValueColumn);
+			appendedWhereClause.append(" < ");
+			appendedWhereClause.append((bucketTimestamp + bucketInterval));
+			appendedWhereClause.append(')');
+
+			for (Aggregation aggregation : remainingAggregations) {
+				PsqlQueryComponents subAggregationQueryComponents = new PsqlQueryComponents(
+						new String(queryComponents.getFromComponent()), appendedWhereClause.toString(),
+						new String(queryComponents.getGroupByComponent()), "",
+						new String(queryComponents.getLimitComponent()), queryComponents.getTemporaryTables());
+				aggregation.executeSqlQuery(aggregationExec, subAggregationQueryComponents,
+						aggregationExec.getSearchResponse(), bucket);
+			}
 		}
 		result.put("buckets", buckets);
 		aggregationExec.getAggregationsResult().put(aggregationExec.getAggregation().getAggregationName(), result);
 	}
 
-	private List<Long> getDistinctBuckets(AggregationExec aggregationExec, boolean isTimestampColumn,
-			SqlRowSet bucketResultSet) {
-		final Set<Long> results = new HashSet<Long>();
-		final String resultColumn = isTimestampColumn ? getBucketColumn() : "elefana_agg_bucket";
-		while (bucketResultSet.next()) {
-			results.add(bucketResultSet.getLong(resultColumn));
+	@Override
+	public boolean executeGroupedSqlQuery(AggregationExec parentExec, String parentBucketExpression,
+			Map<Long, Map<String, Object>> parentBuckets) throws ElefanaException {
+		final List<Aggregation> groupedAggregations = getGroupedSubAggregations();
+		if (groupedAggregations == null) {
+			return false;
 		}
 
-		if (isTimestampColumn) {
-			final long bucketInterval = getBucketInterval();
-			final Set<Long> bucketedResults = new HashSet<Long>();
-			for (long bucket : results) {
-				bucketedResults.add(bucket - (bucket % bucketInterval));
+		final Map<Long, List<Map<String, Object>>> results = new HashMap<Long, List<Map<String, Object>>>();
+		for (Map.Entry<Long, Map<String, Object>> parentBucket : parentBuckets.entrySet()) {
+			final List<Map<String, Object>> buckets = new ArrayList<Map<String, Object>>();
+			final Map<String, Object> result = new HashMap<String, Object>();
+			result.put("buckets", buckets);
+			parentBucket.getValue().put(aggregationName, result);
+			results.put(parentBucket.getKey(), buckets);
+		}
+
+		final long bucketInterval = getBucketInterval();
+		final StringBuilder bucketQueryBuilder = new StringBuilder();
+		appendBucketQuery(parentExec, parentExec.getQueryComponents(), parentBucketExpression,
+				getBucketValueColumn(parentExec, isTimestampColumn(parentExec)), bucketInterval,
+				groupedAggregations, bucketQueryBuilder);
+
+		LOGGER.info(bucketQueryBuilder.toString());
+		final List<Map<String, Object>> bucketResults = parentExec.getJdbcTemplate()
+				.queryForList(bucketQueryBuilder.toString());
+		for (Map<String, Object> bucketResult : bucketResults) {
+			final Long parentBucketKey = getParentBucketKey(bucketResult);
+			final List<Map<String, Object>> buckets = parentBucketKey == null ? null : results.get(parentBucketKey);
+			if (buckets == null) {
+				continue;
+			}
+			final Map<String, Object> bucket = createBucket(bucketResult, groupedAggregations);
+			if (bucket != null) {
+				buckets.add(bucket);
 			}
-			return new ArrayList<Long>(bucketedResults);
 		}
-		return new ArrayList<Long>(results);
+		return true;
+	}
+
+	private Map<String, Object> createBucket(Map<String, Object> bucketResult, List<Aggregation> groupedAggregations) {
+		final Object bucketKey = bucketResult.get("elefana_agg_bucket");
+		if (bucketKey == null) {
+			return null;
+		}
+		final Map<String, Object> bucket = new ConcurrentHashMap<String, Object>();
+		bucket.put("key", ((Number) bucketKey).longValue());
+		bucket.put("doc_count", bucketResult.get("elefana_agg_doc_count"));
+
+		for (int i = 0; i < groupedAggregations.size(); i++) {
+			final Map<String, Object> subAggregationResult = new HashMap<String, Object>();
+			subAggregationResult.put("value", bucketResult.get("elefana_agg_sub_" + i));
+			bucket.put(groupedAggregations.get(i).getAggregationName(), subAggregationResult);
+		}
+		return bucket;
+	}
+
+	private boolean isTimestampColumn(AggregationExec aggregationExec) {
+		return aggregationExec.getIndexTemplate() != null
+				&& aggregationExec.getIndexTemplate().isTimestampField(fieldName);
+	}
+
+	private String getBucketValueColumn(AggregationExec aggregationExec, boolean isTimestampColumn)
+			throws ElefanaException {
+		final String fieldType = aggregationExec.getIndexFieldMappingService()
+				.getFirstFieldMappingType(aggregationExec.getIndices(), aggregationExec.getTypes(), fieldName);
+		if (fieldType == null || fieldType.isEmpty()) {
+			throw new NoSuchMappingException(fieldName);
+		}
+		if (isTimestampColumn) {
+			return getBucketColumn();
+		}
+		final String fieldFormat = aggregationExec.getIndexFieldMappingService()
+				.getFirstFieldMappingFormat(aggregationExec.getIndices(), aggregationExec.getTypes(), fieldName);
+		return "(" + getActualColumn(fieldType, fieldFormat) + ")::bigint";
+	}
+
+	private static String getBucketKeyExpression(String bucketValueColumn, long bucketInterval) {
+		return "(" + bucketValueColumn + " - (" + bucketValueColumn + " % " + bucketInterval + "))";
 	}
 
 	private String getBucketColumn() {
@@ -236,23 +284,23 @@ public class DateHistogramAggregation extends BucketAggregation {
 		case "date":
 			switch (fieldFormat) {
 			case "epoch_millis":
-				result.append("(_source->>'");
-				result.append(fieldName);
-				result.append("')::bigint");
+				result.append("(_source->>");
+				result.append(SqlTemplateUtils.quoteLiteral(fieldName));
+				result.append(")::bigint");
 				break;
 			default:
 				result.append("EXTRACT(EPOCH FROM TIMESTAMP ");
-				result.append("cast(_source->>'");
-				result.append(fieldName);
-				result.append("' as TIMESTAMP)");
+				result.append("cast(_source->>");
+				result.append(SqlTemplateUtils.quoteLiteral(fieldName));
+				result.append(" as TIMESTAMP)");
 				result.append(") * 1000");
 				break;
 			}
 			break;
 		case "long":
-			result.append("(_source->>'");
-			result.append(fieldName);
-			result.append("')::bigint");
+			result.append("(_source->>");
+			result.append(SqlTemplateUtils.quoteLiteral(fieldName));
+			result.append(")::bigint");
 			break;
 		default:
 			throw new InvalidAggregationFieldType(EXPECTED_FIELD_TYPES, fieldType);
@@ -260,6 +308,35 @@ public class DateHistogramAggregation extends BucketAggregation {
 		return result.toString();
 	}
 
+	/**
+	 * Appends the query computing the buckets, grouped by the parent bucket key first if a
+	 * parent bucket expression is given
+	 */
+	private void appendBucketQuery(AggregationExec aggregationExec, PsqlQueryComponents queryComponents,
+			String parentBucketExpression, String bucketValueColumn, long bucketInterval,
+			List<Aggregation> groupedAggregations, StringBuilder bucketQueryBuilder) {
+		bucketQueryBuilder.append("SELECT ");
+		if (parentBucketExpression != null) {
+			bucketQueryBuilder.append(parentBucketExpression);
+			bucketQueryBuilder.append(" AS elefana_agg_parent, ");
+		}
+		bucketQueryBuilder.append(getBucketKeyExpression(bucketValueColumn, bucketInterval));
+		bucketQueryBuilder.append(" AS elefana_agg_bucket, COUNT(_id) AS elefana_agg_doc_count");
+		for (int i = 0; i < groupedAggregations.size(); i++) {
+			bucketQueryBuilder.append(", ");
+			bucketQueryBuilder.append(groupedAggregations.get(i).getGroupedSqlExpression());
+			bucketQueryBuilder.append(" AS elefana_agg_sub_");
+			bucketQueryBuilder.append(i);
+		}
+		appendFromAndWhereClause(aggregationExec, queryComponents, bucketQueryBuilder);
+		if (parentBucketExpression != null) {
+			bucketQueryBuilder.append(" GROUP BY elefana_agg_parent, elefana_agg_bucket");
+			bucketQueryBuilder.append(" ORDER BY elefana_agg_parent ASC, elefana_agg_bucket ASC");
+		} else {
+			bucketQueryBuilder.append(" GROUP BY elefana_agg_bucket ORDER BY elefana_agg_bucket ASC");
+		}
+	}
+
 	private long getBucketInterval() {
 		final long bucketInterval;
 		switch (interval) {
@@ -302,48 +379,6 @@ public class DateHistogramAggregation extends BucketAggregation {
 		return bucketInterval;
 	}
 
-	private void generateDistinctBucketQueryUsingTimestampField(AggregationExec aggregationExec,
-			StringBuilder distinctBucketQueryBuilder) {
-		final PsqlQueryComponents queryComponents = aggregationExec.getQueryComponents();
-		distinctBucketQueryBuilder.append("SELECT DISTINCT(");
-
-		distinctBucketQueryBuilder.append(getBucketColumn());
-		distinctBucketQueryBuilder.append(')');
-		distinctBucketQueryBuilder.append(" FROM ");
-		distinctBucketQueryBuilder.append(queryComponents.getFromComponent());
-
-		if (!aggregationExec.getNodeSettingsService().isUsingCitus()) {
-			queryComponents.appendWhere(distinctBucketQueryBuilder);
-		} else {
-			distinctBucketQueryBuilder.append(" AS ");
-			distinctBucketQueryBuilder.append("hit_results");
-		}
-	}
-
-	private void generateDistinctBucketQueryUsingActualField(AggregationExec aggregationExec,
-			StringBuilder distinctBucketQueryBuilder, final String fieldType, final String fieldFormat)
-			throws InvalidAggregationFieldType {
-		final PsqlQueryComponents queryComponents = aggregationExec.getQueryComponents();
-		distinctBucketQueryBuilder.append("SELECT DISTINCT(elefana_agg_bucket) FROM (");
-
-		final long bucketInterval = getBucketInterval();
-
-		distinctBucketQueryBuilder
-				.append("SELECT (bucketValue - (bucketValue % " + bucketInterval + ")) AS elefana_agg_bucket FROM (");
-		distinctBucketQueryBuilder.append("SELECT ");
-		distinctBucketQueryBuilder.append(getActualColumn(fieldType, fieldFormat));
-		distinctBucketQueryBuilder.append(" AS bucketValue FROM ");
-		distinctBucketQueryBuilder.append(queryComponents.getFromComponent());
-		if (!aggregationExec.getNodeSettingsService().isUsingCitus()) {
-			aggregationExec.getQueryComponents().appendWhere(distinctBucketQueryBuilder);
-		} else {
-			distinctBucketQueryBuilder.append(" AS ");
-			distinctBucketQueryBuilder.append("hit_results");
-		}
-		distinctBucketQueryBuilder.append(") AS bucketResults");
-		distinctBucketQueryBuilder.append(") AS aggResults");
-	}
-
 	@Override
 	public String getAggregationName() {
 		return aggregationName;
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search.agg;
+
+import com.elefana.api.indices.IndexRollupSettings;
+import com.elefana.api.indices.IndexTemplate;
+import com.elefana.api.json.JsonUtils;
+import com.elefana.document.psql.PsqlRollupMaintainer;
+import com.elefana.search.query.Query;
+import com.elefana.util.IndexUtils;
+import com.elefana.util.SqlTemplateUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Builds date histogram queries against the per-minute rollups maintained by
+ * {@link PsqlRollupMaintainer}. Whole minutes within the query's timestamp range
+ * are read from the rollup table, partial minutes at the edges of the range from
+ * the documents themselves.
+ */
+public class DateHistogramRollupQuery {
+	private static final long ONE_MINUTE_IN_MILLIS = 60000L;
+
+	private final long bucketInterval;
+	private final List<Aggregation> groupedAggregations;
+	private final List<String> fields = new ArrayList<String>();
+
+	private Long rollupFrom, rollupTo;
+
+	private DateHistogramRollupQuery(long bucketInterval, List<Aggregation> groupedAggregations) {
+		super();
+		this.bucketInterval = bucketInterval;
+		this.groupedAggregations = groupedAggregations;
+	}
+
+	/**
+	 * Returns the rollup query for a date histogram if the rollups can answer it
+	 * @param aggregationExec The date histogram execution
+	 * @param bucketInterval The histogram interval in milliseconds
+	 * @param groupedAggregations The sub-aggregations computed per bucket
+	 * @return Null if the histogram must be computed from the documents
+	 */
+	public static String toSqlQuery(AggregationExec aggregationExec, long bucketInterval,
+	                                List<Aggregation> groupedAggregations) {
+		final IndexTemplate indexTemplate = aggregationExec.getIndexTemplate();
+		if(!PsqlRollupMaintainer.isRollupEnabled(indexTemplate)) {
+			return null;
+		}
+		if(bucketInterval <= 0 || bucketInterval % ONE_MINUTE_IN_MILLIS != 0) {
+			return null;
+		}
+		if(!IndexUtils.isTypesEmpty(aggregationExec.getTypes()) || aggregationExec.getIndices().isEmpty()) {
+			return null;
+		}
+		if(!isTopLevelAggregation(aggregationExec)) {
+			return null;
+		}
+		final Query query = aggregationExec.getRequestBodySearch().getQuery();
+		if(!query.isTimestampRangeOnly(indexTemplate)) {
+			return null;
+		}
+
+		final DateHistogramRollupQuery result = new DateHistogramRollupQuery(bucketInterval, groupedAggregations);
+		if(!result.setFields(indexTemplate.getStorage().getRollupSettings())) {
+			return null;
+		}
+		if(!result.setRange(query.getTimestampRange(indexTemplate))) {
+			return null;
+		}
+		if(!result.isTracked(aggregationExec)) {
+			return null;
+		}
+		return result.toSqlQuery(aggregationExec);
+	}
+
+	private static boolean isTopLevelAggregation(AggregationExec aggregationExec) {
+		// Nested histograms are restricted to their parent's bucket which the rollups do not track
+		for(Aggregation aggregation : aggregationExec.getRequestBodySearch().getAggregations().getSubAggregations()) {
+			if(aggregation == aggregationExec.getAggregation()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean setFields(IndexRollupSettings rollupSettings) {
+		final Set<String> result = new TreeSet<String>();
+		for(Aggregation aggregation : groupedAggregations) {
+			final String fieldName = getFieldName(aggregation);
+			if(fieldName == null || fieldName.indexOf('\'') >= 0 || !rollupSettings.isRollupField(fieldName)) {
+				return false;
+			}
+			result.add(fieldName);
+		}
+		fields.addAll(result);
+		return true;
+	}
+
+	private boolean setRange(long[] timestampRange) {
+		if(timestampRange == null) {
+			return true;
+		}
+		if(timestampRange[0] != Long.MIN_VALUE) {
+			final long remainder = Math.floorMod(timestampRange[0], ONE_MINUTE_IN_MILLIS);
+			rollupFrom = remainder == 0 ? timestampRange[0] : timestampRange[0] - remainder + ONE_MINUTE_IN_MILLIS;
+		}
+		if(timestampRange[1] != Long.MAX_VALUE) {
+			final long end = timestampRange[1] + 1;
+			rollupTo = end - Math.floorMod(end, ONE_MINUTE_IN_MILLIS);
+		}
+		return rollupFrom == null || rollupTo == null || rollupFrom < rollupTo;
+	}
+
+	private boolean isTracked(AggregationExec aggregationExec) {
+		final Set<String> indices = new HashSet<String>(aggregationExec.getIndices());
+		final StringBuilder queryBuilder = new StringBuilder();
+		final List<Object> parameters = new ArrayList<Object>(indices.size() + 1);
+		queryBuilder.append("SELECT _index FROM ");
+		queryBuilder.append(IndexUtils.ROLLUP_TRACKING_TABLE);
+		queryBuilder.append(" WHERE _fields @> ?::jsonb AND _index IN (");
+		parameters.add(JsonUtils.toJsonString(fields));
+		for(String index : indices) {
+			if(parameters.size() > 1) {
+				queryBuilder.append(',');
+			}
+			queryBuilder.append('?');
+			parameters.add(index);
+		}
+		queryBuilder.append(')');
+
+		final List<Map<String, Object>> results = aggregationExec.getJdbcTemplate().queryForList(
+				queryBuilder.toString(), parameters.toArray());
+		return results.size() == indices.size();
+	}
+
+	private String toSqlQuery(AggregationExec aggregationExec) {
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("SELECT (elefana_agg_minute - (elefana_agg_minute % ");
+		queryBuilder.append(bucketInterval);
+		queryBuilder.append(")) AS elefana_agg_bucket, SUM(elefana_agg_doc_count)::bigint AS elefana_agg_doc_count");
+		for(int i = 0; i < groupedAggregations.size(); i++) {
+			final Aggregation aggregation = groupedAggregations.get(i);
+			final int field = fields.indexOf(getFieldName(aggregation));
+			queryBuilder.append(", ");
+			if(aggregation instanceof SumAggregation) {
+				queryBuilder.append("SUM(elefana_agg_sum_" + field + ")");
+			} else if(aggregation instanceof MinAggregation) {
+				queryBuilder.append("MIN(elefana_agg_min_" + field + ")");
+			} else if(aggregation instanceof MaxAggregation) {
+				queryBuilder.append("MAX(elefana_agg_max_" + field + ")");
+			} else {
+				queryBuilder.append("SUM(elefana_agg_sum_" + field + ") / NULLIF(SUM(elefana_agg_count_" + field + "), 0)");
+			}
+			queryBuilder.append(" AS elefana_agg_sub_");
+			queryBuilder.append(i);
+		}
+		queryBuilder.append(" FROM (");
+		appendRollupQuery(aggregationExec, queryBuilder);
+		if(rollupFrom != null || rollupTo != null) {
+			queryBuilder.append(" UNION ALL ");
+			appendEdgeQuery(aggregationExec, queryBuilder);
+		}
+		queryBuilder.append(") AS elefana_agg_rollup GROUP BY elefana_agg_bucket ORDER BY elefana_agg_bucket ASC");
+		return queryBuilder.toString();
+	}
+
+	private void appendRollupQuery(AggregationExec aggregationExec, StringBuilder queryBuilder) {
+		queryBuilder.append("SELECT _bucket1m AS elefana_agg_minute, SUM(_doc_count) FILTER (WHERE _field = '");
+		queryBuilder.append(PsqlRollupMaintainer.DOC_COUNT_FIELD);
+		queryBuilder.append("') AS elefana_agg_doc_count");
+		for(int i = 0; i < fields.size(); i++) {
+			final String filter = " FILTER (WHERE _field = " + SqlTemplateUtils.quoteLiteral(fields.get(i)) + ")";
+			queryBuilder.append(", SUM(_value_count)" + filter + " AS elefana_agg_count_" + i);
+			queryBuilder.append(", SUM(_sum)" + filter + " AS elefana_agg_sum_" + i);
+			queryBuilder.append(", MIN(_min)" + filter + " AS elefana_agg_min_" + i);
+			queryBuilder.append(", MAX(_max)" + filter + " AS elefana_agg_max_" + i);
+		}
+		queryBuilder.append(" FROM ");
+		queryBuilder.append(IndexUtils.ROLLUP_TABLE);
+		queryBuilder.append(" WHERE _index IN (");
+		final Set<String> indices = new HashSet<String>(aggregationExec.getIndices());
+		boolean first = true;
+		for(String index : indices) {
+			if(!first) {
+				queryBuilder.append(',');
+			}
+			queryBuilder.append('\'');
+			queryBuilder.append(index.replace("'", "''"));
+			queryBuilder.append('\'');
+			first = false;
+		}
+		queryBuilder.append(") AND _field IN ('");
+		queryBuilder.append(PsqlRollupMaintainer.DOC_COUNT_FIELD);
+		queryBuilder.append('\'');
+		for(String field : fields) {
+			queryBuilder.append(", '");
+			queryBuilder.append(field);
+			queryBuilder.append('\'');
+		}
+		queryBuilder.append(')');
+		if(rollupFrom != null) {
+			queryBuilder.append(" AND _bucket1m >= ");
+			queryBuilder.append(rollupFrom);
+		}
+		if(rollupTo != null) {
+			queryBuilder.append(" AND _bucket1m < ");
+			queryBuilder.append(rollupTo);
+		}
+		queryBuilder.append(" GROUP BY _bucket1m");
+	}
+
+	private void appendEdgeQuery(AggregationExec aggregationExec, StringBuilder queryBuilder) {
+		queryBuilder.append("SELECT _bucket1m AS elefana_agg_minute, COUNT(_id) AS elefana_agg_doc_count");
+		for(int i = 0; i < fields.size(); i++) {
+			final String expression = IndexUtils.getNumericFieldExpression(fields.get(i));
+			queryBuilder.append(", COUNT(" + expression + ") AS elefana_agg_count_" + i);
+			queryBuilder.append(", SUM(" + expression + ") AS elefana_agg_sum_" + i);
+			queryBuilder.append(", MIN(" + expression + ") AS elefana_agg_min_" + i);
+			queryBuilder.append(", MAX(" + expression + ") AS elefana_agg_max_" + i);
+		}
+		final boolean appendedWhere = Aggregation.appendFromAndWhereClause(aggregationExec,
+				aggregationExec.getQueryComponents(), queryBuilder);
+		queryBuilder.append(appendedWhere ? " AND (" : " WHERE (");
+		if(rollupFrom != null) {
+			queryBuilder.append("_timestamp < ");
+			queryBuilder.append(rollupFrom);
+		}
+		if(rollupTo != null) {
+			if(rollupFrom != null) {
+				queryBuilder.append(" OR ");
+			}
+			queryBuilder.append("_timestamp >= ");
+			queryBuilder.append(rollupTo);
+		}
+		queryBuilder.append(") GROUP BY _bucket1m");
+	}
+
+	private static String getFieldName(Aggregation aggregation) {
+		if(aggregation instanceof SumAggregation) {
+			return ((SumAggregation) aggregation).getFieldName();
+		} else if(aggregation instanceof MinAggregation) {
+			return ((MinAggregation) aggregation).getFieldName();
+		} else if(aggregation instanceof MaxAggregation) {
+			return ((MaxAggregation) aggregation).getFieldName();
+		} else if(aggregation instanceof AvgAggregation) {
+			return ((AvgAggregation) aggregation).getFieldName();
+		}
+		return null;
+	}
+}
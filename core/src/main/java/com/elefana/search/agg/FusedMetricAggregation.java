@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search.agg;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes sibling metric aggregations of the same filter context with a
+ * single scan instead of one query per aggregation
+ */
+public class FusedMetricAggregation extends Aggregation {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FusedMetricAggregation.class);
+
+	private static final String AGGREGATION_NAME = "elefana_fused_metrics";
+
+	private final List<Aggregation> aggregations;
+
+	private FusedMetricAggregation(List<Aggregation> aggregations) {
+		super();
+		this.aggregations = aggregations;
+	}
+
+	/**
+	 * Replaces sibling metric aggregations with a single fused aggregation
+	 * @param aggregations The sibling aggregations
+	 * @return The aggregations to execute
+	 */
+	public static List<Aggregation> plan(List<Aggregation> aggregations) {
+		final List<Aggregation> metricAggregations = new ArrayList<Aggregation>();
+		final List<Aggregation> result = new ArrayList<Aggregation>();
+		for (Aggregation aggregation : aggregations) {
+			if (aggregation.getMetricSqlExpressions() != null) {
+				metricAggregations.add(aggregation);
+			} else {
+				result.add(aggregation);
+			}
+		}
+		if (metricAggregations.size() < 2) {
+			return aggregations;
+		}
+		result.add(0, new FusedMetricAggregation(metricAggregations));
+		return result;
+	}
+
+	@Override
+	public void executeSqlQuery(AggregationExec aggregationExec) {
+		executeFusedSqlQuery(aggregationExec, aggregations);
+	}
+
+	public static void executeFusedSqlQuery(AggregationExec aggregationExec, List<Aggregation> aggregations) {
+		final List<Map<String, String>> metricSqlExpressions = new ArrayList<Map<String, String>>(aggregations.size());
+
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("SELECT ");
+		for (int i = 0; i < aggregations.size(); i++) {
+			final Map<String, String> sqlExpressions = aggregations.get(i).getMetricSqlExpressions();
+			metricSqlExpressions.add(sqlExpressions);
+
+			int j = 0;
+			for (String sqlExpression : sqlExpressions.values()) {
+				if (i > 0 || j > 0) {
+					queryBuilder.append(", ");
+				}
+				queryBuilder.append(sqlExpression);
+				queryBuilder.append(" AS elefana_agg_metric_");
+				queryBuilder.append(i);
+				queryBuilder.append('_');
+				queryBuilder.append(j);
+				j++;
+			}
+		}
+		queryBuilder.append(" FROM ");
+		queryBuilder.append(aggregationExec.getQueryComponents().getFromComponent());
+		if (!aggregationExec.getNodeSettingsService().isUsingCitus()) {
+			aggregationExec.getQueryComponents().appendWhere(queryBuilder);
+		} else {
+			queryBuilder.append(" AS ");
+			queryBuilder.append("hit_results");
+		}
+
+		LOGGER.info(queryBuilder.toString());
+		final Map<String, Object> row = aggregationExec.getJdbcTemplate().queryForList(queryBuilder.toString()).get(0);
+
+		for (int i = 0; i < aggregations.size(); i++) {
+			final Map<String, Object> result = new HashMap<String, Object>();
+			int j = 0;
+			for (String key : metricSqlExpressions.get(i).keySet()) {
+				result.put(key, row.get("elefana_agg_metric_" + i + "_" + j));
+				j++;
+			}
+			aggregationExec.getAggregationsResult().put(aggregations.get(i).getAggregationName(), result);
+		}
+	}
+
+	@Override
+	public String getAggregationName() {
+		return AGGREGATION_NAME;
+	}
+
+	@Override
+	public List<Aggregation> getSubAggregations() {
+		return EMPTY_AGGREGATION_LIST;
+	}
+}
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package com.elefana.search.agg;
 
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.HashMap;
@@ -43,7 +44,7 @@ public class MinAggregation extends Aggregation {
 	
 	public static Object getMin(AggregationExec aggregationExec, String fieldName) {
 		final StringBuilder queryBuilder = new StringBuilder();
-		queryBuilder.append("SELECT min((_source->>'" + fieldName + "')::numeric) AS ");
+		queryBuilder.append("SELECT min((_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric) AS ");
 		queryBuilder.append(aggregationExec.getAggregation().getAggregationName());
 		queryBuilder.append(" FROM ");
 		queryBuilder.append(aggregationExec.getQueryComponents().getFromComponent());
@@ -59,10 +60,19 @@ public class MinAggregation extends Aggregation {
 		return resultSet.get(0).get(aggregationExec.getAggregation().getAggregationName());
 	}
 
+	@Override
+	public String getGroupedSqlExpression() {
+		return "min((_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric)";
+	}
+
 	@Override
 	public String getAggregationName() {
 		return aggregationName;
 	}
+
+	public String getFieldName() {
+		return fieldName;
+	}
 	
 	@Override
 	public List<Aggregation> getSubAggregations() {
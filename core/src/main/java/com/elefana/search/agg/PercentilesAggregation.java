@@ -15,22 +15,40 @@
  ******************************************************************************/
 package com.elefana.search.agg;
 
+import com.elefana.api.exception.ElefanaException;
+import com.elefana.api.exception.ShardFailedException;
+import com.elefana.search.agg.sketch.TDigest;
+import com.elefana.util.IndexUtils;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Estimates percentiles with a t-digest built from a single pass over the field.
+ * Setting "exact" to true computes the percentiles in the database instead.
+ */
 public class PercentilesAggregation extends Aggregation {
 	private static final String KEY_FIELD = "field";
 	private static final String KEY_PERCENTS = "percents";
+	private static final String KEY_TDIGEST = "tdigest";
+	private static final String KEY_COMPRESSION = "compression";
+	private static final String KEY_EXACT = "exact";
 	
 	public static final double [] DEFAULT_PERCENTS = new double [] { 1, 5, 25, 50, 75, 95, 99 };
 	
 	private final String aggregationName;
 	private final String fieldName;
 	private final double [] percents;
+	private final double compression;
+	private final boolean exact;
 	
 	public PercentilesAggregation(String aggregationName, JsonNode context) {
 		super();
@@ -46,13 +64,22 @@ public class PercentilesAggregation extends Aggregation {
 		} else {
 			percents = DEFAULT_PERCENTS;
 		}
+
+		if(context.has(KEY_TDIGEST) && context.get(KEY_TDIGEST).has(KEY_COMPRESSION)) {
+			compression = context.get(KEY_TDIGEST).get(KEY_COMPRESSION).asDouble(TDigest.DEFAULT_COMPRESSION);
+		} else {
+			compression = TDigest.DEFAULT_COMPRESSION;
+		}
+		exact = context.has(KEY_EXACT) && context.get(KEY_EXACT).asBoolean();
 	}
 
 	@Override
-	public void executeSqlQuery(AggregationExec aggregationExec) {
+	public void executeSqlQuery(AggregationExec aggregationExec) throws ElefanaException {
+		final Object [] percentiles = exact ? getExactPercentiles(aggregationExec) : getApproximatePercentiles(aggregationExec);
+
 		Map<String, Object> values = new LinkedHashMap<String, Object>();
 		for(int i = 0; i < percents.length; i++) {
-			values.put(String.valueOf(percents[i]), getPercentile(aggregationExec, fieldName, percents[i]));
+			values.put(String.valueOf(percents[i]), percentiles[i]);
 		}
 		
 		Map<String, Object> result = new HashMap<String, Object>();
@@ -60,13 +87,63 @@ public class PercentilesAggregation extends Aggregation {
 
 		aggregationExec.getAggregationsResult().put(aggregationExec.getAggregation().getAggregationName(), result);
 	}
+
+	private Object [] getApproximatePercentiles(AggregationExec aggregationExec) throws ElefanaException {
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("SELECT ");
+		queryBuilder.append(IndexUtils.getNumericFieldExpression(fieldName));
+		queryBuilder.append("::double precision AS elefana_agg_value");
+		appendFromClause(aggregationExec, queryBuilder);
+
+		final TDigest digest = new TDigest(compression);
+		streamSqlQuery(aggregationExec, queryBuilder.toString(), new RowCallbackHandler() {
+
+			@Override
+			public void processRow(ResultSet resultSet) throws SQLException {
+				final double value = resultSet.getDouble(1);
+				if(!resultSet.wasNull()) {
+					digest.add(value);
+				}
+			}
+		});
+
+		final Object [] result = new Object[percents.length];
+		if(digest.getTotalWeight() <= 0.0) {
+			return result;
+		}
+		for(int i = 0; i < percents.length; i++) {
+			result[i] = digest.quantile(percents[i] / 100.0);
+		}
+		return result;
+	}
 	
-	public static Object getPercentile(AggregationExec aggregationExec, String fieldName, double percentile) {
+	private Object [] getExactPercentiles(AggregationExec aggregationExec) throws ElefanaException {
 		final StringBuilder queryBuilder = new StringBuilder();
-		queryBuilder.append("SELECT percentile_disc(");
-		queryBuilder.append(String.format("%1$f", percentile / 100f));
-		queryBuilder.append(") WITHIN GROUP (ORDER BY (_source->>'" + fieldName + "')::numeric) AS ");
+		queryBuilder.append("SELECT percentile_disc(ARRAY[");
+		for(int i = 0; i < percents.length; i++) {
+			if(i > 0) {
+				queryBuilder.append(',');
+			}
+			queryBuilder.append(String.format("%1$f", percents[i] / 100f));
+		}
+		queryBuilder.append("]::double precision[]) WITHIN GROUP (ORDER BY (_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric) AS ");
 		queryBuilder.append(aggregationExec.getAggregation().getAggregationName());
+		appendFromClause(aggregationExec, queryBuilder);
+		
+		List<Map<String, Object>> resultSet = aggregationExec.getJdbcTemplate()
+				.queryForList(queryBuilder.toString());
+		final Object percentiles = resultSet.get(0).get(aggregationExec.getAggregation().getAggregationName());
+		if(percentiles == null) {
+			return new Object[percents.length];
+		}
+		try {
+			return (Object []) ((Array) percentiles).getArray();
+		} catch (SQLException e) {
+			throw new ShardFailedException(e);
+		}
+	}
+
+	private void appendFromClause(AggregationExec aggregationExec, StringBuilder queryBuilder) {
 		queryBuilder.append(" FROM ");
 		queryBuilder.append(aggregationExec.getQueryComponents().getFromComponent());
 		if (!aggregationExec.getNodeSettingsService().isUsingCitus()) {
@@ -75,10 +152,6 @@ public class PercentilesAggregation extends Aggregation {
 			queryBuilder.append(" AS ");
 			queryBuilder.append("hit_results");
 		}
-		
-		List<Map<String, Object>> resultSet = aggregationExec.getJdbcTemplate()
-				.queryForList(queryBuilder.toString());
-		return resultSet.get(0).get(aggregationExec.getAggregation().getAggregationName());
 	}
 
 	@Override
@@ -17,6 +17,7 @@ package com.elefana.search.agg;
 
 import com.elefana.api.exception.ElefanaException;
 import com.elefana.search.PsqlQueryComponents;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -85,7 +86,7 @@ public class RangeAggregation extends BucketAggregation {
 		
 		for(Range range : ranges) {
 			final String rangeTableName = AGGREGATION_TABLE_PREFIX + aggregationExec.getRequestBodySearch().hashCode() + "_" + fieldName + "_" + range.toString();
-			final Map<String, Object> bucket = new HashMap<String, Object>();
+			final Map<String, Object> bucket = createBucket(range);
 			
 			final StringBuilder queryBuilder = new StringBuilder();
 			if(aggregationExec.getAggregation().getSubAggregations().isEmpty()) {
@@ -109,48 +110,7 @@ public class RangeAggregation extends BucketAggregation {
 				queryBuilder.append(" AND ");
 			}
 			
-			if(range.doubleFrom != null) {
-				bucket.put("from", range.doubleFrom);
-				
-				queryBuilder.append("_source->>'");
-				queryBuilder.append(fieldName);
-				queryBuilder.append("' >= '");
-				queryBuilder.append(range.doubleFrom);
-				queryBuilder.append("'");
-				
-				if(range.doubleTo != null || range.longTo != null) {
-					queryBuilder.append(" AND ");
-				}
-			} else if(range.longFrom != null) {
-				bucket.put("from", range.longFrom);
-				
-				queryBuilder.append("_source->>'");
-				queryBuilder.append(fieldName);
-				queryBuilder.append("' >= '");
-				queryBuilder.append(range.longFrom);
-				queryBuilder.append("'");
-				
-				if(range.doubleTo != null || range.longTo != null) {
-					queryBuilder.append(" AND ");
-				}
-			}
-			if(range.doubleTo != null) {
-				bucket.put("to", range.doubleTo);
-				
-				queryBuilder.append("_source->>'");
-				queryBuilder.append(fieldName);
-				queryBuilder.append("' < '");
-				queryBuilder.append(range.doubleTo);
-				queryBuilder.append("'");
-			} else if(range.longTo != null) {
-				bucket.put("to", range.longTo);
-				
-				queryBuilder.append("_source->>'");
-				queryBuilder.append(fieldName);
-				queryBuilder.append("' < '");
-				queryBuilder.append(range.longTo);
-				queryBuilder.append("'");
-			}
+			appendRangeCondition(queryBuilder, range);
 			
 			if(!aggregationExec.getAggregation().getSubAggregations().isEmpty()) {
 				queryBuilder.append(")");
@@ -164,7 +124,7 @@ public class RangeAggregation extends BucketAggregation {
 				Map<String, Object> aggResult = aggregationExec.getJdbcTemplate().queryForMap("SELECT COUNT(*) FROM " + rangeTableName);
 				bucket.put("doc_count", aggResult.get("count"));
 				
-				for(Aggregation aggregation : aggregationExec.getAggregation().getSubAggregations()) {
+				for(Aggregation aggregation : FusedMetricAggregation.plan(aggregationExec.getAggregation().getSubAggregations())) {
 					PsqlQueryComponents queryComponents = new PsqlQueryComponents(rangeTableName, "", "", "");
 					aggregation.executeSqlQuery(aggregationExec, queryComponents, aggregationExec.getSearchResponse(), bucket);
 				}
@@ -180,6 +140,118 @@ public class RangeAggregation extends BucketAggregation {
 		aggregationExec.getAggregationsResult().put(aggregationExec.getAggregation().getAggregationName(), result);
 	}
 
+	@Override
+	public boolean executeGroupedSqlQuery(AggregationExec parentExec, String parentBucketExpression,
+			Map<Long, Map<String, Object>> parentBuckets) throws ElefanaException {
+		final List<Aggregation> groupedAggregations = getGroupedSubAggregations();
+		if(groupedAggregations == null) {
+			return false;
+		}
+		
+		final Map<Long, List<Map<String, Object>>> results = new HashMap<Long, List<Map<String, Object>>>();
+		for(Map.Entry<Long, Map<String, Object>> parentBucket : parentBuckets.entrySet()) {
+			final List<Map<String, Object>> buckets = new ArrayList<Map<String, Object>>();
+			for(Range range : ranges) {
+				final Map<String, Object> bucket = createBucket(range);
+				bucket.put("doc_count", 0L);
+				for(Aggregation aggregation : groupedAggregations) {
+					final Map<String, Object> subAggregationResult = new HashMap<String, Object>();
+					subAggregationResult.put("value", null);
+					bucket.put(aggregation.getAggregationName(), subAggregationResult);
+				}
+				buckets.add(bucket);
+			}
+			final Map<String, Object> result = new HashMap<String, Object>();
+			result.put("buckets", buckets);
+			parentBucket.getValue().put(aggregationName, result);
+			results.put(parentBucket.getKey(), buckets);
+		}
+		
+		//Each range is counted for all parent buckets at once
+		int rangeIndex = 0;
+		for(Range range : ranges) {
+			final StringBuilder queryBuilder = new StringBuilder();
+			queryBuilder.append("SELECT ");
+			queryBuilder.append(parentBucketExpression);
+			queryBuilder.append(" AS elefana_agg_parent, COUNT(_id) AS elefana_agg_doc_count");
+			for(int i = 0; i < groupedAggregations.size(); i++) {
+				queryBuilder.append(", ");
+				queryBuilder.append(groupedAggregations.get(i).getGroupedSqlExpression());
+				queryBuilder.append(" AS elefana_agg_sub_");
+				queryBuilder.append(i);
+			}
+			if(appendFromAndWhereClause(parentExec, parentExec.getQueryComponents(), queryBuilder)) {
+				queryBuilder.append(" AND ");
+			} else {
+				queryBuilder.append(" WHERE ");
+			}
+			appendRangeCondition(queryBuilder, range);
+			queryBuilder.append(" GROUP BY elefana_agg_parent");
+			
+			LOGGER.info(queryBuilder.toString());
+			final List<Map<String, Object>> bucketResults = parentExec.getJdbcTemplate()
+					.queryForList(queryBuilder.toString());
+			for(Map<String, Object> bucketResult : bucketResults) {
+				final Long parentBucketKey = getParentBucketKey(bucketResult);
+				final List<Map<String, Object>> buckets = parentBucketKey == null ? null : results.get(parentBucketKey);
+				if(buckets == null) {
+					continue;
+				}
+				final Map<String, Object> bucket = buckets.get(rangeIndex);
+				bucket.put("doc_count", ((Number) bucketResult.get("elefana_agg_doc_count")).longValue());
+				for(int i = 0; i < groupedAggregations.size(); i++) {
+					final Map<String, Object> subAggregationResult = new HashMap<String, Object>();
+					subAggregationResult.put("value", bucketResult.get("elefana_agg_sub_" + i));
+					bucket.put(groupedAggregations.get(i).getAggregationName(), subAggregationResult);
+				}
+			}
+			rangeIndex++;
+		}
+		return true;
+	}
+	
+	private Map<String, Object> createBucket(Range range) {
+		final Map<String, Object> result = new HashMap<String, Object>();
+		if(range.doubleFrom != null) {
+			result.put("from", range.doubleFrom);
+		} else if(range.longFrom != null) {
+			result.put("from", range.longFrom);
+		}
+		if(range.doubleTo != null) {
+			result.put("to", range.doubleTo);
+		} else if(range.longTo != null) {
+			result.put("to", range.longTo);
+		}
+		return result;
+	}
+	
+	private void appendRangeCondition(StringBuilder queryBuilder, Range range) {
+		final Object from = range.doubleFrom != null ? range.doubleFrom : range.longFrom;
+		final Object to = range.doubleTo != null ? range.doubleTo : range.longTo;
+		if(from == null && to == null) {
+			queryBuilder.append("TRUE");
+			return;
+		}
+		if(from != null) {
+			queryBuilder.append("_source->>");
+			queryBuilder.append(SqlTemplateUtils.quoteLiteral(fieldName));
+			queryBuilder.append(" >= '");
+			queryBuilder.append(from);
+			queryBuilder.append("'");
+			
+			if(to != null) {
+				queryBuilder.append(" AND ");
+			}
+		}
+		if(to != null) {
+			queryBuilder.append("_source->>");
+			queryBuilder.append(SqlTemplateUtils.quoteLiteral(fieldName));
+			queryBuilder.append(" < '");
+			queryBuilder.append(to);
+			queryBuilder.append("'");
+		}
+	}
+
 	@Override
 	public String getAggregationName() {
 		return aggregationName;
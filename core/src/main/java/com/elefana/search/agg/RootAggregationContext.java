@@ -37,7 +37,7 @@ public class RootAggregationContext extends BucketAggregation {
 
 	@Override
 	public void executeSqlQuery(AggregationExec aggregationExec) throws ElefanaException {
-		for (Aggregation aggregation : getSubAggregations()) {
+		for (Aggregation aggregation : FusedMetricAggregation.plan(getSubAggregations())) {
 			aggregation.executeSqlQuery(aggregationExec);
 		}
 	}
@@ -45,7 +45,7 @@ public class RootAggregationContext extends BucketAggregation {
 	@Override
 	public void executeSqlQuery(AggregationExec parentExec, PsqlQueryComponents queryComponents,
 			SearchResponse searchResponse, Map<String, Object> aggregationsResult) throws ElefanaException {
-		for (Aggregation aggregation : subaggregations) {
+		for (Aggregation aggregation : FusedMetricAggregation.plan(subaggregations)) {
 			aggregation.executeSqlQuery(parentExec, queryComponents, searchResponse, aggregationsResult);
 		}
 	}
@@ -56,7 +56,7 @@ public class RootAggregationContext extends BucketAggregation {
 			NodeSettingsService nodeSettingsService, PsqlIndexFieldMappingService indexFieldMappingService,
 			PsqlQueryComponents queryComponents, SearchResponse searchResponse, Map<String, Object> aggregationsResult,
 			RequestBodySearch requestBodySearch) throws ElefanaException {
-		for (Aggregation aggregation : subaggregations) {
+		for (Aggregation aggregation : FusedMetricAggregation.plan(subaggregations)) {
 			aggregation.executeSqlQuery(executorService, queryFutures, indexTemplate, indices, types, jdbcTemplate,
 					nodeSettingsService, indexFieldMappingService, queryComponents, searchResponse, aggregationsResult,
 					requestBodySearch);
@@ -15,9 +15,11 @@
  ******************************************************************************/
 package com.elefana.search.agg;
 
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -35,14 +37,18 @@ public class StatsAggregation extends Aggregation {
 
 	@Override
 	public void executeSqlQuery(AggregationExec aggregationExec) {
-		Map<String, Object> result = new HashMap<String, Object>();
-		result.put("avg", AvgAggregation.getAvg(aggregationExec, fieldName));
-		result.put("min", MinAggregation.getMin(aggregationExec, fieldName));
-		result.put("max", MaxAggregation.getMax(aggregationExec, fieldName));
-		result.put("sum", SumAggregation.getSum(aggregationExec, fieldName));
-		result.put("count", ValueCountAggregation.getCount(aggregationExec, fieldName));
+		FusedMetricAggregation.executeFusedSqlQuery(aggregationExec, Collections.<Aggregation>singletonList(this));
+	}
 
-		aggregationExec.getAggregationsResult().put(aggregationExec.getAggregation().getAggregationName(), result);
+	@Override
+	public Map<String, String> getMetricSqlExpressions() {
+		final Map<String, String> result = new LinkedHashMap<String, String>();
+		result.put("avg", "avg((_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric)");
+		result.put("min", "min((_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric)");
+		result.put("max", "max((_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric)");
+		result.put("sum", "sum((_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric)");
+		result.put("count", "COUNT(_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")");
+		return result;
 	}
 
 	@Override
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package com.elefana.search.agg;
 
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,7 +48,7 @@ public class SumAggregation extends Aggregation {
 	
 	public static Object getSum(AggregationExec aggregationExec, String fieldName) {
 		final StringBuilder queryBuilder = new StringBuilder();
-		queryBuilder.append("SELECT sum((_source->>'" + fieldName + "')::numeric) AS ");
+		queryBuilder.append("SELECT sum((_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric) AS ");
 		queryBuilder.append(aggregationExec.getAggregation().getAggregationName());
 		queryBuilder.append(" FROM ");
 		queryBuilder.append(aggregationExec.getQueryComponents().getFromComponent());
@@ -63,10 +64,19 @@ public class SumAggregation extends Aggregation {
 		return resultSet.get(0).get(aggregationExec.getAggregation().getAggregationName());
 	}
 
+	@Override
+	public String getGroupedSqlExpression() {
+		return "sum((_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric)";
+	}
+
 	@Override
 	public String getAggregationName() {
 		return aggregationName;
 	}
+
+	public String getFieldName() {
+		return fieldName;
+	}
 	
 	@Override
 	public List<Aggregation> getSubAggregations() {
@@ -0,0 +1,317 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search.agg;
+
+import com.elefana.api.exception.ElefanaException;
+import com.elefana.api.json.JsonUtils;
+import com.elefana.search.PsqlQueryComponents;
+import com.elefana.util.SqlTemplateUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TermsAggregation extends BucketAggregation {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TermsAggregation.class);
+
+	private static final String KEY_FIELD = "field";
+	private static final String KEY_SIZE = "size";
+	private static final String KEY_MIN_DOC_COUNT = "min_doc_count";
+
+	private static final int DEFAULT_SIZE = 10;
+	private static final long DEFAULT_MIN_DOC_COUNT = 1L;
+
+	private final String aggregationName;
+	private final String fieldName;
+	private final int size;
+	private final long minDocCount;
+
+	public TermsAggregation(String aggregationName, JsonNode context) {
+		super();
+		this.aggregationName = aggregationName;
+		this.fieldName = context.get(KEY_FIELD).textValue();
+		this.size = context.has(KEY_SIZE) ? context.get(KEY_SIZE).asInt() : DEFAULT_SIZE;
+		this.minDocCount = context.has(KEY_MIN_DOC_COUNT) ? context.get(KEY_MIN_DOC_COUNT).asLong()
+				: DEFAULT_MIN_DOC_COUNT;
+	}
+
+	@Override
+	public void executeSqlQuery(AggregationExec aggregationExec) throws ElefanaException {
+		final Map<String, Object> result = createResult();
+		final List<Map<String, Object>> buckets = (List<Map<String, Object>>) result.get("buckets");
+
+		if (aggregationExec.getSearchResponse().getHits().getTotal() == 0 || size <= 0) {
+			aggregationExec.getAggregationsResult().put(aggregationExec.getAggregation().getAggregationName(), result);
+			return;
+		}
+
+		final PsqlQueryComponents queryComponents = aggregationExec.getQueryComponents();
+		final String keyColumn = getKeyColumn();
+		final boolean isDateField = isDateField(aggregationExec);
+
+		final List<Aggregation> groupedAggregations = new ArrayList<Aggregation>();
+		final List<Aggregation> perBucketAggregations = new ArrayList<Aggregation>();
+		for (Aggregation aggregation : aggregationExec.getAggregation().getSubAggregations()) {
+			if (aggregation.getGroupedSqlExpression() != null) {
+				groupedAggregations.add(aggregation);
+			} else {
+				perBucketAggregations.add(aggregation);
+			}
+		}
+
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("SELECT ");
+		appendBucketColumns(queryBuilder, isDateField, groupedAggregations);
+		// Keys are grouped as jsonb so that numbers and booleans keep their type. The total is
+		// computed before min_doc_count is applied so that sum_other_doc_count covers every document.
+		queryBuilder.append(" FROM (SELECT ");
+		queryBuilder.append(keyColumn);
+		queryBuilder.append(" AS elefana_agg_key, COUNT(_id) AS elefana_agg_doc_count");
+		queryBuilder.append(", SUM(COUNT(_id)) OVER () AS elefana_agg_total_count");
+		appendGroupedExpressions(queryBuilder, groupedAggregations);
+		appendFromAndFieldWhereClause(aggregationExec, queryBuilder);
+		queryBuilder.append(" GROUP BY elefana_agg_key) AS elefana_agg_terms");
+		if (minDocCount > 1) {
+			queryBuilder.append(" WHERE elefana_agg_doc_count >= ");
+			queryBuilder.append(minDocCount);
+		}
+		queryBuilder.append(" ORDER BY elefana_agg_doc_count DESC, elefana_agg_key ASC LIMIT ");
+		queryBuilder.append(size);
+
+		LOGGER.info(queryBuilder.toString());
+		final List<Map<String, Object>> bucketResults = aggregationExec.getJdbcTemplate()
+				.queryForList(queryBuilder.toString());
+
+		long totalDocCount = 0L;
+		long bucketsDocCount = 0L;
+
+		for (int i = 0; i < bucketResults.size() && i < size; i++) {
+			final Map<String, Object> bucketResult = bucketResults.get(i);
+			final String bucketKeyJson = (String) bucketResult.get("elefana_agg_key_json");
+			final long docCount = ((Number) bucketResult.get("elefana_agg_doc_count")).longValue();
+			totalDocCount = ((Number) bucketResult.get("elefana_agg_total_count")).longValue();
+			bucketsDocCount += docCount;
+
+			final Map<String, Object> bucket = createBucket(bucketResult, isDateField, groupedAggregations);
+			buckets.add(bucket);
+
+			if (perBucketAggregations.isEmpty()) {
+				continue;
+			}
+
+			final StringBuilder appendedWhereClause = new StringBuilder();
+			if (!aggregationExec.getNodeSettingsService().isUsingCitus()
+					&& !queryComponents.getWhereComponent().isEmpty()) {
+				appendedWhereClause.append(queryComponents.getWhereComponent());
+				appendedWhereClause.append(" AND (");
+			} else {
+				appendedWhereClause.append("(");
+			}
+			appendedWhereClause.append(keyColumn);
+			appendedWhereClause.append(" = '");
+			appendedWhereClause.append(bucketKeyJson.replace("'", "''"));
+			appendedWhereClause.append("'::jsonb)");
+
+			for (Aggregation aggregation : perBucketAggregations) {
+				PsqlQueryComponents subAggregationQueryComponents = new PsqlQueryComponents(
+						new String(queryComponents.getFromComponent()), appendedWhereClause.toString(),
+						new String(queryComponents.getGroupByComponent()), "",
+						new String(queryComponents.getLimitComponent()), queryComponents.getTemporaryTables());
+				aggregation.executeSqlQuery(aggregationExec, subAggregationQueryComponents,
+						aggregationExec.getSearchResponse(), bucket);
+			}
+		}
+		result.put("sum_other_doc_count", Math.max(0L, totalDocCount - bucketsDocCount));
+		aggregationExec.getAggregationsResult().put(aggregationExec.getAggregation().getAggregationName(), result);
+	}
+
+	@Override
+	public boolean executeGroupedSqlQuery(AggregationExec parentExec, String parentBucketExpression,
+			Map<Long, Map<String, Object>> parentBuckets) throws ElefanaException {
+		final List<Aggregation> groupedAggregations = getGroupedSubAggregations();
+		if (groupedAggregations == null) {
+			return false;
+		}
+
+		final Map<Long, Map<String, Object>> results = new HashMap<Long, Map<String, Object>>();
+		for (Map.Entry<Long, Map<String, Object>> parentBucket : parentBuckets.entrySet()) {
+			final Map<String, Object> result = createResult();
+			parentBucket.getValue().put(aggregationName, result);
+			results.put(parentBucket.getKey(), result);
+		}
+		if (size <= 0) {
+			return true;
+		}
+
+		final String keyColumn = getKeyColumn();
+		final boolean isDateField = isDateField(parentExec);
+
+		final StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("SELECT elefana_agg_parent, ");
+		appendBucketColumns(queryBuilder, isDateField, groupedAggregations);
+		// Keys are ranked within their parent bucket so that size and min_doc_count apply per parent bucket
+		queryBuilder.append(" FROM (SELECT ");
+		queryBuilder.append(parentBucketExpression);
+		queryBuilder.append(" AS elefana_agg_parent, ");
+		queryBuilder.append(keyColumn);
+		queryBuilder.append(" AS elefana_agg_key, COUNT(_id) AS elefana_agg_doc_count");
+		queryBuilder.append(", SUM(COUNT(_id)) OVER (PARTITION BY ");
+		queryBuilder.append(parentBucketExpression);
+		queryBuilder.append(") AS elefana_agg_total_count");
+		queryBuilder.append(", ROW_NUMBER() OVER (PARTITION BY ");
+		queryBuilder.append(parentBucketExpression);
+		queryBuilder.append(" ORDER BY COUNT(_id) DESC, ");
+		queryBuilder.append(keyColumn);
+		queryBuilder.append(" ASC) AS elefana_agg_rank");
+		appendGroupedExpressions(queryBuilder, groupedAggregations);
+		appendFromAndFieldWhereClause(parentExec, queryBuilder);
+		queryBuilder.append(" GROUP BY elefana_agg_parent, elefana_agg_key) AS elefana_agg_terms");
+		queryBuilder.append(" WHERE elefana_agg_rank <= ");
+		queryBuilder.append(size);
+		if (minDocCount > 1) {
+			queryBuilder.append(" AND elefana_agg_doc_count >= ");
+			queryBuilder.append(minDocCount);
+		}
+		queryBuilder.append(" ORDER BY elefana_agg_parent ASC, elefana_agg_rank ASC");
+
+		LOGGER.info(queryBuilder.toString());
+		final List<Map<String, Object>> bucketResults = parentExec.getJdbcTemplate()
+				.queryForList(queryBuilder.toString());
+
+		for (Map<String, Object> bucketResult : bucketResults) {
+			final Long parentBucketKey = getParentBucketKey(bucketResult);
+			final Map<String, Object> result = parentBucketKey == null ? null : results.get(parentBucketKey);
+			if (result == null) {
+				continue;
+			}
+			final List<Map<String, Object>> buckets = (List<Map<String, Object>>) result.get("buckets");
+			if (buckets.isEmpty()) {
+				result.put("sum_other_doc_count", ((Number) bucketResult.get("elefana_agg_total_count")).longValue());
+			}
+			final long docCount = ((Number) bucketResult.get("elefana_agg_doc_count")).longValue();
+			result.put("sum_other_doc_count",
+					Math.max(0L, ((Number) result.get("sum_other_doc_count")).longValue() - docCount));
+			buckets.add(createBucket(bucketResult, isDateField, groupedAggregations));
+		}
+		return true;
+	}
+
+	private String getKeyColumn() {
+		return "_source->" + SqlTemplateUtils.quoteLiteral(fieldName);
+	}
+
+	private boolean isDateField(AggregationExec aggregationExec) throws ElefanaException {
+		final String fieldType = aggregationExec.getIndexFieldMappingService()
+				.getFirstFieldMappingType(aggregationExec.getIndices(), aggregationExec.getTypes(), fieldName);
+		return "date".equals(fieldType);
+	}
+
+	private void appendBucketColumns(StringBuilder queryBuilder, boolean isDateField,
+			List<Aggregation> groupedAggregations) {
+		queryBuilder.append("elefana_agg_key::text AS elefana_agg_key_json");
+		if (isDateField) {
+			queryBuilder.append(", CASE WHEN jsonb_typeof(elefana_agg_key) = 'number'");
+			queryBuilder.append(" THEN (elefana_agg_key #>> '{}')::numeric::bigint");
+			queryBuilder.append(" ELSE (EXTRACT(EPOCH FROM cast(elefana_agg_key #>> '{}' as TIMESTAMP)) * 1000)::bigint");
+			queryBuilder.append(" END AS elefana_agg_key_epoch");
+		}
+		queryBuilder.append(", elefana_agg_doc_count, elefana_agg_total_count");
+		for (int i = 0; i < groupedAggregations.size(); i++) {
+			queryBuilder.append(", elefana_agg_sub_");
+			queryBuilder.append(i);
+		}
+	}
+
+	private void appendGroupedExpressions(StringBuilder queryBuilder, List<Aggregation> groupedAggregations) {
+		for (int i = 0; i < groupedAggregations.size(); i++) {
+			queryBuilder.append(", ");
+			queryBuilder.append(groupedAggregations.get(i).getGroupedSqlExpression());
+			queryBuilder.append(" AS elefana_agg_sub_");
+			queryBuilder.append(i);
+		}
+	}
+
+	/**
+	 * Appends the from and where clause of the search restricted to rows with a value for the field
+	 */
+	private void appendFromAndFieldWhereClause(AggregationExec aggregationExec, StringBuilder queryBuilder) {
+		if (appendFromAndWhereClause(aggregationExec, aggregationExec.getQueryComponents(), queryBuilder)) {
+			queryBuilder.append(" AND ");
+		} else {
+			queryBuilder.append(" WHERE ");
+		}
+		queryBuilder.append("_source->>");
+		queryBuilder.append(SqlTemplateUtils.quoteLiteral(fieldName));
+		queryBuilder.append(" IS NOT NULL");
+	}
+
+	private static Map<String, Object> createResult() {
+		final Map<String, Object> result = new HashMap<String, Object>();
+		result.put("doc_count_error_upper_bound", 0);
+		result.put("sum_other_doc_count", 0);
+		result.put("buckets", new ArrayList<Map<String, Object>>());
+		return result;
+	}
+
+	private static Map<String, Object> createBucket(Map<String, Object> bucketResult, boolean isDateField,
+			List<Aggregation> groupedAggregations) {
+		final Map<String, Object> bucket = new ConcurrentHashMap<String, Object>();
+		appendBucketKey(bucket, (String) bucketResult.get("elefana_agg_key_json"),
+				isDateField ? bucketResult.get("elefana_agg_key_epoch") : null);
+		bucket.put("doc_count", ((Number) bucketResult.get("elefana_agg_doc_count")).longValue());
+
+		for (int i = 0; i < groupedAggregations.size(); i++) {
+			final Map<String, Object> subAggregationResult = new HashMap<String, Object>();
+			subAggregationResult.put("value", bucketResult.get("elefana_agg_sub_" + i));
+			bucket.put(groupedAggregations.get(i).getAggregationName(), subAggregationResult);
+		}
+		return bucket;
+	}
+
+	/**
+	 * Writes the bucket key in the form Elasticsearch returns it. Numbers keep their
+	 * type, booleans are keyed 1 or 0 and dates are keyed by epoch millis, both with
+	 * the original value as key_as_string.
+	 */
+	static void appendBucketKey(Map<String, Object> bucket, String bucketKeyJson, Object epochMillis) {
+		final JsonNode keyNode = JsonUtils.extractJsonNode(bucketKeyJson);
+		if (epochMillis != null) {
+			bucket.put("key", ((Number) epochMillis).longValue());
+			bucket.put("key_as_string", keyNode.asText());
+		} else if (keyNode.isBoolean()) {
+			bucket.put("key", keyNode.booleanValue() ? 1L : 0L);
+			bucket.put("key_as_string", keyNode.asText());
+		} else if (keyNode.isIntegralNumber()) {
+			bucket.put("key", keyNode.longValue());
+		} else if (keyNode.isNumber()) {
+			bucket.put("key", keyNode.doubleValue());
+		} else if (keyNode.isTextual()) {
+			bucket.put("key", keyNode.textValue());
+		} else {
+			bucket.put("key", keyNode.toString());
+		}
+	}
+
+	@Override
+	public String getAggregationName() {
+		return aggregationName;
+	}
+}
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package com.elefana.search.agg;
 
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.HashMap;
@@ -46,7 +47,7 @@ public class ValueCountAggregation extends Aggregation {
 	
 	public static Object getCount(AggregationExec aggregationExec, String fieldName) {
 		final StringBuilder queryBuilder = new StringBuilder();
-		queryBuilder.append("SELECT COUNT(_source->>'" + fieldName + "') AS ");
+		queryBuilder.append("SELECT COUNT(_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ") AS ");
 		queryBuilder.append(aggregationExec.getAggregation().getAggregationName());
 		queryBuilder.append(" FROM ");
 		queryBuilder.append(aggregationExec.getQueryComponents().getFromComponent());
@@ -62,6 +63,11 @@ public class ValueCountAggregation extends Aggregation {
 		return resultSet.get(0).get(aggregationExec.getAggregation().getAggregationName());
 	}
 
+	@Override
+	public String getGroupedSqlExpression() {
+		return "COUNT(_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")";
+	}
+
 	@Override
 	public String getAggregationName() {
 		return aggregationName;
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search.agg.sketch;
+
+import net.openhft.hashing.LongHashFunction;
+
+/**
+ * HyperLogLog++ cardinality sketch using 64-bit hashes. Hashes are kept exactly
+ * until more than the precision threshold have been seen, after which they are
+ * folded into 2^precision registers.
+ */
+public class HyperLogLogPlusPlus {
+	public static final int MIN_PRECISION = 4;
+	public static final int MAX_PRECISION = 18;
+	public static final long DEFAULT_PRECISION_THRESHOLD = 3000L;
+	public static final long MAX_PRECISION_THRESHOLD = 40000L;
+
+	private static final double MAX_LOAD_FACTOR = 0.75;
+	private static final LongHashFunction HASH = LongHashFunction.xx();
+	// Empirically determined by the HLL++ paper for precisions 4 to 18
+	private static final long[] LINEAR_COUNTING_THRESHOLDS = new long[] { 10, 20, 40, 80, 220, 400, 900, 1800, 3100,
+			6500, 11500, 20000, 50000, 120000, 350000 };
+
+	private final int precision;
+	private final long precisionThreshold;
+
+	private long[] hashes;
+	private int totalHashes;
+	private byte[] registers;
+
+	public HyperLogLogPlusPlus(long precisionThreshold) {
+		super();
+		this.precisionThreshold = Math.max(0L, Math.min(MAX_PRECISION_THRESHOLD, precisionThreshold));
+		this.precision = precisionFromThreshold(this.precisionThreshold);
+
+		int capacity = 16;
+		while (capacity * MAX_LOAD_FACTOR <= this.precisionThreshold + 1) {
+			capacity <<= 1;
+		}
+		hashes = new long[capacity];
+	}
+
+	public static int precisionFromThreshold(long precisionThreshold) {
+		final long hashTableEntries = (long) Math.ceil(precisionThreshold / MAX_LOAD_FACTOR);
+		final int precision = 64 - Long.numberOfLeadingZeros(hashTableEntries * Integer.BYTES);
+		return Math.max(MIN_PRECISION, Math.min(MAX_PRECISION, precision));
+	}
+
+	public void offer(String value) {
+		offerHash(HASH.hashChars(value));
+	}
+
+	public void offerHash(long hash) {
+		if (registers != null) {
+			updateRegister(hash);
+			return;
+		}
+		// 0 marks empty slots
+		if (hash == 0L) {
+			hash = 1L;
+		}
+		int slot = (int) (hash ^ (hash >>> 32)) & (hashes.length - 1);
+		while (hashes[slot] != 0L) {
+			if (hashes[slot] == hash) {
+				return;
+			}
+			slot = (slot + 1) & (hashes.length - 1);
+		}
+		hashes[slot] = hash;
+		totalHashes++;
+
+		if (totalHashes > precisionThreshold) {
+			convertToRegisters();
+		}
+	}
+
+	public void merge(HyperLogLogPlusPlus sketch) {
+		if (sketch.precision != precision) {
+			throw new IllegalArgumentException("Cannot merge sketches with precision " + precision + " and "
+					+ sketch.precision);
+		}
+		if (sketch.registers == null) {
+			for (long hash : sketch.hashes) {
+				if (hash != 0L) {
+					offerHash(hash);
+				}
+			}
+			return;
+		}
+		if (registers == null) {
+			convertToRegisters();
+		}
+		for (int i = 0; i < registers.length; i++) {
+			registers[i] = (byte) Math.max(registers[i], sketch.registers[i]);
+		}
+	}
+
+	public long cardinality() {
+		if (registers == null) {
+			return totalHashes;
+		}
+		final int totalRegisters = registers.length;
+		double sum = 0.0;
+		int zeroRegisters = 0;
+		for (int i = 0; i < totalRegisters; i++) {
+			sum += 1.0 / (1L << registers[i]);
+			if (registers[i] == 0) {
+				zeroRegisters++;
+			}
+		}
+		if (zeroRegisters > 0) {
+			final double linearCount = totalRegisters * Math.log((double) totalRegisters / zeroRegisters);
+			if (linearCount <= LINEAR_COUNTING_THRESHOLDS[precision - MIN_PRECISION]) {
+				return Math.round(linearCount);
+			}
+		}
+		return Math.round(alpha(totalRegisters) * totalRegisters * totalRegisters / sum);
+	}
+
+	private void convertToRegisters() {
+		registers = new byte[1 << precision];
+		for (long hash : hashes) {
+			if (hash != 0L) {
+				updateRegister(hash);
+			}
+		}
+		hashes = new long[0];
+		totalHashes = 0;
+	}
+
+	private void updateRegister(long hash) {
+		final int register = (int) (hash >>> (64 - precision));
+		final byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+		if (rank > registers[register]) {
+			registers[register] = rank;
+		}
+	}
+
+	private static double alpha(int totalRegisters) {
+		switch (totalRegisters) {
+		case 16:
+			return 0.673;
+		case 32:
+			return 0.697;
+		case 64:
+			return 0.709;
+		default:
+			return 0.7213 / (1.0 + 1.079 / totalRegisters);
+		}
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	public long getPrecisionThreshold() {
+		return precisionThreshold;
+	}
+}
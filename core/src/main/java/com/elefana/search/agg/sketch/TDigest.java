@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search.agg.sketch;
+
+/**
+ * Merging t-digest for estimating quantiles in a single pass. Values are buffered
+ * and periodically merged into centroids sized by the arcsine scale function so
+ * that the tails are kept at a higher resolution than the median.
+ */
+public class TDigest {
+	public static final double DEFAULT_COMPRESSION = 100.0;
+
+	private final double compression;
+	private final double normalizer;
+
+	private double[] means;
+	private double[] weights;
+	private int totalCentroids;
+
+	private final double[] bufferMeans;
+	private final double[] bufferWeights;
+	private int totalBuffered;
+
+	private double totalWeight;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public TDigest(double compression) {
+		super();
+		this.compression = Math.max(20.0, compression);
+		this.normalizer = this.compression / (2.0 * Math.PI);
+
+		final int bufferSize = (int) Math.ceil(this.compression) * 5;
+		means = new double[0];
+		weights = new double[0];
+		bufferMeans = new double[bufferSize];
+		bufferWeights = new double[bufferSize];
+	}
+
+	public void add(double value) {
+		add(value, 1.0);
+	}
+
+	public void add(double value, double weight) {
+		if (Double.isNaN(value) || weight <= 0.0) {
+			return;
+		}
+		if (totalBuffered == bufferMeans.length) {
+			compress();
+		}
+		bufferMeans[totalBuffered] = value;
+		bufferWeights[totalBuffered] = weight;
+		totalBuffered++;
+
+		totalWeight += weight;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	public void merge(TDigest digest) {
+		digest.compress();
+		for (int i = 0; i < digest.totalCentroids; i++) {
+			add(digest.means[i], digest.weights[i]);
+		}
+		if (digest.totalWeight > 0.0) {
+			min = Math.min(min, digest.min);
+			max = Math.max(max, digest.max);
+		}
+	}
+
+	/**
+	 * @param quantile The quantile between 0 and 1
+	 * @return The estimated value at the quantile or NaN if no values were added
+	 */
+	public double quantile(double quantile) {
+		compress();
+		if (totalCentroids == 0) {
+			return Double.NaN;
+		}
+		if (totalCentroids == 1) {
+			return means[0];
+		}
+		final double index = Math.max(0.0, Math.min(1.0, quantile)) * totalWeight;
+
+		final int last = totalCentroids - 1;
+		if (index <= weights[0] / 2.0) {
+			return min + (2.0 * index / weights[0]) * (means[0] - min);
+		}
+		if (index >= totalWeight - weights[last] / 2.0) {
+			return max - (2.0 * (totalWeight - index) / weights[last]) * (max - means[last]);
+		}
+
+		double weightSoFar = weights[0] / 2.0;
+		for (int i = 0; i < last; i++) {
+			final double deltaWeight = (weights[i] + weights[i + 1]) / 2.0;
+			if (weightSoFar + deltaWeight > index) {
+				final double result = means[i] + ((index - weightSoFar) / deltaWeight) * (means[i + 1] - means[i]);
+				return Math.max(min, Math.min(max, result));
+			}
+			weightSoFar += deltaWeight;
+		}
+		return means[last];
+	}
+
+	public void compress() {
+		if (totalBuffered == 0) {
+			return;
+		}
+		final int total = totalCentroids + totalBuffered;
+		final double[] sortedMeans = new double[total];
+		final double[] sortedWeights = new double[total];
+		System.arraycopy(means, 0, sortedMeans, 0, totalCentroids);
+		System.arraycopy(weights, 0, sortedWeights, 0, totalCentroids);
+		System.arraycopy(bufferMeans, 0, sortedMeans, totalCentroids, totalBuffered);
+		System.arraycopy(bufferWeights, 0, sortedWeights, totalCentroids, totalBuffered);
+		sort(sortedMeans, sortedWeights, 0, total - 1);
+		totalBuffered = 0;
+
+		int centroid = 0;
+		double weightSoFar = 0.0;
+		double leftScale = scale(0.0);
+		for (int i = 1; i < total; i++) {
+			final double proposedWeight = sortedWeights[centroid] + sortedWeights[i];
+			if (scale((weightSoFar + proposedWeight) / totalWeight) - leftScale <= 1.0) {
+				sortedMeans[centroid] += (sortedMeans[i] - sortedMeans[centroid]) * sortedWeights[i] / proposedWeight;
+				sortedWeights[centroid] = proposedWeight;
+			} else {
+				weightSoFar += sortedWeights[centroid];
+				leftScale = scale(weightSoFar / totalWeight);
+				centroid++;
+				sortedMeans[centroid] = sortedMeans[i];
+				sortedWeights[centroid] = sortedWeights[i];
+			}
+		}
+		totalCentroids = centroid + 1;
+		means = sortedMeans;
+		weights = sortedWeights;
+	}
+
+	private double scale(double quantile) {
+		return normalizer * Math.asin(2.0 * Math.max(0.0, Math.min(1.0, quantile)) - 1.0);
+	}
+
+	private static void sort(double[] keys, double[] values, int from, int to) {
+		while (from < to) {
+			final double pivot = keys[(from + to) >>> 1];
+			int left = from;
+			int right = to;
+			while (left <= right) {
+				while (keys[left] < pivot) {
+					left++;
+				}
+				while (keys[right] > pivot) {
+					right--;
+				}
+				if (left <= right) {
+					swap(keys, left, right);
+					swap(values, left, right);
+					left++;
+					right--;
+				}
+			}
+			// Recurse into the smaller partition to bound the stack depth
+			if (right - from < to - left) {
+				sort(keys, values, from, right);
+				from = left;
+			} else {
+				sort(keys, values, left, to);
+				to = right;
+			}
+		}
+	}
+
+	private static void swap(double[] array, int i, int j) {
+		final double tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+
+	public double getCompression() {
+		return compression;
+	}
+
+	public double getTotalWeight() {
+		return totalWeight;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+}
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search.psql;
+
+import com.elefana.api.search.ClearScrollRequest;
+import com.elefana.api.search.ClearScrollResponse;
+import com.elefana.api.util.PooledStringBuilder;
+import io.netty.channel.ChannelHandlerContext;
+
+import java.util.concurrent.Callable;
+
+public class PsqlClearScrollRequest extends ClearScrollRequest implements Callable<ClearScrollResponse> {
+	private final PsqlSearchService searchService;
+
+	public PsqlClearScrollRequest(PsqlSearchService searchService, ChannelHandlerContext context,
+	                              PooledStringBuilder requestBody) {
+		super(searchService, context, requestBody);
+		this.searchService = searchService;
+	}
+
+	@Override
+	protected Callable<ClearScrollResponse> internalExecute() {
+		return this;
+	}
+
+	@Override
+	public ClearScrollResponse call() throws Exception {
+		return searchService.clearScroll(scrollId, requestBody);
+	}
+}
@@ -38,12 +38,6 @@ public class PsqlMultiSearchRequest extends MultiSearchRequest implements Callab
 
 	@Override
 	public MultiSearchResponse call() throws Exception {
-		if(fallbackIndex != null && fallbackType != null) {
-			return searchService.multiSearch(context, fallbackIndex, fallbackType, requestBody);
-		} else if(fallbackIndex != null) {
-			return searchService.multiSearch(context, fallbackIndex, requestBody);
-		} else {
-			return searchService.multiSearch(context, requestBody);
-		}
+		return searchService.multiSearch(context, fallbackIndex, fallbackType, requestBody, requestCache);
 	}
 }
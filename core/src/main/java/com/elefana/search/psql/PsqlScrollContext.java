@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search.psql;
+
+import com.elefana.search.PsqlQueryComponents;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds an open server-side cursor over the hits of a scroll search. Each scroll
+ * request continues reading from the cursor instead of re-running the query
+ * with an increasing offset.
+ */
+public class PsqlScrollContext {
+	private final String scrollId;
+	private final PsqlQueryComponents queryComponents;
+	private final int size;
+	private final int totalHits;
+	private final Lock lock = new ReentrantLock();
+
+	private Connection connection;
+	private Statement statement;
+	private ResultSet cursor;
+	private Semaphore connectionPermits;
+	private boolean released;
+
+	private volatile long keepAliveMillis;
+	private volatile long expiryTimestamp;
+
+	public PsqlScrollContext(String scrollId, Connection connection, Statement statement, ResultSet cursor,
+	                         PsqlQueryComponents queryComponents, int size, int totalHits, long keepAliveMillis,
+	                         Semaphore connectionPermits) {
+		super();
+		this.scrollId = scrollId;
+		this.connection = connection;
+		this.statement = statement;
+		this.cursor = cursor;
+		this.connectionPermits = connectionPermits;
+		this.queryComponents = queryComponents;
+		this.size = size;
+		this.totalHits = totalHits;
+		this.keepAliveMillis = keepAliveMillis;
+		touch();
+	}
+
+	/**
+	 * Extends the expiry of this context by its keep alive
+	 */
+	public void touch() {
+		expiryTimestamp = System.currentTimeMillis() + keepAliveMillis;
+	}
+
+	public boolean isExpired(long timestamp) {
+		return timestamp >= expiryTimestamp;
+	}
+
+	public boolean tryLock() {
+		return lock.tryLock();
+	}
+
+	public void lock() {
+		lock.lock();
+	}
+
+	public void unlock() {
+		lock.unlock();
+	}
+
+	/**
+	 * @return True if the cursor was released, i.e. all hits have been read
+	 */
+	public boolean isReleased() {
+		return released;
+	}
+
+	/**
+	 * Closes the cursor and returns the connection and its permit. The context remains
+	 * valid until it expires or is cleared so that subsequent scroll requests return no hits.
+	 */
+	public void releaseCursor() {
+		released = true;
+		if(cursor != null) {
+			try {
+				cursor.close();
+			} catch (SQLException e) {}
+			cursor = null;
+		}
+		if(statement != null) {
+			try {
+				statement.close();
+			} catch (SQLException e) {}
+			statement = null;
+		}
+		if(connection != null) {
+			try {
+				connection.setAutoCommit(true);
+				connection.close();
+			} catch (SQLException e) {}
+			connection = null;
+		}
+		if(connectionPermits != null) {
+			connectionPermits.release();
+			connectionPermits = null;
+		}
+	}
+
+	public String getScrollId() {
+		return scrollId;
+	}
+
+	public ResultSet getCursor() {
+		return cursor;
+	}
+
+	public PsqlQueryComponents getQueryComponents() {
+		return queryComponents;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getTotalHits() {
+		return totalHits;
+	}
+
+	public void setKeepAliveMillis(long keepAliveMillis) {
+		this.keepAliveMillis = keepAliveMillis;
+	}
+}
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search.psql;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.elefana.api.exception.BadRequestException;
+import com.elefana.api.exception.ElefanaException;
+import com.elefana.api.exception.NoSuchScrollContextException;
+import com.elefana.search.PsqlQueryComponents;
+import com.elefana.table.TableGarbageCollector;
+import com.elefana.util.NamedThreadFactory;
+import com.elefana.util.ThreadPriorities;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks open scroll contexts and releases them once their keep alive expires
+ */
+@Service
+public class PsqlScrollContextTracker implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PsqlScrollContextTracker.class);
+	private static final long DEFAULT_MAX_KEEP_ALIVE_MILLIS = TimeUnit.HOURS.toMillis(24L);
+	private static final long EVICTION_INTERVAL_MILLIS = 1000L;
+
+	private final Map<String, PsqlScrollContext> scrollContexts = new ConcurrentHashMap<String, PsqlScrollContext>();
+
+	@Autowired
+	private Environment environment;
+	@Autowired
+	private TableGarbageCollector tableGarbageCollector;
+	@Autowired
+	private MetricRegistry metricRegistry;
+
+	private ScheduledExecutorService scheduledExecutorService;
+	private int maxContexts;
+	private Semaphore contextPermits;
+	private long maxKeepAliveMillis;
+
+	public PsqlScrollContextTracker() {
+		super();
+	}
+
+	PsqlScrollContextTracker(TableGarbageCollector tableGarbageCollector, int maxContexts) {
+		super();
+		this.tableGarbageCollector = tableGarbageCollector;
+		setMaxContexts(maxContexts);
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		maxKeepAliveMillis = environment.getProperty("elefana.service.search.scroll.maxKeepAliveMillis", Long.class, DEFAULT_MAX_KEEP_ALIVE_MILLIS);
+
+		metricRegistry.register(MetricRegistry.name("search", "scroll", "contexts"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return scrollContexts.size();
+			}
+		});
+
+		scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("elefana-scroll-context-tracker", ThreadPriorities.SEARCH_SERVICE));
+		scheduledExecutorService.scheduleAtFixedRate(this, EVICTION_INTERVAL_MILLIS, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		scheduledExecutorService.shutdown();
+
+		try {
+			scheduledExecutorService.awaitTermination(120, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {}
+
+		clearAllScrollContexts();
+	}
+
+	/**
+	 * Sets the max. no. of scroll contexts that may hold a connection at once.
+	 * Configured by the search service from its connection budget.
+	 */
+	public void setMaxContexts(int maxContexts) {
+		this.maxContexts = maxContexts;
+		contextPermits = new Semaphore(maxContexts);
+	}
+
+	/**
+	 * Reserves a scroll context before its connection is acquired. The reservation passes to the
+	 * context opened by {@link #openScrollContext} or must be returned via {@link #cancelScrollContextReservation()}
+	 */
+	public void reserveScrollContext() throws ElefanaException {
+		if(contextPermits.tryAcquire()) {
+			return;
+		}
+		//Expired contexts may still hold their connection
+		run();
+		if(contextPermits.tryAcquire()) {
+			return;
+		}
+		throw new ElefanaException(HttpResponseStatus.TOO_MANY_REQUESTS,
+				"Trying to create too many scroll contexts. Must be less than or equal to: [" + maxContexts + "]");
+	}
+
+	public void cancelScrollContextReservation() {
+		contextPermits.release();
+	}
+
+	/**
+	 * Registers a new scroll context using a reservation from {@link #reserveScrollContext()}. Ownership of
+	 * the connection, statement, cursor and one connection permit passes to the context if this method returns successfully.
+	 */
+	public PsqlScrollContext openScrollContext(Connection connection, Statement statement, ResultSet cursor,
+	                                           PsqlQueryComponents queryComponents, int size, int totalHits,
+	                                           long keepAliveMillis, Semaphore connectionPermits) {
+		final PsqlScrollContext result = new PsqlScrollContext(UUID.randomUUID().toString(), connection, statement,
+				cursor, queryComponents, size, totalHits, keepAliveMillis, connectionPermits);
+		scrollContexts.put(result.getScrollId(), result);
+		return result;
+	}
+
+	public PsqlScrollContext getScrollContext(String scrollId) throws ElefanaException {
+		if(scrollId == null || scrollId.isEmpty()) {
+			throw new BadRequestException();
+		}
+		final PsqlScrollContext result = scrollContexts.get(scrollId);
+		if(result == null) {
+			throw new NoSuchScrollContextException(scrollId);
+		}
+		return result;
+	}
+
+	/**
+	 * @return False if no scroll context existed for the ID
+	 */
+	public boolean clearScrollContext(String scrollId) {
+		final PsqlScrollContext scrollContext = scrollContexts.remove(scrollId);
+		if(scrollContext == null) {
+			return false;
+		}
+		scrollContext.lock();
+		try {
+			releaseScrollContext(scrollContext);
+		} finally {
+			scrollContext.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * @return The number of scroll contexts cleared
+	 */
+	public int clearAllScrollContexts() {
+		final List<String> scrollIds = new ArrayList<String>(scrollContexts.keySet());
+		int result = 0;
+		for(String scrollId : scrollIds) {
+			if(clearScrollContext(scrollId)) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Parses a keep alive time value, e.g. 30s, 1m, 1h
+	 * @return The keep alive in milliseconds, limited to the configured maximum
+	 */
+	public long parseKeepAlive(String keepAlive) throws ElefanaException {
+		if(keepAlive == null || keepAlive.isEmpty()) {
+			throw new BadRequestException();
+		}
+		final long result;
+		try {
+			if(keepAlive.endsWith("ms")) {
+				result = Long.parseLong(keepAlive.substring(0, keepAlive.length() - 2));
+			} else if(keepAlive.endsWith("s")) {
+				result = TimeUnit.SECONDS.toMillis(Long.parseLong(keepAlive.substring(0, keepAlive.length() - 1)));
+			} else if(keepAlive.endsWith("m")) {
+				result = TimeUnit.MINUTES.toMillis(Long.parseLong(keepAlive.substring(0, keepAlive.length() - 1)));
+			} else if(keepAlive.endsWith("h")) {
+				result = TimeUnit.HOURS.toMillis(Long.parseLong(keepAlive.substring(0, keepAlive.length() - 1)));
+			} else if(keepAlive.endsWith("d")) {
+				result = TimeUnit.DAYS.toMillis(Long.parseLong(keepAlive.substring(0, keepAlive.length() - 1)));
+			} else {
+				result = Long.parseLong(keepAlive);
+			}
+		} catch (NumberFormatException e) {
+			throw new BadRequestException();
+		}
+		return Math.min(result, maxKeepAliveMillis);
+	}
+
+	@Override
+	public void run() {
+		final long timestamp = System.currentTimeMillis();
+		for(PsqlScrollContext scrollContext : scrollContexts.values()) {
+			if(!scrollContext.isExpired(timestamp)) {
+				continue;
+			}
+			if(!scrollContext.tryLock()) {
+				//Context is currently being read
+				continue;
+			}
+			try {
+				if(scrollContexts.remove(scrollContext.getScrollId(), scrollContext)) {
+					releaseScrollContext(scrollContext);
+					LOGGER.info("Expired scroll context " + scrollContext.getScrollId());
+				}
+			} finally {
+				scrollContext.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Closes the cursor of a scroll context, returns its reservation and queues its temporary tables for deletion.
+	 * Must be called while holding the context's lock.
+	 */
+	public void releaseScrollContext(PsqlScrollContext scrollContext) {
+		if(scrollContext.isReleased()) {
+			return;
+		}
+		scrollContext.releaseCursor();
+		contextPermits.release();
+		tableGarbageCollector.queueTemporaryTablesForDeletion(scrollContext.getQueryComponents().getTemporaryTables());
+	}
+}
@@ -27,7 +27,12 @@ public class PsqlSearchRequest extends SearchRequest implements Callable<SearchR
 
 	public PsqlSearchRequest(PsqlSearchService searchService, ChannelHandlerContext context,
 	                         PooledStringBuilder requestBody) {
-		super(searchService, context, requestBody);
+		this(searchService, context, requestBody, false);
+	}
+
+	public PsqlSearchRequest(PsqlSearchService searchService, ChannelHandlerContext context,
+	                         PooledStringBuilder requestBody, boolean streamingResponse) {
+		super(searchService, context, requestBody, streamingResponse);
 		this.searchService = searchService;
 	}
 
@@ -38,13 +43,7 @@ public class PsqlSearchRequest extends SearchRequest implements Callable<SearchR
 
 	@Override
 	public SearchResponse call() throws Exception {
-		if(indexPattern != null && typePattern != null) {
-			return searchService.search(context, indexPattern, typePattern, requestBody);
-		} else if(indexPattern != null) {
-			return searchService.search(context, indexPattern, requestBody);
-		} else {
-			return searchService.search(context, requestBody);
-		}
+		return searchService.search(context, indexPattern, typePattern, requestBody, scroll, requestCache, responseStream);
 	}
 
 }
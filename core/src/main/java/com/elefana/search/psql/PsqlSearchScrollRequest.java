@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search.psql;
+
+import com.elefana.api.json.JsonUtils;
+import com.elefana.api.search.SearchResponse;
+import com.elefana.api.search.SearchScrollRequest;
+import com.elefana.api.util.PooledStringBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.netty.channel.ChannelHandlerContext;
+
+import java.util.concurrent.Callable;
+
+public class PsqlSearchScrollRequest extends SearchScrollRequest implements Callable<SearchResponse> {
+	private static final String KEY_SCROLL = "scroll";
+	private static final String KEY_SCROLL_ID = "scroll_id";
+
+	private final PsqlSearchService searchService;
+
+	public PsqlSearchScrollRequest(PsqlSearchService searchService, ChannelHandlerContext context,
+	                               PooledStringBuilder requestBody) {
+		super(searchService, context, requestBody);
+		this.searchService = searchService;
+	}
+
+	@Override
+	protected Callable<SearchResponse> internalExecute() {
+		return this;
+	}
+
+	@Override
+	public SearchResponse call() throws Exception {
+		if(requestBody != null && requestBody.length() > 0) {
+			final JsonNode body = JsonUtils.extractJsonNode(requestBody);
+			if(body != null && scrollId == null && body.has(KEY_SCROLL_ID)) {
+				scrollId = body.get(KEY_SCROLL_ID).textValue();
+			}
+			if(body != null && scroll == null && body.has(KEY_SCROLL)) {
+				scroll = body.get(KEY_SCROLL).asText();
+			}
+		}
+		return searchService.scroll(scrollId, scroll);
+	}
+}
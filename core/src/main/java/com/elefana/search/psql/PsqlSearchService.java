@@ -18,15 +18,21 @@ package com.elefana.search.psql;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.elefana.api.AckResponse;
+import com.elefana.api.ApiResponseStream;
 import com.elefana.api.RequestExecutor;
+import com.elefana.api.exception.BadRequestException;
 import com.elefana.api.exception.ElefanaException;
 import com.elefana.api.exception.ShardFailedException;
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.api.json.JsonUtils;
+import com.elefana.api.search.ClearScrollRequest;
+import com.elefana.api.search.ClearScrollResponse;
+import com.elefana.api.search.MultiSearchFailure;
 import com.elefana.api.search.MultiSearchRequest;
 import com.elefana.api.search.MultiSearchResponse;
 import com.elefana.api.search.SearchRequest;
 import com.elefana.api.search.SearchResponse;
+import com.elefana.api.search.SearchScrollRequest;
 import com.elefana.api.util.PooledStringBuilder;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
 import com.elefana.indices.psql.PsqlIndexFieldMappingService;
@@ -34,11 +40,14 @@ import com.elefana.indices.psql.PsqlIndexTemplateService;
 import com.elefana.node.NodeSettingsService;
 import com.elefana.search.*;
 import com.elefana.table.TableGarbageCollector;
+import com.elefana.util.IndexGenerationTracker;
 import com.elefana.util.IndexUtils;
 import com.elefana.util.NamedThreadFactory;
 import com.elefana.util.PsqlViewTracker;
 import com.elefana.util.ThreadPriorities;
+import com.fasterxml.jackson.databind.JsonNode;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -51,6 +60,7 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
@@ -61,8 +71,16 @@ import java.util.concurrent.*;
 public class PsqlSearchService implements SearchService, RequestExecutor {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PsqlSearchService.class);
 	private static final int DEFAULT_FETCH_SIZE = 250;
+	private static final int DEFAULT_PREPARE_THRESHOLD = 5;
+	private static final int DEFAULT_STREAMING_MIN_SIZE = 1000;
+	private static final int DEFAULT_MAX_POOL_SIZE = 10;
+	// Each search holds a count and a hits connection while it executes
+	private static final int CONNECTIONS_PER_SEARCH = 2;
 
 	private static final String[] EMPTY_TYPES_LIST = new String[0];
+	private static final String KEY_SCROLL_ID = "scroll_id";
+	private static final String ALL_SCROLL_IDS = "_all";
+	private static final String KEY_REQUEST_CACHE = "request_cache";
 
 	@Autowired
 	private Environment environment;
@@ -84,26 +102,79 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 	private MetricRegistry metricRegistry;
 	@Autowired
 	private PsqlViewTracker viewTracker;
+	@Autowired
+	private PsqlScrollContextTracker scrollContextTracker;
+	@Autowired
+	private SearchResultCache searchResultCache;
+	@Autowired
+	private IndexGenerationTracker indexGenerationTracker;
 
 	private ExecutorService searchCountExecutorService;
 	private ExecutorService searchHitsExecutorService;
 	private ExecutorService searchAggregationsExecutorService;
+	private ExecutorService multiSearchExecutorService;
+	private ExecutorService searchRequestExecutorService;
+	private Semaphore searchConnectionPermits;
 	private SearchQueryBuilder searchQueryBuilder;
 	private SearchHitsQueryExecutor searchHitsQueryExecutor;
 	private Histogram searchHitsTime, searchHitsSize, searchAggregationTime, searchTotalTime;
 
 	private int sqlFetchSize;
+	private int sqlPrepareThreshold;
+	private boolean useMaterializedViews;
+	private int streamingMinSize;
+	private int multiSearchMaxConcurrentSearches;
+
+	public PsqlSearchService() {
+		super();
+	}
+
+	PsqlSearchService(ExecutorService multiSearchExecutorService, int multiSearchMaxConcurrentSearches) {
+		super();
+		this.multiSearchExecutorService = multiSearchExecutorService;
+		this.multiSearchMaxConcurrentSearches = multiSearchMaxConcurrentSearches;
+	}
 
 	@PostConstruct
 	public void postConstruct() {
 		sqlFetchSize = environment.getProperty("elefana.service.search.sql.fetchSize", Integer.class, DEFAULT_FETCH_SIZE);
-
-		searchCountExecutorService = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+		sqlPrepareThreshold = environment.getProperty("elefana.service.search.sql.prepareThreshold", Integer.class, DEFAULT_PREPARE_THRESHOLD);
+		useMaterializedViews = environment.getProperty("elefana.service.search.materializedViews", Boolean.class, false);
+		streamingMinSize = environment.getProperty("elefana.service.search.streaming.minSize", Integer.class, DEFAULT_STREAMING_MIN_SIZE);
+
+		// The search pools share one connection budget. Each aggregation thread holds a connection,
+		// each executing search holds a count and hits connection and each open scroll context holds its
+		// cursor connection, so searches and scrolls share the connections remaining after the aggregation threads
+		final int defaultThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+		final int maxConnections = Math.max(CONNECTIONS_PER_SEARCH + 1, environment.getProperty(
+				"elefana.service.search.maxConnections", Integer.class, environment.getProperty(
+						"spring.datasource.hikari.maximum-pool-size", Integer.class, DEFAULT_MAX_POOL_SIZE)));
+		final int aggregationThreads = Math.max(1, Math.min(maxConnections / 3,
+				environment.getProperty("elefana.service.search.aggregation.threads", Integer.class, defaultThreads)));
+		final int maxConcurrentSearches = Math.max(1, (maxConnections - aggregationThreads) / CONNECTIONS_PER_SEARCH);
+		final int multiSearchThreads = Math.max(1, Math.min(maxConcurrentSearches,
+				environment.getProperty("elefana.service.search.msearch.threads", Integer.class, maxConcurrentSearches)));
+		multiSearchMaxConcurrentSearches = Math.max(1, environment.getProperty(
+				"elefana.service.search.msearch.maxConcurrentSearches", Integer.class, multiSearchThreads));
+		final int searchConnections = maxConcurrentSearches * CONNECTIONS_PER_SEARCH;
+		searchConnectionPermits = new Semaphore(searchConnections);
+		// Scroll contexts may not hold the connections of the last search
+		scrollContextTracker.setMaxContexts(Math.max(1, Math.min(searchConnections - CONNECTIONS_PER_SEARCH,
+				environment.getProperty("elefana.service.search.scroll.maxContexts", Integer.class, searchConnections / 2))));
+
+		searchRequestExecutorService = Executors.newFixedThreadPool(
+				environment.getProperty("elefana.service.search.request.threads", Integer.class, defaultThreads),
+				new NamedThreadFactory("elefana-searchService-requestExecutor", ThreadPriorities.SEARCH_SERVICE));
+		searchCountExecutorService = Executors.newFixedThreadPool(
+				environment.getProperty("elefana.service.search.count.threads", Integer.class, defaultThreads),
 				new NamedThreadFactory("elefana-searchService-countExecutor", ThreadPriorities.SEARCH_SERVICE));
-		searchHitsExecutorService = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+		searchHitsExecutorService = Executors.newFixedThreadPool(
+				environment.getProperty("elefana.service.search.hits.threads", Integer.class, defaultThreads),
 				new NamedThreadFactory("elefana-searchService-hitsExecutor", ThreadPriorities.SEARCH_SERVICE));
-		searchAggregationsExecutorService = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+		searchAggregationsExecutorService = Executors.newFixedThreadPool(aggregationThreads,
 				new NamedThreadFactory("elefana-searchService-aggregationsExecutor", ThreadPriorities.SEARCH_SERVICE));
+		multiSearchExecutorService = Executors.newFixedThreadPool(multiSearchThreads,
+				new NamedThreadFactory("elefana-searchService-multiSearchExecutor", ThreadPriorities.SEARCH_SERVICE));
 
 		searchHitsTime = metricRegistry.histogram(MetricRegistry.name("search", "hits", "time"));
 		searchHitsSize = metricRegistry.histogram(MetricRegistry.name("search", "hits", "size"));
@@ -111,20 +182,26 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 		searchTotalTime = metricRegistry.histogram(MetricRegistry.name("search", "time"));
 
 		if (nodeSettingsService.isUsingCitus()) {
-			searchQueryBuilder = new CitusSearchQueryBuilder(jdbcTemplate, indexUtils, indexFieldStatsService);
-			searchHitsQueryExecutor = new CitusSearchHitsQueryExecutor(jdbcTemplate, searchHitsTime, searchHitsSize);
+			searchQueryBuilder = new CitusSearchQueryBuilder(jdbcTemplate, indexUtils, indexFieldStatsService,
+					indexGenerationTracker);
+			searchHitsQueryExecutor = new CitusSearchHitsQueryExecutor(jdbcTemplate, searchHitsTime, searchHitsSize,
+					sqlPrepareThreshold);
 		} else {
 			searchQueryBuilder = new PartitionTableSearchQueryBuilder(jdbcTemplate, indexUtils, indexFieldStatsService);
 			searchHitsQueryExecutor = new PartitionTableSearchHitsQueryExecutor(jdbcTemplate, searchHitsTime,
-					searchHitsSize);
+					searchHitsSize, sqlPrepareThreshold);
 		}
 	}
 
 	@PreDestroy
 	public void preDestroy() {
+		searchRequestExecutorService.shutdown();
+		multiSearchExecutorService.shutdown();
 		searchCountExecutorService.shutdown();
 
 		try {
+			searchRequestExecutorService.awaitTermination(120, TimeUnit.SECONDS);
+			multiSearchExecutorService.awaitTermination(120, TimeUnit.SECONDS);
 			searchCountExecutorService.awaitTermination(120, TimeUnit.SECONDS);
 		} catch (InterruptedException e) {}
 	}
@@ -139,34 +216,92 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 
 	public MultiSearchResponse multiSearch(ChannelHandlerContext context, String fallbackIndex, String fallbackType, PooledStringBuilder httpRequest)
 			throws ElefanaException {
-		final String request = httpRequest.toString();
-		String[] lines = request.split("\n");
-
-		final MultiSearchResponse result = new MultiSearchResponse();
+		return multiSearch(context, fallbackIndex, fallbackType, httpRequest, true);
+	}
 
-		for (int i = 0; i < lines.length; i += 2) {
-			Map<String, Object> indexTypeInfo = JsonUtils.fromJsonString(lines[i], Map.class);
-			indexTypeInfo.putIfAbsent("index", fallbackIndex);
-			indexTypeInfo.putIfAbsent("type", fallbackType);
+	/**
+	 * Executes the searches of the request concurrently, bounded by elefana.service.search.msearch.maxConcurrentSearches.
+	 * Responses are returned in request order and a failed search does not fail the remaining searches.
+	 * @param requestCache False if the result cache should not be used for any of the searches
+	 */
+	public MultiSearchResponse multiSearch(ChannelHandlerContext context, String fallbackIndex, String fallbackType, PooledStringBuilder httpRequest,
+	                                       boolean requestCache) throws ElefanaException {
+		final List<String> lines = splitLines(httpRequest.toString());
+		if (lines.size() % 2 != 0) {
+			throw new BadRequestException();
+		}
 
-			List<String> indices = null;
-			if (indexTypeInfo.get("index") instanceof List) {
-				indices = indexUtils.listIndicesForIndexPattern((List) indexTypeInfo.get("index"));
-			} else {
-				indices = indexUtils.listIndicesForIndexPattern((String) indexTypeInfo.get("index"));
+		final Semaphore requestPermits = new Semaphore(multiSearchMaxConcurrentSearches);
+		final List<Future<SearchResponse>> searchFutures = new ArrayList<Future<SearchResponse>>(lines.size() / 2);
+		try {
+			for (int i = 0; i < lines.size(); i += 2) {
+				requestPermits.acquire();
+				searchFutures.add(multiSearchExecutorService.submit(new MultiSearchTask(requestPermits,
+						fallbackIndex, fallbackType, lines.get(i), lines.get(i + 1), requestCache)));
 			}
-			String[] types = null;
-			if (indexTypeInfo.get("type") == null) {
-				types = EMPTY_TYPES_LIST;
-			} else if (indexTypeInfo.get("type") instanceof List) {
-				types = (String[]) ((List) indexTypeInfo.get("type")).toArray(new String[0]);
-			} else {
-				types = ((String) indexTypeInfo.get("type")).split(",");
+		} catch (InterruptedException e) {
+			for (Future<SearchResponse> searchFuture : searchFutures) {
+				searchFuture.cancel(true);
 			}
+			throw new ShardFailedException(e);
+		}
 
-			result.getResponses().add(internalSearch(indices, types, lines[i + 1]));
+		final MultiSearchResponse result = new MultiSearchResponse();
+		for (Future<SearchResponse> searchFuture : searchFutures) {
+			try {
+				result.getResponses().add(searchFuture.get());
+			} catch (InterruptedException e) {
+				for (Future<SearchResponse> remainingFuture : searchFutures) {
+					remainingFuture.cancel(true);
+				}
+				throw new ShardFailedException(e);
+			} catch (ExecutionException e) {
+				LOGGER.error(e.getMessage(), e);
+				result.getResponses().add(new MultiSearchFailure(e.getCause()));
+			}
 		}
+		return result;
+	}
+
+	SearchResponse multiSearchItem(String fallbackIndex, String fallbackType, String header, String body,
+	                               boolean requestCache) throws ElefanaException {
+		Map<String, Object> indexTypeInfo = JsonUtils.fromJsonString(header, Map.class);
+		indexTypeInfo.putIfAbsent("index", fallbackIndex);
+		indexTypeInfo.putIfAbsent("type", fallbackType);
 
+		List<String> indices = null;
+		if (indexTypeInfo.get("index") instanceof List) {
+			indices = indexUtils.listIndicesForIndexPattern((List) indexTypeInfo.get("index"));
+		} else {
+			indices = indexUtils.listIndicesForIndexPattern((String) indexTypeInfo.get("index"));
+		}
+		String[] types = null;
+		if (indexTypeInfo.get("type") == null) {
+			types = EMPTY_TYPES_LIST;
+		} else if (indexTypeInfo.get("type") instanceof List) {
+			types = (String[]) ((List) indexTypeInfo.get("type")).toArray(new String[0]);
+		} else {
+			types = ((String) indexTypeInfo.get("type")).split(",");
+		}
+
+		final boolean useRequestCache = requestCache && !Boolean.FALSE.equals(indexTypeInfo.get(KEY_REQUEST_CACHE));
+		return internalSearch(indices, types, body, useRequestCache);
+	}
+
+	private static List<String> splitLines(String request) {
+		final List<String> result = new ArrayList<String>();
+		int lineStart = 0;
+		while (lineStart < request.length()) {
+			int lineEnd = request.indexOf('\n', lineStart);
+			if (lineEnd < 0) {
+				lineEnd = request.length();
+			}
+			final String line = request.substring(lineStart, lineEnd).trim();
+			if (!line.isEmpty()) {
+				result.add(line);
+			}
+			lineStart = lineEnd + 1;
+		}
 		return result;
 	}
 
@@ -179,6 +314,23 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 	}
 
 	public SearchResponse search(ChannelHandlerContext context, String indexPattern, String typesPattern, PooledStringBuilder httpRequest) throws ElefanaException {
+		return search(context, indexPattern, typesPattern, httpRequest, null);
+	}
+
+	/**
+	 * @param responseStream If not null, large searches without aggregations write hits directly to the stream
+	 */
+	public SearchResponse search(ChannelHandlerContext context, String indexPattern, String typesPattern, PooledStringBuilder httpRequest,
+	                             ApiResponseStream responseStream) throws ElefanaException {
+		return search(context, indexPattern, typesPattern, httpRequest, null, true, responseStream);
+	}
+
+	/**
+	 * @param scroll If not null, the keep alive of a scroll context to open for the search
+	 * @param requestCache False if the result cache should not be used
+	 */
+	public SearchResponse search(ChannelHandlerContext context, String indexPattern, String typesPattern, PooledStringBuilder httpRequest,
+	                             String scroll, boolean requestCache, ApiResponseStream responseStream) throws ElefanaException {
 		List<String> indices = indexPattern == null || indexPattern.isEmpty() ? indexUtils.listIndices()
 				: indexUtils.listIndicesForIndexPattern(indexPattern);
 		final Set<String> types = new HashSet<String>();
@@ -187,27 +339,78 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 				types.addAll(indexFieldMappingService.getTypesForIndex(index, typesPattern));
 			}
 		}
-		return internalSearch(indices, types.toArray(EMPTY_TYPES_LIST), httpRequest);
+		return internalSearch(indices, types.toArray(EMPTY_TYPES_LIST), httpRequest, scroll, requestCache, responseStream);
 	}
 
-	private SearchResponse internalSearch(List<String> indices, String[] types, PooledStringBuilder httpRequest)
-			throws ElefanaException {
+	private SearchResponse internalSearch(List<String> indices, String[] types, PooledStringBuilder httpRequest,
+	                                      String scroll, boolean requestCache, ApiResponseStream responseStream) throws ElefanaException {
 		final long startTime = System.currentTimeMillis();
 		final RequestBodySearch requestBodySearch = new RequestBodySearch(httpRequest.toString());
 		if (!requestBodySearch.hasAggregations()) {
-			return searchWithoutAggregation(indices, types, requestBodySearch, startTime);
+			if (scroll != null) {
+				return scrollSearchWithoutAggregation(indices, types, requestBodySearch, startTime,
+						scrollContextTracker.parseKeepAlive(scroll));
+			}
+			if (responseStream != null && streamingMinSize > 0 && requestBodySearch.getSize() >= streamingMinSize) {
+				acquireSearchPermit();
+				try {
+					return streamSearchWithoutAggregation(indices, types, requestBodySearch, startTime, responseStream);
+				} finally {
+					releaseSearchPermit();
+				}
+			}
 		}
-		return searchWithAggregation(indices, types, requestBodySearch, startTime);
+		return cachedSearch(indices, types, requestBodySearch, startTime, requestCache);
 	}
 
-	private SearchResponse internalSearch(List<String> indices, String[] types, String httpRequest)
+	private SearchResponse internalSearch(List<String> indices, String[] types, String httpRequest, boolean requestCache)
 			throws ElefanaException {
 		final long startTime = System.currentTimeMillis();
 		final RequestBodySearch requestBodySearch = new RequestBodySearch(httpRequest);
-		if (!requestBodySearch.hasAggregations()) {
-			return searchWithoutAggregation(indices, types, requestBodySearch, startTime);
+		return cachedSearch(indices, types, requestBodySearch, startTime, requestCache);
+	}
+
+	private SearchResponse cachedSearch(List<String> indices, String[] types, RequestBodySearch requestBodySearch,
+	                                    long startTime, boolean requestCache) throws ElefanaException {
+		if (!requestCache || !searchResultCache.isCacheable(requestBodySearch)) {
+			return executeSearch(indices, types, requestBodySearch, startTime);
+		}
+		final SearchResultCache.Key cacheKey = searchResultCache.createKey(indices, types, requestBodySearch);
+		final SearchResponse cachedResult = searchResultCache.get(cacheKey);
+		if (cachedResult != null) {
+			cachedResult.setTook(System.currentTimeMillis() - startTime);
+			return cachedResult;
+		}
+		final SearchResponse result = executeSearch(indices, types, requestBodySearch, startTime);
+		return searchResultCache.put(cacheKey, result);
+	}
+
+	private SearchResponse executeSearch(List<String> indices, String[] types, RequestBodySearch requestBodySearch,
+	                                     long startTime) throws ElefanaException {
+		acquireSearchPermit();
+		try {
+			if (!requestBodySearch.hasAggregations()) {
+				return searchWithoutAggregation(indices, types, requestBodySearch, startTime);
+			}
+			return searchWithAggregation(indices, types, requestBodySearch, startTime);
+		} finally {
+			releaseSearchPermit();
 		}
-		return searchWithAggregation(indices, types, requestBodySearch, startTime);
+	}
+
+	/**
+	 * Waits until the search can hold its connections without exceeding the search connection budget
+	 */
+	private void acquireSearchPermit() throws ElefanaException {
+		try {
+			searchConnectionPermits.acquire(CONNECTIONS_PER_SEARCH);
+		} catch (InterruptedException e) {
+			throw new ShardFailedException(e);
+		}
+	}
+
+	private void releaseSearchPermit() {
+		searchConnectionPermits.release(CONNECTIONS_PER_SEARCH);
 	}
 
 	private SearchResponse searchWithAggregation(List<String> indices, String[] types,
@@ -219,7 +422,7 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 		final Map<String, Object> aggregationsResult = new ConcurrentHashMap<String, Object>();
 		final Queue<Future<SearchResponse>> queryFutures = new ConcurrentLinkedQueue<>();
 
-		final String viewName = viewTracker.getNextViewName();
+		final String viewName = useMaterializedViews ? viewTracker.getNextViewName() : null;
 
 		Connection createViewConnection = null;
 		Connection countConnection = null;
@@ -230,17 +433,19 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 		Statement hitsStatement = null;
 
 		try {
-			createViewConnection = jdbcTemplate.getDataSource().getConnection();
-			createViewStatement = createViewConnection.createStatement();
-
-			final Future<AckResponse> createViewFuture = executeCreateView(createViewStatement, queryComponents, viewName,
-					startTime, requestBodySearch.getFrom(), requestBodySearch.getSize());
-			createViewFuture.get();
-
-			disposeStatement(createViewStatement);
-			createViewStatement = null;
-			disposeConnection(createViewConnection);
-			createViewConnection = null;
+			if (viewName != null) {
+				createViewConnection = jdbcTemplate.getDataSource().getConnection();
+				createViewStatement = createViewConnection.createStatement();
+
+				final Future<AckResponse> createViewFuture = executeCreateView(createViewStatement, queryComponents, viewName,
+						startTime, requestBodySearch.getFrom(), requestBodySearch.getSize());
+				createViewFuture.get();
+
+				disposeStatement(createViewStatement);
+				createViewStatement = null;
+				disposeConnection(createViewConnection);
+				createViewConnection = null;
+			}
 
 			countConnection = jdbcTemplate.getDataSource().getConnection();
 			hitsConnection = jdbcTemplate.getDataSource().getConnection();
@@ -343,7 +548,9 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 		disposeStatement(hitsStatement);
 		disposeConnection(hitsConnection);
 
-		viewTracker.queueViewForCleanup(viewName);
+		if (viewName != null) {
+			viewTracker.queueViewForCleanup(viewName);
+		}
 		return result;
 	}
 
@@ -353,7 +560,7 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 		final IndexTemplate indexTemplate = indexTemplateService.getIndexTemplateForIndices(indices);
 		final PsqlQueryComponents queryComponents = searchQueryBuilder.buildQuery(indexTemplate, indices, types,
 				requestBodySearch);
-		final String viewName = viewTracker.getNextViewName();
+		final String viewName = useMaterializedViews ? viewTracker.getNextViewName() : null;
 
 		Connection createViewConnection = null;
 		Connection countConnection = null;
@@ -364,17 +571,19 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 		Statement hitsStatement = null;
 
 		try {
-			createViewConnection = jdbcTemplate.getDataSource().getConnection();
-			createViewStatement = createViewConnection.createStatement();
-
-			final Future<AckResponse> createViewFuture = executeCreateView(createViewStatement, queryComponents, viewName,
-					startTime, requestBodySearch.getFrom(), requestBodySearch.getSize());
-			createViewFuture.get();
-
-			disposeStatement(createViewStatement);
-			createViewStatement = null;
-			disposeConnection(createViewConnection);
-			createViewConnection = null;
+			if (viewName != null) {
+				createViewConnection = jdbcTemplate.getDataSource().getConnection();
+				createViewStatement = createViewConnection.createStatement();
+
+				final Future<AckResponse> createViewFuture = executeCreateView(createViewStatement, queryComponents, viewName,
+						startTime, requestBodySearch.getFrom(), requestBodySearch.getSize());
+				createViewFuture.get();
+
+				disposeStatement(createViewStatement);
+				createViewStatement = null;
+				disposeConnection(createViewConnection);
+				createViewConnection = null;
+			}
 
 			countConnection = jdbcTemplate.getDataSource().getConnection();
 			hitsConnection = jdbcTemplate.getDataSource().getConnection();
@@ -463,7 +672,234 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 		disposeStatement(hitsStatement);
 		disposeConnection(hitsConnection);
 
-		viewTracker.queueViewForCleanup(viewName);
+		if (viewName != null) {
+			viewTracker.queueViewForCleanup(viewName);
+		}
+		return result;
+	}
+
+	private SearchResponse streamSearchWithoutAggregation(List<String> indices, String[] types,
+	                                                      RequestBodySearch requestBodySearch, long startTime,
+	                                                      ApiResponseStream responseStream) throws ElefanaException {
+		final SearchResponse result = new SearchResponse();
+		final IndexTemplate indexTemplate = indexTemplateService.getIndexTemplateForIndices(indices);
+		final PsqlQueryComponents queryComponents = searchQueryBuilder.buildQuery(indexTemplate, indices, types,
+				requestBodySearch);
+
+		Connection countConnection = null;
+		Connection hitsConnection = null;
+
+		Statement countStatement = null;
+		Statement hitsStatement = null;
+
+		try {
+			countConnection = jdbcTemplate.getDataSource().getConnection();
+			hitsConnection = jdbcTemplate.getDataSource().getConnection();
+			hitsConnection.setAutoCommit(false);
+
+			countStatement = countConnection.createStatement();
+			hitsStatement = hitsConnection.createStatement();
+			hitsStatement.setFetchSize(sqlFetchSize);
+
+			executeCountQuery(result, countStatement, queryComponents, null, startTime,
+					requestBodySearch.getFrom(), requestBodySearch.getSize()).get();
+
+			final StringBuilder content = new StringBuilder();
+			content.append("{\"timed_out\":false,\"_shards\":");
+			content.append(JsonUtils.toJsonString(result.getShards()));
+			content.append(",\"hits\":{\"total\":");
+			content.append(result.getHits().getTotal());
+			//max_score follows the hits as it is only known once all hits are streamed
+			content.append(",\"hits\":[");
+			responseStream.begin(HttpResponseStatus.OK.code());
+			responseStream.write(content);
+
+			searchHitsExecutorService.submit(searchHitsQueryExecutor.executeStreamingHitsQuery(responseStream, result,
+					hitsStatement, queryComponents, startTime, requestBodySearch.getFrom(), requestBodySearch.getSize())).get();
+
+			final long took = System.currentTimeMillis() - startTime;
+			searchTotalTime.update(took);
+			result.setTook(took);
+			result.setTimedOut(false);
+
+			content.setLength(0);
+			content.append("],\"max_score\":");
+			content.append(result.getHits().getMaxScore());
+			content.append("},\"took\":");
+			content.append(took);
+			content.append('}');
+			responseStream.write(content);
+			responseStream.end();
+		} catch (InterruptedException | ExecutionException | SQLException e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new ShardFailedException(e);
+		} finally {
+			disposeStatement(countStatement);
+			disposeConnection(countConnection);
+
+			disposeStatement(hitsStatement);
+			disposeConnection(hitsConnection);
+
+			tableGarbageCollector.queueTemporaryTablesForDeletion(queryComponents.getTemporaryTables());
+		}
+		return result;
+	}
+
+	private SearchResponse scrollSearchWithoutAggregation(List<String> indices, String[] types,
+	                                                      RequestBodySearch requestBodySearch, long startTime,
+	                                                      long keepAliveMillis) throws ElefanaException {
+		final SearchResponse result = createSearchResponse();
+		final IndexTemplate indexTemplate = indexTemplateService.getIndexTemplateForIndices(indices);
+		final PsqlQueryComponents queryComponents = searchQueryBuilder.buildQuery(indexTemplate, indices, types,
+				requestBodySearch);
+
+		Connection countConnection = null;
+		Connection cursorConnection = null;
+
+		Statement countStatement = null;
+		Statement cursorStatement = null;
+		ResultSet cursor = null;
+
+		PsqlScrollContext scrollContext = null;
+
+		scrollContextTracker.reserveScrollContext();
+		try {
+			acquireSearchPermit();
+		} catch (ElefanaException e) {
+			scrollContextTracker.cancelScrollContextReservation();
+			throw e;
+		}
+
+		try {
+			countConnection = jdbcTemplate.getDataSource().getConnection();
+			cursorConnection = jdbcTemplate.getDataSource().getConnection();
+			cursorConnection.setAutoCommit(false);
+
+			countStatement = countConnection.createStatement();
+			cursorStatement = cursorConnection.createStatement();
+			cursorStatement.setFetchSize(Math.max(sqlFetchSize, requestBodySearch.getSize()));
+
+			final Future<SearchResponse> countQueryFuture = executeCountQuery(result, countStatement, queryComponents,
+					null, startTime, requestBodySearch.getFrom(), requestBodySearch.getSize());
+			cursor = searchHitsQueryExecutor.openScrollCursor(cursorStatement, queryComponents, startTime,
+					requestBodySearch.getFrom());
+			countQueryFuture.get();
+
+			scrollContext = scrollContextTracker.openScrollContext(cursorConnection, cursorStatement, cursor,
+					queryComponents, requestBodySearch.getSize(), result.getHits().getTotal(), keepAliveMillis,
+					searchConnectionPermits);
+			cursorConnection = null;
+			cursorStatement = null;
+			cursor = null;
+
+			readScrollHits(result, scrollContext);
+		} catch (InterruptedException | ExecutionException | SQLException e) {
+			LOGGER.error(e.getMessage(), e);
+			if (scrollContext != null) {
+				scrollContextTracker.clearScrollContext(scrollContext.getScrollId());
+			}
+			throw new ShardFailedException(e);
+		} finally {
+			disposeStatement(countStatement);
+			disposeConnection(countConnection);
+
+			if (cursorConnection != null) {
+				disposeResultSet(cursor);
+				disposeStatement(cursorStatement);
+				disposeConnection(cursorConnection);
+				tableGarbageCollector.queueTemporaryTablesForDeletion(queryComponents.getTemporaryTables());
+			}
+
+			if (scrollContext == null) {
+				scrollContextTracker.cancelScrollContextReservation();
+				releaseSearchPermit();
+			} else {
+				//The scroll context releases the cursor connection's permit with its cursor
+				searchConnectionPermits.release(CONNECTIONS_PER_SEARCH - 1);
+			}
+		}
+
+		final long took = System.currentTimeMillis() - startTime;
+		searchTotalTime.update(took);
+		result.setTook(took);
+		result.setTimedOut(false);
+		result.setScrollId(scrollContext.getScrollId());
+		return result;
+	}
+
+	public SearchResponse scroll(String scrollId, String scroll) throws ElefanaException {
+		final long startTime = System.currentTimeMillis();
+		final PsqlScrollContext scrollContext = scrollContextTracker.getScrollContext(scrollId);
+		if (scroll != null) {
+			scrollContext.setKeepAliveMillis(scrollContextTracker.parseKeepAlive(scroll));
+		}
+
+		final SearchResponse result = createSearchResponse();
+		result.getHits().setTotal(scrollContext.getTotalHits());
+		try {
+			readScrollHits(result, scrollContext);
+		} catch (SQLException e) {
+			LOGGER.error(e.getMessage(), e);
+			scrollContextTracker.clearScrollContext(scrollId);
+			throw new ShardFailedException(e);
+		}
+
+		final long took = System.currentTimeMillis() - startTime;
+		searchTotalTime.update(took);
+		result.setTook(took);
+		result.setTimedOut(false);
+		result.setScrollId(scrollId);
+		return result;
+	}
+
+	private void readScrollHits(SearchResponse result, PsqlScrollContext scrollContext) throws SQLException {
+		scrollContext.lock();
+		try {
+			scrollContext.touch();
+			if (scrollContext.isReleased()) {
+				return;
+			}
+			if (scrollContext.getCursor() == null || !searchHitsQueryExecutor.readScrollHits(result,
+					scrollContext.getCursor(), scrollContext.getQueryComponents().getTotalSortColumns(),
+					scrollContext.getQueryComponents().hasScoreColumn(), scrollContext.getSize())) {
+				//Return the connection to the pool as soon as all hits are read
+				scrollContextTracker.releaseScrollContext(scrollContext);
+			}
+		} finally {
+			scrollContext.unlock();
+		}
+	}
+
+	public ClearScrollResponse clearScroll(String scrollId, PooledStringBuilder httpRequest) throws ElefanaException {
+		final ClearScrollResponse result = new ClearScrollResponse();
+		final List<String> scrollIds = new ArrayList<String>(1);
+		if (scrollId != null) {
+			for (String id : scrollId.split(",")) {
+				scrollIds.add(id);
+			}
+		} else if (httpRequest != null && httpRequest.length() > 0) {
+			final JsonNode scrollIdNode = JsonUtils.extractJsonNode(httpRequest, KEY_SCROLL_ID);
+			if (scrollIdNode != null && scrollIdNode.isArray()) {
+				for (JsonNode id : scrollIdNode) {
+					scrollIds.add(id.textValue());
+				}
+			} else if (scrollIdNode != null && scrollIdNode.isTextual()) {
+				scrollIds.add(scrollIdNode.textValue());
+			}
+		}
+		if (scrollIds.isEmpty()) {
+			throw new BadRequestException();
+		}
+
+		int totalFreed = 0;
+		for (String id : scrollIds) {
+			if (ALL_SCROLL_IDS.equals(id)) {
+				totalFreed += scrollContextTracker.clearAllScrollContexts();
+			} else if (scrollContextTracker.clearScrollContext(id)) {
+				totalFreed++;
+			}
+		}
+		result.setNumFreed(totalFreed);
 		return result;
 	}
 
@@ -496,6 +932,15 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 		} catch (SQLException e) {}
 	}
 
+	private void disposeResultSet(ResultSet resultSet) {
+		if(resultSet == null) {
+			return;
+		}
+		try {
+			resultSet.close();
+		} catch (SQLException e) {}
+	}
+
 	private void disposeConnection(Connection connection) {
 		if(connection == null) {
 			return;
@@ -528,27 +973,37 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 
 	@Override
 	public SearchRequest prepareSearch(ChannelHandlerContext context, PooledStringBuilder requestBody) {
-		return new PsqlSearchRequest(this, context, requestBody);
+		return new PsqlSearchRequest(this, context, requestBody, streamingMinSize > 0);
 	}
 
 	@Override
 	public SearchRequest prepareSearch(ChannelHandlerContext context, String indexPattern, PooledStringBuilder requestBody) {
-		SearchRequest result = new PsqlSearchRequest(this, context, requestBody);
+		SearchRequest result = new PsqlSearchRequest(this, context, requestBody, streamingMinSize > 0);
 		result.setIndexPattern(indexPattern);
 		return result;
 	}
 
 	@Override
 	public SearchRequest prepareSearch(ChannelHandlerContext context, String indexPattern, String typesPattern, PooledStringBuilder requestBody) {
-		SearchRequest result = new PsqlSearchRequest(this, context, requestBody);
+		SearchRequest result = new PsqlSearchRequest(this, context, requestBody, streamingMinSize > 0);
 		result.setIndexPattern(indexPattern);
 		result.setTypePattern(typesPattern);
 		return result;
 	}
 
+	@Override
+	public SearchScrollRequest prepareSearchScroll(ChannelHandlerContext context, PooledStringBuilder requestBody) {
+		return new PsqlSearchScrollRequest(this, context, requestBody);
+	}
+
+	@Override
+	public ClearScrollRequest prepareClearScroll(ChannelHandlerContext context, PooledStringBuilder requestBody) {
+		return new PsqlClearScrollRequest(this, context, requestBody);
+	}
+
 	@Override
 	public <T> Future<T> submit(Callable<T> request) {
-		return searchCountExecutorService.submit(request);
+		return searchRequestExecutorService.submit(request);
 	}
 
 	private SearchResponse createSearchResponse() {
@@ -558,4 +1013,34 @@ public class PsqlSearchService implements SearchService, RequestExecutor {
 		result.getShards().put("failed", 0);
 		return result;
 	}
+
+	private class MultiSearchTask implements Callable<SearchResponse> {
+		private final Semaphore requestPermits;
+		private final String fallbackIndex, fallbackType;
+		private final String header, body;
+		private final boolean requestCache;
+
+		public MultiSearchTask(Semaphore requestPermits, String fallbackIndex, String fallbackType,
+		                       String header, String body, boolean requestCache) {
+			super();
+			this.requestPermits = requestPermits;
+			this.fallbackIndex = fallbackIndex;
+			this.fallbackType = fallbackType;
+			this.header = header;
+			this.body = body;
+			this.requestCache = requestCache;
+		}
+
+		@Override
+		public SearchResponse call() {
+			try {
+				return multiSearchItem(fallbackIndex, fallbackType, header, body, requestCache);
+			} catch (Exception e) {
+				LOGGER.error(e.getMessage(), e);
+				return new MultiSearchFailure(e);
+			} finally {
+				requestPermits.release();
+			}
+		}
+	}
 }
@@ -108,10 +108,53 @@ public class BoolQuery extends Query {
 		}
 	}
 
+	@Override
+	public long[] getTimestampRange(IndexTemplate indexTemplate) {
+		long[] result = null;
+		for(Query query : mustClauses) {
+			result = intersectTimestampRanges(result, query.getTimestampRange(indexTemplate));
+		}
+		for(Query query : filterClauses) {
+			result = intersectTimestampRanges(result, query.getTimestampRange(indexTemplate));
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isTimestampRangeOnly(IndexTemplate indexTemplate) {
+		if(!mustNotClauses.isEmpty() || !shouldClauses.isEmpty()) {
+			return false;
+		}
+		for(Query query : mustClauses) {
+			if(!query.isTimestampRangeOnly(indexTemplate)) {
+				return false;
+			}
+		}
+		for(Query query : filterClauses) {
+			if(!query.isTimestampRangeOnly(indexTemplate)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String getSqlScoreExpression(IndexTemplate indexTemplate, List<Object> parameters) {
+		final List<Query> scoringClauses = new ArrayList<Query>(mustClauses.size() + shouldClauses.size());
+		scoringClauses.addAll(mustClauses);
+		scoringClauses.addAll(shouldClauses);
+		final String result = combineSqlScoreExpressions(scoringClauses, indexTemplate, "(", " + ", parameters);
+		if(result == null || boost == 1.0) {
+			return result;
+		}
+		return "(" + result + " * " + boost + ")";
+	}
+
 	@Override
 	public String toSqlWhereClause(List<String> indices,
 	                               IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
+	                               IndexFieldStatsService indexFieldStatsService,
+	                               List<Object> parameters) {
 		StringBuilder result = new StringBuilder();
 		result.append('(');
 		
@@ -125,7 +168,7 @@ public class BoolQuery extends Query {
 				if(totalClauses > 0) {
 					result.append(" AND ");
 				}
-				result.append(mustClauses.get(i).toSqlWhereClause(indices, indexTemplate, indexFieldStatsService));
+				result.append(mustClauses.get(i).toSqlWhereClause(indices, indexTemplate, indexFieldStatsService, parameters));
 				totalClauses++;
 			}
 			result.append(')');
@@ -144,7 +187,7 @@ public class BoolQuery extends Query {
 				if(totalClauses > 0) {
 					result.append(" AND ");
 				}
-				result.append(filterClauses.get(i).toSqlWhereClause(indices, indexTemplate, indexFieldStatsService));
+				result.append(filterClauses.get(i).toSqlWhereClause(indices, indexTemplate, indexFieldStatsService, parameters));
 				totalClauses++;
 			}
 			result.append(')');
@@ -163,7 +206,7 @@ public class BoolQuery extends Query {
 				if(totalClauses > 0) {
 					result.append(" AND ");
 				}
-				result.append(mustNotClauses.get(i).toSqlWhereClause(indices, indexTemplate, indexFieldStatsService));
+				result.append(mustNotClauses.get(i).toSqlWhereClause(indices, indexTemplate, indexFieldStatsService, parameters));
 				totalClauses++;
 			}
 			result.append(')');
@@ -196,7 +239,7 @@ public class BoolQuery extends Query {
 					if(totalClauses > 0) {
 						result.append(" OR ");
 					}
-					result.append(shouldClauses.get(i).toSqlWhereClause(indices, indexTemplate, indexFieldStatsService));
+					result.append(shouldClauses.get(i).toSqlWhereClause(indices, indexTemplate, indexFieldStatsService, parameters));
 					totalClauses++;
 				}
 				break;
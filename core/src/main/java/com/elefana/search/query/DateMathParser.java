@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.search.query;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Parses Elasticsearch date math expressions (e.g. now-15m/m, 2020-01-01||+1d/d),
+ * ISO-8601 dates and epoch millis into epoch millis
+ */
+public class DateMathParser {
+	private static final String NOW = "now";
+	private static final String ANCHOR_SEPARATOR = "||";
+
+	/**
+	 * Parses a date math expression
+	 * @param value The expression to parse
+	 * @param now The epoch millis to resolve <code>now</code> against
+	 * @param roundUp True if rounding (and date-only values) should resolve to the last millisecond of the unit
+	 * @param zone The time zone to apply to rounding and dates without an offset
+	 * @return The epoch millis
+	 * @throws IllegalArgumentException If the expression could not be parsed
+	 */
+	public static long parse(String value, long now, boolean roundUp, ZoneId zone) {
+		if(value == null) {
+			throw new IllegalArgumentException("Cannot parse null date");
+		}
+		value = value.trim();
+		if(zone == null) {
+			zone = ZoneOffset.UTC;
+		}
+
+		final ZonedDateTime anchor;
+		final String math;
+		if(value.startsWith(NOW)) {
+			anchor = Instant.ofEpochMilli(now).atZone(zone);
+			math = value.substring(NOW.length());
+		} else {
+			final int separatorIndex = value.indexOf(ANCHOR_SEPARATOR);
+			if(separatorIndex < 0) {
+				return parseDate(value, roundUp, zone).toInstant().toEpochMilli();
+			}
+			anchor = parseDate(value.substring(0, separatorIndex), false, zone);
+			math = value.substring(separatorIndex + ANCHOR_SEPARATOR.length());
+		}
+		return applyMath(anchor, math, roundUp).toInstant().toEpochMilli();
+	}
+
+	private static ZonedDateTime parseDate(String value, boolean roundUp, ZoneId zone) {
+		if(isEpochMillis(value)) {
+			return Instant.ofEpochMilli(Long.parseLong(value)).atZone(zone);
+		}
+		try {
+			return ZonedDateTime.parse(value, DateTimeFormatter.ISO_OFFSET_DATE_TIME).withZoneSameInstant(zone);
+		} catch (DateTimeParseException e) {
+		}
+		try {
+			return LocalDateTime.parse(value, DateTimeFormatter.ISO_LOCAL_DATE_TIME).atZone(zone);
+		} catch (DateTimeParseException e) {
+		}
+		try {
+			final ZonedDateTime result = LocalDate.parse(value, DateTimeFormatter.ISO_LOCAL_DATE).atStartOfDay(zone);
+			return roundUp ? result.plusDays(1).minus(1, ChronoUnit.MILLIS) : result;
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("Unable to parse date " + value);
+		}
+	}
+
+	private static ZonedDateTime applyMath(ZonedDateTime result, String math, boolean roundUp) {
+		int i = 0;
+		while(i < math.length()) {
+			final char operator = math.charAt(i++);
+			if(operator == '/') {
+				if(i >= math.length()) {
+					throw new IllegalArgumentException("Missing rounding unit in " + math);
+				}
+				result = round(result, math.charAt(i++), roundUp);
+				continue;
+			}
+			if(operator != '+' && operator != '-') {
+				throw new IllegalArgumentException("Unsupported date math operator '" + operator + "' in " + math);
+			}
+
+			final int amountStart = i;
+			while(i < math.length() && Character.isDigit(math.charAt(i))) {
+				i++;
+			}
+			final int amount = amountStart == i ? 1 : Integer.parseInt(math.substring(amountStart, i));
+			if(i >= math.length()) {
+				throw new IllegalArgumentException("Missing date math unit in " + math);
+			}
+			final ChronoUnit unit = toChronoUnit(math.charAt(i++));
+			result = operator == '+' ? result.plus(amount, unit) : result.minus(amount, unit);
+		}
+		return result;
+	}
+
+	private static ZonedDateTime round(ZonedDateTime value, char unit, boolean roundUp) {
+		final ChronoUnit chronoUnit = toChronoUnit(unit);
+		final ZonedDateTime result;
+		switch(chronoUnit) {
+		case YEARS:
+			result = value.with(TemporalAdjusters.firstDayOfYear()).truncatedTo(ChronoUnit.DAYS);
+			break;
+		case MONTHS:
+			result = value.with(TemporalAdjusters.firstDayOfMonth()).truncatedTo(ChronoUnit.DAYS);
+			break;
+		case WEEKS:
+			result = value.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).truncatedTo(ChronoUnit.DAYS);
+			break;
+		default:
+			result = value.truncatedTo(chronoUnit);
+			break;
+		}
+		if(!roundUp) {
+			return result;
+		}
+		return result.plus(1, chronoUnit).minus(1, ChronoUnit.MILLIS);
+	}
+
+	private static ChronoUnit toChronoUnit(char unit) {
+		switch(unit) {
+		case 'y':
+			return ChronoUnit.YEARS;
+		case 'M':
+			return ChronoUnit.MONTHS;
+		case 'w':
+			return ChronoUnit.WEEKS;
+		case 'd':
+			return ChronoUnit.DAYS;
+		case 'h':
+		case 'H':
+			return ChronoUnit.HOURS;
+		case 'm':
+			return ChronoUnit.MINUTES;
+		case 's':
+			return ChronoUnit.SECONDS;
+		default:
+			throw new IllegalArgumentException("Unsupported date math unit '" + unit + "'");
+		}
+	}
+
+	private static boolean isEpochMillis(String value) {
+		if(value.isEmpty()) {
+			return false;
+		}
+		for(int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if(Character.isDigit(c)) {
+				continue;
+			}
+			if(i == 0 && c == '-' && value.length() > 1) {
+				continue;
+			}
+			return false;
+		}
+		return true;
+	}
+}
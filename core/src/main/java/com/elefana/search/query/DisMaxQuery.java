@@ -49,17 +49,21 @@ public class DisMaxQuery extends Query {
 		return true;
 	}
 
+	@Override
+	public String getSqlScoreExpression(IndexTemplate indexTemplate, List<Object> parameters) {
+		return combineSqlScoreExpressions(queries, indexTemplate, "GREATEST(", ", ", parameters);
+	}
+
 	@Override
 	public String toSqlWhereClause(List<String> indices, IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
-		//TODO: Handle scoring/sorting
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
 		StringBuilder result = new StringBuilder();
 		for(int i = 0; i < queries.size(); i++) {
 			if(i > 0) {
 				result.append(" OR ");
 			}
 			result.append('(');
-			result.append(queries.get(i).toSqlWhereClause(indices, indexTemplate, indexFieldStatsService));
+			result.append(queries.get(i).toSqlWhereClause(indices, indexTemplate, indexFieldStatsService, parameters));
 			result.append(')');
 		}
 		return result.toString();
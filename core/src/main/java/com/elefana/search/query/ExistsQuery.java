@@ -17,6 +17,7 @@ package com.elefana.search.query;
 
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.List;
@@ -32,7 +33,8 @@ public class ExistsQuery extends Query {
 	}
 	
 	@Override
-	public String toSqlWhereClause(List<String> indices,  IndexTemplate indexTemplate, IndexFieldStatsService indexFieldStatsService) {
-		return "_source ? '" + fieldName + "'";
+	public String toSqlWhereClause(List<String> indices,  IndexTemplate indexTemplate, IndexFieldStatsService indexFieldStatsService,
+	                               List<Object> parameters) {
+		return "_source ?? " + SqlTemplateUtils.bind(parameters, fieldName);
 	}
 }
@@ -48,21 +48,36 @@ public class FilteredQuery extends Query {
 		return query.isMatchAllQuery() && filter.isMatchAllQuery();
 	}
 
+	@Override
+	public long[] getTimestampRange(IndexTemplate indexTemplate) {
+		return intersectTimestampRanges(query.getTimestampRange(indexTemplate), filter.getTimestampRange(indexTemplate));
+	}
+
+	@Override
+	public boolean isTimestampRangeOnly(IndexTemplate indexTemplate) {
+		return query.isTimestampRangeOnly(indexTemplate) && filter.isTimestampRangeOnly(indexTemplate);
+	}
+
+	@Override
+	public String getSqlScoreExpression(IndexTemplate indexTemplate, List<Object> parameters) {
+		return query.getSqlScoreExpression(indexTemplate, parameters);
+	}
+
 	@Override
 	public String toSqlWhereClause(List<String> indices, IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
 		if(!query.isMatchAllQuery() && !filter.isMatchAllQuery()) {
 			StringBuilder result = new StringBuilder();
 			result.append('(');
-			result.append(query.toSqlWhereClause(indices, indexTemplate, indexFieldStatsService));
+			result.append(query.toSqlWhereClause(indices, indexTemplate, indexFieldStatsService, parameters));
 			result.append(" AND ");
-			result.append(filter.toSqlWhereClause(indices, indexTemplate, indexFieldStatsService));
+			result.append(filter.toSqlWhereClause(indices, indexTemplate, indexFieldStatsService, parameters));
 			result.append(')');
 			return result.toString();
 		} else if(query.isMatchAllQuery()) {
-			return filter.toSqlWhereClause(indices, indexTemplate, indexFieldStatsService);
+			return filter.toSqlWhereClause(indices, indexTemplate, indexFieldStatsService, parameters);
 		} else {
-			return query.toSqlWhereClause(indices, indexTemplate, indexFieldStatsService);
+			return query.toSqlWhereClause(indices, indexTemplate, indexFieldStatsService, parameters);
 		}
 	}
 
@@ -17,6 +17,7 @@ package com.elefana.search.query;
 
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.ArrayList;
@@ -63,7 +64,7 @@ public class IdsQuery extends Query {
 	
 	@Override
 	public String toSqlWhereClause(List<String> indices, IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
 		StringBuilder result = new StringBuilder();
 		if(!types.isEmpty()) {
 			result.append('(');
@@ -71,9 +72,8 @@ public class IdsQuery extends Query {
 				if(i > 0) {
 					result.append(" OR ");
 				}
-				result.append("type = '");
-				result.append(types.get(i));
-				result.append("'");
+				result.append("type = ");
+				result.append(SqlTemplateUtils.bind(parameters, types.get(i)));
 			}
 			result.append(')');
 			if(!values.isEmpty()) {
@@ -85,9 +85,8 @@ public class IdsQuery extends Query {
 			if(i > 0) {
 				result.append(" OR ");
 			}
-			result.append("id = '");
-			result.append(values.get(i));
-			result.append("'");
+			result.append("id = ");
+			result.append(SqlTemplateUtils.bind(parameters, values.get(i)));
 		}
 		result.append(')');
 		return result.toString();
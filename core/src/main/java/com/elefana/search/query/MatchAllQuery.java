@@ -29,7 +29,7 @@ public class MatchAllQuery extends Query {
 
 	@Override
 	public String toSqlWhereClause(List<String> indices,  IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
 		return "";
 	}
 
@@ -15,8 +15,11 @@
  ******************************************************************************/
 package com.elefana.search.query;
 
+import com.elefana.api.indices.IndexGenerationSettings;
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.IndexUtils;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.Iterator;
@@ -68,36 +71,92 @@ public class MatchQuery extends Query {
 	
 	@Override
 	public String toSqlWhereClause(List<String> indices, IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
+		final IndexGenerationSettings textSearchSettings = getTextSearchSettings(indexTemplate);
+		if(textSearchSettings != null) {
+			return IndexUtils.getTextSearchExpression(textSearchSettings, fieldName) + " @@ " +
+					toTsQuery(textSearchSettings, parameters);
+		}
 		switch(matchMode) {
 		case PHRASE:
-			return toPhraseSqlWhereClause();
+			return toPhraseSqlWhereClause(parameters);
 		case PHRASE_PREFIX:
-			return toPhrasePrefixSqlWhereClause();
+			return toPhrasePrefixSqlWhereClause(parameters);
 		case DEFAULT:
 		default:
-			return toDefaultSqlWhereClause();
+			return toDefaultSqlWhereClause(parameters);
 		}
 	}
 	
-	protected String toPhrasePrefixSqlWhereClause() {
-		return "_source->>'" + fieldName + "' ILIKE '" + query + "%'";
+	@Override
+	public String getSqlScoreExpression(IndexTemplate indexTemplate, List<Object> parameters) {
+		final IndexGenerationSettings textSearchSettings = getTextSearchSettings(indexTemplate);
+		if(textSearchSettings == null) {
+			return null;
+		}
+		final String result = "ts_rank(" + IndexUtils.getTextSearchExpression(textSearchSettings, fieldName) + ", " +
+				toTsQuery(textSearchSettings, parameters) + ")";
+		if(boost == 1.0) {
+			return result;
+		}
+		return "(" + result + " * " + boost + ")";
+	}
+
+	private IndexGenerationSettings getTextSearchSettings(IndexTemplate indexTemplate) {
+		if(matchMode.equals(MatchMode.PHRASE_PREFIX)) {
+			return null;
+		}
+		return IndexUtils.getTextSearchSettings(indexTemplate, fieldName);
+	}
+
+	/**
+	 * @param parameters The template parameters to bind the terms to
+	 */
+	private String toTsQuery(IndexGenerationSettings textSearchSettings, List<Object> parameters) {
+		final String config = IndexUtils.getTextSearchConfig(textSearchSettings);
+		if(matchMode.equals(MatchMode.PHRASE)) {
+			return "phraseto_tsquery(" + config + ", " + SqlTemplateUtils.bind(parameters, query) + ")";
+		}
+		if(operator.equalsIgnoreCase("AND")) {
+			return "plainto_tsquery(" + config + ", " + SqlTemplateUtils.bind(parameters, query) + ")";
+		}
+
+		final StringBuilder result = new StringBuilder();
+		result.append('(');
+		for(String term : query.split(" ")) {
+			if(term.isEmpty()) {
+				continue;
+			}
+			if(result.length() > 1) {
+				result.append(" || ");
+			}
+			result.append("plainto_tsquery(" + config + ", " + SqlTemplateUtils.bind(parameters, term) + ")");
+		}
+		if(result.length() == 1) {
+			result.append("plainto_tsquery(" + config + ", '')");
+		}
+		result.append(')');
+		return result.toString();
+	}
+
+	protected String toPhrasePrefixSqlWhereClause(List<Object> parameters) {
+		return "_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + " ILIKE " + SqlTemplateUtils.bind(parameters, query + "%");
 	}
 	
-	protected String toPhraseSqlWhereClause() {
-		return "_source->>'" + fieldName + "' ILIKE '%" + query + "%'";
+	protected String toPhraseSqlWhereClause(List<Object> parameters) {
+		return "_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + " ILIKE " + SqlTemplateUtils.bind(parameters, "%" + query + "%");
 	}
 		
-	protected String toDefaultSqlWhereClause() {
+	protected String toDefaultSqlWhereClause(List<Object> parameters) {
 		StringBuilder stringBuilder = new StringBuilder();
 		String [] terms = query.split(" ");
 		
 		stringBuilder.append('(');
 		for(int i = 0; i < terms.length; i++) {
 			if(i > 0) {
-				stringBuilder.append(" " + operator + " ");
+				stringBuilder.append(operator.equalsIgnoreCase("AND") ? " AND " : " OR ");
 			}
-			stringBuilder.append("_source->>'" + fieldName + "' ILIKE '%" + terms[i] + "%'");
+			stringBuilder.append("_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + " ILIKE " + SqlTemplateUtils.bind(parameters, "%" + terms[i] + "%"));
 		}
 		stringBuilder.append(')');
 		return stringBuilder.toString();
@@ -17,6 +17,7 @@ package com.elefana.search.query;
 
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.Iterator;
@@ -54,8 +55,8 @@ public class PrefixQuery extends Query {
 	
 	@Override
 	public String toSqlWhereClause(List<String> indices, IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
-		return "_source->>'" + fieldName + "' LIKE '" + value + "%'";
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
+		return "_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + " LIKE " + SqlTemplateUtils.bind(parameters, value + "%");
 	}
 
 }
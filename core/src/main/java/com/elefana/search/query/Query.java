@@ -17,7 +17,9 @@ package com.elefana.search.query;
 
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.SqlTemplateUtils;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public abstract class Query {
@@ -25,8 +27,94 @@ public abstract class Query {
 	public boolean isMatchAllQuery() {
 		return false;
 	}
+
+	/**
+	 * Returns the inclusive epoch millis bounds that matching documents' timestamp path is restricted to
+	 * @param indexTemplate The index template the query is executed against
+	 * @return Null if matching documents are not restricted to a timestamp range
+	 */
+	public long[] getTimestampRange(IndexTemplate indexTemplate) {
+		return null;
+	}
+
+	/**
+	 * @param indexTemplate The index template the query is executed against
+	 * @return True if the query matches every document within {@link #getTimestampRange(IndexTemplate)}
+	 */
+	public boolean isTimestampRangeOnly(IndexTemplate indexTemplate) {
+		return isMatchAllQuery();
+	}
+
+	/**
+	 * Returns the SQL expression scoring matching documents with all values inlined as literals
+	 * @param indexTemplate The index template the query is executed against
+	 * @return Null if the query does not contribute to the score of matching documents
+	 */
+	public String getSqlScoreExpression(IndexTemplate indexTemplate) {
+		final List<Object> parameters = new ArrayList<Object>(1);
+		final String result = getSqlScoreExpression(indexTemplate, parameters);
+		return result == null ? null : SqlTemplateUtils.inline(result, parameters);
+	}
+
+	/**
+	 * Returns the SQL expression scoring matching documents as a template with values bound as ? placeholders
+	 * @param indexTemplate The index template the query is executed against
+	 * @param parameters The list the bound values are appended to in placeholder order
+	 * @return Null if the query does not contribute to the score of matching documents
+	 */
+	public String getSqlScoreExpression(IndexTemplate indexTemplate, List<Object> parameters) {
+		return null;
+	}
+
+	/**
+	 * Combines the score expressions of queries, e.g. "(" and " + " to sum them
+	 * @return Null if none of the queries contribute to the score
+	 */
+	protected static String combineSqlScoreExpressions(List<Query> queries, IndexTemplate indexTemplate, String prefix, String separator,
+	                                                   List<Object> parameters) {
+		final StringBuilder result = new StringBuilder();
+		for(Query query : queries) {
+			final String scoreExpression = query.getSqlScoreExpression(indexTemplate, parameters);
+			if(scoreExpression == null) {
+				continue;
+			}
+			result.append(result.length() == 0 ? prefix : separator);
+			result.append(scoreExpression);
+		}
+		if(result.length() == 0) {
+			return null;
+		}
+		result.append(')');
+		return result.toString();
+	}
+
+	protected static long[] intersectTimestampRanges(long[] range1, long[] range2) {
+		if(range1 == null) {
+			return range2;
+		}
+		if(range2 == null) {
+			return range1;
+		}
+		return new long[] { Math.max(range1[0], range2[0]), Math.min(range1[1], range2[1]) };
+	}
 	
+	/**
+	 * Returns the SQL where clause with all values inlined as literals
+	 */
+	public String toSqlWhereClause(List<String> indices,
+	                               IndexTemplate indexTemplate,
+	                               IndexFieldStatsService indexFieldStatsService) {
+		final List<Object> parameters = new ArrayList<Object>(2);
+		return SqlTemplateUtils.inline(toSqlWhereClause(indices, indexTemplate, indexFieldStatsService, parameters), parameters);
+	}
+
+	/**
+	 * Returns the SQL where clause as a template with values bound as ? placeholders
+	 * so that identical queries share one statement (and query plan) regardless of their values
+	 * @param parameters The list the bound values are appended to in placeholder order
+	 */
 	public abstract String toSqlWhereClause(List<String> indices,
 	                                        IndexTemplate indexTemplate,
-	                                        IndexFieldStatsService indexFieldStatsService);
+	                                        IndexFieldStatsService indexFieldStatsService,
+	                                        List<Object> parameters);
 }
@@ -15,12 +15,15 @@
  ******************************************************************************/
 package com.elefana.search.query;
 
+import com.elefana.api.indices.IndexGenerationSettings;
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.esqs.EsFieldQuery;
 import com.elefana.esqs.EsQueryOperator;
 import com.elefana.esqs.EsQueryString;
 import com.elefana.esqs.EsQueryStringWalker;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.IndexUtils;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,13 +40,22 @@ public class QueryStringQuery extends Query implements EsQueryStringWalker {
 	private static final String KEY_QUERY = "query";
 
 	private final StringBuilder queryBuilder = new StringBuilder();
+	private final List<String> scoreExpressions = new ArrayList<String>(1);
+	private final List<Object> walkParameters = new ArrayList<Object>(2);
+	private final List<Object> walkScoreParameters = new ArrayList<Object>(1);
 	private final List<String> fields;
+	private final EsQueryString queryString;
 
 	private String defaultField;
 	private String defaultOperator = "OR";
-	private String sqlQuery;
+	private String sqlQuery, sqlTemplate;
+	private List<Object> sqlParameters;
 
 	private String mostRecentField = null;
+
+	private IndexTemplate textSearchTemplate;
+	private String textSearchSqlTemplate, textSearchScoreExpression;
+	private List<Object> textSearchSqlParameters, textSearchScoreParameters;
 	
 	public QueryStringQuery(JsonNode queryContext) {
 		super();
@@ -80,8 +92,19 @@ public class QueryStringQuery extends Query implements EsQueryStringWalker {
 			fields = null;
 		}
 
-		EsQueryString queryString = EsQueryString.parse(queryContext.get(KEY_QUERY).textValue());
-		
+		queryString = EsQueryString.parse(queryContext.get(KEY_QUERY).textValue());
+		sqlTemplate = walk();
+		sqlParameters = new ArrayList<Object>(walkParameters);
+		sqlQuery = SqlTemplateUtils.inline(sqlTemplate, sqlParameters);
+		LOGGER.info(sqlQuery);
+	}
+
+	private String walk() {
+		queryBuilder.setLength(0);
+		scoreExpressions.clear();
+		walkParameters.clear();
+		walkScoreParameters.clear();
+
 		if(fields != null && !fields.isEmpty()) {
 			for(int i = 0; i < fields.size(); i++) {
 				defaultField = fields.get(i);
@@ -92,9 +115,32 @@ public class QueryStringQuery extends Query implements EsQueryStringWalker {
 		} else {
 			queryString.walk(this);
 		}
-		
-		sqlQuery = queryBuilder.toString();
-		LOGGER.info(sqlQuery);
+		return queryBuilder.toString();
+	}
+
+	/**
+	 * Walks the query string again with the text search fields of the index template
+	 * @return False if the template has no text search fields
+	 */
+	private boolean walkTextSearch(IndexTemplate indexTemplate) {
+		if(indexTemplate == null || indexTemplate.getStorage() == null ||
+				indexTemplate.getStorage().getIndexGenerationSettings() == null ||
+				indexTemplate.getStorage().getIndexGenerationSettings().getTextSearchFields().isEmpty()) {
+			return false;
+		}
+		if(textSearchTemplate == indexTemplate) {
+			return true;
+		}
+		textSearchTemplate = indexTemplate;
+		textSearchSqlTemplate = walk();
+		textSearchSqlParameters = new ArrayList<Object>(walkParameters);
+		textSearchScoreParameters = new ArrayList<Object>(walkScoreParameters);
+		if(scoreExpressions.isEmpty()) {
+			textSearchScoreExpression = null;
+		} else {
+			textSearchScoreExpression = "(" + String.join(" + ", scoreExpressions) + ")";
+		}
+		return true;
 	}
 
 	@Override
@@ -113,8 +159,22 @@ public class QueryStringQuery extends Query implements EsQueryStringWalker {
 
 	@Override
 	public String toSqlWhereClause(List<String> indices, IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
-		return sqlQuery;
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
+		if(walkTextSearch(indexTemplate)) {
+			parameters.addAll(textSearchSqlParameters);
+			return textSearchSqlTemplate;
+		}
+		parameters.addAll(sqlParameters);
+		return sqlTemplate;
+	}
+
+	@Override
+	public String getSqlScoreExpression(IndexTemplate indexTemplate, List<Object> parameters) {
+		if(walkTextSearch(indexTemplate) && textSearchScoreExpression != null) {
+			parameters.addAll(textSearchScoreParameters);
+			return textSearchScoreExpression;
+		}
+		return null;
 	}
 
 	@Override
@@ -139,7 +199,7 @@ public class QueryStringQuery extends Query implements EsQueryStringWalker {
 			break;
 		case DEFAULT:
 		default:
-			queryBuilder.append(" " + defaultOperator + " ");
+			queryBuilder.append(defaultOperator.equalsIgnoreCase("AND") ? " AND " : " OR ");
 			break;
 		}
 	}
@@ -153,7 +213,7 @@ public class QueryStringQuery extends Query implements EsQueryStringWalker {
 			break;
 		case DEFAULT:
 		default:
-			queryBuilder.append(" " + defaultOperator + " ");
+			queryBuilder.append(defaultOperator.equalsIgnoreCase("AND") ? " AND " : " OR ");
 			break;
 		}
 	}
@@ -161,8 +221,20 @@ public class QueryStringQuery extends Query implements EsQueryStringWalker {
 	@Override
 	public void append(EsFieldQuery field, boolean phraseQuery, String term) {
 		String fieldName = field.isDefaultField() ? defaultField : field.getFieldName();
+		final IndexGenerationSettings textSearchSettings = IndexUtils.getTextSearchSettings(textSearchTemplate, fieldName);
+		if(textSearchSettings != null && term.indexOf('*') < 0 && term.indexOf('?') < 0) {
+			if(phraseQuery && term.length() > 1 && term.startsWith("\"") && term.endsWith("\"")) {
+				term = term.substring(1, term.length() - 1);
+			}
+			final String tsQueryFunction = (phraseQuery ? "phraseto_tsquery(" : "plainto_tsquery(") +
+					IndexUtils.getTextSearchConfig(textSearchSettings) + ", ";
+			final String textSearchExpression = IndexUtils.getTextSearchExpression(textSearchSettings, fieldName);
+			queryBuilder.append(textSearchExpression + " @@ " + tsQueryFunction + SqlTemplateUtils.bind(walkParameters, term) + ")");
+			scoreExpressions.add("ts_rank(" + textSearchExpression + ", " + tsQueryFunction + SqlTemplateUtils.bind(walkScoreParameters, term) + "))");
+			return;
+		}
 		String queryValue = term.replace("?", "_").replace("*", "%");
-		queryBuilder.append("_source->>'" + fieldName + "' ILIKE '%" + queryValue + "%'");
+		queryBuilder.append("_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + " ILIKE " + SqlTemplateUtils.bind(walkParameters, "%" + queryValue + "%"));
 	}
 
 	@Override
@@ -17,10 +17,13 @@ package com.elefana.search.query;
 
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.IndexUtils;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.ZoneId;
 import java.util.Iterator;
 import java.util.List;
 
@@ -32,12 +35,19 @@ public class RangeQuery extends Query {
 	private static final String KEY_LTE = "lte";
 	private static final String KEY_LT = "lt";
 	private static final String KEY_BOOST = "boost";
+	private static final String KEY_TIME_ZONE = "time_zone";
+
+	private static final long ONE_HOUR_IN_MILLIS = 60L * 60L * 1000L;
+	private static final long ONE_DAY_IN_MILLIS = ONE_HOUR_IN_MILLIS * 24L;
+
+	protected final long now = System.currentTimeMillis();
 
 	protected String fieldName;
 	protected String from, to;
 	protected boolean includeLower = false;
 	protected boolean includeUpper = false;
 	protected double boost = 1.0;
+	protected ZoneId timeZone;
 
 	public RangeQuery(JsonNode queryContext) {
 		super();
@@ -68,85 +78,174 @@ public class RangeQuery extends Query {
 			if(fieldContext.has(KEY_BOOST)) {
 				boost = fieldContext.get(KEY_BOOST).asDouble();
 			}
+			if(fieldContext.has(KEY_TIME_ZONE)) {
+				try {
+					timeZone = ZoneId.of(fieldContext.get(KEY_TIME_ZONE).asText());
+				} catch (Exception e) {
+					LOGGER.error(e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public long[] getTimestampRange(IndexTemplate indexTemplate) {
+		if(!isTimestampPath(indexTemplate)) {
+			return null;
+		}
+		try {
+			return toEpochMillisRange();
+		} catch (IllegalArgumentException e) {
+			return null;
 		}
 	}
 
 	@Override
-	public String toSqlWhereClause(List<String> indices, IndexTemplate indexTemplate, IndexFieldStatsService indexFieldStatsService) {
+	public boolean isTimestampRangeOnly(IndexTemplate indexTemplate) {
+		return getTimestampRange(indexTemplate) != null;
+	}
+
+	@Override
+	public String toSqlWhereClause(List<String> indices, IndexTemplate indexTemplate, IndexFieldStatsService indexFieldStatsService,
+	                               List<Object> parameters) {
 		StringBuilder result = new StringBuilder();
 		
-		String column = "";
-		
-		if(indexTemplate != null && indexTemplate.getStorage().getTimestampPath() != null) {
-			if(indexTemplate.getStorage().getTimestampPath().equalsIgnoreCase(fieldName)) {
-				column = "_timestamp";
-			} else {
-				boolean match = false;
-				for(String index : indices) {
-					if(match) {
-						break;
-					}
-					if(indexFieldStatsService.hasField(index, fieldName) &&
-							indexFieldStatsService.isStringField(index, fieldName)) {
-						column = "elefana_json_field(_source, '" + fieldName + "')::numeric";
-						match = true;
-					} else if(indexFieldStatsService.hasField(index, fieldName) &&
-							indexFieldStatsService.isDateField(index, fieldName)) {
-						column = "elefana_json_field(_source, '" + fieldName + "')::numeric";
-						match = true;
-					}
-				}
+		if(isTimestampPath(indexTemplate)) {
+			try {
+				return toTimestampSqlWhereClause(toEpochMillisRange(), parameters);
+			} catch (IllegalArgumentException e) {
+				LOGGER.error(e.getMessage(), e);
+				appendRange(result, "_timestamp", from, to, parameters);
+				return result.toString();
+			}
+		}
 
-				if(!match) {
-					if(!fieldName.contains(".")) {
-						column = "(_source->>'" + fieldName + "')::numeric";
-					} else {
-						column = "elefana_json_field(_source, '" + fieldName + "')::numeric";
-					}
-				}
+		final boolean typedIndices = IndexUtils.isTypedIndexGeneration(indexTemplate);
+		String column = "";
+		boolean dateField = false;
+		boolean match = false;
+		for(String index : indices) {
+			if(match) {
+				break;
 			}
-		} else {
-			boolean match = false;
-			for(String index : indices) {
-				if(match) {
-					break;
-				}
-				if(indexFieldStatsService.hasField(index, fieldName) &&
-						indexFieldStatsService.isStringField(index, fieldName)) {
-					column = "elefana_json_field(_source, '" + fieldName + "')::numeric";
-					match = true;
-				} else if(indexFieldStatsService.hasField(index, fieldName) &&
-						indexFieldStatsService.isDateField(index, fieldName)) {
-					column = "elefana_json_field(_source, '" + fieldName + "')::numeric";
-					match = true;
-				}
+			if(typedIndices && indexFieldStatsService.hasField(index, fieldName) &&
+					(indexFieldStatsService.isLongField(index, fieldName) || indexFieldStatsService.isDoubleField(index, fieldName) ||
+							indexFieldStatsService.isDateField(index, fieldName))) {
+				//Matches the expression of typed indices created by TableIndexCreator
+				column = IndexUtils.getNumericFieldExpression(fieldName);
+				dateField = indexFieldStatsService.isDateField(index, fieldName);
+				match = true;
+			} else if(indexFieldStatsService.hasField(index, fieldName) &&
+					indexFieldStatsService.isStringField(index, fieldName)) {
+				column = "elefana_json_field(_source, " + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric";
+				match = true;
+			} else if(indexFieldStatsService.hasField(index, fieldName) &&
+					indexFieldStatsService.isDateField(index, fieldName)) {
+				column = "elefana_json_field(_source, " + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric";
+				dateField = true;
+				match = true;
 			}
+		}
 
-			if(!match) {
-				if(!fieldName.contains(".")) {
-					column = "(_source->>'" + fieldName + "')::numeric";
-				} else {
-					column = "elefana_json_field(_source, '" + fieldName + "')::numeric";
-				}
+		if(!match) {
+			if(!fieldName.contains(".")) {
+				column = "(_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric";
+			} else {
+				column = "elefana_json_field(_source, " + SqlTemplateUtils.quoteLiteral(fieldName) + ")::numeric";
 			}
 		}
-		
-		if (from != null) {
+
+		String fromValue = from;
+		String toValue = to;
+		if(dateField) {
+			try {
+				final String parsedFrom = from == null ? null : String.valueOf(DateMathParser.parse(from, now, !includeLower, timeZone));
+				final String parsedTo = to == null ? null : String.valueOf(DateMathParser.parse(to, now, includeUpper, timeZone));
+				fromValue = parsedFrom;
+				toValue = parsedTo;
+			} catch (IllegalArgumentException e) {
+				LOGGER.error(e.getMessage(), e);
+			}
+		}
+		appendRange(result, column, fromValue, toValue, parameters);
+		return result.toString();
+	}
+
+	private void appendRange(StringBuilder result, String column, String fromValue, String toValue, List<Object> parameters) {
+		if (fromValue != null) {
 			result.append(column);
 			result.append(' ');
-			result.append((includeLower ? ">=" : ">") + " " + from);
+			result.append((includeLower ? ">=" : ">") + " " + SqlTemplateUtils.bindNumeric(parameters, fromValue));
 		}
-		if (to != null) {
-			if (from != null) {
+		if (toValue != null) {
+			if (fromValue != null) {
 				result.append(" AND ");
 			}
 			result.append(column);
 			result.append(' ');
-			result.append((includeUpper ? "<=" : "<") + " " + to);
+			result.append((includeUpper ? "<=" : "<") + " " + SqlTemplateUtils.bindNumeric(parameters, toValue));
+		}
+	}
+
+	/**
+	 * Restricts _timestamp and the coarse bucket columns so that partitions and
+	 * BRIN indices on any of them can be used to skip data
+	 */
+	private String toTimestampSqlWhereClause(long[] range, List<Object> parameters) {
+		final StringBuilder result = new StringBuilder();
+		if(from != null) {
+			appendBucketBound(result, ">=", range[0], parameters);
+		}
+		if(to != null) {
+			if(from != null) {
+				result.append(" AND ");
+			}
+			appendBucketBound(result, "<=", range[1], parameters);
 		}
 		return result.toString();
 	}
 
+	private void appendBucketBound(StringBuilder result, String operator, long timestamp, List<Object> parameters) {
+		result.append("_timestamp ");
+		result.append(operator);
+		result.append(' ');
+		result.append(SqlTemplateUtils.bind(parameters, timestamp));
+		result.append(" AND _bucket1h ");
+		result.append(operator);
+		result.append(' ');
+		result.append(SqlTemplateUtils.bind(parameters, timestamp - (timestamp % ONE_HOUR_IN_MILLIS)));
+		result.append(" AND _bucket1d ");
+		result.append(operator);
+		result.append(' ');
+		result.append(SqlTemplateUtils.bind(parameters, timestamp - (timestamp % ONE_DAY_IN_MILLIS)));
+	}
+
+	/**
+	 * Resolves the bounds to inclusive epoch millis, rounding the same way as Elasticsearch,
+	 * i.e. gt and lte round up while gte and lt round down
+	 */
+	private long[] toEpochMillisRange() {
+		long lower = Long.MIN_VALUE;
+		long upper = Long.MAX_VALUE;
+		if(from != null) {
+			lower = DateMathParser.parse(from, now, !includeLower, timeZone);
+			if(!includeLower) {
+				lower++;
+			}
+		}
+		if(to != null) {
+			upper = DateMathParser.parse(to, now, includeUpper, timeZone);
+			if(!includeUpper) {
+				upper--;
+			}
+		}
+		return new long[] { lower, upper };
+	}
+
+	private boolean isTimestampPath(IndexTemplate indexTemplate) {
+		return indexTemplate != null && indexTemplate.isTimestampField(fieldName);
+	}
+
 	private void setFrom(JsonNode value) {
 		from = value.asText();
 	}
@@ -17,6 +17,7 @@ package com.elefana.search.query;
 
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.Iterator;
@@ -57,7 +58,7 @@ public class RegexpQuery extends Query {
 	
 	@Override
 	public String toSqlWhereClause(List<String> indices,  IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
-		return "elefana_json_field(_source, '" + fieldName + "') SIMILAR TO '" + value + "'";
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
+		return "elefana_json_field(_source, " + SqlTemplateUtils.quoteLiteral(fieldName) + ") SIMILAR TO " + SqlTemplateUtils.bind(parameters, value);
 	}
 }
@@ -17,6 +17,7 @@ package com.elefana.search.query;
 
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,24 +56,24 @@ public class TermQuery extends Query {
 
 	@Override
 	public String toSqlWhereClause(List<String> indices, IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
 		if(fieldName.contains(".")) {
-			return toProcedureSqlClause();
+			return toProcedureSqlClause(parameters);
 		}
 		try {
 			for(String index : indices) {
 				if(indexFieldStatsService.hasField(index, fieldName) &&
 						indexFieldStatsService.isStringField(index, fieldName)) {
-					return "_source->>'" + fieldName + "' = '" + value + "'";
+					return "_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + " = " + SqlTemplateUtils.bind(parameters, value);
 				}
 			}
 		} catch (Exception e) {
 			LOGGER.error(e.getMessage(), e);
 		}
-		return toProcedureSqlClause();
+		return toProcedureSqlClause(parameters);
 	}
 
-	private String toProcedureSqlClause() {
-		return "elefana_json_field(_source, '" + fieldName + "') = '" + value + "'";
+	private String toProcedureSqlClause(List<Object> parameters) {
+		return "elefana_json_field(_source, " + SqlTemplateUtils.quoteLiteral(fieldName) + ") = " + SqlTemplateUtils.bind(parameters, value);
 	}
 }
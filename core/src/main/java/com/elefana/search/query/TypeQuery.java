@@ -17,6 +17,7 @@ package com.elefana.search.query;
 
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.List;
@@ -40,8 +41,8 @@ public class TypeQuery extends Query {
 
 	@Override
 	public String toSqlWhereClause(List<String> indices, IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
-		return "type = '" + value + "'";
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
+		return "type = " + SqlTemplateUtils.bind(parameters, value);
 	}
 
 }
@@ -17,6 +17,7 @@ package com.elefana.search.query;
 
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.util.SqlTemplateUtils;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,24 +59,28 @@ public class WildcardQuery extends Query {
 
 	@Override
 	public String toSqlWhereClause(List<String> indices,  IndexTemplate indexTemplate,
-	                               IndexFieldStatsService indexFieldStatsService) {
+	                               IndexFieldStatsService indexFieldStatsService, List<Object> parameters) {
 		if(fieldName.contains(".")) {
-			return toProcedureSqlClause();
+			return toProcedureSqlClause(parameters);
 		}
 		try {
 			for(String index : indices) {
 				if(indexFieldStatsService.hasField(index, fieldName) &&
 						indexFieldStatsService.isStringField(index, fieldName)) {
-					return "_source->>'" + fieldName + "' LIKE '" + value.replace("*", "%").replace("?", "_") + "'";
+					return "_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + " LIKE " + SqlTemplateUtils.bind(parameters, toLikePattern());
 				}
 			}
 		} catch (Exception e) {
 			LOGGER.error(e.getMessage(), e);
 		}
-		return toProcedureSqlClause();
+		return toProcedureSqlClause(parameters);
 	}
 
-	private String toProcedureSqlClause() {
-		return "elefana_json_field(_source, '" + fieldName + "') LIKE '" + value.replace("*", "%").replace("?", "_") + "'";
+	private String toProcedureSqlClause(List<Object> parameters) {
+		return "elefana_json_field(_source, " + SqlTemplateUtils.quoteLiteral(fieldName) + ") LIKE " + SqlTemplateUtils.bind(parameters, toLikePattern());
+	}
+
+	private String toLikePattern() {
+		return value.replace("*", "%").replace("?", "_");
 	}
 }
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package com.elefana.search.sort;
 
+import com.elefana.api.indices.IndexTemplate;
+import com.elefana.indices.fieldstats.IndexFieldStatsService;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.util.ArrayList;
@@ -25,8 +27,22 @@ public class Sort {
 	private static final String KEY_SORT = "sort";
 	private static final String KEY_ORDER = "order";
 	private static final String VALUE_ASC = "asc";
+
+	public static final String SORT_COLUMN_PREFIX = "_sort_";
 	
 	private final List<SortClause> clauses = new ArrayList<SortClause>(1);
+
+	/**
+	 * @return A copy of this sort with each clause resolved for the queried indices
+	 * @see SortClause#compile(List, IndexTemplate, IndexFieldStatsService)
+	 */
+	public Sort compile(List<String> indices, IndexTemplate indexTemplate, IndexFieldStatsService indexFieldStatsService) {
+		final Sort result = new Sort();
+		for(SortClause clause : clauses) {
+			result.clauses.add(clause.compile(indices, indexTemplate, indexFieldStatsService));
+		}
+		return result;
+	}
 	
 	public String toSqlClause() {
 		if(clauses.isEmpty()) {
@@ -43,6 +59,56 @@ public class Sort {
 		return result.toString();
 	}
 	
+	/**
+	 * Builds a condition matching rows that sort after the given sort values,
+	 * i.e. keyset pagination for search_after requests
+	 * @param searchAfter The sort values of the last hit of the previous page
+	 * @return An empty string if there are no sort clauses
+	 */
+	public String toSearchAfterSqlClause(JsonNode searchAfter) {
+		if(clauses.isEmpty()) {
+			return "";
+		}
+		final StringBuilder result = new StringBuilder();
+		result.append('(');
+		for(int i = 0; i < clauses.size(); i++) {
+			if(i > 0) {
+				result.append(" OR ");
+			}
+			result.append('(');
+			for(int j = 0; j < i; j++) {
+				clauses.get(j).appendSqlEqualsCondition(result, searchAfter.get(j));
+				result.append(" AND ");
+			}
+			clauses.get(i).appendSqlAfterCondition(result, searchAfter.get(i));
+			result.append(')');
+		}
+		result.append(')');
+		return result.toString();
+	}
+
+	/**
+	 * Appends the sort expressions as additional result columns so that the
+	 * sort values can be returned with each hit
+	 */
+	public void appendSqlSelectColumns(StringBuilder result) {
+		for(int i = 0; i < clauses.size(); i++) {
+			result.append(", ");
+			clauses.get(i).appendSqlJsonExpression(result);
+			result.append(" AS ");
+			result.append(SORT_COLUMN_PREFIX);
+			result.append(i);
+		}
+	}
+
+	public boolean isEmpty() {
+		return clauses.isEmpty();
+	}
+
+	public int size() {
+		return clauses.size();
+	}
+
 	public void parse(JsonNode searchContext) {
 		if(!searchContext.has(KEY_SORT)) {
 			return;
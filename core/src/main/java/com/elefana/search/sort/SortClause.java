@@ -15,21 +15,71 @@
  ******************************************************************************/
 package com.elefana.search.sort;
 
+import com.elefana.api.indices.IndexTemplate;
+import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import com.elefana.search.query.DateMathParser;
+import com.elefana.util.IndexUtils;
+import com.elefana.util.SqlTemplateUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.ZoneOffset;
+import java.util.List;
+
 public class SortClause {
+	private static final String FIELD_ID = "_id";
+	private static final String FIELD_INDEX = "_index";
+	private static final String FIELD_TYPE = "_type";
+	private static final String FIELD_TIMESTAMP = "_timestamp";
+
 	private final String field;
 	private final boolean ascending;
+	private final SortValueType valueType;
 	
 	public SortClause(String field, boolean ascending) {
+		this(field, ascending, SortValueType.JSON);
+	}
+
+	private SortClause(String field, boolean ascending, SortValueType valueType) {
 		super();
 		this.field = field;
 		this.ascending = ascending;
+		this.valueType = valueType;
+	}
+
+	/**
+	 * Resolves the sort expression for the queried indices. The timestamp path of the
+	 * index template is sorted by the _timestamp column and fields known to be numeric or
+	 * dates are sorted by the typed expressions used for field indices instead of jsonb.
+	 * @return This clause if the field is sorted as jsonb
+	 */
+	public SortClause compile(List<String> indices, IndexTemplate indexTemplate, IndexFieldStatsService indexFieldStatsService) {
+		if(isColumn()) {
+			return this;
+		}
+		if(indexTemplate != null && indexTemplate.isTimestampField(field)) {
+			return new SortClause(FIELD_TIMESTAMP, ascending);
+		}
+		if(indices == null || indexFieldStatsService == null) {
+			return this;
+		}
+		for(String index : indices) {
+			if(!indexFieldStatsService.hasField(index, field)) {
+				continue;
+			}
+			if(indexFieldStatsService.isLongField(index, field) || indexFieldStatsService.isDoubleField(index, field)) {
+				return new SortClause(field, ascending, SortValueType.NUMERIC);
+			}
+			if(indexFieldStatsService.isDateField(index, field)) {
+				return new SortClause(field, ascending, SortValueType.DATE);
+			}
+			return this;
+		}
+		return this;
 	}
 	
 	public String toSqlClause() {
 		final StringBuilder result = new StringBuilder();
-		result.append("elefana_json_field_nat(_source, '");
-		result.append(field);
-		result.append("')");
+		appendSqlExpression(result);
 		if(ascending) {
 			result.append(" ASC");
 		} else {
@@ -38,11 +88,128 @@ public class SortClause {
 		return result.toString();
 	}
 
+	/**
+	 * Appends the condition matching rows that sort after the given value. PostgreSQL
+	 * sorts NULL last for ascending order and first for descending order.
+	 */
+	public void appendSqlAfterCondition(StringBuilder result, JsonNode value) {
+		if(value == null || value.isNull()) {
+			if(ascending) {
+				result.append("FALSE");
+			} else {
+				appendSqlExpression(result);
+				result.append(" IS NOT NULL");
+			}
+			return;
+		}
+		if(ascending) {
+			result.append('(');
+			appendSqlExpression(result);
+			result.append(" > ");
+			appendSqlValue(result, value);
+			result.append(" OR ");
+			appendSqlExpression(result);
+			result.append(" IS NULL)");
+		} else {
+			appendSqlExpression(result);
+			result.append(" < ");
+			appendSqlValue(result, value);
+		}
+	}
+
+	public void appendSqlEqualsCondition(StringBuilder result, JsonNode value) {
+		appendSqlExpression(result);
+		if(value == null || value.isNull()) {
+			result.append(" IS NULL");
+			return;
+		}
+		result.append(" = ");
+		appendSqlValue(result, value);
+	}
+
+	public void appendSqlExpression(StringBuilder result) {
+		if(isColumn()) {
+			result.append(field);
+			return;
+		}
+		switch(valueType) {
+		case NUMERIC:
+			result.append(IndexUtils.getNumericFieldExpression(field));
+			return;
+		case DATE:
+			//Epoch millis so that dates sort chronologically whether stored as epoch millis or ISO-8601 strings
+			result.append("elefana_json_date(_source, ");
+			result.append(SqlTemplateUtils.quoteLiteral(field));
+			result.append(")");
+			return;
+		case JSON:
+		default:
+			result.append("elefana_json_field_nat(_source, ");
+			result.append(SqlTemplateUtils.quoteLiteral(field));
+			result.append(")");
+			return;
+		}
+	}
+
+	/**
+	 * Appends the sort expression as a jsonb value
+	 */
+	public void appendSqlJsonExpression(StringBuilder result) {
+		if(isColumn() || valueType != SortValueType.JSON) {
+			result.append("to_jsonb(");
+			appendSqlExpression(result);
+			result.append(')');
+			return;
+		}
+		appendSqlExpression(result);
+	}
+
+	private void appendSqlValue(StringBuilder result, JsonNode value) {
+		if(field.equals(FIELD_TIMESTAMP)) {
+			result.append(value.asLong());
+		} else if(valueType == SortValueType.NUMERIC && value.isNumber()) {
+			result.append(value.decimalValue().toPlainString());
+		} else if(valueType == SortValueType.NUMERIC) {
+			result.append('\'');
+			result.append(value.asText().replace("'", "''"));
+			result.append("'::numeric");
+		} else if(valueType == SortValueType.DATE && value.isNumber()) {
+			result.append(value.asLong());
+		} else if(valueType == SortValueType.DATE) {
+			try {
+				result.append(DateMathParser.parse(value.asText(), System.currentTimeMillis(), false, ZoneOffset.UTC));
+			} catch (IllegalArgumentException e) {
+				result.append('\'');
+				result.append(value.asText().replace("'", "''"));
+				result.append("'::numeric");
+			}
+		} else if(isColumn()) {
+			result.append('\'');
+			result.append(value.asText().replace("'", "''"));
+			result.append('\'');
+		} else {
+			result.append('\'');
+			result.append(value.toString().replace("'", "''"));
+			result.append("'::jsonb");
+		}
+	}
+
+	/**
+	 * @return True if the field is a table column instead of a _source field
+	 */
+	public boolean isColumn() {
+		return field.equals(FIELD_ID) || field.equals(FIELD_INDEX) || field.equals(FIELD_TYPE) || field.equals(FIELD_TIMESTAMP);
+	}
+
 	public String getField() {
 		return field;
 	}
 
 	public boolean isAscending() {
 		return ascending;
-	}	
+	}
+
+	public SortValueType getValueType() {
+		return valueType;
+	}
 }
@@ -20,11 +20,14 @@ import com.elefana.api.indices.IndexGenerationSettings;
 import com.elefana.api.indices.IndexStorageSettings;
 import com.elefana.api.indices.IndexTemplate;
 import com.elefana.document.psql.PsqlDocumentService;
+import com.elefana.indices.fieldstats.IndexFieldStatsService;
 import com.elefana.node.NodeSettingsService;
 import com.elefana.node.NodeStatsService;
+import com.elefana.util.CoreIndexUtils;
 import com.elefana.util.DiskBackedQueue;
 import com.elefana.util.IndexUtils;
 import com.elefana.util.NamedThreadFactory;
+import com.elefana.util.SqlTemplateUtils;
 import com.elefana.util.ThreadPriorities;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -37,7 +40,10 @@ import org.springframework.stereotype.Service;
 import javax.annotation.PreDestroy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -50,11 +56,14 @@ public class TableIndexCreator implements Runnable {
 
 	private static final String TABLE_INDEX_QUEUE_ID = "table-index-queue";
 	private static final String FIELD_INDEX_QUEUE_ID = "field-index-queue";
+	private static final String TIMESTAMP_COLUMN = "_timestamp";
 
 	@Autowired
 	private JdbcTemplate jdbcTemplate;
 	@Autowired
 	private NodeSettingsService nodeSettingsService;
+	@Autowired
+	private IndexFieldStatsService indexFieldStatsService;
 
 	private ScheduledExecutorService executorService = null;
 	private DiskBackedQueue<TableFieldIndexDelay> fieldIndexQueue;
@@ -180,57 +189,85 @@ public class TableIndexCreator implements Runnable {
 
 	private void internalCreatePsqlFieldIndex(Connection connection, String tableName, String fieldName, IndexGenerationMode mode,
 	                                          boolean ginEnabled, boolean brinEnabled, boolean hashEnabled) throws SQLException {
-		if(brinEnabled) {
-			final String btreeIndexName = getPsqlIndexName(IndexUtils.BTREE_INDEX_PREFIX, tableName, fieldName);
-			final String query = "CREATE INDEX IF NOT EXISTS " + btreeIndexName + " ON " + tableName + " USING BTREE ((_source->>'" + fieldName + "'));";
-			LOGGER.info(query);
-			PreparedStatement preparedStatement = connection.prepareStatement(query);
-			try {
-				preparedStatement.execute();
-				preparedStatement.close();
-			} catch (SQLException e) {
-				abortPreparedStatement(preparedStatement);
-				throw e;
-			}
+		final String textExpression = "(_source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")";
 
-			if(listener != null) {
-				listener.onCreated();
+		if(mode.equals(IndexGenerationMode.TYPED)) {
+			final String typedExpression = getTypedFieldExpression(tableName, fieldName);
+			if(brinEnabled) {
+				final String brinIndexName = getPsqlIndexName(IndexUtils.BRIN_INDEX_PREFIX, tableName, fieldName);
+				executeCreateIndex(connection, "CREATE INDEX IF NOT EXISTS " + brinIndexName + " ON " + tableName + " USING BRIN (" +
+						(typedExpression != null ? typedExpression : textExpression) + ");");
+			} else if(typedExpression != null) {
+				final String btreeIndexName = getPsqlIndexName(IndexUtils.BTREE_INDEX_PREFIX, tableName, fieldName);
+				executeCreateIndex(connection, "CREATE INDEX IF NOT EXISTS " + btreeIndexName + " ON " + tableName + " USING BTREE (" + typedExpression + ");");
 			}
+		} else if(brinEnabled) {
+			final String btreeIndexName = getPsqlIndexName(IndexUtils.BTREE_INDEX_PREFIX, tableName, fieldName);
+			executeCreateIndex(connection, "CREATE INDEX IF NOT EXISTS " + btreeIndexName + " ON " + tableName + " USING BTREE (" + textExpression + ");");
 		}
 		if(hashEnabled) {
 			final String hashIndexName = getPsqlIndexName(IndexUtils.HASH_INDEX_PREFIX, tableName, fieldName);
-			final String query = "CREATE INDEX IF NOT EXISTS " + hashIndexName + " ON " + tableName + " USING HASH ((_source->>'" + fieldName + "'));";
-			LOGGER.info(query);
-			PreparedStatement preparedStatement = connection.prepareStatement(query);
-			try {
-				preparedStatement.execute();
-				preparedStatement.close();
-			} catch (SQLException e) {
-				abortPreparedStatement(preparedStatement);
-				throw e;
-			}
-
-			if(listener != null) {
-				listener.onCreated();
-			}
+			executeCreateIndex(connection, "CREATE INDEX IF NOT EXISTS " + hashIndexName + " ON " + tableName + " USING HASH (" + textExpression + ");");
 		}
 		if(ginEnabled) {
 			final String ginIndexName = getPsqlIndexName(IndexUtils.GIN_INDEX_PREFIX, tableName, fieldName);
-			final String query = "CREATE INDEX IF NOT EXISTS " + ginIndexName + " ON " + tableName + " USING GIN ((_source->>'" + fieldName + "') gin_trgm_ops);";
-			LOGGER.info(query);
-			PreparedStatement preparedStatement = connection.prepareStatement(query);
-			try {
-				preparedStatement.execute();
-				preparedStatement.close();
-			} catch (SQLException e) {
-				abortPreparedStatement(preparedStatement);
-				throw e;
-			}
+			executeCreateIndex(connection, "CREATE INDEX IF NOT EXISTS " + ginIndexName + " ON " + tableName + " USING GIN (" + textExpression + " gin_trgm_ops);");
+		}
+	}
+
+	public void createPsqlTimestampIndex(Connection connection, String tableName, IndexStorageSettings settings) throws SQLException {
+		if(!settings.getIndexGenerationSettings().getMode().equals(IndexGenerationMode.TYPED)) {
+			return;
+		}
+		final String brinIndexName = getPsqlIndexName(IndexUtils.BRIN_INDEX_PREFIX, tableName, TIMESTAMP_COLUMN);
+		executeCreateIndex(connection, "CREATE INDEX IF NOT EXISTS " + brinIndexName + " ON " + tableName + " USING BRIN (" + TIMESTAMP_COLUMN + ");");
+	}
+
+	public void createPsqlTextSearchIndex(Connection connection, String tableName, String fieldName, IndexStorageSettings settings) throws SQLException {
+		final String textSearchIndexName = getPsqlIndexName(IndexUtils.TEXT_SEARCH_INDEX_PREFIX, tableName, fieldName);
+		executeCreateIndex(connection, "CREATE INDEX IF NOT EXISTS " + textSearchIndexName + " ON " + tableName + " USING GIN (" +
+				IndexUtils.getTextSearchExpression(settings.getIndexGenerationSettings(), fieldName) + ");");
+	}
+
+	private void executeCreateIndex(Connection connection, String query) throws SQLException {
+		LOGGER.info(query);
+		PreparedStatement preparedStatement = connection.prepareStatement(query);
+		try {
+			preparedStatement.execute();
+			preparedStatement.close();
+		} catch (SQLException e) {
+			abortPreparedStatement(preparedStatement);
+			throw e;
+		}
+
+		if(listener != null) {
+			listener.onCreated();
+		}
+	}
 
-			if(listener != null) {
-				listener.onCreated();
+	/**
+	 * @return The expression queries use for the field type inferred by field stats, null for text and unknown fields
+	 */
+	private String getTypedFieldExpression(String tableName, String fieldName) {
+		if(indexFieldStatsService == null) {
+			return null;
+		}
+		try {
+			final String index = CoreIndexUtils.convertTableNameToIndexName(tableName);
+			if(!indexFieldStatsService.hasField(index, fieldName)) {
+				return null;
+			}
+			if(indexFieldStatsService.isLongField(index, fieldName) || indexFieldStatsService.isDoubleField(index, fieldName) ||
+					indexFieldStatsService.isDateField(index, fieldName)) {
+				return "(" + IndexUtils.getNumericFieldExpression(fieldName) + ")";
 			}
+			if(indexFieldStatsService.isBooleanField(index, fieldName)) {
+				return "(" + IndexUtils.getBooleanFieldExpression(fieldName) + ")";
+			}
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage(), e);
 		}
+		return null;
 	}
 
 	public void deletePsqlIndices(String index, String tableName, IndexTemplate indexTemplate) {
@@ -245,13 +282,14 @@ public class TableIndexCreator implements Runnable {
 
 		try {
 			final IndexGenerationSettings settings = indexTemplate.getStorage().getIndexGenerationSettings();
+			final boolean typed = settings.getMode().equals(IndexGenerationMode.TYPED);
 			if(settings.getPresetBrinIndexFields() != null) {
 				for(String fieldName : settings.getPresetBrinIndexFields()) {
 					if(connection == null) {
 						connection = jdbcTemplate.getDataSource().getConnection();
 					}
-					final String btreeIndexName = getPsqlIndexName(IndexUtils.BTREE_INDEX_PREFIX, tableName, fieldName);
-					final String query = "DROP INDEX IF EXISTS " + btreeIndexName;
+					final String indexName = getPsqlIndexName(typed ? IndexUtils.BRIN_INDEX_PREFIX : IndexUtils.BTREE_INDEX_PREFIX, tableName, fieldName);
+					final String query = "DROP INDEX IF EXISTS " + indexName;
 					PreparedStatement preparedStatement = connection.prepareStatement(query);
 					try {
 						preparedStatement.execute();
@@ -262,6 +300,22 @@ public class TableIndexCreator implements Runnable {
 					}
 				}
 			}
+			if(typed) {
+				if(connection == null) {
+					connection = jdbcTemplate.getDataSource().getConnection();
+				}
+				dropTypedBtreeIndices(connection, tableName);
+				final String brinIndexName = getPsqlIndexName(IndexUtils.BRIN_INDEX_PREFIX, tableName, TIMESTAMP_COLUMN);
+				final String query = "DROP INDEX IF EXISTS " + brinIndexName;
+				PreparedStatement preparedStatement = connection.prepareStatement(query);
+				try {
+					preparedStatement.execute();
+					preparedStatement.close();
+				} catch (SQLException e) {
+					abortPreparedStatement(preparedStatement);
+					throw e;
+				}
+			}
 			if(settings.getPresetGinIndexFields() != null) {
 				for(String fieldName : settings.getPresetGinIndexFields()) {
 					if(connection == null) {
@@ -279,6 +333,23 @@ public class TableIndexCreator implements Runnable {
 					}
 				}
 			}
+			if(settings.getTextSearchFields() != null) {
+				for(String fieldName : settings.getTextSearchFields()) {
+					if(connection == null) {
+						connection = jdbcTemplate.getDataSource().getConnection();
+					}
+					final String textSearchIndexName = getPsqlIndexName(IndexUtils.TEXT_SEARCH_INDEX_PREFIX, tableName, fieldName);
+					final String query = "DROP INDEX IF EXISTS " + textSearchIndexName;
+					PreparedStatement preparedStatement = connection.prepareStatement(query);
+					try {
+						preparedStatement.execute();
+						preparedStatement.close();
+					} catch (SQLException e) {
+						abortPreparedStatement(preparedStatement);
+						throw e;
+					}
+				}
+			}
 			if(settings.getPresetHashIndexFields() != null) {
 				for(String fieldName : settings.getPresetHashIndexFields()) {
 					if(connection == null) {
@@ -307,6 +378,34 @@ public class TableIndexCreator implements Runnable {
 		}
 	}
 
+	private void dropTypedBtreeIndices(Connection connection, String tableName) throws SQLException {
+		final List<String> indexNames = new ArrayList<String>();
+		PreparedStatement preparedStatement = connection.prepareStatement(
+				"SELECT indexname FROM pg_indexes WHERE tablename = ? AND indexname LIKE ?");
+		try {
+			preparedStatement.setString(1, tableName);
+			preparedStatement.setString(2, getPsqlIndexNamePrefix(IndexUtils.BTREE_INDEX_PREFIX, tableName).replace("_", "\\_") + "%");
+			final ResultSet resultSet = preparedStatement.executeQuery();
+			while(resultSet.next()) {
+				indexNames.add(resultSet.getString("indexname"));
+			}
+			preparedStatement.close();
+		} catch (SQLException e) {
+			abortPreparedStatement(preparedStatement);
+			throw e;
+		}
+		for(String indexName : indexNames) {
+			preparedStatement = connection.prepareStatement("DROP INDEX IF EXISTS " + indexName);
+			try {
+				preparedStatement.execute();
+				preparedStatement.close();
+			} catch (SQLException e) {
+				abortPreparedStatement(preparedStatement);
+				throw e;
+			}
+		}
+	}
+
 	private void abortPreparedStatement(PreparedStatement preparedStatement) {
 		try {
 			preparedStatement.cancel();
@@ -317,7 +416,11 @@ public class TableIndexCreator implements Runnable {
 	}
 
 	public static String getPsqlIndexName(String prefix, String tableName, String fieldName) {
-		return prefix + tableName.replace("_m_", "__").replace("_f_", "__") + "_" + getFieldNameHash(fieldName);
+		return getPsqlIndexNamePrefix(prefix, tableName) + getFieldNameHash(fieldName);
+	}
+
+	private static String getPsqlIndexNamePrefix(String prefix, String tableName) {
+		return prefix + tableName.replace("_m_", "__").replace("_f_", "__") + "_";
 	}
 
 	public static String getFieldNameHash(String fieldName) {
@@ -334,6 +437,10 @@ public class TableIndexCreator implements Runnable {
 		this.nodeSettingsService = nodeSettingsService;
 	}
 
+	public void setIndexFieldStatsService(IndexFieldStatsService indexFieldStatsService) {
+		this.indexFieldStatsService = indexFieldStatsService;
+	}
+
 	public void setListener(IndexCreatedListener listener) {
 		this.listener = listener;
 	}
@@ -48,6 +48,7 @@ public class CoreDbInitializer implements DbInitializer {
 		createPartitionTrackingTableIfNotExists();
 		createFieldStatsTablesIfNotExists();
 		createIndexTemplatesTableIfNotExists();
+		createRollupTablesIfNotExists();
 	}
 
 	public boolean isTableDistributed(String tableName) {
@@ -167,4 +168,24 @@ public class CoreDbInitializer implements DbInitializer {
 			jdbcTemplate.execute("SELECT create_distributed_table('elefana_index_template', '_template_id');");
 		}
 	}
+
+	private void createRollupTablesIfNotExists() throws SQLException {
+		if (!nodeSettingsService.isMasterNode()) {
+			return;
+		}
+
+		//Rows with an empty _field hold the document count of each minute
+		jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + IndexUtils.ROLLUP_TABLE
+				+ " (_index VARCHAR(255) NOT NULL, _bucket1m BIGINT NOT NULL, _field VARCHAR(255) NOT NULL, _doc_count BIGINT, "
+				+ "_value_count BIGINT, _sum NUMERIC, _min NUMERIC, _max NUMERIC, PRIMARY KEY (_index, _bucket1m, _field));");
+		jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + IndexUtils.ROLLUP_TRACKING_TABLE
+				+ " (_index VARCHAR(255) PRIMARY KEY, _fields jsonb);");
+
+		if (nodeSettingsService.isUsingCitus() && !isTableDistributed(IndexUtils.ROLLUP_TABLE)) {
+			jdbcTemplate.execute("SELECT create_distributed_table('" + IndexUtils.ROLLUP_TABLE + "', '_index');");
+		}
+		if (nodeSettingsService.isUsingCitus() && !isTableDistributed(IndexUtils.ROLLUP_TRACKING_TABLE)) {
+			jdbcTemplate.execute("SELECT create_distributed_table('" + IndexUtils.ROLLUP_TRACKING_TABLE + "', '_index');");
+		}
+	}
 }
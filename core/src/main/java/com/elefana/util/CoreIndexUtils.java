@@ -260,15 +260,20 @@ public class CoreIndexUtils implements IndexUtils {
 	}
 
 	@Override
-	public long getTimestamp(String index, String document) throws ElefanaException {
+	public String getTimestampPath(String index) throws ElefanaException {
 		final GetIndexTemplateForIndexRequest indexTemplateForIndexRequest = indexTemplateService
 				.prepareGetIndexTemplateForIndex(null, index);
 		final GetIndexTemplateForIndexResponse indexTemplateForIndexResponse = indexTemplateForIndexRequest.get();
 		final IndexTemplate indexTemplate = indexTemplateForIndexResponse.getIndexTemplate();
 		if (indexTemplate == null) {
-			return System.currentTimeMillis();
+			return null;
 		}
-		String timestampPath = indexTemplate.getStorage().getTimestampPath();
+		return indexTemplate.getStorage().getTimestampPath();
+	}
+
+	@Override
+	public long getTimestamp(String index, String document) throws ElefanaException {
+		final String timestampPath = getTimestampPath(index);
 		if (timestampPath == null) {
 			return System.currentTimeMillis();
 		}
@@ -281,14 +286,7 @@ public class CoreIndexUtils implements IndexUtils {
 	}
 
 	public long getTimestamp(String index, PooledStringBuilder document) throws ElefanaException {
-		final GetIndexTemplateForIndexRequest indexTemplateForIndexRequest = indexTemplateService
-				.prepareGetIndexTemplateForIndex(null, index);
-		final GetIndexTemplateForIndexResponse indexTemplateForIndexResponse = indexTemplateForIndexRequest.get();
-		final IndexTemplate indexTemplate = indexTemplateForIndexResponse.getIndexTemplate();
-		if (indexTemplate == null) {
-			return System.currentTimeMillis();
-		}
-		String timestampPath = indexTemplate.getStorage().getTimestampPath();
+		final String timestampPath = getTimestampPath(index);
 		if (timestampPath == null) {
 			return System.currentTimeMillis();
 		}
@@ -300,11 +298,13 @@ public class CoreIndexUtils implements IndexUtils {
 
 	@Override
 	public long getTimestamp(String index, char[] document, int documentLength) throws ElefanaException {
-		final PooledStringBuilder str = PooledStringBuilder.allocate();
-		str.append(document, 0, documentLength);
-		final long result = getTimestamp(index, str);
-		str.release();
-		return result;
+		final String timestampPath = getTimestampPath(index);
+		if (timestampPath == null) {
+			return System.currentTimeMillis();
+		}
+
+		final NoAllocTimestampExtractor timestampExtractor = getTimestampExtractor(timestampPath);
+		return timestampExtractor.extract(document, documentLength);
 	}
 
 	@Override
@@ -336,6 +336,7 @@ public class CoreIndexUtils implements IndexUtils {
 			for (String fieldName : fieldNames) {
 				switch (indexStorageSettings.getIndexGenerationSettings().getMode()) {
 				case PRESET:
+				case TYPED:
 					tableIndexCreator.createPsqlFieldIndex(connection, tableName, fieldName, indexStorageSettings);
 					break;
 				default:
@@ -421,11 +422,17 @@ public class CoreIndexUtils implements IndexUtils {
 
 			if(indexTemplate != null && indexTemplate.getStorage() != null) {
 				if(indexTemplate.getStorage().getIndexGenerationSettings() != null &&
-						indexTemplate.getStorage().getIndexGenerationSettings().getMode().equals(IndexGenerationMode.PRESET)) {
+						!indexTemplate.getStorage().getIndexGenerationSettings().getMode().equals(IndexGenerationMode.NONE)) {
+					tableIndexCreator.createPsqlTimestampIndex(connection, tableName, indexTemplate.getStorage());
 					ensureJsonFieldIndexExist(indexName, indexTemplate.getStorage().getIndexGenerationSettings().getPresetHashIndexFields());
 					ensureJsonFieldIndexExist(indexName, indexTemplate.getStorage().getIndexGenerationSettings().getPresetBrinIndexFields());
 					ensureJsonFieldIndexExist(indexName, indexTemplate.getStorage().getIndexGenerationSettings().getPresetGinIndexFields());
 				}
+				if(indexTemplate.getStorage().getIndexGenerationSettings() != null) {
+					for(String fieldName : indexTemplate.getStorage().getIndexGenerationSettings().getTextSearchFields()) {
+						tableIndexCreator.createPsqlTextSearchIndex(connection, tableName, fieldName, indexTemplate.getStorage());
+					}
+				}
 			}
 
 			final boolean createPrimaryKey = !nodeSettingsService.isUsingCitus() || (nodeSettingsService.isUsingCitus() && !timeSeries);
@@ -89,6 +89,31 @@ public class EscapeUtils {
 		ASCII_ESCAPE_CHAR_POINT_CODES = table;
 	}
 
+	public static void appendQuoted(StringBuilder sb, String content)
+	{
+		final int[] escCodes = ASCII_ESCAPE_CHAR_POINT_CODES;
+		int escLen = escCodes.length;
+		for (int i = 0, len = content.length(); i < len; ++i) {
+			char c = content.charAt(i);
+			if (c >= escLen || escCodes[c] == 0) {
+				sb.append(c);
+				continue;
+			}
+			sb.append('\\');
+			int escCode = escCodes[c];
+			if (escCode < 0) {
+				sb.append('u');
+				sb.append('0');
+				sb.append('0');
+				int value = c;
+				sb.append(HEX_CHARS[value >> 4]);
+				sb.append(HEX_CHARS[value & 0xF]);
+			} else {
+				sb.append((char) escCode);
+			}
+		}
+	}
+
 	public static void appendQuoted(StringBuilder sb, char [] content, int contentOffset, int contentLength)
 	{
 		final int[] escCodes = ASCII_ESCAPE_CHAR_POINT_CODES;
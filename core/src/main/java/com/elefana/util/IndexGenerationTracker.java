@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.util;
+
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks a generation counter per index which is incremented each time
+ * documents in the index become visible to search or are deleted
+ */
+@Service
+public class IndexGenerationTracker {
+	private final Map<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+	public long getGeneration(String index) {
+		final AtomicLong result = generations.get(index);
+		if(result == null) {
+			return 0L;
+		}
+		return result.get();
+	}
+
+	public void incrementGeneration(String index) {
+		if(index == null) {
+			return;
+		}
+		AtomicLong generation = generations.get(index);
+		if(generation == null) {
+			generations.putIfAbsent(index, new AtomicLong());
+			generation = generations.get(index);
+		}
+		generation.incrementAndGet();
+	}
+}
@@ -16,6 +16,9 @@
 package com.elefana.util;
 
 import com.elefana.api.exception.ElefanaException;
+import com.elefana.api.indices.IndexGenerationMode;
+import com.elefana.api.indices.IndexGenerationSettings;
+import com.elefana.api.indices.IndexTemplate;
 import com.elefana.api.util.PooledStringBuilder;
 import com.elefana.indices.fieldstats.job.DocumentSourceProvider;
 import com.fasterxml.jackson.core.JsonParser;
@@ -34,12 +37,15 @@ public interface IndexUtils {
 
 	public static final String DATA_TABLE = "elefana_data";
 	public static final String PARTITION_TRACKING_TABLE = "elefana_partition_tracking";
+	public static final String ROLLUP_TABLE = "elefana_rollup";
+	public static final String ROLLUP_TRACKING_TABLE = "elefana_rollup_tracking";
 
 	public static final String TRIGGERS_PREFIX = "elefana_triggers_";
 	public static final String HASH_INDEX_PREFIX = "hx_";
 	public static final String BTREE_INDEX_PREFIX = "btx_";
 	public static final String GIN_INDEX_PREFIX = "gx_";
 	public static final String BRIN_INDEX_PREFIX = "brx_";
+	public static final String TEXT_SEARCH_INDEX_PREFIX = "tsx_";
 	public static final String PRIMARY_KEY_PREFIX = "epkey_";
 
 	public static final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
@@ -58,6 +64,14 @@ public interface IndexUtils {
 
 	public String getQueryTarget(String indexName);
 
+	/**
+	 * Returns the timestamp path configured in the index template for an index
+	 * @param index The index name
+	 * @return Null if the index has no template or timestamp path
+	 * @throws ElefanaException Thrown if the index template could not be retrieved
+	 */
+	public String getTimestampPath(String index) throws ElefanaException;
+
 	public long getTimestamp(String index, String document) throws ElefanaException;
 
 	public long getTimestamp(String index, PooledStringBuilder document) throws ElefanaException;
@@ -80,6 +94,62 @@ public interface IndexUtils {
 
 	public String getPartitionTableForIndex(String index);
 
+	public static boolean isTypedIndexGeneration(IndexTemplate indexTemplate) {
+		if(indexTemplate == null || indexTemplate.getStorage() == null ||
+				indexTemplate.getStorage().getIndexGenerationSettings() == null) {
+			return false;
+		}
+		return indexTemplate.getStorage().getIndexGenerationSettings().getMode().equals(IndexGenerationMode.TYPED);
+	}
+
+	/**
+	 * Returns the expression typed indices on numeric JSON fields are created on.
+	 * Queries must use the same expression for PSQL to match the index.
+	 */
+	public static String getNumericFieldExpression(String fieldName) {
+		return "elefana_json_numeric(_source, " + SqlTemplateUtils.quoteLiteral(fieldName) + ")";
+	}
+
+	/**
+	 * Returns the expression typed indices on boolean JSON fields are created on.
+	 * Queries must use the same expression for PSQL to match the index.
+	 */
+	public static String getBooleanFieldExpression(String fieldName) {
+		return "elefana_json_boolean(_source, " + SqlTemplateUtils.quoteLiteral(fieldName) + ")";
+	}
+
+	/**
+	 * @return The index generation settings if the field is a text search field of the template, otherwise null
+	 */
+	public static IndexGenerationSettings getTextSearchSettings(IndexTemplate indexTemplate, String fieldName) {
+		if(indexTemplate == null || indexTemplate.getStorage() == null ||
+				indexTemplate.getStorage().getIndexGenerationSettings() == null) {
+			return null;
+		}
+		final IndexGenerationSettings settings = indexTemplate.getStorage().getIndexGenerationSettings();
+		return settings.isTextSearchField(fieldName) ? settings : null;
+	}
+
+	/**
+	 * Returns the tsvector expression text search indices are created on.
+	 * Queries must use the same expression for PSQL to match the index.
+	 */
+	public static String getTextSearchExpression(IndexGenerationSettings settings, String fieldName) {
+		return "to_tsvector(" + getTextSearchConfig(settings) + ", _source->>" + SqlTemplateUtils.quoteLiteral(fieldName) + ")";
+	}
+
+	public static String getTextSearchConfig(IndexGenerationSettings settings) {
+		String config = settings.getTextSearchConfig();
+		for(int i = 0; i < config.length(); i++) {
+			final char c = config.charAt(i);
+			if(!Character.isLetterOrDigit(c) && c != '_' && c != '.') {
+				config = IndexGenerationSettings.DEFAULT_TEXT_SEARCH_CONFIG;
+				break;
+			}
+		}
+		return "'" + config + "'::regconfig";
+	}
+
 	public static String destringifyJson(String json) {
 		if (json.startsWith("\"")) {
 			json = json.substring(1, json.length() - 1);
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.util;
+
+import com.elefana.api.util.PooledStringBuilder;
+
+/**
+ * Reads newline-delimited bulk requests in a single pass without copying
+ * lines or creating a JSON parser per operation. Only the action name and
+ * _index, _type and _id are extracted from action lines, source lines are
+ * exposed as offsets into the request body.
+ */
+public class NoAllocBulkReader {
+	public static final String ACTION_INDEX = "index";
+	public static final String ACTION_CREATE = "create";
+	public static final String ACTION_UPDATE = "update";
+	public static final String ACTION_DELETE = "delete";
+
+	private static final String KEY_INDEX = "_index";
+	private static final String KEY_TYPE = "_type";
+	private static final String KEY_ID = "_id";
+
+	private final StringBuilder valueBuilder = new StringBuilder(64);
+
+	private PooledStringBuilder body;
+	private int length;
+	private int readIndex;
+
+	private int lineStart, lineEnd;
+	private int lineCount, lineNumber;
+
+	private String action;
+	private String index;
+	private String type;
+	private String id;
+
+	public void reset(PooledStringBuilder body) {
+		this.body = body;
+		this.length = body.length();
+		this.readIndex = 0;
+		this.lineStart = 0;
+		this.lineEnd = 0;
+		this.lineCount = 0;
+		this.lineNumber = 0;
+	}
+
+	/**
+	 * Reads the next action line
+	 * @return False if the end of the request body was reached
+	 */
+	public boolean nextAction() {
+		action = null;
+		index = null;
+		type = null;
+		id = null;
+
+		if(!nextLine()) {
+			return false;
+		}
+		int position = lineStart;
+
+		final int actionStart = indexOf('"', position, lineEnd) + 1;
+		if(actionStart <= 0) {
+			return true;
+		}
+		final int actionEnd = indexOf('"', actionStart, lineEnd);
+		if(actionEnd < 0) {
+			return true;
+		}
+		action = toAction(actionStart, actionEnd);
+		position = actionEnd + 1;
+
+		while(position < lineEnd) {
+			final int keyStart = indexOf('"', position, lineEnd) + 1;
+			if(keyStart <= 0) {
+				break;
+			}
+			final int keyEnd = indexOf('"', keyStart, lineEnd);
+			if(keyEnd < 0) {
+				break;
+			}
+			position = readValue(keyStart, keyEnd, indexOf(':', keyEnd, lineEnd) + 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the next source line
+	 * @return False if the end of the request body was reached
+	 */
+	public boolean nextSource() {
+		return nextLine();
+	}
+
+	private boolean nextLine() {
+		while(readIndex < length) {
+			int start = readIndex;
+			int end = start;
+			char lastNonWhitespace = ' ';
+			final int startLineNumber = lineCount + 1;
+			// Lines only end after a closing brace, raw line breaks inside string values are kept
+			while(end < length) {
+				final char c = body.charAt(end);
+				if(c == '\n' && (lastNonWhitespace == '}' || lastNonWhitespace == ' ')) {
+					break;
+				}
+				if(c == '\n') {
+					lineCount++;
+				}
+				if(!Character.isWhitespace(c)) {
+					lastNonWhitespace = c;
+				}
+				end++;
+			}
+			readIndex = end + 1;
+			lineCount++;
+
+			if(end == length && lastNonWhitespace != '}' && lastNonWhitespace != ' ') {
+				// A truncated trailing line is not a complete action or document
+				break;
+			}
+
+			while(start < end && Character.isWhitespace(body.charAt(start))) {
+				start++;
+			}
+			while(end > start && Character.isWhitespace(body.charAt(end - 1))) {
+				end--;
+			}
+			if(start == end) {
+				continue;
+			}
+			lineStart = start;
+			lineEnd = end;
+			lineNumber = startLineNumber;
+			return true;
+		}
+		lineStart = length;
+		lineEnd = length;
+		return false;
+	}
+
+	private int readValue(int keyStart, int keyEnd, int valueStart) {
+		if(valueStart <= 0) {
+			return lineEnd;
+		}
+		while(valueStart < lineEnd && Character.isWhitespace(body.charAt(valueStart))) {
+			valueStart++;
+		}
+		if(valueStart >= lineEnd) {
+			return lineEnd;
+		}
+
+		int valueEnd = valueStart;
+		final boolean quoted = body.charAt(valueStart) == '"';
+		valueBuilder.setLength(0);
+
+		if(quoted) {
+			valueEnd++;
+			while(valueEnd < lineEnd && body.charAt(valueEnd) != '"') {
+				if(body.charAt(valueEnd) == '\\' && valueEnd + 1 < lineEnd) {
+					valueEnd++;
+				}
+				valueBuilder.append(body.charAt(valueEnd));
+				valueEnd++;
+			}
+			valueEnd++;
+		} else {
+			char c = body.charAt(valueEnd);
+			if(c == '{' || c == '[') {
+				return valueEnd + 1;
+			}
+			while(valueEnd < lineEnd && c != ',' && c != '}' && !Character.isWhitespace(c)) {
+				valueBuilder.append(c);
+				valueEnd++;
+				if(valueEnd < lineEnd) {
+					c = body.charAt(valueEnd);
+				}
+			}
+			if(valueBuilder.length() == 4 && valueBuilder.indexOf("null") == 0) {
+				return valueEnd;
+			}
+		}
+
+		if(isKey(KEY_INDEX, keyStart, keyEnd)) {
+			index = valueBuilder.toString();
+		} else if(isKey(KEY_TYPE, keyStart, keyEnd)) {
+			type = valueBuilder.toString();
+		} else if(isKey(KEY_ID, keyStart, keyEnd)) {
+			id = valueBuilder.toString();
+		}
+		return valueEnd;
+	}
+
+	private String toAction(int start, int end) {
+		if(isKey(ACTION_INDEX, start, end)) {
+			return ACTION_INDEX;
+		} else if(isKey(ACTION_CREATE, start, end)) {
+			return ACTION_CREATE;
+		} else if(isKey(ACTION_UPDATE, start, end)) {
+			return ACTION_UPDATE;
+		} else if(isKey(ACTION_DELETE, start, end)) {
+			return ACTION_DELETE;
+		}
+		return body.subSequence(start, end).toString();
+	}
+
+	private boolean isKey(String key, int start, int end) {
+		if(end - start != key.length()) {
+			return false;
+		}
+		for(int i = 0; i < key.length(); i++) {
+			if(body.charAt(start + i) != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int indexOf(char c, int from, int to) {
+		for(int i = from; i < to; i++) {
+			if(body.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public String getIndex() {
+		return index;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public int getLineStart() {
+		return lineStart;
+	}
+
+	public int getLineEnd() {
+		return lineEnd;
+	}
+
+	/**
+	 * @return The line number of the current line within the request body, starting at 1
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	public String getLine() {
+		return body.subSequence(lineStart, lineEnd).toString();
+	}
+}
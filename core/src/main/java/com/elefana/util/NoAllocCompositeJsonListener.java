@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.util;
+
+/**
+ * Dispatches the events of a single {@link NoAllocJsonReader} pass to multiple listeners.
+ * A listener returning false stops receiving events, the read is only terminated once
+ * all listeners have stopped.
+ */
+public class NoAllocCompositeJsonListener implements NoAllocJsonReader.JsonReaderListener {
+	private final NoAllocJsonReader.JsonReaderListener [] listeners;
+	private final boolean [] active;
+	private int totalActive;
+
+	public NoAllocCompositeJsonListener(NoAllocJsonReader.JsonReaderListener... listeners) {
+		super();
+		this.listeners = listeners;
+		this.active = new boolean[listeners.length];
+	}
+
+	@Override
+	public boolean onReadBegin() {
+		totalActive = 0;
+		for(int i = 0; i < listeners.length; i++) {
+			active[i] = listeners[i].onReadBegin();
+			if(active[i]) {
+				totalActive++;
+			}
+		}
+		return totalActive > 0;
+	}
+
+	@Override
+	public boolean onReadEnd() {
+		for(int i = 0; i < listeners.length; i++) {
+			if(active[i]) {
+				listeners[i].onReadEnd();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean onObjectBegin() {
+		for(int i = 0; i < listeners.length; i++) {
+			if(active[i] && !listeners[i].onObjectBegin()) {
+				deactivate(i);
+			}
+		}
+		return totalActive > 0;
+	}
+
+	@Override
+	public boolean onObjectEnd() {
+		for(int i = 0; i < listeners.length; i++) {
+			if(active[i] && !listeners[i].onObjectEnd()) {
+				deactivate(i);
+			}
+		}
+		return totalActive > 0;
+	}
+
+	@Override
+	public boolean onArrayBegin() {
+		for(int i = 0; i < listeners.length; i++) {
+			if(active[i] && !listeners[i].onArrayBegin()) {
+				deactivate(i);
+			}
+		}
+		return totalActive > 0;
+	}
+
+	@Override
+	public boolean onArrayEnd() {
+		for(int i = 0; i < listeners.length; i++) {
+			if(active[i] && !listeners[i].onArrayEnd()) {
+				deactivate(i);
+			}
+		}
+		return totalActive > 0;
+	}
+
+	@Override
+	public boolean onKey(char[] value, int from, int length) {
+		for(int i = 0; i < listeners.length; i++) {
+			if(active[i] && !listeners[i].onKey(value, from, length)) {
+				deactivate(i);
+			}
+		}
+		return totalActive > 0;
+	}
+
+	@Override
+	public boolean onValue(char[] value, int from, int length) {
+		for(int i = 0; i < listeners.length; i++) {
+			if(active[i] && !listeners[i].onValue(value, from, length)) {
+				deactivate(i);
+			}
+		}
+		return totalActive > 0;
+	}
+
+	private void deactivate(int index) {
+		active[index] = false;
+		totalActive--;
+	}
+}
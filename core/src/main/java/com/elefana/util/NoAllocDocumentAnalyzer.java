@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Analyses a bulk document in a single {@link NoAllocJsonReader} pass, extracting the
+ * timestamp and detecting whether the document requires PSQL escaping.
+ * Instances are not thread safe and are intended to be held per thread.
+ */
+public class NoAllocDocumentAnalyzer {
+	private final NoAllocJsonReader jsonReader = new NoAllocJsonReader();
+	private final EscapeDetector escapeDetector = new EscapeDetector();
+	private final NoAllocCompositeJsonListener escapeOnlyListener = new NoAllocCompositeJsonListener(escapeDetector);
+	private final Map<String, NoAllocTimestampExtractor> timestampExtractors = new HashMap<String, NoAllocTimestampExtractor>();
+	private final Map<String, NoAllocCompositeJsonListener> listeners = new HashMap<String, NoAllocCompositeJsonListener>();
+
+	private NoAllocTimestampExtractor timestampExtractor;
+
+	/**
+	 * Analyses a document
+	 * @param document The document characters
+	 * @param documentLength The document length
+	 * @param timestampPath The key of the timestamp field or null if the index has none
+	 */
+	public void analyze(char [] document, int documentLength, String timestampPath) {
+		if(timestampPath == null) {
+			timestampExtractor = null;
+			jsonReader.read(document, documentLength, escapeOnlyListener);
+			return;
+		}
+		timestampExtractor = timestampExtractors.get(timestampPath);
+		if(timestampExtractor == null) {
+			timestampExtractor = new NoAllocTimestampExtractor(timestampPath);
+			timestampExtractors.put(timestampPath, timestampExtractor);
+			listeners.put(timestampPath, new NoAllocCompositeJsonListener(timestampExtractor, escapeDetector));
+		}
+		jsonReader.read(document, documentLength, listeners.get(timestampPath));
+	}
+
+	/**
+	 * @return The extracted timestamp or the current time if the document had none
+	 */
+	public long getTimestamp() {
+		if(timestampExtractor == null || timestampExtractor.getResult() == -1L) {
+			return System.currentTimeMillis();
+		}
+		return timestampExtractor.getResult();
+	}
+
+	/**
+	 * @return True if the document had a value at the timestamp path
+	 */
+	public boolean hasTimestamp() {
+		return timestampExtractor != null && timestampExtractor.getResult() != -1L;
+	}
+
+	/**
+	 * @return False if {@link EscapeUtils#psqlEscapeString(com.elefana.indices.fieldstats.job.DocumentSourceProvider)}
+	 * would leave the document unchanged
+	 */
+	public boolean isEscapeRequired() {
+		return escapeDetector.escapeRequired;
+	}
+
+	/**
+	 * Detects backslashes and control characters within keys and values. Backslashes
+	 * only occur inside strings, the only control characters allowed outside of strings
+	 * are whitespace which needs no escaping.
+	 */
+	private static class EscapeDetector implements NoAllocJsonReader.JsonReaderListener {
+		private boolean escapeRequired;
+
+		@Override
+		public boolean onReadBegin() {
+			escapeRequired = false;
+			return true;
+		}
+
+		@Override
+		public boolean onReadEnd() {
+			return true;
+		}
+
+		@Override
+		public boolean onObjectBegin() {
+			return true;
+		}
+
+		@Override
+		public boolean onObjectEnd() {
+			return true;
+		}
+
+		@Override
+		public boolean onArrayBegin() {
+			return true;
+		}
+
+		@Override
+		public boolean onArrayEnd() {
+			return true;
+		}
+
+		@Override
+		public boolean onKey(char[] value, int from, int length) {
+			return detect(value, from, length);
+		}
+
+		@Override
+		public boolean onValue(char[] value, int from, int length) {
+			return detect(value, from, length);
+		}
+
+		private boolean detect(char[] value, int from, int length) {
+			for(int i = from; i < from + length; i++) {
+				switch(value[i]) {
+				case '\\':
+				case '\n':
+				case '\r':
+				case '\t':
+				case '\f':
+				case '\b':
+				case '\u0000':
+					escapeRequired = true;
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
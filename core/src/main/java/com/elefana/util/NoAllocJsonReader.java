@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class NoAllocJsonReader {
+	private char [] buffer;
 	private char [] value;
 	private int length;
 
@@ -18,16 +19,40 @@ public class NoAllocJsonReader {
 	private void init(PooledStringBuilder str) {
 		length = str.length();
 
-		if(value == null || value.length < length) {
-			value = new char[length];
+		if(buffer == null || buffer.length < length) {
+			buffer = new char[length];
 		}
-		str.getChars(value);
+		str.getChars(buffer);
+		value = buffer;
 		readIndex = 0;
+		stateStack.clear();
+	}
+
+	private void init(char [] document, int documentLength) {
+		length = documentLength;
+		value = document;
+		readIndex = 0;
+		stateStack.clear();
 	}
 
 	public void read(PooledStringBuilder str, JsonReaderListener listener) {
 		init(str);
+		read(listener);
+	}
+
+	/**
+	 * Reads a document in place without copying it
+	 * @param document The document characters
+	 * @param documentLength The no. of characters to read
+	 * @param listener The listener to notify
+	 */
+	public void read(char [] document, int documentLength, JsonReaderListener listener) {
+		init(document, documentLength);
+		read(listener);
+		value = null;
+	}
 
+	private void read(JsonReaderListener listener) {
 		if(!listener.onReadBegin()) {
 			return;
 		}
@@ -33,6 +33,14 @@ public class NoAllocTimestampExtractor implements NoAllocJsonReader.JsonReaderLi
 		return result;
 	}
 
+	public long extract(char [] document, int documentLength) {
+		jsonReader.read(document, documentLength, this);
+		if(result == -1L) {
+			return System.currentTimeMillis();
+		}
+		return result;
+	}
+
 	@Override
 	public boolean onReadBegin() {
 		foundTimestamp = false;
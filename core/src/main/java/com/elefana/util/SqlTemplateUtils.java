@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.util;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Utility functions for SQL templates, i.e. SQL with values bound as JDBC ? placeholders.
+ * As in JDBC, a literal ? (e.g. the jsonb key exists operator) is written as ?? in a template.
+ */
+public class SqlTemplateUtils {
+	public static final String PLACEHOLDER = "?";
+
+	/**
+	 * Adds a value to the parameters of a template
+	 * @return The placeholder to append to the template
+	 */
+	public static String bind(List<Object> parameters, Object value) {
+		parameters.add(value);
+		return PLACEHOLDER;
+	}
+
+	/**
+	 * Binds a numeric value, falling back to a numeric cast of the text if it is not a number
+	 * @return The placeholder to append to the template
+	 */
+	public static String bindNumeric(List<Object> parameters, String value) {
+		try {
+			parameters.add(new BigDecimal(value.trim()));
+			return PLACEHOLDER;
+		} catch (NumberFormatException e) {
+			parameters.add(value);
+			return PLACEHOLDER + "::numeric";
+		}
+	}
+
+	/**
+	 * Quotes a value as an SQL string literal. Used for field names which must stay inline
+	 * so that expressions match the expression indices created on them.
+	 */
+	public static String quoteLiteral(String value) {
+		return '\'' + value.replace("'", "''") + '\'';
+	}
+
+	/**
+	 * Escapes an SQL statement without placeholders so that it can be used within a template
+	 */
+	public static String escape(String sql) {
+		if(sql.indexOf('?') < 0) {
+			return sql;
+		}
+		final StringBuilder result = new StringBuilder(sql.length() + 8);
+		char quote = 0;
+		for(int i = 0; i < sql.length(); i++) {
+			final char c = sql.charAt(i);
+			if(quote != 0) {
+				if(c == quote) {
+					quote = 0;
+				}
+			} else if(c == '\'' || c == '"') {
+				quote = c;
+			} else if(c == '?') {
+				result.append('?');
+			}
+			result.append(c);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Replaces the placeholders of a template with the SQL literals of the bound values.
+	 * Used for statements which can not be prepared with parameters, e.g. DDL or aggregations.
+	 */
+	public static String inline(String template, List<Object> parameters) {
+		if(template.indexOf('?') < 0) {
+			return template;
+		}
+		final StringBuilder result = new StringBuilder(template.length() + 32);
+		int parameterIndex = 0;
+		char quote = 0;
+		for(int i = 0; i < template.length(); i++) {
+			final char c = template.charAt(i);
+			if(quote != 0) {
+				if(c == quote) {
+					quote = 0;
+				}
+			} else if(c == '\'' || c == '"') {
+				quote = c;
+			} else if(c == '?') {
+				if(i + 1 < template.length() && template.charAt(i + 1) == '?') {
+					i++;
+				} else {
+					if(parameterIndex >= parameters.size()) {
+						throw new IllegalArgumentException("Missing parameter " + parameterIndex + " for " + template);
+					}
+					appendLiteral(result, parameters.get(parameterIndex++));
+					continue;
+				}
+			}
+			result.append(c);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Sets the parameters of a statement prepared from a template
+	 */
+	public static void setParameters(PreparedStatement preparedStatement, List<Object> parameters) throws SQLException {
+		final Connection connection = preparedStatement.getConnection();
+		for(int i = 0; i < parameters.size(); i++) {
+			final Object value = parameters.get(i);
+			if(value instanceof String[]) {
+				preparedStatement.setArray(i + 1, connection.createArrayOf("text", (String[]) value));
+			} else {
+				preparedStatement.setObject(i + 1, value);
+			}
+		}
+	}
+
+	private static void appendLiteral(StringBuilder result, Object value) {
+		if(value == null) {
+			result.append("NULL");
+		} else if(value instanceof String[]) {
+			final String[] values = (String[]) value;
+			result.append("ARRAY[");
+			for(int i = 0; i < values.length; i++) {
+				if(i > 0) {
+					result.append(',');
+				}
+				appendLiteral(result, values[i]);
+			}
+			result.append("]::text[]");
+		} else if(value instanceof BigDecimal) {
+			result.append(((BigDecimal) value).toPlainString());
+		} else if(value instanceof Number || value instanceof Boolean) {
+			result.append(value);
+		} else {
+			result.append(quoteLiteral(value.toString()));
+		}
+	}
+}
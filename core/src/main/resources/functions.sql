@@ -74,6 +74,49 @@ select _json_column->_json_field
 			 $$
 			 LANGUAGE SQL IMMUTABLE PARALLEL SAFE;
 
+-- Returns NULL instead of failing for non-numeric values so that typed expression indices never reject a document.
+-- Numbers encoded as strings are converted as the ::numeric cast of the text value does.
+CREATE OR REPLACE FUNCTION elefana_json_numeric(_json_column jsonb, _json_field text) RETURNS numeric AS $$
+	select case jsonb_typeof(_json_column->_json_field)
+		when 'number' then (_json_column->>_json_field)::numeric
+		when 'string' then case when (_json_column->>_json_field) ~ '^\s*[-+]?([0-9]+\.?[0-9]*|\.[0-9]+)([eE][-+]?[0-9]+)?\s*$' then (_json_column->>_json_field)::numeric end
+	end
+$$
+LANGUAGE SQL IMMUTABLE PARALLEL SAFE;
+
+-- Converts epoch millis and ISO-8601 dates to epoch millis so that dates sort chronologically whatever their format.
+-- Dates without an offset are read as UTC. Returns NULL for values that are not dates.
+CREATE OR REPLACE FUNCTION elefana_json_date(_json_column jsonb, _json_field text) RETURNS numeric AS $$
+DECLARE
+	_value text := _json_column->>_json_field;
+BEGIN
+	IF elefana_json_numeric(_json_column, _json_field) IS NOT NULL THEN
+		RETURN elefana_json_numeric(_json_column, _json_field);
+	END IF;
+	IF jsonb_typeof(_json_column->_json_field) IS DISTINCT FROM 'string' OR _value !~ '^[0-9]{4}-[0-9]{2}-[0-9]{2}' THEN
+		RETURN NULL;
+	END IF;
+	BEGIN
+		IF _value ~ '[T ][0-9:.]+(Z|[+-][0-9]{2}(:?[0-9]{2})?)$' THEN
+			RETURN floor(extract(epoch FROM _value::timestamptz) * 1000);
+		END IF;
+		RETURN floor(extract(epoch FROM _value::timestamp AT TIME ZONE 'UTC') * 1000);
+	EXCEPTION WHEN others THEN
+		RETURN NULL;
+	END;
+END;
+$$
+LANGUAGE plpgsql STABLE PARALLEL SAFE;
+
+-- Returns NULL instead of failing for non-boolean values so that typed expression indices never reject a document
+CREATE OR REPLACE FUNCTION elefana_json_boolean(_json_column jsonb, _json_field text) RETURNS boolean AS $$
+	select case jsonb_typeof(_json_column->_json_field)
+		when 'boolean' then (_json_column->>_json_field)::boolean
+		when 'string' then case lower(_json_column->>_json_field) when 'true' then true when 'false' then false end
+	end
+$$
+LANGUAGE SQL IMMUTABLE PARALLEL SAFE;
+
 CREATE OR REPLACE FUNCTION elefana_next_bulk_ingest_table() RETURNS text AS
 $$
 DECLARE
@@ -136,4 +179,30 @@ BEGIN
 	END;
 END;
 $$
+LANGUAGE 'plpgsql';
+
+-- Applies a partial document of a bulk update, a null timestamp keeps the timestamp of the existing document.
+-- A missing document is only inserted if an upsert document is given. Returns 1 if updated, 2 if inserted and 0 if missing.
+CREATE OR REPLACE FUNCTION elefana_bulk_update(_op_index VARCHAR, _op_type VARCHAR, _op_id VARCHAR, _op_timestamp BIGINT, _op_bucket1s BIGINT, _op_bucket1m BIGINT, _op_bucket1h BIGINT, _op_bucket1d BIGINT, _op_source json, _op_upsert_timestamp BIGINT, _op_upsert_source json) RETURNS INT AS
+$$
+BEGIN
+	UPDATE elefana_data SET _source = (_source || _op_source::jsonb), _timestamp = COALESCE(_op_timestamp, _timestamp), _bucket1s = COALESCE(_op_bucket1s, _bucket1s), _bucket1m = COALESCE(_op_bucket1m, _bucket1m), _bucket1h = COALESCE(_op_bucket1h, _bucket1h), _bucket1d = COALESCE(_op_bucket1d, _bucket1d) WHERE _index = _op_index AND _type = _op_type AND _id = _op_id;
+	IF found THEN
+		RETURN 1;
+	END IF;
+	IF _op_upsert_source IS NULL THEN
+		RETURN 0;
+	END IF;
+	BEGIN
+		INSERT INTO elefana_data(_index, _type, _id, _timestamp, _bucket1s, _bucket1m, _bucket1h, _bucket1d, _source) VALUES (_op_index, _op_type, _op_id, _op_upsert_timestamp, _op_upsert_timestamp - (_op_upsert_timestamp % 1000), _op_upsert_timestamp - (_op_upsert_timestamp % 60000), _op_upsert_timestamp - (_op_upsert_timestamp % 3600000), _op_upsert_timestamp - (_op_upsert_timestamp % 86400000), _op_upsert_source);
+		RETURN 2;
+	EXCEPTION WHEN unique_violation THEN
+		UPDATE elefana_data SET _source = (_source || _op_source::jsonb), _timestamp = COALESCE(_op_timestamp, _timestamp), _bucket1s = COALESCE(_op_bucket1s, _bucket1s), _bucket1m = COALESCE(_op_bucket1m, _bucket1m), _bucket1h = COALESCE(_op_bucket1h, _bucket1h), _bucket1d = COALESCE(_op_bucket1d, _bucket1d) WHERE _index = _op_index AND _type = _op_type AND _id = _op_id;
+		IF found THEN
+			RETURN 1;
+		END IF;
+		RETURN 0;
+	END;
+END;
+$$
 LANGUAGE 'plpgsql';
\ No newline at end of file
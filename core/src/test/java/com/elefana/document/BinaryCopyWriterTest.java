@@ -0,0 +1,152 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.document;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.copy.CopyIn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.mockito.Mockito.*;
+
+public class BinaryCopyWriterTest {
+	private static final byte[] HEADER = new byte[] { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0,
+			0, 0, 0, 0,
+			0, 0, 0, 0 };
+	private static final byte[] TRAILER = new byte[] { (byte) 0xFF, (byte) 0xFF };
+
+	private CopyIn copyIn;
+	private ByteArrayOutputStream copiedBytes;
+
+	@Before
+	public void setUp() throws Exception {
+		copyIn = mock(CopyIn.class);
+		copiedBytes = new ByteArrayOutputStream();
+		doAnswer(invocation -> {
+			final byte[] buffer = (byte[]) invocation.getArguments()[0];
+			final int offset = (Integer) invocation.getArguments()[1];
+			final int length = (Integer) invocation.getArguments()[2];
+			copiedBytes.write(buffer, offset, length);
+			return null;
+		}).when(copyIn).writeToCopy(any(byte[].class), anyInt(), anyInt());
+	}
+
+	@Test
+	public void testHeaderAndTrailer() throws Exception {
+		final BinaryCopyWriter writer = new BinaryCopyWriter();
+		writer.begin(copyIn);
+		writer.end();
+
+		final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(HEADER);
+		expected.write(TRAILER);
+		Assert.assertArrayEquals(expected.toByteArray(), copiedBytes.toByteArray());
+	}
+
+	@Test
+	public void testFieldLengths() throws Exception {
+		final BinaryCopyWriter writer = new BinaryCopyWriter();
+		writer.begin(copyIn);
+		writer.beginRow(3);
+		writer.writeText("abc");
+		writer.writeBigint(1234567890123L);
+		writer.writeNull();
+		writer.end();
+
+		final ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+		final DataOutputStream expected = new DataOutputStream(expectedBytes);
+		expected.write(HEADER);
+		expected.writeShort(3);
+		expected.writeInt(3);
+		expected.write("abc".getBytes(StandardCharsets.UTF_8));
+		expected.writeInt(8);
+		expected.writeLong(1234567890123L);
+		expected.writeInt(-1);
+		expected.write(TRAILER);
+		Assert.assertArrayEquals(expectedBytes.toByteArray(), copiedBytes.toByteArray());
+	}
+
+	@Test
+	public void testJsonbVersion() throws Exception {
+		final String json = "{\"message\":\"\u00E9\"}";
+		final BinaryCopyWriter writer = new BinaryCopyWriter();
+		writer.begin(copyIn);
+		writer.beginRow(1);
+		writer.writeJsonb(json.toCharArray(), json.length());
+		writer.end();
+
+		final byte[] encodedJson = json.getBytes(StandardCharsets.UTF_8);
+		final ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+		final DataOutputStream expected = new DataOutputStream(expectedBytes);
+		expected.write(HEADER);
+		expected.writeShort(1);
+		expected.writeInt(encodedJson.length + 1);
+		expected.writeByte(1);
+		expected.write(encodedJson);
+		expected.write(TRAILER);
+		Assert.assertArrayEquals(expectedBytes.toByteArray(), copiedBytes.toByteArray());
+	}
+
+	@Test
+	public void testSurrogates() throws Exception {
+		final char[] json = "\"\uD83D\uDE00\uD83D".toCharArray();
+		final BinaryCopyWriter writer = new BinaryCopyWriter();
+		writer.begin(copyIn);
+		writer.beginRow(4);
+		writer.writeText("a\uD83D\uDE00b");
+		writer.writeText("\uD83Dx\uDE00");
+		writer.writeText("\u20AC");
+		//The trailing high surrogate has no low surrogate within the length
+		writer.writeJsonb(json, json.length);
+		writer.end();
+
+		final ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+		final DataOutputStream expected = new DataOutputStream(expectedBytes);
+		expected.write(HEADER);
+		expected.writeShort(4);
+		expected.writeInt(6);
+		expected.write(new byte[] { 'a', (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80, 'b' });
+		expected.writeInt(3);
+		expected.write(new byte[] { '?', 'x', '?' });
+		expected.writeInt(3);
+		expected.write(new byte[] { (byte) 0xE2, (byte) 0x82, (byte) 0xAC });
+		expected.writeInt(7);
+		expected.writeByte(1);
+		expected.write(new byte[] { '"', (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80, '?' });
+		expected.write(TRAILER);
+		Assert.assertArrayEquals(expectedBytes.toByteArray(), copiedBytes.toByteArray());
+	}
+
+	@Test
+	public void testRowLargerThanBuffer() throws Exception {
+		final char[] largeValue = new char[100];
+		Arrays.fill(largeValue, 'x');
+		final String text = new String(largeValue);
+
+		final BinaryCopyWriter writer = new BinaryCopyWriter(16);
+		writer.begin(copyIn);
+		writer.beginRow(2);
+		writer.writeText(text);
+		writer.writeJsonb(largeValue, largeValue.length);
+		writer.end();
+
+		final ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+		final DataOutputStream expected = new DataOutputStream(expectedBytes);
+		expected.write(HEADER);
+		expected.writeShort(2);
+		expected.writeInt(100);
+		expected.write(text.getBytes(StandardCharsets.UTF_8));
+		expected.writeInt(101);
+		expected.writeByte(1);
+		expected.write(text.getBytes(StandardCharsets.UTF_8));
+		expected.write(TRAILER);
+		Assert.assertArrayEquals(expectedBytes.toByteArray(), copiedBytes.toByteArray());
+		verify(copyIn, atLeast(3)).writeToCopy(any(byte[].class), anyInt(), anyInt());
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.document;
+
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.elefana.document.ingest.IngestTable;
+
+public class BulkIngestControllerTest {
+	private final MetricRegistry metricRegistry = new MetricRegistry();
+
+	private Timer psqlTimer;
+	private IngestTable ingestTable;
+
+	@Before
+	public void setUp() {
+		psqlTimer = metricRegistry.timer("psql");
+		ingestTable = mock(IngestTable.class);
+	}
+
+	@Test
+	public void testTaskSizeWithoutMeasurements() {
+		final BulkIngestController controller = createController(0);
+		when(ingestTable.getAvailableCapacity()).thenReturn(8);
+
+		Assert.assertEquals(1000, controller.getTaskSize(ingestTable, 4000));
+		Assert.assertEquals(250, controller.getTaskSize(ingestTable, 100));
+	}
+
+	@Test
+	public void testTaskSizeLimitedByAvailableTables() {
+		final BulkIngestController controller = createController(0);
+		when(ingestTable.getAvailableCapacity()).thenReturn(2);
+
+		Assert.assertEquals(2000, controller.getTaskSize(ingestTable, 4000));
+	}
+
+	@Test
+	public void testTaskSizeFromThroughput() {
+		final BulkIngestController controller = createController(0);
+		when(ingestTable.getAvailableCapacity()).thenReturn(16);
+
+		//1000 operations per 100ms
+		controller.recordTaskSize(1000);
+		psqlTimer.update(100, TimeUnit.MILLISECONDS);
+
+		Assert.assertEquals(1000, controller.getTaskSize(ingestTable, 8000));
+	}
+
+	@Test
+	public void testCredits() {
+		final BulkIngestController controller = createController(1000);
+
+		Assert.assertTrue(controller.acquireCredits("index", 600));
+		Assert.assertFalse(controller.acquireCredits("index", 600));
+		Assert.assertTrue(controller.acquireCredits("other", 600));
+		controller.releaseCredits("index", 600);
+		Assert.assertTrue(controller.acquireCredits("index", 5000));
+	}
+
+	private BulkIngestController createController(int indexCredits) {
+		return new BulkIngestController(psqlTimer, metricRegistry.histogram("taskSize"),
+				4, 250, 100L, 1L, indexCredits);
+	}
+}
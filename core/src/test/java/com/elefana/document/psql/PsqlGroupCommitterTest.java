@@ -0,0 +1,147 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.document.psql;
+
+import com.codahale.metrics.MetricRegistry;
+import com.elefana.api.document.IndexOpType;
+import com.elefana.api.exception.ShardFailedException;
+import com.elefana.node.NodeSettingsService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.postgresql.util.PGobject;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+public class PsqlGroupCommitterTest {
+	private static final String INDEX = "index";
+	private static final String TYPE = "type";
+	private static final long TIMEOUT_MILLIS = 5000L;
+
+	private JdbcTemplate jdbcTemplate;
+	private Connection connection;
+	private PreparedStatement preparedStatement;
+	private ResultSet resultSet;
+	private NodeSettingsService nodeSettingsService;
+	private PsqlGroupCommitter groupCommitter;
+
+	private final List<String> committedDocuments = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() throws Exception {
+		jdbcTemplate = mock(JdbcTemplate.class);
+		final DataSource dataSource = mock(DataSource.class);
+		connection = mock(Connection.class);
+		preparedStatement = mock(PreparedStatement.class);
+		resultSet = mock(ResultSet.class);
+		nodeSettingsService = mock(NodeSettingsService.class);
+
+		when(jdbcTemplate.getDataSource()).thenReturn(dataSource);
+		when(dataSource.getConnection()).thenReturn(connection);
+		when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+		when(preparedStatement.executeQuery()).thenReturn(resultSet);
+		when(nodeSettingsService.isUsingCitus()).thenReturn(false);
+
+		doAnswer(invocation -> {
+			committedDocuments.add(((PGobject) invocation.getArguments()[1]).getValue());
+			return null;
+		}).when(preparedStatement).setObject(anyInt(), any());
+	}
+
+	@After
+	public void teardown() {
+		if(groupCommitter != null) {
+			groupCommitter.preDestroy();
+		}
+	}
+
+	@Test
+	public void testBatchSpansRequests() throws Exception {
+		groupCommitter = new PsqlGroupCommitter(jdbcTemplate, nodeSettingsService, new MetricRegistry(), 60000L, 3, 2);
+		when(resultSet.next()).thenReturn(true, true, true, false);
+		when(resultSet.getInt(1)).thenReturn(0, 1, 2);
+		when(resultSet.getInt(2)).thenReturn(1);
+
+		//Commits return without waiting so a single caller can fill a batch
+		final CompletableFuture<Integer> result1 = groupCommitter.commit(INDEX, TYPE, "1", 0L, "{\"value\":1}", IndexOpType.OVERWRITE);
+		final CompletableFuture<Integer> result2 = groupCommitter.commit(INDEX, TYPE, "2", 0L, "{\"value\":2}", IndexOpType.OVERWRITE);
+		final CompletableFuture<Integer> result3 = groupCommitter.commit(INDEX, TYPE, "3", 0L, "{\"value\":3}", IndexOpType.OVERWRITE);
+
+		Assert.assertEquals(1, (int) result1.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(1, (int) result2.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(1, (int) result3.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		verify(connection, times(1)).prepareStatement(anyString());
+		verify(preparedStatement, times(1)).executeQuery();
+		Assert.assertEquals(3, committedDocuments.size());
+	}
+
+	@Test
+	public void testFlushOnTimeout() throws Exception {
+		groupCommitter = new PsqlGroupCommitter(jdbcTemplate, nodeSettingsService, new MetricRegistry(), 50L, 100, 2);
+		when(resultSet.next()).thenReturn(true, true, false);
+		when(resultSet.getInt(1)).thenReturn(0, 1);
+		when(resultSet.getInt(2)).thenReturn(1);
+
+		final CompletableFuture<Integer> result1 = groupCommitter.commit(INDEX, TYPE, "1", 0L, "{\"value\":1}", IndexOpType.OVERWRITE);
+		final CompletableFuture<Integer> result2 = groupCommitter.commit(INDEX, TYPE, "2", 0L, "{\"value\":2}", IndexOpType.OVERWRITE);
+
+		Assert.assertEquals(1, (int) result1.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(1, (int) result2.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		verify(preparedStatement, times(1)).executeQuery();
+	}
+
+	@Test
+	public void testErrorPropagatesToEveryWaiter() throws Exception {
+		groupCommitter = new PsqlGroupCommitter(jdbcTemplate, nodeSettingsService, new MetricRegistry(), 50L, 100, 2);
+		when(connection.prepareStatement(anyString())).thenThrow(new SQLException("Expected failure"));
+
+		final List<CompletableFuture<Integer>> results = new ArrayList<CompletableFuture<Integer>>();
+		for(int i = 0; i < 5; i++) {
+			results.add(groupCommitter.commit(INDEX, TYPE, String.valueOf(i), 0L, "{\"value\":" + i + "}", IndexOpType.OVERWRITE));
+		}
+
+		for(CompletableFuture<Integer> result : results) {
+			try {
+				result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				Assert.fail("Expected commit to fail");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof ShardFailedException);
+			}
+		}
+	}
+
+	@Test
+	public void testSameIdCommitsInOrder() throws Exception {
+		groupCommitter = new PsqlGroupCommitter(jdbcTemplate, nodeSettingsService, new MetricRegistry(), 50L, 100, 4);
+
+		final List<CompletableFuture<Integer>> results = new ArrayList<CompletableFuture<Integer>>();
+		for(int i = 0; i < 20; i++) {
+			results.add(groupCommitter.commit(INDEX, TYPE, "1", 0L, "{\"value\":" + i + "}", IndexOpType.OVERWRITE));
+		}
+		for(CompletableFuture<Integer> result : results) {
+			result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
+		//Each write of the id opens a new batch which must commit after the previous one
+		verify(preparedStatement, times(20)).executeQuery();
+		Assert.assertEquals(20, committedDocuments.size());
+		for(int i = 0; i < 20; i++) {
+			Assert.assertEquals("{\"value\":" + i + "}", committedDocuments.get(i));
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.document.psql;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class PsqlRollupMaintainerTest {
+
+	@Test
+	public void testRollupInsertQuery() {
+		final String result = PsqlRollupMaintainer.getRollupInsertQuery(Arrays.asList("bytes", "duration"),
+				"(SELECT * FROM elefana_bulk_stage_1)");
+		Assert.assertEquals("INSERT INTO elefana_rollup (_index, _bucket1m, _field, _doc_count, _value_count, _sum, _min, _max) " +
+				"SELECT _index, _bucket1m, elefana_rollup_values._field, COUNT(*), COUNT(elefana_rollup_values._value), " +
+				"SUM(elefana_rollup_values._value), MIN(elefana_rollup_values._value), MAX(elefana_rollup_values._value) " +
+				"FROM (SELECT * FROM elefana_bulk_stage_1) AS elefana_rollup_source CROSS JOIN LATERAL " +
+				"(VALUES ('', NULL::numeric), ('bytes', elefana_json_numeric(_source, 'bytes')), " +
+				"('duration', elefana_json_numeric(_source, 'duration'))) AS elefana_rollup_values (_field, _value) " +
+				"GROUP BY _index, _bucket1m, elefana_rollup_values._field " +
+				"ON CONFLICT (_index, _bucket1m, _field) DO UPDATE SET " +
+				"_doc_count = elefana_rollup._doc_count + EXCLUDED._doc_count, " +
+				"_value_count = elefana_rollup._value_count + EXCLUDED._value_count, " +
+				"_sum = COALESCE(elefana_rollup._sum + EXCLUDED._sum, elefana_rollup._sum, EXCLUDED._sum), " +
+				"_min = LEAST(elefana_rollup._min, EXCLUDED._min), " +
+				"_max = GREATEST(elefana_rollup._max, EXCLUDED._max)", result);
+	}
+
+	@Test
+	public void testRollupInsertQueryDocCountOnly() {
+		final String result = PsqlRollupMaintainer.getRollupInsertQuery(new ArrayList<String>(), "elefana_source");
+		Assert.assertTrue(result.contains("FROM elefana_source AS elefana_rollup_source CROSS JOIN LATERAL " +
+				"(VALUES ('', NULL::numeric)) AS elefana_rollup_values (_field, _value)"));
+	}
+}
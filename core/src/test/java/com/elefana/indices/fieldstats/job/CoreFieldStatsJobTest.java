@@ -0,0 +1,62 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.indices.fieldstats.job;
+
+import com.elefana.indices.FieldObservationListener;
+import com.elefana.indices.fieldstats.LoadUnloadManager;
+import com.elefana.indices.fieldstats.state.StateImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.Mockito.mock;
+
+public class CoreFieldStatsJobTest {
+	private static final String TEST_INDEX = "bank";
+	private static final String TEST_TYPE = "account";
+
+	@Test
+	public void testObserveFields() {
+		final Set<String> fieldNames = new HashSet<String>();
+		final Map<String, Object> properties = new HashMap<String, Object>();
+		final FieldObservationListener listener = new FieldObservationListener() {
+			@Override
+			public void onFieldsObserved(String index, String type, Set<String> observedFieldNames, Map<String, Object> observedProperties) {
+				Assert.assertEquals(TEST_INDEX, index);
+				Assert.assertEquals(TEST_TYPE, type);
+				fieldNames.addAll(observedFieldNames);
+				properties.putAll(observedProperties);
+			}
+
+			@Override
+			public void onDocumentsDropped(String index) {
+			}
+		};
+
+		final CoreFieldStatsJob job = CoreFieldStatsJob.allocate(new StateImpl(null, true), mock(LoadUnloadManager.class),
+				TEST_INDEX, listener);
+		job.addDocument("{ \"bool\": false, \"string\": \"Hello there\", \"long\": 23, \"obj\": { \"bic\": \"EASYATW1\" }, " +
+				"\"list\": [3,4,5], \"listObjects\": [{\"field\": 77},{\"field\": 78}] }", TEST_TYPE);
+		job.addDocument("{ \"double\": 2.4, \"obj\": { \"iban\": \"AT12 4321\" } }", TEST_TYPE);
+		job.addDocument("{ \"untyped\": 1 }", null);
+		job.run();
+
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("bool", "string", "long", "obj.bic", "list",
+				"listObjects.field", "double", "obj.iban")), fieldNames);
+		Assert.assertEquals(false, properties.get("bool"));
+		Assert.assertEquals("Hello there", properties.get("string"));
+		Assert.assertEquals(23L, properties.get("long"));
+		Assert.assertEquals(2.4, properties.get("double"));
+		Assert.assertTrue(properties.get("obj") instanceof Map);
+		Assert.assertTrue(properties.get("list") instanceof List);
+		Assert.assertTrue(properties.get("listObjects") instanceof List);
+		Assert.assertFalse(properties.containsKey("untyped"));
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.indices.psql;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.rowset.SqlRowSet;
+
+import java.util.Locale;
+
+import static org.mockito.Mockito.*;
+
+public class PsqlIndexFieldMappingServiceTest {
+	private static final String SAMPLE_QUERY = "SELECT _type, _source FROM elefana_data TABLESAMPLE SYSTEM(0.100000) WHERE _index = ? LIMIT 100";
+	private static final String FALLBACK_QUERY = "SELECT _type, _source FROM elefana_data WHERE _index = ? LIMIT 100";
+
+	private JdbcTemplate jdbcTemplate;
+	private SqlRowSet sampleRowSet;
+	private SqlRowSet fallbackRowSet;
+
+	@Before
+	public void setUp() {
+		jdbcTemplate = mock(JdbcTemplate.class);
+		sampleRowSet = mock(SqlRowSet.class);
+		fallbackRowSet = mock(SqlRowSet.class);
+
+		when(jdbcTemplate.queryForRowSet(SAMPLE_QUERY, "index")).thenReturn(sampleRowSet);
+		when(jdbcTemplate.queryForRowSet(FALLBACK_QUERY, "index")).thenReturn(fallbackRowSet);
+	}
+
+	@Test
+	public void testRandomSample() {
+		when(sampleRowSet.next()).thenReturn(true);
+
+		final SqlRowSet result = PsqlIndexFieldMappingService.getSampleDocuments(jdbcTemplate, "elefana_data", "index", 0.1, 100);
+		Assert.assertSame(sampleRowSet, result);
+		verify(sampleRowSet, times(1)).beforeFirst();
+		verify(jdbcTemplate, never()).queryForRowSet(FALLBACK_QUERY, "index");
+	}
+
+	@Test
+	public void testFallbackToFirstDocumentsWhenSampleEmpty() {
+		when(sampleRowSet.next()).thenReturn(false);
+
+		final SqlRowSet result = PsqlIndexFieldMappingService.getSampleDocuments(jdbcTemplate, "elefana_data", "index", 0.1, 100);
+		Assert.assertSame(fallbackRowSet, result);
+		verify(jdbcTemplate, times(1)).queryForRowSet(SAMPLE_QUERY, "index");
+		verify(jdbcTemplate, times(1)).queryForRowSet(FALLBACK_QUERY, "index");
+	}
+
+	@Test
+	public void testSampleWithoutIndexFilter() {
+		final SqlRowSet citusRowSet = mock(SqlRowSet.class);
+		when(citusRowSet.next()).thenReturn(true);
+		when(jdbcTemplate.queryForRowSet("SELECT _type, _source FROM index_table TABLESAMPLE SYSTEM(0.100000) LIMIT 100"))
+				.thenReturn(citusRowSet);
+
+		final SqlRowSet result = PsqlIndexFieldMappingService.getSampleDocuments(jdbcTemplate, "index_table", null, 0.1, 100);
+		Assert.assertSame(citusRowSet, result);
+	}
+
+	@Test
+	public void testSamplePercentageIgnoresLocale() {
+		final Locale defaultLocale = Locale.getDefault();
+		try {
+			Locale.setDefault(Locale.GERMANY);
+			when(sampleRowSet.next()).thenReturn(true);
+
+			final SqlRowSet result = PsqlIndexFieldMappingService.getSampleDocuments(jdbcTemplate, "elefana_data", "index", 0.1, 100);
+			Assert.assertSame(sampleRowSet, result);
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+}
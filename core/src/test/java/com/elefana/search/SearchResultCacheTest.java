@@ -0,0 +1,119 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search;
+
+import static org.mockito.Mockito.*;
+
+import com.codahale.metrics.MetricRegistry;
+import com.elefana.api.search.SearchResponse;
+import com.elefana.util.IndexGenerationTracker;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class SearchResultCacheTest {
+	private static final String[] TYPES = new String[0];
+
+	private IndexGenerationTracker indexGenerationTracker;
+
+	@Before
+	public void setUp() {
+		indexGenerationTracker = new IndexGenerationTracker();
+	}
+
+	@Test
+	public void testGetReturnsCopyWithCachedJson() {
+		final SearchResultCache cache = createCache(1024L * 1024L);
+		final SearchResultCache.Key key = createKey(cache, "{\"match_all\":{}}", "index");
+
+		final SearchResponse response = createResponse(7);
+		response.setTook(25L);
+		final SearchResponse putResult = cache.put(key, response);
+		Assert.assertEquals(response.toJsonString(), putResult.toJsonString());
+
+		final SearchResponse first = cache.get(key);
+		final SearchResponse second = cache.get(key);
+		Assert.assertNotSame(first, second);
+		first.setTook(3L);
+		second.setTook(4L);
+		Assert.assertEquals(7, first.getHits().getTotal());
+		Assert.assertTrue(first.toJsonString().startsWith("{\"took\":3,"));
+		Assert.assertTrue(second.toJsonString().startsWith("{\"took\":4,"));
+		Assert.assertEquals(response.toJsonString().substring("{\"took\":25".length()),
+				first.toJsonString().substring("{\"took\":3".length()));
+		Assert.assertEquals(25L, response.getTook());
+	}
+
+	@Test
+	public void testGenerationInvalidatesEntry() {
+		final SearchResultCache cache = createCache(1024L * 1024L);
+		final SearchResultCache.Key key = createKey(cache, "{\"match_all\":{}}", "index", "other");
+		cache.put(key, createResponse(1));
+		Assert.assertNotNull(cache.get(key));
+
+		indexGenerationTracker.incrementGeneration("unrelated");
+		Assert.assertNotNull(cache.get(key));
+
+		indexGenerationTracker.incrementGeneration("other");
+		Assert.assertNull(cache.get(key));
+		Assert.assertEquals(0L, cache.getTotalBytes());
+
+		final SearchResultCache.Key currentKey = createKey(cache, "{\"match_all\":{}}", "index", "other");
+		cache.put(currentKey, createResponse(2));
+		Assert.assertEquals(2, cache.get(currentKey).getHits().getTotal());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		final SearchResultCache.Key[] keys = new SearchResultCache.Key[3];
+		final SearchResultCache sizingCache = createCache(1024L * 1024L);
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = createKey(sizingCache, "{\"term\":{\"value\":" + i + "}}", "index");
+		}
+		sizingCache.put(keys[0], createResponse(0));
+		final long entryBytes = sizingCache.getTotalBytes();
+
+		final SearchResultCache cache = createCache(entryBytes * 2);
+		cache.put(keys[0], createResponse(0));
+		cache.put(keys[1], createResponse(1));
+		Assert.assertNotNull(cache.get(keys[0]));
+
+		cache.put(keys[2], createResponse(2));
+		Assert.assertNotNull(cache.get(keys[0]));
+		Assert.assertNull(cache.get(keys[1]));
+		Assert.assertNotNull(cache.get(keys[2]));
+		Assert.assertEquals(entryBytes * 2, cache.getTotalBytes());
+	}
+
+	@Test
+	public void testOversizedResponseNotCached() {
+		final SearchResultCache cache = createCache(16L);
+		final SearchResultCache.Key key = createKey(cache, "{\"match_all\":{}}", "index");
+		final SearchResponse response = createResponse(1);
+
+		Assert.assertSame(response, cache.put(key, response));
+		Assert.assertNull(cache.get(key));
+		Assert.assertEquals(0L, cache.getTotalBytes());
+	}
+
+	private SearchResultCache createCache(long maxBytes) {
+		return new SearchResultCache(new MetricRegistry(), indexGenerationTracker, maxBytes, 0L, 100);
+	}
+
+	private static SearchResultCache.Key createKey(SearchResultCache cache, String query, String... indices) {
+		final RequestBodySearch requestBodySearch = mock(RequestBodySearch.class);
+		when(requestBodySearch.getFrom()).thenReturn(0);
+		when(requestBodySearch.getSize()).thenReturn(10);
+		when(requestBodySearch.getNormalizedQuery()).thenReturn(query);
+		return cache.createKey(Arrays.asList(indices), TYPES, requestBodySearch);
+	}
+
+	private static SearchResponse createResponse(int total) {
+		final SearchResponse result = new SearchResponse();
+		result.getHits().setTotal(total);
+		return result;
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.agg;
+
+import static org.mockito.Mockito.*;
+
+import com.elefana.api.json.JsonUtils;
+import com.elefana.api.search.SearchResponse;
+import com.elefana.indices.psql.PsqlIndexFieldMappingService;
+import com.elefana.node.NodeSettingsService;
+import com.elefana.search.PsqlQueryComponents;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DateHistogramAggregationTest {
+	private static final String BUCKET_VALUE = "((_source->>'value')::bigint)::bigint";
+	private static final String BUCKET_KEY = "(" + BUCKET_VALUE + " - (" + BUCKET_VALUE + " % 60000))";
+
+	private JdbcTemplate jdbcTemplate;
+	private NodeSettingsService nodeSettingsService;
+	private AggregationExec aggregationExec;
+	private Map<String, Object> aggregationsResult;
+	private List<Map<String, Object>> rows;
+	private List<Map<String, Object>> groupedRows;
+
+	@Before
+	public void setUp() {
+		jdbcTemplate = mock(JdbcTemplate.class);
+		nodeSettingsService = mock(NodeSettingsService.class);
+		aggregationExec = mock(AggregationExec.class);
+		aggregationsResult = new HashMap<String, Object>();
+		rows = new ArrayList<Map<String, Object>>();
+		groupedRows = new ArrayList<Map<String, Object>>();
+
+		final PsqlIndexFieldMappingService indexFieldMappingService = mock(PsqlIndexFieldMappingService.class);
+		final SearchResponse searchResponse = new SearchResponse();
+		searchResponse.getHits().setTotal(10);
+
+		when(aggregationExec.getJdbcTemplate()).thenReturn(jdbcTemplate);
+		when(aggregationExec.getNodeSettingsService()).thenReturn(nodeSettingsService);
+		when(aggregationExec.getIndexFieldMappingService()).thenReturn(indexFieldMappingService);
+		when(aggregationExec.getIndices()).thenReturn(Arrays.asList("index"));
+		when(aggregationExec.getTypes()).thenReturn(new String[0]);
+		when(aggregationExec.getQueryComponents()).thenReturn(new PsqlQueryComponents("elefana_test", "_type = 'doc'", "", ""));
+		when(aggregationExec.getSearchResponse()).thenReturn(searchResponse);
+		when(aggregationExec.getAggregationsResult()).thenReturn(aggregationsResult);
+		when(nodeSettingsService.isUsingCitus()).thenReturn(false);
+		when(indexFieldMappingService.getFirstFieldMappingType(anyList(), any(String[].class), eq("value"))).thenReturn("long");
+		when(jdbcTemplate.queryForList(anyString())).thenAnswer(invocation -> {
+			final String query = (String) invocation.getArguments()[0];
+			return query.contains("elefana_agg_parent") ? groupedRows : rows;
+		});
+
+		rows.add(createBucketRow(0L, 2));
+		rows.add(createBucketRow(60000L, 3));
+	}
+
+	@Test
+	public void testBucketKeysAndDocCounts() throws Exception {
+		//Documents without a value are not bucketed
+		rows.add(createBucketRow(null, 5));
+		final DateHistogramAggregation aggregation = createAggregation();
+		execute(aggregation);
+
+		verify(jdbcTemplate, times(1)).queryForList("SELECT " + BUCKET_KEY + " AS elefana_agg_bucket, " +
+				"COUNT(_id) AS elefana_agg_doc_count FROM elefana_test WHERE _type = 'doc' " +
+				"GROUP BY elefana_agg_bucket ORDER BY elefana_agg_bucket ASC");
+		Assert.assertEquals(2, getBuckets().size());
+		Assert.assertEquals(0L, getBucket(0).get("key"));
+		Assert.assertEquals(2L, getBucket(0).get("doc_count"));
+		Assert.assertEquals(60000L, getBucket(1).get("key"));
+		Assert.assertEquals(3L, getBucket(1).get("doc_count"));
+	}
+
+	@Test
+	public void testGroupedMetricSubAggregation() throws Exception {
+		rows.get(0).put("elefana_agg_sub_0", 1.5);
+		rows.get(1).put("elefana_agg_sub_0", 4.0);
+		final DateHistogramAggregation aggregation = createAggregation();
+		aggregation.getSubAggregations().add(new AvgAggregation("avg_value",
+				JsonUtils.fromJsonString("{\"field\":\"value\"}", JsonNode.class)));
+		execute(aggregation);
+
+		verify(jdbcTemplate, times(1)).queryForList("SELECT " + BUCKET_KEY + " AS elefana_agg_bucket, " +
+				"COUNT(_id) AS elefana_agg_doc_count, avg((_source->>'value')::numeric) AS elefana_agg_sub_0 " +
+				"FROM elefana_test WHERE _type = 'doc' GROUP BY elefana_agg_bucket ORDER BY elefana_agg_bucket ASC");
+		Assert.assertEquals(1.5, ((Map) getBucket(0).get("avg_value")).get("value"));
+		Assert.assertEquals(4.0, ((Map) getBucket(1).get("avg_value")).get("value"));
+	}
+
+	@Test
+	public void testTermsSubAggregationGroupedByBucket() throws Exception {
+		groupedRows.add(createTermsRow(0L, "\"a\"", 2, 2));
+		groupedRows.add(createTermsRow(60000L, "\"b\"", 2, 3));
+		//Rows outside the histogram's buckets are ignored
+		groupedRows.add(createTermsRow(120000L, "\"c\"", 1, 1));
+		final DateHistogramAggregation aggregation = createAggregation();
+		aggregation.getSubAggregations().add(new TermsAggregation("terms_type",
+				JsonUtils.fromJsonString("{\"field\":\"type\",\"size\":1}", JsonNode.class)));
+		execute(aggregation);
+
+		verify(jdbcTemplate, times(2)).queryForList(anyString());
+		verify(jdbcTemplate, times(1)).queryForList("SELECT elefana_agg_parent, elefana_agg_key::text AS elefana_agg_key_json, " +
+				"elefana_agg_doc_count, elefana_agg_total_count FROM (SELECT " + BUCKET_KEY + " AS elefana_agg_parent, " +
+				"_source->'type' AS elefana_agg_key, COUNT(_id) AS elefana_agg_doc_count, " +
+				"SUM(COUNT(_id)) OVER (PARTITION BY " + BUCKET_KEY + ") AS elefana_agg_total_count, " +
+				"ROW_NUMBER() OVER (PARTITION BY " + BUCKET_KEY + " ORDER BY COUNT(_id) DESC, _source->'type' ASC) " +
+				"AS elefana_agg_rank FROM elefana_test WHERE _type = 'doc' AND _source->>'type' IS NOT NULL " +
+				"GROUP BY elefana_agg_parent, elefana_agg_key) AS elefana_agg_terms WHERE elefana_agg_rank <= 1 " +
+				"ORDER BY elefana_agg_parent ASC, elefana_agg_rank ASC");
+
+		final Map firstTerms = (Map) getBucket(0).get("terms_type");
+		Assert.assertEquals(1, ((List) firstTerms.get("buckets")).size());
+		Assert.assertEquals("a", ((Map) ((List) firstTerms.get("buckets")).get(0)).get("key"));
+		Assert.assertEquals(0L, firstTerms.get("sum_other_doc_count"));
+
+		final Map secondTerms = (Map) getBucket(1).get("terms_type");
+		Assert.assertEquals("b", ((Map) ((List) secondTerms.get("buckets")).get(0)).get("key"));
+		Assert.assertEquals(2L, ((Map) ((List) secondTerms.get("buckets")).get(0)).get("doc_count"));
+		Assert.assertEquals(1L, secondTerms.get("sum_other_doc_count"));
+	}
+
+	@Test
+	public void testRangeSubAggregationGroupedByBucket() throws Exception {
+		groupedRows.add(createRangeRow(60000L, 2));
+		final DateHistogramAggregation aggregation = createAggregation();
+		aggregation.getSubAggregations().add(new RangeAggregation("range_size",
+				JsonUtils.fromJsonString("{\"field\":\"size\",\"ranges\":[{\"from\":0,\"to\":10}]}", JsonNode.class)));
+		execute(aggregation);
+
+		verify(jdbcTemplate, times(1)).queryForList("SELECT " + BUCKET_KEY + " AS elefana_agg_parent, " +
+				"COUNT(_id) AS elefana_agg_doc_count FROM elefana_test WHERE _type = 'doc' AND " +
+				"_source->>'size' >= '0' AND _source->>'size' < '10' GROUP BY elefana_agg_parent");
+
+		final Map firstRange = (Map) ((List) ((Map) getBucket(0).get("range_size")).get("buckets")).get(0);
+		Assert.assertEquals(0L, firstRange.get("doc_count"));
+		Assert.assertEquals(0L, firstRange.get("from"));
+		Assert.assertEquals(10L, firstRange.get("to"));
+		final Map secondRange = (Map) ((List) ((Map) getBucket(1).get("range_size")).get("buckets")).get(0);
+		Assert.assertEquals(2L, secondRange.get("doc_count"));
+	}
+
+	@Test
+	public void testCitusGroupedWhereClause() throws Exception {
+		when(nodeSettingsService.isUsingCitus()).thenReturn(true);
+		final DateHistogramAggregation aggregation = createAggregation();
+		aggregation.getSubAggregations().add(new TermsAggregation("terms_type",
+				JsonUtils.fromJsonString("{\"field\":\"type\"}", JsonNode.class)));
+		execute(aggregation);
+
+		verify(jdbcTemplate, times(1)).queryForList(contains(
+				"FROM elefana_test AS hit_results WHERE _type = 'doc' GROUP BY elefana_agg_bucket"));
+		verify(jdbcTemplate, times(1)).queryForList(contains(
+				"FROM elefana_test AS hit_results WHERE _type = 'doc' AND _source->>'type' IS NOT NULL " +
+						"GROUP BY elefana_agg_parent, elefana_agg_key"));
+		Assert.assertTrue(((List) ((Map) getBucket(0).get("terms_type")).get("buckets")).isEmpty());
+	}
+
+	@Test
+	public void testPerBucketFallbackWhereClause() throws Exception {
+		final Aggregation subAggregation = mock(Aggregation.class);
+		final DateHistogramAggregation aggregation = createAggregation();
+		aggregation.getSubAggregations().add(subAggregation);
+		execute(aggregation);
+
+		final ArgumentCaptor<PsqlQueryComponents> queryComponents = ArgumentCaptor.forClass(PsqlQueryComponents.class);
+		verify(subAggregation, times(2)).executeSqlQuery(eq(aggregationExec), queryComponents.capture(),
+				any(SearchResponse.class), anyMap());
+		Assert.assertEquals("_type = 'doc' AND (" + BUCKET_VALUE + " >= 60000 AND " + BUCKET_VALUE + " < 120000)",
+				queryComponents.getAllValues().get(1).getWhereComponent());
+
+		//Citus filters within the from component so only the bucket range is applied
+		when(nodeSettingsService.isUsingCitus()).thenReturn(true);
+		reset(subAggregation);
+		execute(aggregation);
+
+		verify(subAggregation, times(2)).executeSqlQuery(eq(aggregationExec), queryComponents.capture(),
+				any(SearchResponse.class), anyMap());
+		Assert.assertEquals("(" + BUCKET_VALUE + " >= 0 AND " + BUCKET_VALUE + " < 60000)",
+				queryComponents.getAllValues().get(2).getWhereComponent());
+	}
+
+	private DateHistogramAggregation createAggregation() {
+		return new DateHistogramAggregation("histogram_value",
+				JsonUtils.fromJsonString("{\"field\":\"value\",\"interval\":\"minute\"}", JsonNode.class));
+	}
+
+	private void execute(DateHistogramAggregation aggregation) throws Exception {
+		when(aggregationExec.getAggregation()).thenReturn(aggregation);
+		aggregation.executeSqlQuery(aggregationExec);
+	}
+
+	private List getBuckets() {
+		final Map result = (Map) aggregationsResult.get("histogram_value");
+		return (List) result.get("buckets");
+	}
+
+	private Map getBucket(int index) {
+		return (Map) getBuckets().get(index);
+	}
+
+	private static Map<String, Object> createBucketRow(Long bucket, long docCount) {
+		final Map<String, Object> result = new HashMap<String, Object>();
+		result.put("elefana_agg_bucket", bucket);
+		result.put("elefana_agg_doc_count", docCount);
+		return result;
+	}
+
+	private static Map<String, Object> createTermsRow(long parentBucket, String keyJson, long docCount, long totalCount) {
+		final Map<String, Object> result = new HashMap<String, Object>();
+		result.put("elefana_agg_parent", parentBucket);
+		result.put("elefana_agg_key_json", keyJson);
+		result.put("elefana_agg_doc_count", docCount);
+		result.put("elefana_agg_total_count", totalCount);
+		return result;
+	}
+
+	private static Map<String, Object> createRangeRow(long parentBucket, long docCount) {
+		final Map<String, Object> result = new HashMap<String, Object>();
+		result.put("elefana_agg_parent", parentBucket);
+		result.put("elefana_agg_doc_count", docCount);
+		return result;
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.agg;
+
+import static org.mockito.Mockito.*;
+
+import com.elefana.api.indices.IndexStorageSettings;
+import com.elefana.api.indices.IndexTemplate;
+import com.elefana.api.json.JsonUtils;
+import com.elefana.node.NodeSettingsService;
+import com.elefana.search.PsqlQueryComponents;
+import com.elefana.search.RequestBodySearch;
+import com.elefana.search.query.Query;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DateHistogramRollupQueryTest {
+	private static final long ONE_MINUTE = 60000L;
+	private static final JsonNode FIELD_CONTEXT = JsonUtils.fromJsonString("{\"field\":\"value\"}", JsonNode.class);
+
+	private final List<Map<String, Object>> trackedIndices = new ArrayList<Map<String, Object>>();
+	private final JdbcTemplate jdbcTemplate = new JdbcTemplate() {
+		@Override
+		public List<Map<String, Object>> queryForList(String sql, Object... args) {
+			return trackedIndices;
+		}
+	};
+
+	private IndexTemplate indexTemplate;
+	private Query query;
+	private RootAggregationContext rootAggregation;
+	private Aggregation histogramAggregation;
+	private AggregationExec aggregationExec;
+
+	@Before
+	public void setUp() {
+		final IndexStorageSettings storageSettings = new IndexStorageSettings();
+		storageSettings.setTimestampPath("timestamp");
+		storageSettings.getRollupSettings().setEnabled(true);
+		storageSettings.getRollupSettings().setFields(Arrays.asList("value"));
+		indexTemplate = new IndexTemplate();
+		indexTemplate.setStorage(storageSettings);
+
+		query = mock(Query.class);
+		when(query.isTimestampRangeOnly(indexTemplate)).thenReturn(true);
+
+		histogramAggregation = mock(Aggregation.class);
+		rootAggregation = new RootAggregationContext();
+		rootAggregation.getSubAggregations().add(histogramAggregation);
+
+		final RequestBodySearch requestBodySearch = mock(RequestBodySearch.class);
+		when(requestBodySearch.getQuery()).thenReturn(query);
+		when(requestBodySearch.getAggregations()).thenReturn(rootAggregation);
+
+		final NodeSettingsService nodeSettingsService = mock(NodeSettingsService.class);
+		when(nodeSettingsService.isUsingCitus()).thenReturn(false);
+
+		aggregationExec = mock(AggregationExec.class);
+		when(aggregationExec.getIndexTemplate()).thenReturn(indexTemplate);
+		when(aggregationExec.getIndices()).thenReturn(Arrays.asList("logs"));
+		when(aggregationExec.getRequestBodySearch()).thenReturn(requestBodySearch);
+		when(aggregationExec.getAggregation()).thenReturn(histogramAggregation);
+		when(aggregationExec.getJdbcTemplate()).thenReturn(jdbcTemplate);
+		when(aggregationExec.getNodeSettingsService()).thenReturn(nodeSettingsService);
+		when(aggregationExec.getQueryComponents()).thenReturn(new PsqlQueryComponents("elefana_test", "", "", ""));
+
+		trackedIndices.add(new HashMap<String, Object>());
+	}
+
+	@Test
+	public void testRangeRoundedToWholeMinutes() {
+		when(query.getTimestampRange(indexTemplate)).thenReturn(new long[] { ONE_MINUTE + 1, (3 * ONE_MINUTE) - 1 });
+
+		final String result = DateHistogramRollupQuery.toSqlQuery(aggregationExec, ONE_MINUTE, new ArrayList<Aggregation>());
+		Assert.assertNotNull(result);
+		Assert.assertTrue(result.contains("AND _bucket1m >= 120000 AND _bucket1m < 180000 GROUP BY _bucket1m"));
+		Assert.assertTrue(result.contains("WHERE (_timestamp < 120000 OR _timestamp >= 180000) GROUP BY _bucket1m"));
+	}
+
+	@Test
+	public void testAlignedRange() {
+		when(query.getTimestampRange(indexTemplate)).thenReturn(new long[] { ONE_MINUTE, (3 * ONE_MINUTE) - 1 });
+
+		final String result = DateHistogramRollupQuery.toSqlQuery(aggregationExec, ONE_MINUTE, new ArrayList<Aggregation>());
+		Assert.assertTrue(result.contains("AND _bucket1m >= 60000 AND _bucket1m < 180000 GROUP BY _bucket1m"));
+	}
+
+	@Test
+	public void testUnboundedRange() {
+		when(query.getTimestampRange(indexTemplate)).thenReturn(null);
+
+		final String result = DateHistogramRollupQuery.toSqlQuery(aggregationExec, ONE_MINUTE, new ArrayList<Aggregation>());
+		Assert.assertFalse(result.contains("_bucket1m >="));
+		Assert.assertFalse(result.contains("UNION ALL"));
+	}
+
+	@Test
+	public void testRangeWithinOneMinute() {
+		when(query.getTimestampRange(indexTemplate)).thenReturn(new long[] { ONE_MINUTE + 1, (2 * ONE_MINUTE) - 1 });
+		Assert.assertNull(DateHistogramRollupQuery.toSqlQuery(aggregationExec, ONE_MINUTE, new ArrayList<Aggregation>()));
+	}
+
+	@Test
+	public void testNonMinuteInterval() {
+		Assert.assertNull(DateHistogramRollupQuery.toSqlQuery(aggregationExec, ONE_MINUTE / 2, new ArrayList<Aggregation>()));
+		Assert.assertNull(DateHistogramRollupQuery.toSqlQuery(aggregationExec, ONE_MINUTE + 1, new ArrayList<Aggregation>()));
+	}
+
+	@Test
+	public void testNonTimestampQuery() {
+		when(query.isTimestampRangeOnly(indexTemplate)).thenReturn(false);
+		Assert.assertNull(DateHistogramRollupQuery.toSqlQuery(aggregationExec, ONE_MINUTE, new ArrayList<Aggregation>()));
+	}
+
+	@Test
+	public void testNestedHistogram() {
+		rootAggregation.getSubAggregations().clear();
+		rootAggregation.getSubAggregations().add(mock(Aggregation.class));
+		Assert.assertNull(DateHistogramRollupQuery.toSqlQuery(aggregationExec, ONE_MINUTE, new ArrayList<Aggregation>()));
+	}
+
+	@Test
+	public void testUntrackedIndex() {
+		trackedIndices.clear();
+		Assert.assertNull(DateHistogramRollupQuery.toSqlQuery(aggregationExec, ONE_MINUTE, new ArrayList<Aggregation>()));
+	}
+
+	@Test
+	public void testNonRollupField() {
+		final List<Aggregation> groupedAggregations = new ArrayList<Aggregation>();
+		groupedAggregations.add(new SumAggregation("sum_other", JsonUtils.fromJsonString("{\"field\":\"other\"}", JsonNode.class)));
+		Assert.assertNull(DateHistogramRollupQuery.toSqlQuery(aggregationExec, ONE_MINUTE, groupedAggregations));
+	}
+
+	@Test
+	public void testMetricFormulas() {
+		final List<Aggregation> groupedAggregations = new ArrayList<Aggregation>();
+		groupedAggregations.add(new AvgAggregation("avg_value", FIELD_CONTEXT));
+		groupedAggregations.add(new SumAggregation("sum_value", FIELD_CONTEXT));
+		groupedAggregations.add(new MaxAggregation("max_value", FIELD_CONTEXT));
+
+		final String result = DateHistogramRollupQuery.toSqlQuery(aggregationExec, 5 * ONE_MINUTE, groupedAggregations);
+		Assert.assertTrue(result.startsWith("SELECT (elefana_agg_minute - (elefana_agg_minute % 300000)) AS elefana_agg_bucket, " +
+				"SUM(elefana_agg_doc_count)::bigint AS elefana_agg_doc_count, " +
+				"SUM(elefana_agg_sum_0) / NULLIF(SUM(elefana_agg_count_0), 0) AS elefana_agg_sub_0, " +
+				"SUM(elefana_agg_sum_0) AS elefana_agg_sub_1, " +
+				"MAX(elefana_agg_max_0) AS elefana_agg_sub_2 FROM ("));
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.agg;
+
+import static org.mockito.Mockito.*;
+
+import com.elefana.api.json.JsonUtils;
+import com.elefana.node.NodeSettingsService;
+import com.elefana.search.PsqlQueryComponents;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FusedMetricAggregationTest {
+	private static final JsonNode FIELD_CONTEXT = JsonUtils.fromJsonString("{\"field\":\"value\"}", JsonNode.class);
+
+	@Test
+	public void testPlanFusesSiblingMetrics() {
+		final List<Aggregation> aggregations = new ArrayList<Aggregation>();
+		aggregations.add(new MinAggregation("min_value", FIELD_CONTEXT));
+		aggregations.add(new PercentilesAggregation("percentiles_value", FIELD_CONTEXT));
+		aggregations.add(new StatsAggregation("stats_value", FIELD_CONTEXT));
+
+		final List<Aggregation> result = FusedMetricAggregation.plan(aggregations);
+		Assert.assertEquals(2, result.size());
+		Assert.assertTrue(result.get(0) instanceof FusedMetricAggregation);
+		Assert.assertSame(aggregations.get(1), result.get(1));
+	}
+
+	@Test
+	public void testPlanKeepsSingleMetric() {
+		final List<Aggregation> aggregations = new ArrayList<Aggregation>();
+		aggregations.add(new SumAggregation("sum_value", FIELD_CONTEXT));
+		aggregations.add(new CardinalityAggregation("cardinality_value", FIELD_CONTEXT));
+
+		Assert.assertSame(aggregations, FusedMetricAggregation.plan(aggregations));
+	}
+
+	@Test
+	public void testExecuteFusedSqlQuery() {
+		final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		final NodeSettingsService nodeSettingsService = mock(NodeSettingsService.class);
+		final AggregationExec aggregationExec = mock(AggregationExec.class);
+		final Map<String, Object> aggregationsResult = new HashMap<String, Object>();
+
+		final Map<String, Object> row = new HashMap<String, Object>();
+		row.put("elefana_agg_metric_0_0", 1);
+		row.put("elefana_agg_metric_1_0", 2);
+		row.put("elefana_agg_metric_1_4", 5);
+		final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		rows.add(row);
+
+		when(aggregationExec.getJdbcTemplate()).thenReturn(jdbcTemplate);
+		when(aggregationExec.getNodeSettingsService()).thenReturn(nodeSettingsService);
+		when(aggregationExec.getQueryComponents()).thenReturn(new PsqlQueryComponents("elefana_test", "_type = 'doc'", "", ""));
+		when(aggregationExec.getAggregationsResult()).thenReturn(aggregationsResult);
+		when(nodeSettingsService.isUsingCitus()).thenReturn(false);
+		when(jdbcTemplate.queryForList(anyString())).thenReturn(rows);
+
+		final List<Aggregation> aggregations = new ArrayList<Aggregation>();
+		aggregations.add(new MinAggregation("min_value", FIELD_CONTEXT));
+		aggregations.add(new StatsAggregation("stats_value", FIELD_CONTEXT));
+		FusedMetricAggregation.executeFusedSqlQuery(aggregationExec, aggregations);
+
+		verify(jdbcTemplate, times(1)).queryForList("SELECT min((_source->>'value')::numeric) AS elefana_agg_metric_0_0, " +
+				"avg((_source->>'value')::numeric) AS elefana_agg_metric_1_0, " +
+				"min((_source->>'value')::numeric) AS elefana_agg_metric_1_1, " +
+				"max((_source->>'value')::numeric) AS elefana_agg_metric_1_2, " +
+				"sum((_source->>'value')::numeric) AS elefana_agg_metric_1_3, " +
+				"COUNT(_source->>'value') AS elefana_agg_metric_1_4 FROM elefana_test WHERE _type = 'doc'");
+		Assert.assertEquals(1, ((Map) aggregationsResult.get("min_value")).get("value"));
+		Assert.assertEquals(2, ((Map) aggregationsResult.get("stats_value")).get("avg"));
+		Assert.assertEquals(5, ((Map) aggregationsResult.get("stats_value")).get("count"));
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.agg;
+
+import static org.mockito.Mockito.*;
+
+import com.elefana.api.json.JsonUtils;
+import com.elefana.api.search.SearchResponse;
+import com.elefana.indices.psql.PsqlIndexFieldMappingService;
+import com.elefana.node.NodeSettingsService;
+import com.elefana.search.PsqlQueryComponents;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TermsAggregationTest {
+	private JdbcTemplate jdbcTemplate;
+	private PsqlIndexFieldMappingService indexFieldMappingService;
+	private AggregationExec aggregationExec;
+	private Map<String, Object> aggregationsResult;
+	private List<Map<String, Object>> rows;
+
+	@Before
+	public void setUp() {
+		jdbcTemplate = mock(JdbcTemplate.class);
+		indexFieldMappingService = mock(PsqlIndexFieldMappingService.class);
+		aggregationExec = mock(AggregationExec.class);
+		aggregationsResult = new HashMap<String, Object>();
+		rows = new ArrayList<Map<String, Object>>();
+
+		final NodeSettingsService nodeSettingsService = mock(NodeSettingsService.class);
+		final SearchResponse searchResponse = new SearchResponse();
+		searchResponse.getHits().setTotal(10);
+
+		when(aggregationExec.getJdbcTemplate()).thenReturn(jdbcTemplate);
+		when(aggregationExec.getNodeSettingsService()).thenReturn(nodeSettingsService);
+		when(aggregationExec.getIndexFieldMappingService()).thenReturn(indexFieldMappingService);
+		when(aggregationExec.getQueryComponents()).thenReturn(new PsqlQueryComponents("elefana_test", "_type = 'doc'", "", ""));
+		when(aggregationExec.getSearchResponse()).thenReturn(searchResponse);
+		when(aggregationExec.getAggregationsResult()).thenReturn(aggregationsResult);
+		when(nodeSettingsService.isUsingCitus()).thenReturn(false);
+		when(jdbcTemplate.queryForList(anyString())).thenReturn(rows);
+	}
+
+	@Test
+	public void testTotalCountedBeforeMinDocCount() throws Exception {
+		rows.add(createRow("\"a\"", 4, 10));
+		execute("{\"field\":\"value\",\"size\":5,\"min_doc_count\":2}");
+
+		verify(jdbcTemplate, times(1)).queryForList("SELECT elefana_agg_key::text AS elefana_agg_key_json, " +
+				"elefana_agg_doc_count, elefana_agg_total_count FROM (SELECT _source->'value' AS elefana_agg_key, " +
+				"COUNT(_id) AS elefana_agg_doc_count, SUM(COUNT(_id)) OVER () AS elefana_agg_total_count " +
+				"FROM elefana_test WHERE _type = 'doc' AND _source->>'value' IS NOT NULL GROUP BY elefana_agg_key) " +
+				"AS elefana_agg_terms WHERE elefana_agg_doc_count >= 2 " +
+				"ORDER BY elefana_agg_doc_count DESC, elefana_agg_key ASC LIMIT 5");
+
+		final Map result = (Map) aggregationsResult.get("terms_value");
+		Assert.assertEquals(6L, result.get("sum_other_doc_count"));
+		Assert.assertEquals("a", getBucket(0).get("key"));
+	}
+
+	@Test
+	public void testTypedKeys() throws Exception {
+		rows.add(createRow("12", 3, 7));
+		rows.add(createRow("1.5", 2, 7));
+		rows.add(createRow("true", 2, 7));
+		execute("{\"field\":\"value\"}");
+
+		Assert.assertEquals(12L, getBucket(0).get("key"));
+		Assert.assertFalse(getBucket(0).containsKey("key_as_string"));
+		Assert.assertEquals(1.5, getBucket(1).get("key"));
+		Assert.assertEquals(1L, getBucket(2).get("key"));
+		Assert.assertEquals("true", getBucket(2).get("key_as_string"));
+	}
+
+	@Test
+	public void testDateKeys() throws Exception {
+		when(indexFieldMappingService.getFirstFieldMappingType(anyList(), any(String[].class), eq("value"))).thenReturn("date");
+		final Map<String, Object> row = createRow("\"2020-01-01T00:00:00\"", 3, 3);
+		row.put("elefana_agg_key_epoch", 1577836800000L);
+		rows.add(row);
+		execute("{\"field\":\"value\"}");
+
+		verify(jdbcTemplate, times(1)).queryForList(contains("END AS elefana_agg_key_epoch"));
+		Assert.assertEquals(1577836800000L, getBucket(0).get("key"));
+		Assert.assertEquals("2020-01-01T00:00:00", getBucket(0).get("key_as_string"));
+	}
+
+	private void execute(String context) throws Exception {
+		final TermsAggregation aggregation = new TermsAggregation("terms_value",
+				JsonUtils.fromJsonString(context, JsonNode.class));
+		when(aggregationExec.getAggregation()).thenReturn(aggregation);
+		aggregation.executeSqlQuery(aggregationExec);
+	}
+
+	private Map getBucket(int index) {
+		final Map result = (Map) aggregationsResult.get("terms_value");
+		return (Map) ((List) result.get("buckets")).get(index);
+	}
+
+	private static Map<String, Object> createRow(String keyJson, long docCount, long totalCount) {
+		final Map<String, Object> result = new HashMap<String, Object>();
+		result.put("elefana_agg_key_json", keyJson);
+		result.put("elefana_agg_doc_count", docCount);
+		result.put("elefana_agg_total_count", totalCount);
+		return result;
+	}
+}
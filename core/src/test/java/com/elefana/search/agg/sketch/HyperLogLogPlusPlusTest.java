@@ -0,0 +1,52 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.agg.sketch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HyperLogLogPlusPlusTest {
+
+	@Test
+	public void testExactBelowPrecisionThreshold() {
+		final HyperLogLogPlusPlus sketch = new HyperLogLogPlusPlus(100);
+		for(int i = 0; i < 1000; i++) {
+			sketch.offer("value" + (i % 100));
+		}
+		Assert.assertEquals(100, sketch.cardinality());
+	}
+
+	@Test
+	public void testEstimateAbovePrecisionThreshold() {
+		final HyperLogLogPlusPlus sketch = new HyperLogLogPlusPlus(HyperLogLogPlusPlus.DEFAULT_PRECISION_THRESHOLD);
+		for(int i = 0; i < 100000; i++) {
+			sketch.offer("value" + i);
+		}
+		Assert.assertEquals(100000.0, sketch.cardinality(), 100000.0 * 0.05);
+	}
+
+	@Test
+	public void testMerge() {
+		final HyperLogLogPlusPlus sketch1 = new HyperLogLogPlusPlus(1000);
+		final HyperLogLogPlusPlus sketch2 = new HyperLogLogPlusPlus(1000);
+		for(int i = 0; i < 20000; i++) {
+			sketch1.offer("value" + i);
+		}
+		for(int i = 10000; i < 10500; i++) {
+			sketch2.offer("value" + i);
+		}
+		for(int i = 30000; i < 30500; i++) {
+			sketch2.offer("value" + i);
+		}
+		sketch1.merge(sketch2);
+		Assert.assertEquals(20500.0, sketch1.cardinality(), 20500.0 * 0.05);
+	}
+
+	@Test
+	public void testPrecisionFromThreshold() {
+		Assert.assertEquals(14, HyperLogLogPlusPlus.precisionFromThreshold(3000));
+		Assert.assertEquals(HyperLogLogPlusPlus.MIN_PRECISION, HyperLogLogPlusPlus.precisionFromThreshold(0));
+		Assert.assertEquals(HyperLogLogPlusPlus.MAX_PRECISION, HyperLogLogPlusPlus.precisionFromThreshold(40000));
+	}
+}
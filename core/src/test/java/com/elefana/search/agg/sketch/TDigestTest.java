@@ -0,0 +1,49 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.agg.sketch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TDigestTest {
+
+	@Test
+	public void testUniformQuantiles() {
+		final TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION);
+		final Random random = new Random(1234L);
+		for(int i = 0; i < 100000; i++) {
+			digest.add(random.nextDouble() * 1000.0);
+		}
+		Assert.assertEquals(10.0, digest.quantile(0.01), 2.0);
+		Assert.assertEquals(500.0, digest.quantile(0.5), 10.0);
+		Assert.assertEquals(990.0, digest.quantile(0.99), 2.0);
+		Assert.assertTrue(digest.quantile(0.0) >= digest.getMin());
+		Assert.assertTrue(digest.quantile(1.0) <= digest.getMax());
+	}
+
+	@Test
+	public void testMerge() {
+		final TDigest digest1 = new TDigest(TDigest.DEFAULT_COMPRESSION);
+		final TDigest digest2 = new TDigest(TDigest.DEFAULT_COMPRESSION);
+		for(int i = 0; i < 5000; i++) {
+			digest1.add(i);
+			digest2.add(i + 5000);
+		}
+		digest1.merge(digest2);
+		Assert.assertEquals(10000.0, digest1.getTotalWeight(), 0.0);
+		Assert.assertEquals(5000.0, digest1.quantile(0.5), 100.0);
+		Assert.assertEquals(0.0, digest1.getMin(), 0.0);
+		Assert.assertEquals(9999.0, digest1.getMax(), 0.0);
+	}
+
+	@Test
+	public void testEmptyAndSingleValue() {
+		final TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION);
+		Assert.assertTrue(Double.isNaN(digest.quantile(0.5)));
+		digest.add(42.0);
+		Assert.assertEquals(42.0, digest.quantile(0.99), 0.0);
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.psql;
+
+import com.elefana.api.exception.ElefanaException;
+import com.elefana.search.PsqlQueryComponents;
+import com.elefana.table.TableGarbageCollector;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.*;
+
+public class PsqlScrollContextTrackerTest {
+	private static final int MAX_CONTEXTS = 2;
+
+	private PsqlScrollContextTracker scrollContextTracker;
+
+	@Before
+	public void setUp() {
+		scrollContextTracker = new PsqlScrollContextTracker(mock(TableGarbageCollector.class), MAX_CONTEXTS);
+	}
+
+	@Test
+	public void testMaxContexts() throws Exception {
+		scrollContextTracker.reserveScrollContext();
+		scrollContextTracker.reserveScrollContext();
+		assertTooManyRequests();
+
+		scrollContextTracker.cancelScrollContextReservation();
+		scrollContextTracker.reserveScrollContext();
+	}
+
+	@Test
+	public void testConcurrentReservations() throws Exception {
+		final int threads = 8;
+		final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final AtomicInteger reservations = new AtomicInteger();
+		try {
+			for (int i = 0; i < threads; i++) {
+				executorService.submit(() -> {
+					try {
+						startLatch.await();
+						scrollContextTracker.reserveScrollContext();
+						reservations.incrementAndGet();
+					} catch (InterruptedException | ElefanaException e) {
+					}
+				});
+			}
+			startLatch.countDown();
+			executorService.shutdown();
+			Assert.assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+		} finally {
+			executorService.shutdownNow();
+		}
+		Assert.assertEquals(MAX_CONTEXTS, reservations.get());
+	}
+
+	@Test
+	public void testReleaseReturnsConnectionAndReservation() throws Exception {
+		final Semaphore connectionPermits = new Semaphore(1);
+		final Connection connection = mock(Connection.class);
+
+		for (int i = 0; i < MAX_CONTEXTS; i++) {
+			scrollContextTracker.reserveScrollContext();
+		}
+		connectionPermits.acquire();
+		final PsqlScrollContext scrollContext = scrollContextTracker.openScrollContext(connection,
+				mock(Statement.class), mock(ResultSet.class), mock(PsqlQueryComponents.class), 10, 100,
+				60000L, connectionPermits);
+		assertTooManyRequests();
+
+		scrollContext.lock();
+		try {
+			scrollContextTracker.releaseScrollContext(scrollContext);
+		} finally {
+			scrollContext.unlock();
+		}
+		verify(connection).close();
+		Assert.assertEquals(1, connectionPermits.availablePermits());
+
+		//Clearing the released context does not release its permits again
+		Assert.assertTrue(scrollContextTracker.clearScrollContext(scrollContext.getScrollId()));
+		Assert.assertEquals(1, connectionPermits.availablePermits());
+		scrollContextTracker.reserveScrollContext();
+		assertTooManyRequests();
+	}
+
+	private void assertTooManyRequests() {
+		try {
+			scrollContextTracker.reserveScrollContext();
+			Assert.fail("Expected reservation to be rejected");
+		} catch (ElefanaException e) {
+			Assert.assertEquals(HttpResponseStatus.TOO_MANY_REQUESTS, e.getStatusCode());
+		}
+	}
+}
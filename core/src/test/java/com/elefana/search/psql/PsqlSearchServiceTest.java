@@ -0,0 +1,110 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.psql;
+
+import com.elefana.api.exception.BadRequestException;
+import com.elefana.api.exception.ElefanaException;
+import com.elefana.api.exception.ShardFailedException;
+import com.elefana.api.json.JsonUtils;
+import com.elefana.api.search.MultiSearchFailure;
+import com.elefana.api.search.MultiSearchResponse;
+import com.elefana.api.search.SearchResponse;
+import com.elefana.api.util.PooledStringBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PsqlSearchServiceTest {
+	private static final int MAX_CONCURRENT_SEARCHES = 2;
+	private static final String HEADER = "{\"index\":\"index\"}";
+
+	private final AtomicInteger activeSearches = new AtomicInteger();
+	private final AtomicInteger maxActiveSearches = new AtomicInteger();
+
+	private ExecutorService executorService;
+	private PsqlSearchService searchService;
+
+	@Before
+	public void setUp() {
+		executorService = Executors.newFixedThreadPool(4);
+		searchService = new PsqlSearchService(executorService, MAX_CONCURRENT_SEARCHES) {
+			@Override
+			SearchResponse multiSearchItem(String fallbackIndex, String fallbackType, String header, String body,
+			                               boolean requestCache) throws ElefanaException {
+				maxActiveSearches.accumulateAndGet(activeSearches.incrementAndGet(), Math::max);
+				try {
+					final Map<String, Object> search = JsonUtils.fromJsonString(body, Map.class);
+					Thread.sleep(((Number) search.get("delay")).longValue());
+					if (Boolean.TRUE.equals(search.get("fail"))) {
+						throw new BadRequestException();
+					}
+					final SearchResponse result = new SearchResponse();
+					result.setTook(((Number) search.get("id")).longValue());
+					return result;
+				} catch (InterruptedException e) {
+					throw new ShardFailedException(e);
+				} finally {
+					activeSearches.decrementAndGet();
+				}
+			}
+		};
+	}
+
+	@After
+	public void teardown() {
+		executorService.shutdownNow();
+	}
+
+	@Test
+	public void testResponsesInRequestOrder() throws Exception {
+		//Earlier searches complete last
+		final MultiSearchResponse response = multiSearch(
+				"{\"id\":0,\"delay\":150}",
+				"{\"id\":1,\"delay\":100}",
+				"{\"id\":2,\"delay\":50}",
+				"{\"id\":3,\"delay\":0}");
+
+		Assert.assertEquals(4, response.getResponses().size());
+		for (int i = 0; i < 4; i++) {
+			Assert.assertEquals(i, response.getResponses().get(i).getTook());
+		}
+		Assert.assertTrue(maxActiveSearches.get() <= MAX_CONCURRENT_SEARCHES);
+	}
+
+	@Test
+	public void testFailedSearchReturnsErrorItem() throws Exception {
+		final MultiSearchResponse response = multiSearch(
+				"{\"id\":0,\"delay\":0}",
+				"{\"id\":1,\"delay\":0,\"fail\":true}",
+				"{\"id\":2,\"delay\":0}");
+
+		Assert.assertEquals(3, response.getResponses().size());
+		Assert.assertEquals(0, response.getResponses().get(0).getTook());
+		Assert.assertEquals(2, response.getResponses().get(2).getTook());
+
+		Assert.assertTrue(response.getResponses().get(1) instanceof MultiSearchFailure);
+		final MultiSearchFailure failure = (MultiSearchFailure) response.getResponses().get(1);
+		Assert.assertEquals(400, failure.getStatus());
+		Assert.assertEquals("Bad request", failure.getError().get("reason"));
+	}
+
+	private MultiSearchResponse multiSearch(String... bodies) throws ElefanaException {
+		final StringBuilder request = new StringBuilder();
+		for (String body : bodies) {
+			request.append(HEADER).append('\n').append(body).append('\n');
+		}
+		final PooledStringBuilder httpRequest = PooledStringBuilder.allocate(request.toString());
+		try {
+			return searchService.multiSearch(null, null, null, httpRequest, false);
+		} finally {
+			httpRequest.release();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.query;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+public class DateMathParserTest {
+	private static final long NOW = 1577965530123L; //2020-01-02T11:45:30.123Z
+
+	@Test
+	public void testEpochMillis() {
+		Assert.assertEquals(1500000000000L, DateMathParser.parse("1500000000000", NOW, false, ZoneOffset.UTC));
+		Assert.assertEquals(1500000000000L, DateMathParser.parse("1500000000000", NOW, true, ZoneOffset.UTC));
+	}
+
+	@Test
+	public void testNow() {
+		Assert.assertEquals(NOW, DateMathParser.parse("now", NOW, false, ZoneOffset.UTC));
+		Assert.assertEquals(NOW - 15 * 60 * 1000L, DateMathParser.parse("now-15m", NOW, false, ZoneOffset.UTC));
+		Assert.assertEquals(NOW + 60 * 60 * 1000L, DateMathParser.parse("now+1h", NOW, false, null));
+		Assert.assertEquals(1577923200000L, DateMathParser.parse("now/d", NOW, false, ZoneOffset.UTC));
+		Assert.assertEquals(1578009599999L, DateMathParser.parse("now/d", NOW, true, ZoneOffset.UTC));
+		Assert.assertEquals(1577836800000L, DateMathParser.parse("now-1d/d", NOW, false, ZoneOffset.UTC));
+		Assert.assertEquals(1577836800000L, DateMathParser.parse("now/M", NOW, false, ZoneOffset.UTC));
+		Assert.assertEquals(1577664000000L, DateMathParser.parse("now/w", NOW, false, ZoneOffset.UTC));
+	}
+
+	@Test
+	public void testIsoDates() {
+		Assert.assertEquals(1577836800000L, DateMathParser.parse("2020-01-01", NOW, false, ZoneOffset.UTC));
+		Assert.assertEquals(1577923199999L, DateMathParser.parse("2020-01-01", NOW, true, ZoneOffset.UTC));
+		Assert.assertEquals(1577880000000L, DateMathParser.parse("2020-01-01T12:00:00", NOW, false, ZoneOffset.UTC));
+		Assert.assertEquals(1577880000000L, DateMathParser.parse("2020-01-01T13:00:00+01:00", NOW, false, ZoneOffset.UTC));
+		Assert.assertEquals(1577880000000L, DateMathParser.parse("2020-01-01T12:00:00Z", NOW, false, ZoneId.of("Europe/Dublin")));
+		Assert.assertEquals(1577833200000L, DateMathParser.parse("2020-01-01", NOW, false, ZoneId.of("+01:00")));
+	}
+
+	@Test
+	public void testAnchoredMath() {
+		Assert.assertEquals(1577923200000L, DateMathParser.parse("2020-01-01||+1d", NOW, false, ZoneOffset.UTC));
+		Assert.assertEquals(1580515199999L, DateMathParser.parse("2020-01-15||/M", NOW, true, ZoneOffset.UTC));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidUnit() {
+		DateMathParser.parse("now-1x", NOW, false, ZoneOffset.UTC);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidDate() {
+		DateMathParser.parse("yesterday", NOW, false, ZoneOffset.UTC);
+	}
+}
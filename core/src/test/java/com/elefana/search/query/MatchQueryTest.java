@@ -0,0 +1,81 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.query;
+
+import com.elefana.api.indices.IndexGenerationSettings;
+import com.elefana.api.indices.IndexStorageSettings;
+import com.elefana.api.indices.IndexTemplate;
+import com.elefana.api.json.JsonUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MatchQueryTest {
+	private static final String VECTOR = "to_tsvector('english'::regconfig, _source->>'message')";
+
+	private IndexTemplate indexTemplate;
+
+	@Before
+	public void setUp() {
+		final IndexGenerationSettings indexGenerationSettings = new IndexGenerationSettings();
+		indexGenerationSettings.setTextSearchFields(Arrays.asList("message"));
+		indexGenerationSettings.setTextSearchConfig("english");
+
+		final IndexStorageSettings storageSettings = new IndexStorageSettings();
+		storageSettings.setIndexGenerationSettings(indexGenerationSettings);
+
+		indexTemplate = new IndexTemplate();
+		indexTemplate.setStorage(storageSettings);
+	}
+
+	@Test
+	public void testTextSearchField() {
+		final MatchQuery query = new MatchQuery(JsonUtils.extractJsonNode("{\"message\":\"quick fox\"}"));
+		Assert.assertEquals(VECTOR + " @@ (plainto_tsquery('english'::regconfig, 'quick') || " +
+				"plainto_tsquery('english'::regconfig, 'fox'))",
+				query.toSqlWhereClause(new ArrayList<String>(), indexTemplate, null));
+		Assert.assertEquals("ts_rank(" + VECTOR + ", (plainto_tsquery('english'::regconfig, 'quick') || " +
+				"plainto_tsquery('english'::regconfig, 'fox')))", query.getSqlScoreExpression(indexTemplate));
+	}
+
+	@Test
+	public void testTextSearchFieldPhrase() {
+		final MatchQuery query = new MatchQuery(JsonUtils.extractJsonNode(
+				"{\"message\":{\"query\":\"it's a fox\",\"type\":\"phrase\",\"boost\":2.0}}"));
+		Assert.assertEquals(VECTOR + " @@ phraseto_tsquery('english'::regconfig, 'it''s a fox')",
+				query.toSqlWhereClause(new ArrayList<String>(), indexTemplate, null));
+		Assert.assertEquals("(ts_rank(" + VECTOR + ", phraseto_tsquery('english'::regconfig, 'it''s a fox')) * 2.0)",
+				query.getSqlScoreExpression(indexTemplate));
+	}
+
+	@Test
+	public void testTextSearchScoreBound() {
+		final MatchQuery query = new MatchQuery(JsonUtils.extractJsonNode("{\"message\":\"quick fox\"}"));
+		final List<Object> parameters = new ArrayList<Object>();
+		Assert.assertEquals("ts_rank(" + VECTOR + ", (plainto_tsquery('english'::regconfig, ?) || " +
+				"plainto_tsquery('english'::regconfig, ?)))", query.getSqlScoreExpression(indexTemplate, parameters));
+		Assert.assertEquals(Arrays.asList("quick", "fox"), parameters);
+	}
+
+	@Test
+	public void testNonTextSearchField() {
+		final MatchQuery query = new MatchQuery(JsonUtils.extractJsonNode("{\"tag\":\"fox\"}"));
+		Assert.assertEquals("(_source->>'tag' ILIKE '%fox%')",
+				query.toSqlWhereClause(new ArrayList<String>(), indexTemplate, null));
+		Assert.assertNull(query.getSqlScoreExpression(indexTemplate));
+	}
+
+	@Test
+	public void testFieldNameQuoted() {
+		final MatchQuery query = new MatchQuery(JsonUtils.extractJsonNode("{\"tag') OR TRUE --\":\"fox\"}"));
+		final List<Object> parameters = new ArrayList<Object>();
+		Assert.assertEquals("(_source->>'tag'') OR TRUE --' ILIKE ?)",
+				query.toSqlWhereClause(new ArrayList<String>(), indexTemplate, null, parameters));
+		Assert.assertEquals(Arrays.asList("%fox%"), parameters);
+	}
+}
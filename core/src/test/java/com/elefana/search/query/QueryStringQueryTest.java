@@ -0,0 +1,62 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.query;
+
+import com.elefana.api.indices.IndexGenerationSettings;
+import com.elefana.api.indices.IndexStorageSettings;
+import com.elefana.api.indices.IndexTemplate;
+import com.elefana.api.json.JsonUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class QueryStringQueryTest {
+	private static final String VECTOR = "to_tsvector('english'::regconfig, _source->>'message')";
+
+	private IndexTemplate indexTemplate;
+
+	@Before
+	public void setUp() {
+		final IndexGenerationSettings indexGenerationSettings = new IndexGenerationSettings();
+		indexGenerationSettings.setTextSearchFields(Arrays.asList("message"));
+		indexGenerationSettings.setTextSearchConfig("english");
+
+		final IndexStorageSettings storageSettings = new IndexStorageSettings();
+		storageSettings.setIndexGenerationSettings(indexGenerationSettings);
+
+		indexTemplate = new IndexTemplate();
+		indexTemplate.setStorage(storageSettings);
+	}
+
+	@Test
+	public void testTextSearchTermBound() {
+		final QueryStringQuery query = new QueryStringQuery(JsonUtils.extractJsonNode("{\"query\":\"message:fox\"}"));
+
+		final List<Object> whereParameters = new ArrayList<Object>();
+		final String whereTemplate = query.toSqlWhereClause(new ArrayList<String>(), indexTemplate, null, whereParameters);
+		Assert.assertTrue(whereTemplate.contains(VECTOR + " @@ plainto_tsquery('english'::regconfig, ?)"));
+		Assert.assertEquals(Arrays.asList("fox"), whereParameters);
+
+		final List<Object> scoreParameters = new ArrayList<Object>();
+		Assert.assertEquals("(ts_rank(" + VECTOR + ", plainto_tsquery('english'::regconfig, ?)))",
+				query.getSqlScoreExpression(indexTemplate, scoreParameters));
+		Assert.assertEquals(Arrays.asList("fox"), scoreParameters);
+
+		Assert.assertEquals("(ts_rank(" + VECTOR + ", plainto_tsquery('english'::regconfig, 'fox')))",
+				query.getSqlScoreExpression(indexTemplate));
+	}
+
+	@Test
+	public void testNonTextSearchFieldNotScored() {
+		final QueryStringQuery query = new QueryStringQuery(JsonUtils.extractJsonNode("{\"query\":\"tag:fox\"}"));
+
+		final List<Object> scoreParameters = new ArrayList<Object>();
+		Assert.assertNull(query.getSqlScoreExpression(indexTemplate, scoreParameters));
+		Assert.assertTrue(scoreParameters.isEmpty());
+	}
+}
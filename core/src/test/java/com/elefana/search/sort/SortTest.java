@@ -0,0 +1,104 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.search.sort;
+
+import com.elefana.api.indices.IndexStorageSettings;
+import com.elefana.api.indices.IndexTemplate;
+import com.elefana.api.json.JsonUtils;
+import com.elefana.indices.fieldstats.IndexFieldStatsService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SortTest {
+	private static final String INDEX = "logs";
+
+	private final List<String> indices = Arrays.asList(INDEX);
+	private IndexTemplate indexTemplate;
+	private IndexFieldStatsService indexFieldStatsService;
+
+	@Before
+	public void setUp() {
+		final IndexStorageSettings storageSettings = new IndexStorageSettings();
+		storageSettings.setTimestampPath("timestamp");
+
+		indexTemplate = new IndexTemplate();
+		indexTemplate.setStorage(storageSettings);
+
+		indexFieldStatsService = mock(IndexFieldStatsService.class);
+		when(indexFieldStatsService.hasField(INDEX, "value")).thenReturn(true);
+		when(indexFieldStatsService.isLongField(INDEX, "value")).thenReturn(true);
+		when(indexFieldStatsService.hasField(INDEX, "created")).thenReturn(true);
+		when(indexFieldStatsService.isDateField(INDEX, "created")).thenReturn(true);
+		when(indexFieldStatsService.hasField(INDEX, "message")).thenReturn(true);
+		when(indexFieldStatsService.isStringField(INDEX, "message")).thenReturn(true);
+	}
+
+	@Test
+	public void testTimestampPath() {
+		final Sort sort = parse("{\"sort\":[{\"timestamp\":\"desc\"}]}")
+				.compile(indices, indexTemplate, indexFieldStatsService);
+		Assert.assertEquals("_timestamp DESC", sort.toSqlClause());
+		Assert.assertEquals("(_timestamp < 1577836800000)",
+				sort.toSearchAfterSqlClause(JsonUtils.extractJsonNode("[1577836800000]")));
+
+		final StringBuilder sortColumns = new StringBuilder();
+		sort.appendSqlSelectColumns(sortColumns);
+		Assert.assertEquals(", to_jsonb(_timestamp) AS _sort_0", sortColumns.toString());
+	}
+
+	@Test
+	public void testTypedFields() {
+		final Sort sort = parse("{\"sort\":[{\"value\":\"asc\"},{\"created\":\"desc\"},\"message\"]}")
+				.compile(indices, indexTemplate, indexFieldStatsService);
+		Assert.assertEquals("elefana_json_numeric(_source, 'value') ASC, elefana_json_date(_source, 'created') DESC, " +
+				"elefana_json_field_nat(_source, 'message') ASC", sort.toSqlClause());
+
+		final StringBuilder sortColumns = new StringBuilder();
+		sort.appendSqlSelectColumns(sortColumns);
+		Assert.assertEquals(", to_jsonb(elefana_json_numeric(_source, 'value')) AS _sort_0" +
+				", to_jsonb(elefana_json_date(_source, 'created')) AS _sort_1" +
+				", elefana_json_field_nat(_source, 'message') AS _sort_2", sortColumns.toString());
+	}
+
+	@Test
+	public void testTypedSearchAfter() {
+		final Sort sort = parse("{\"sort\":[{\"value\":\"desc\"},{\"created\":\"desc\"}]}")
+				.compile(indices, indexTemplate, indexFieldStatsService);
+		Assert.assertEquals("((elefana_json_numeric(_source, 'value') < 12.5) OR " +
+						"(elefana_json_numeric(_source, 'value') = 12.5 AND elefana_json_date(_source, 'created') < 1577836800000))",
+				sort.toSearchAfterSqlClause(JsonUtils.extractJsonNode("[12.5,\"2020-01-01T00:00:00Z\"]")));
+	}
+
+	@Test
+	public void testDateSearchAfterFormats() {
+		final Sort sort = parse("{\"sort\":[{\"created\":\"asc\"}]}")
+				.compile(indices, indexTemplate, indexFieldStatsService);
+		final String expected = "(((elefana_json_date(_source, 'created') > 1577836800000 OR elefana_json_date(_source, 'created') IS NULL)))";
+
+		//Epoch millis, offset and local ISO-8601 dates resolve to the same instant
+		Assert.assertEquals(expected, sort.toSearchAfterSqlClause(JsonUtils.extractJsonNode("[1577836800000]")));
+		Assert.assertEquals(expected, sort.toSearchAfterSqlClause(JsonUtils.extractJsonNode("[\"2020-01-01T01:00:00+01:00\"]")));
+		Assert.assertEquals(expected, sort.toSearchAfterSqlClause(JsonUtils.extractJsonNode("[\"2020-01-01T00:00:00\"]")));
+	}
+
+	@Test
+	public void testUnknownField() {
+		final Sort sort = parse("{\"sort\":[{\"missing\":{\"order\":\"desc\"}}]}")
+				.compile(indices, null, indexFieldStatsService);
+		Assert.assertEquals("elefana_json_field_nat(_source, 'missing') DESC", sort.toSqlClause());
+	}
+
+	private Sort parse(String query) {
+		final Sort sort = new Sort();
+		sort.parse(JsonUtils.extractJsonNode(query));
+		return sort;
+	}
+}
@@ -18,6 +18,7 @@ package com.elefana.table;
 import com.elefana.api.indices.IndexGenerationMode;
 import com.elefana.api.indices.IndexGenerationSettings;
 import com.elefana.api.indices.IndexStorageSettings;
+import com.elefana.indices.fieldstats.IndexFieldStatsService;
 import com.elefana.node.NodeSettingsService;
 import com.elefana.util.IndexUtils;
 import org.junit.After;
@@ -125,6 +126,66 @@ public class TableIndexCreatorTest implements TableIndexCreator.IndexCreatedList
 		verifyNoMoreInteractions(preparedStatement);
 	}
 
+	@Test
+	public void testTypedBrinIndex() throws Exception {
+		final String tableName = "tableName";
+		final String fieldName = "fieldName";
+
+		final IndexFieldStatsService indexFieldStatsService = mock(IndexFieldStatsService.class);
+		when(indexFieldStatsService.hasField(tableName, fieldName)).thenReturn(true);
+		when(indexFieldStatsService.isLongField(tableName, fieldName)).thenReturn(true);
+		tableIndexCreator.setIndexFieldStatsService(indexFieldStatsService);
+
+		final IndexStorageSettings storageSettings = new IndexStorageSettings();
+		storageSettings.setIndexGenerationSettings(new IndexGenerationSettings());
+		storageSettings.getIndexGenerationSettings().setMode(IndexGenerationMode.TYPED);
+		storageSettings.getIndexGenerationSettings().getPresetBrinIndexFields().add(fieldName);
+
+		tableIndexCreator.createPsqlTimestampIndex(connection, tableName, storageSettings);
+		tableIndexCreator.createPsqlFieldIndex(connection, tableName, fieldName, storageSettings);
+
+		verify(connection, times(1)).prepareStatement("CREATE INDEX IF NOT EXISTS " +
+				TableIndexCreator.getPsqlIndexName(IndexUtils.BRIN_INDEX_PREFIX, tableName, "_timestamp") +
+				" ON tableName USING BRIN (_timestamp);");
+		verify(connection, times(1)).prepareStatement("CREATE INDEX IF NOT EXISTS " +
+				TableIndexCreator.getPsqlIndexName(IndexUtils.BRIN_INDEX_PREFIX, tableName, fieldName) +
+				" ON tableName USING BRIN ((elefana_json_numeric(_source, 'fieldName')));");
+		verify(preparedStatement, times(2)).execute();
+	}
+
+	@Test
+	public void testTypedBtreeIndex() throws Exception {
+		final String tableName = "tableName";
+		final String dateFieldName = "dateField";
+		final String booleanFieldName = "booleanField";
+		final String textFieldName = "textField";
+
+		final IndexFieldStatsService indexFieldStatsService = mock(IndexFieldStatsService.class);
+		when(indexFieldStatsService.hasField(tableName, dateFieldName)).thenReturn(true);
+		when(indexFieldStatsService.isDateField(tableName, dateFieldName)).thenReturn(true);
+		when(indexFieldStatsService.hasField(tableName, booleanFieldName)).thenReturn(true);
+		when(indexFieldStatsService.isBooleanField(tableName, booleanFieldName)).thenReturn(true);
+		when(indexFieldStatsService.hasField(tableName, textFieldName)).thenReturn(true);
+		when(indexFieldStatsService.isStringField(tableName, textFieldName)).thenReturn(true);
+		tableIndexCreator.setIndexFieldStatsService(indexFieldStatsService);
+
+		final IndexStorageSettings storageSettings = new IndexStorageSettings();
+		storageSettings.setIndexGenerationSettings(new IndexGenerationSettings());
+		storageSettings.getIndexGenerationSettings().setMode(IndexGenerationMode.TYPED);
+
+		tableIndexCreator.createPsqlFieldIndex(connection, tableName, dateFieldName, storageSettings);
+		tableIndexCreator.createPsqlFieldIndex(connection, tableName, booleanFieldName, storageSettings);
+		tableIndexCreator.createPsqlFieldIndex(connection, tableName, textFieldName, storageSettings);
+
+		verify(connection, times(1)).prepareStatement("CREATE INDEX IF NOT EXISTS " +
+				TableIndexCreator.getPsqlIndexName(IndexUtils.BTREE_INDEX_PREFIX, tableName, dateFieldName) +
+				" ON tableName USING BTREE ((elefana_json_numeric(_source, 'dateField')));");
+		verify(connection, times(1)).prepareStatement("CREATE INDEX IF NOT EXISTS " +
+				TableIndexCreator.getPsqlIndexName(IndexUtils.BTREE_INDEX_PREFIX, tableName, booleanFieldName) +
+				" ON tableName USING BTREE ((elefana_json_boolean(_source, 'booleanField')));");
+		verify(preparedStatement, times(2)).execute();
+	}
+
 	@Override
 	public void onCreated() {
 		indexCreated.set(true);
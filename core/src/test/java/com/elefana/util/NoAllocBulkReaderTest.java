@@ -0,0 +1,119 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.util;
+
+import com.elefana.api.util.PooledStringBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NoAllocBulkReaderTest {
+
+	@Test
+	public void testRead() {
+		final NoAllocBulkReader reader = new NoAllocBulkReader();
+		final PooledStringBuilder body = PooledStringBuilder.allocate(
+				"{\"index\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"1\"}}\n" +
+				"{\"message\":\"hello\\\"}\",\"value\":1}\n" +
+				"{ \"index\" : { \"_index\" : \"test2\", \"_id\" : 2 } }\r\n" +
+				"\n" +
+				"{\"message\":\"world\"}");
+		reader.reset(body);
+
+		Assert.assertTrue(reader.nextAction());
+		Assert.assertEquals(NoAllocBulkReader.ACTION_INDEX, reader.getAction());
+		Assert.assertEquals("test", reader.getIndex());
+		Assert.assertEquals("doc", reader.getType());
+		Assert.assertEquals("1", reader.getId());
+		Assert.assertTrue(reader.nextSource());
+		Assert.assertEquals("{\"message\":\"hello\\\"}\",\"value\":1}", reader.getLine());
+
+		Assert.assertTrue(reader.nextAction());
+		Assert.assertEquals(NoAllocBulkReader.ACTION_INDEX, reader.getAction());
+		Assert.assertEquals("test2", reader.getIndex());
+		Assert.assertNull(reader.getType());
+		Assert.assertEquals("2", reader.getId());
+		Assert.assertTrue(reader.nextSource());
+		Assert.assertEquals("{\"message\":\"world\"}", reader.getLine());
+
+		Assert.assertFalse(reader.nextAction());
+		body.release();
+	}
+
+	@Test
+	public void testReadLineBreakInValue() {
+		final NoAllocBulkReader reader = new NoAllocBulkReader();
+		final PooledStringBuilder body = PooledStringBuilder.allocate(
+				"{\"index\":{\"_index\":\"test\"}}\n" +
+				"{\"message\":\"line1\nline2\r\n.\"}\n" +
+				"{\"delete\":{\"_index\":\"test\",\"_id\":\"1\"}}\n");
+		reader.reset(body);
+
+		Assert.assertTrue(reader.nextAction());
+		Assert.assertEquals(NoAllocBulkReader.ACTION_INDEX, reader.getAction());
+		Assert.assertTrue(reader.nextSource());
+		Assert.assertEquals("{\"message\":\"line1\nline2\r\n.\"}", reader.getLine());
+
+		Assert.assertTrue(reader.nextAction());
+		Assert.assertEquals(NoAllocBulkReader.ACTION_DELETE, reader.getAction());
+		Assert.assertEquals("1", reader.getId());
+		Assert.assertFalse(reader.nextAction());
+		body.release();
+	}
+
+	@Test
+	public void testReadTruncatedDocument() {
+		final NoAllocBulkReader reader = new NoAllocBulkReader();
+		final PooledStringBuilder body = PooledStringBuilder.allocate(
+				"{\"index\":{\"_index\":\"test\"}}\n" +
+				"{\n  \"message\": \"hello\"\n}\n" +
+				"{\"index\":{\"_index\":\"test\"}}\n" +
+				"{\"message\":\"wor");
+		reader.reset(body);
+
+		Assert.assertTrue(reader.nextAction());
+		Assert.assertTrue(reader.nextSource());
+		Assert.assertEquals("{\n  \"message\": \"hello\"\n}", reader.getLine());
+
+		Assert.assertTrue(reader.nextAction());
+		Assert.assertEquals(NoAllocBulkReader.ACTION_INDEX, reader.getAction());
+		Assert.assertFalse(reader.nextSource());
+		body.release();
+	}
+
+	@Test
+	public void testReadDelete() {
+		final NoAllocBulkReader reader = new NoAllocBulkReader();
+		final PooledStringBuilder body = PooledStringBuilder.allocate(
+				"{\"delete\":{\"_index\":\"test\",\"_type\":\"doc\",\"_id\":\"a\\\"b\"}}\n");
+		reader.reset(body);
+
+		Assert.assertTrue(reader.nextAction());
+		Assert.assertEquals(NoAllocBulkReader.ACTION_DELETE, reader.getAction());
+		Assert.assertEquals("a\"b", reader.getId());
+		Assert.assertFalse(reader.nextAction());
+		body.release();
+	}
+
+	@Test
+	public void testLineNumbers() {
+		final NoAllocBulkReader reader = new NoAllocBulkReader();
+		final PooledStringBuilder body = PooledStringBuilder.allocate(
+				"{\"index\":{\"_index\":\"test\"}}\n" +
+				"{\n  \"message\": \"hello\"\n}\n" +
+				"\n" +
+				"{\"foo\":{\"_index\":\"test\"}}\n");
+		reader.reset(body);
+
+		Assert.assertTrue(reader.nextAction());
+		Assert.assertEquals(1, reader.getLineNumber());
+		Assert.assertTrue(reader.nextSource());
+		Assert.assertEquals(2, reader.getLineNumber());
+
+		Assert.assertTrue(reader.nextAction());
+		Assert.assertEquals("foo", reader.getAction());
+		Assert.assertEquals(6, reader.getLineNumber());
+		Assert.assertFalse(reader.nextAction());
+		body.release();
+	}
+}
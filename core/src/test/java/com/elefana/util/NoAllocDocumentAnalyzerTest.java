@@ -0,0 +1,55 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NoAllocDocumentAnalyzerTest {
+
+	@Test
+	public void testAnalyze() {
+		final NoAllocDocumentAnalyzer analyzer = new NoAllocDocumentAnalyzer();
+		final char [] json = "{\"@timestamp\": 123456789, \"test\":\"123\",\"test2\":[0,3, 4, 5], \"test3\":{\"key\":\"value\"}}".toCharArray();
+		analyzer.analyze(json, json.length, "@timestamp");
+		Assert.assertEquals(123456789L, analyzer.getTimestamp());
+		Assert.assertFalse(analyzer.isEscapeRequired());
+	}
+
+	@Test
+	public void testAnalyzeEscapeAfterTimestamp() {
+		final NoAllocDocumentAnalyzer analyzer = new NoAllocDocumentAnalyzer();
+		final char [] json = "{\"@timestamp\": 123456789, \"test\":\"a \\\"quoted\\\" value\"}".toCharArray();
+		analyzer.analyze(json, json.length, "@timestamp");
+		Assert.assertEquals(123456789L, analyzer.getTimestamp());
+		Assert.assertTrue(analyzer.isEscapeRequired());
+	}
+
+	@Test
+	public void testAnalyzeWithoutTimestampPath() {
+		final NoAllocDocumentAnalyzer analyzer = new NoAllocDocumentAnalyzer();
+		final char [] json = "{\"test\":\"line1\nline2\"}".toCharArray();
+		analyzer.analyze(json, json.length, null);
+		Assert.assertEquals(System.currentTimeMillis(), analyzer.getTimestamp(), 1L);
+		Assert.assertTrue(analyzer.isEscapeRequired());
+
+		final char [] json2 = "{\"test\":\"line1\"}".toCharArray();
+		analyzer.analyze(json2, json2.length, null);
+		Assert.assertFalse(analyzer.isEscapeRequired());
+	}
+
+	@Test
+	public void testAnalyzeReusesBuffers() {
+		final NoAllocDocumentAnalyzer analyzer = new NoAllocDocumentAnalyzer();
+		final char [] json = "{\"test\":\"a\\\\b\",\"@timestamp\":1}".toCharArray();
+		analyzer.analyze(json, json.length, "@timestamp");
+		Assert.assertEquals(1L, analyzer.getTimestamp());
+		Assert.assertTrue(analyzer.isEscapeRequired());
+
+		final char [] json2 = "{\"@timestamp\":2}".toCharArray();
+		analyzer.analyze(json2, json2.length, "@timestamp");
+		Assert.assertEquals(2L, analyzer.getTimestamp());
+		Assert.assertFalse(analyzer.isEscapeRequired());
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2020 Viridian Software Ltd.
+ */
+package com.elefana.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SqlTemplateUtilsTest {
+
+	@Test
+	public void testInline() {
+		final List<Object> parameters = new ArrayList<Object>();
+		final String template = "_index = ANY(" + SqlTemplateUtils.bind(parameters, new String[] {"a", "b"}) + ") AND " +
+				"_source->>'message' = " + SqlTemplateUtils.bind(parameters, "it's") + " AND " +
+				"(_source->>'value')::numeric > " + SqlTemplateUtils.bindNumeric(parameters, "1.50") + " AND " +
+				"_source ?? " + SqlTemplateUtils.bind(parameters, "field");
+
+		Assert.assertEquals(4, parameters.size());
+		Assert.assertEquals(new BigDecimal("1.50"), parameters.get(2));
+		Assert.assertEquals("_index = ANY(ARRAY['a','b']::text[]) AND _source->>'message' = 'it''s' AND " +
+				"(_source->>'value')::numeric > 1.50 AND _source ? 'field'", SqlTemplateUtils.inline(template, parameters));
+	}
+
+	@Test
+	public void testBindNumericFallback() {
+		final List<Object> parameters = new ArrayList<Object>();
+		Assert.assertEquals("?::numeric", SqlTemplateUtils.bindNumeric(parameters, "now"));
+		Assert.assertEquals("now", parameters.get(0));
+	}
+
+	@Test
+	public void testEscape() {
+		Assert.assertEquals("_source ?? 'field' AND _source->>'message' = 'why?'",
+				SqlTemplateUtils.escape("_source ? 'field' AND _source->>'message' = 'why?'"));
+		final String escaped = SqlTemplateUtils.escape("_source ? 'a?'");
+		Assert.assertEquals("_source ? 'a?'", SqlTemplateUtils.inline(escaped, new ArrayList<Object>()));
+	}
+
+	@Test
+	public void testQuoteLiteral() {
+		Assert.assertEquals("'message'", SqlTemplateUtils.quoteLiteral("message"));
+		Assert.assertEquals("'it''s'", SqlTemplateUtils.quoteLiteral("it's"));
+		Assert.assertEquals("_source->>'a'' OR ''1''=''1' = 'b'", SqlTemplateUtils.inline(
+				"_source->>" + SqlTemplateUtils.quoteLiteral("a' OR '1'='1") + " = ?", Arrays.<Object>asList("b")));
+	}
+}
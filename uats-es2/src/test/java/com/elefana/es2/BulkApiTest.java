@@ -290,7 +290,8 @@ public class BulkApiTest {
 		.then()
 			.statusCode(200)
 			.body("errors", equalTo(true))
-			.body("items.size()", equalTo(totalDocuments - 1));
+			.body("items.size()", equalTo(totalDocuments))
+			.body("items[" + (totalDocuments - 1) + "].create.status", equalTo(400));
 	}
 	
 	@Test
@@ -337,6 +338,200 @@ public class BulkApiTest {
 		Assert.fail("Expected " + totalDocuments + " documents, found " + result);
 	}
 
+	@Test
+	public void testBulkCreateUpdateDelete() {
+		final String index = "logs-" + UUID.randomUUID().toString();
+		final String type = "test";
+
+		TestUtils.disableMappingAndStatsForIndex(index);
+
+		given()
+			.request()
+			.body("{\"create\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"1\" }}\n" +
+					"{ \"field\" : \"value\", \"count\" : 1 }\n" +
+					"{\"create\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"2\" }}\n" +
+					"{ \"field\" : \"value\", \"count\" : 1 }\n")
+		.when().
+			post("/_bulk")
+		.then()
+			.statusCode(200)
+			.body("errors", equalTo(false))
+			.body("items.size()", equalTo(2))
+			.body("items[0].create.status", equalTo(201));
+
+		given()
+			.request()
+			.body("{\"create\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"1\" }}\n" +
+					"{ \"field\" : \"other\" }\n")
+		.when().
+			post("/_bulk")
+		.then()
+			.statusCode(200)
+			.body("errors", equalTo(true))
+			.body("items[0].create.status", equalTo(409));
+
+		given()
+			.request()
+			.body("{\"update\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"1\" }}\n" +
+					"{ \"doc\" : { \"count\" : 2 } }\n" +
+					"{\"delete\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"2\" }}\n" +
+					"{\"delete\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"3\" }}\n")
+		.when().
+			post("/_bulk")
+		.then()
+			.statusCode(200)
+			.body("errors", equalTo(false))
+			.body("items.size()", equalTo(3))
+			.body("items[0].update.status", equalTo(200))
+			.body("items[1].delete.status", equalTo(200))
+			.body("items[2].delete.status", equalTo(404));
+
+		given().when().get("/" + index + "/" + type + "/1")
+		.then()
+			.statusCode(200)
+			.body("found", equalTo(true))
+			.body("_source.field", equalTo("value"))
+			.body("_source.count", equalTo(2));
+
+		given().when().get("/" + index + "/" + type + "/2")
+		.then()
+			.statusCode(404)
+			.body("found", equalTo(false));
+	}
+
+	@Test
+	public void testBulkUpdateMissingDocument() {
+		final String index = "logs-" + UUID.randomUUID().toString();
+		final String type = "test";
+
+		TestUtils.disableMappingAndStatsForIndex(index);
+
+		given()
+			.request()
+			.body("{\"update\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"1\" }}\n" +
+					"{ \"doc\" : { \"count\" : 1 } }\n" +
+					"{\"update\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"2\" }}\n" +
+					"{ \"doc\" : { \"count\" : 2 }, \"doc_as_upsert\" : true }\n" +
+					"{\"update\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"3\" }}\n" +
+					"{ \"doc\" : { \"count\" : 4 }, \"upsert\" : { \"count\" : 3 } }\n")
+		.when().
+			post("/_bulk")
+		.then()
+			.statusCode(200)
+			.body("errors", equalTo(true))
+			.body("items.size()", equalTo(3))
+			.body("items[0].update.status", equalTo(404))
+			.body("items[0].update.error.type", equalTo("document_missing_exception"))
+			.body("items[1].update.status", equalTo(200))
+			.body("items[2].update.status", equalTo(200));
+
+		given().when().get("/" + index + "/" + type + "/1")
+		.then()
+			.statusCode(404)
+			.body("found", equalTo(false));
+
+		given().when().get("/" + index + "/" + type + "/2")
+		.then()
+			.statusCode(200)
+			.body("_source.count", equalTo(2));
+
+		given().when().get("/" + index + "/" + type + "/3")
+		.then()
+			.statusCode(200)
+			.body("_source.count", equalTo(3));
+	}
+
+	@Test
+	public void testBulkActionsAppliedInRequestOrder() {
+		final String index = "logs-" + UUID.randomUUID().toString();
+		final String type = "test";
+
+		TestUtils.disableMappingAndStatsForIndex(index);
+
+		given()
+			.request()
+			.body("{\"index\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"1\" }}\n" +
+					"{ \"field\" : \"value\", \"count\" : 1 }\n" +
+					"{\"index\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"2\" }}\n" +
+					"{ \"field\" : \"value\", \"count\" : 1 }\n" +
+					"{\"delete\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"1\" }}\n" +
+					"{\"update\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"2\" }}\n" +
+					"{ \"doc\" : { \"count\" : 2 } }\n" +
+					"{\"delete\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"3\" }}\n" +
+					"{\"index\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"3\" }}\n" +
+					"{ \"field\" : \"value\", \"count\" : 3 }\n")
+		.when().
+			post("/_bulk")
+		.then()
+			.statusCode(200)
+			.body("errors", equalTo(false))
+			.body("items.size()", equalTo(6))
+			.body("items[2].delete.status", equalTo(200))
+			.body("items[3].update.status", equalTo(200))
+			.body("items[4].delete.status", equalTo(404))
+			.body("items[5].create.status", equalTo(201));
+
+		given().when().get("/" + index + "/" + type + "/1")
+		.then()
+			.statusCode(404)
+			.body("found", equalTo(false));
+
+		given().when().get("/" + index + "/" + type + "/2")
+		.then()
+			.statusCode(200)
+			.body("_source.field", equalTo("value"))
+			.body("_source.count", equalTo(2));
+	}
+
+	@Test
+	public void testBulkItemsInRequestOrder() {
+		final String index = "logs-" + UUID.randomUUID().toString();
+		final String type = "test";
+
+		TestUtils.disableMappingAndStatsForIndex(index);
+
+		given()
+			.request()
+			.body("{\"delete\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"1\" }}\n" +
+					"{\"index\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"2\" }}\n" +
+					"{ \"field\" : \"value\" }\n" +
+					"{\"update\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"3\" }}\n" +
+					"{ \"field\" : \"value\" }\n" +
+					"{\"delete\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\" }}\n")
+		.when().
+			post("/_bulk")
+		.then()
+			.statusCode(200)
+			.body("errors", equalTo(true))
+			.body("items.size()", equalTo(4))
+			.body("items[0].delete._id", equalTo("1"))
+			.body("items[0].delete.status", equalTo(404))
+			.body("items[1].create._id", equalTo("2"))
+			.body("items[1].create.status", equalTo(201))
+			.body("items[2].update.status", equalTo(400))
+			.body("items[2].update.error.reason", equalTo("Only partial document updates are supported"))
+			.body("items[3].delete.status", equalTo(400));
+	}
+
+	@Test
+	public void testBulkMalformedActionLine() {
+		final String index = "logs-" + UUID.randomUUID().toString();
+		final String type = "test";
+
+		TestUtils.disableMappingAndStatsForIndex(index);
+
+		given()
+			.request()
+			.body("{\"index\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"1\" }}\n" +
+					"{ \"field\" : \"value\" }\n" +
+					"{\"upsert\": { \"_index\" : \"" + index + "\", \"_type\" : \"" + type + "\", \"_id\" : \"2\" }}\n" +
+					"{ \"field\" : \"value\" }\n")
+		.when().
+			post("/_bulk")
+		.then()
+			.statusCode(400);
+	}
+
 	private String generateBulkRequest(String index, String type, int totalDocuments) {
 		StringBuilder result = new StringBuilder();
 
@@ -98,6 +98,98 @@ public class SearchApiTest extends AbstractQueryTest {
 		assertResponseAscending(response);
 	}
 	
+	@Test
+	public void testSearchAfter() {
+		ValidatableResponse response = given()
+				.request()
+				.body("{\"size\": 4, \"sort\": [{\"value\": \"asc\"}]}")
+			.when()
+				.post("/" + RANGE_INDEX + "/" + TYPE + "/_search")
+			.then()
+				.log().all()
+				.statusCode(200)
+				.body("hits.hits.size()", equalTo(4))
+				.body("hits.hits[3].sort[0]", equalTo(3));
+
+		response = given()
+				.request()
+				.body("{\"size\": 4, \"sort\": [{\"value\": \"asc\"}], \"search_after\": [3]}")
+			.when()
+				.post("/" + RANGE_INDEX + "/" + TYPE + "/_search")
+			.then()
+				.log().all()
+				.statusCode(200)
+				.body("hits.hits.size()", equalTo(4))
+				.body("hits.hits[0]._source.value", equalTo(4))
+				.body("hits.hits[3]._source.value", equalTo(7));
+
+		given()
+			.request()
+			.body("{\"size\": 4, \"sort\": [{\"value\": \"asc\"}], \"search_after\": [7]}")
+		.when()
+			.post("/" + RANGE_INDEX + "/" + TYPE + "/_search")
+		.then()
+			.log().all()
+			.statusCode(200)
+			.body("hits.hits.size()", equalTo(2))
+			.body("hits.hits[0]._source.value", equalTo(8));
+	}
+
+	@Test
+	public void testScroll() {
+		final List<Integer> values = new ArrayList<Integer>();
+
+		ValidatableResponse response = given()
+				.request()
+				.body("{\"size\": 4, \"sort\": [{\"value\": \"asc\"}]}")
+			.when()
+				.post("/" + RANGE_INDEX + "/" + TYPE + "/_search?scroll=1m")
+			.then()
+				.log().all()
+				.statusCode(200)
+				.body("hits.total", equalTo(10))
+				.body("hits.hits.size()", equalTo(4));
+		String scrollId = response.extract().path("_scroll_id");
+		Assert.assertNotNull(scrollId);
+		values.addAll(response.extract().path("hits.hits._source.value"));
+
+		for(int i = 0; i < 3; i++) {
+			response = given()
+					.request()
+					.body("{\"scroll\": \"1m\", \"scroll_id\": \"" + scrollId + "\"}")
+				.when()
+					.post("/_search/scroll")
+				.then()
+					.log().all()
+					.statusCode(200)
+					.body("_scroll_id", equalTo(scrollId));
+			values.addAll(response.extract().path("hits.hits._source.value"));
+		}
+
+		Assert.assertEquals(10, values.size());
+		for(int i = 0; i < values.size(); i++) {
+			Assert.assertEquals(i, values.get(i).intValue());
+		}
+
+		given()
+			.request()
+			.body("{\"scroll_id\": [\"" + scrollId + "\"]}")
+		.when()
+			.delete("/_search/scroll")
+		.then()
+			.log().all()
+			.statusCode(200)
+			.body("num_freed", equalTo(1));
+
+		given()
+			.request()
+			.body("{\"scroll\": \"1m\", \"scroll_id\": \"" + scrollId + "\"}")
+		.when()
+			.post("/_search/scroll")
+		.then()
+			.statusCode(404);
+	}
+
 	private void assertResponseDescending(ValidatableResponse response) {
 		for(int i = 1; i < 10; i++) {
 			int previousValue = response.extract().path("hits.hits[" + (i - 1) + "]._source.value");
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright 2020 Viridian Software Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.elefana.es2.search.agg;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
+
+import java.util.UUID;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.elefana.ElefanaApplication;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = { ElefanaApplication.class })
+@TestPropertySource(locations = "classpath:es2.properties")
+public class TermsAggregationTest extends AbstractAggregationTest {
+
+	@Test
+	public void testTermsAggregation() {
+		given()
+			.request()
+			.body("{\"query\":{\"match_all\":{}}, \"size\":" + DOCUMENT_QUANTITY
+					+ ", \"aggs\" : {\"aggs_result\" : { \"terms\" : { \"field\" : \"value\", \"size\": 5 }}}}")
+		.when()
+			.post("/" + INDEX_A + "/_search")
+		.then()
+			.statusCode(200)
+			.body("hits.total", equalTo(DOCUMENT_QUANTITY))
+			.body("aggregations.aggs_result.buckets.size()", equalTo(5))
+			.body("aggregations.aggs_result.buckets[0].key", instanceOf(Integer.class))
+			.body("aggregations.aggs_result.buckets[0].doc_count", greaterThanOrEqualTo(1));
+	}
+
+	@Test
+	public void testMultiIndexTermsAggregationWithSubAggregation() {
+		given()
+			.request()
+			.body("{\"query\":{\"match_all\":{}}, \"size\":" + (DOCUMENT_QUANTITY * 2)
+					+ ", \"aggs\" : {\"aggs_result\" : { \"terms\" : { \"field\" : \"value\", \"size\": 5 }, "
+					+ "\"aggregations\": {\"subaggs_result\" : { \"value_count\" : { \"field\" : \"value\" }}}}}}")
+		.when()
+			.post("/" + INDEX_A + "," + INDEX_B + "/_search")
+		.then()
+			.statusCode(200)
+			.body("hits.total", equalTo(DOCUMENT_QUANTITY * 2))
+			.body("aggregations.aggs_result.buckets.size()", equalTo(5))
+			.body("aggregations.aggs_result.buckets[0].doc_count", greaterThanOrEqualTo(2))
+			.body("aggregations.aggs_result.buckets[0].subaggs_result.value", greaterThanOrEqualTo(2));
+	}
+
+	@Test
+	public void testTermsAggregationWithNoResults() {
+		final String index = UUID.randomUUID().toString();
+
+		given()
+			.request()
+			.body("{\"query\":{\"match_all\":{}}, \"size\":" + DOCUMENT_QUANTITY
+					+ ", \"aggs\" : {\"aggs_result\" : { \"terms\" : { \"field\" : \"value\" }}}}")
+		.when()
+			.post("/" + index + "/_search")
+		.then()
+			.statusCode(200)
+			.body("aggregations.aggs_result.buckets.size()", equalTo(0));
+	}
+}
@@ -83,4 +83,42 @@ public class RangeQueryTest extends AbstractQueryTest {
 		Assert.assertEquals(7, (int) returnedValues.get(5));
 		returnedValues.clear();
 	}
+
+	@Test
+	public void testTypedRangeQueryIncludesStringNumbers() {
+		final String index = UUID.randomUUID().toString();
+		given()
+			.request()
+			.body("{\"template\": \"" + index + "\",\"storage\": {\"index_generation\": {\"mode\": \"TYPED\"}}}")
+		.when()
+			.put("/_template/" + index)
+		.then()
+			.statusCode(200);
+
+		for(int i = 1; i <= 5; i++) {
+			given().request().body("{\"value\": " + i + "}").when().post("/" + index + "/" + TYPE + "/").then().statusCode(201);
+		}
+		given().request().body("{\"value\": \"6\"}").when().post("/" + index + "/" + TYPE + "/").then().statusCode(201);
+
+		final long startTime = System.currentTimeMillis();
+		int lastTotal = 0;
+		while(System.currentTimeMillis() - startTime < INIT_TIMEOUT) {
+			lastTotal = given()
+				.request()
+				.body("{\"query\": {\"range\" : {\"value\" : {\"gte\" : 5}}}}")
+			.when()
+				.post("/" + index + "/_search")
+			.then()
+				.statusCode(200)
+				.log().all()
+				.extract().path("hits.total");
+			if(lastTotal == 2) {
+				return;
+			}
+			try {
+				Thread.sleep(500);
+			} catch (Exception e) {}
+		}
+		Assert.fail("Expected 2 hits but received " + lastTotal);
+	}
 }